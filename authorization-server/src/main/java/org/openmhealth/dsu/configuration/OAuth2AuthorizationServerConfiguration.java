@@ -16,6 +16,7 @@
 
 package org.openmhealth.dsu.configuration;
 
+import org.openmhealth.dsu.security.RetryAfterWebResponseExceptionTranslator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -25,6 +26,7 @@ import org.springframework.security.oauth2.config.annotation.web.configuration.E
 import org.springframework.security.oauth2.config.annotation.web.configurers.AuthorizationServerEndpointsConfigurer;
 import org.springframework.security.oauth2.provider.ClientDetailsService;
 import org.springframework.security.oauth2.provider.token.TokenStore;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
 
 
 /**
@@ -45,12 +47,22 @@ public class OAuth2AuthorizationServerConfiguration extends AuthorizationServerC
     @Autowired
     private AuthenticationManager authenticationManager;
 
+    // only present if access tokens are signed
+    @Autowired(required = false)
+    private JwtAccessTokenConverter accessTokenConverter;
+
     @Override
     public void configure(AuthorizationServerEndpointsConfigurer endpoints) throws Exception {
 
         endpoints
                 .tokenStore(tokenStore)
-                .authenticationManager(authenticationManager);
+                .authenticationManager(authenticationManager)
+                // password grants are rejected with a 429 when passwords can't be verified in time
+                .exceptionTranslator(new RetryAfterWebResponseExceptionTranslator());
+
+        if (accessTokenConverter != null) {
+            endpoints.accessTokenConverter(accessTokenConverter);
+        }
     }
 
     @Override
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.configuration;
+
+import org.openmhealth.dsu.security.BoundedPasswordEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+
+/**
+ * A configuration that creates the password encoder used to hash and verify the passwords of user accounts.
+ *
+ * @author Emerson Farrugia
+ */
+@Configuration
+public class PasswordHashingConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(PasswordHashingConfiguration.class);
+
+    @Autowired
+    private PasswordHashingProperties properties;
+
+    @Bean
+    public BoundedPasswordEncoder passwordEncoder() {
+
+        int strength;
+
+        if (properties.getStrength() != null) {
+            strength = properties.getStrength();
+        }
+        else {
+            strength = BoundedPasswordEncoder.calibrateStrength(properties.getMinimumStrength(),
+                    properties.getTargetLatencyInMillis());
+
+            log.info("The password hashing work factor has been calibrated to {} for a target latency of {} ms.",
+                    strength, properties.getTargetLatencyInMillis());
+        }
+
+        return new BoundedPasswordEncoder(strength, properties.getThreadCount(), properties.getMaximumQueueSize(),
+                properties.getMaximumWaitInMillis());
+    }
+}
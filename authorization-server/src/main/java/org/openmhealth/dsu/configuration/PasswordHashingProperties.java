@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control how passwords are hashed and verified.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "passwordHashing")
+public class PasswordHashingProperties {
+
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private int maximumQueueSize = 64;
+    private long maximumWaitInMillis = 2000;
+    private Integer strength;
+    private int minimumStrength = 10;
+    private long targetLatencyInMillis = 100;
+
+    /**
+     * @return the number of threads that hash and verify passwords, which bounds the CPU time spent on BCrypt
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return the number of passwords that can wait for a thread, beyond which requests are rejected outright
+     */
+    public int getMaximumQueueSize() {
+        return maximumQueueSize;
+    }
+
+    public void setMaximumQueueSize(int maximumQueueSize) {
+        this.maximumQueueSize = maximumQueueSize;
+    }
+
+    /**
+     * @return the number of milliseconds a request waits for its password to be hashed or verified before it is
+     * rejected
+     */
+    public long getMaximumWaitInMillis() {
+        return maximumWaitInMillis;
+    }
+
+    public void setMaximumWaitInMillis(long maximumWaitInMillis) {
+        this.maximumWaitInMillis = maximumWaitInMillis;
+    }
+
+    /**
+     * @return the BCrypt work factor of new password hashes, or null to calibrate it to the target latency on startup
+     */
+    public Integer getStrength() {
+        return strength;
+    }
+
+    public void setStrength(Integer strength) {
+        this.strength = strength;
+    }
+
+    /**
+     * @return the lowest work factor that calibration may choose
+     */
+    public int getMinimumStrength() {
+        return minimumStrength;
+    }
+
+    public void setMinimumStrength(int minimumStrength) {
+        this.minimumStrength = minimumStrength;
+    }
+
+    /**
+     * @return the number of milliseconds that hashing a password should take on this server, used for calibration
+     */
+    public long getTargetLatencyInMillis() {
+        return targetLatencyInMillis;
+    }
+
+    public void setTargetLatencyInMillis(long targetLatencyInMillis) {
+        this.targetLatencyInMillis = targetLatencyInMillis;
+    }
+}
@@ -16,6 +16,9 @@
 
 package org.openmhealth.dsu.configuration;
 
+import org.openmhealth.dsu.security.BoundedPasswordEncoder;
+import org.openmhealth.dsu.security.RehashingAuthenticationProvider;
+import org.openmhealth.dsu.service.EndUserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -25,7 +28,6 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.core.userdetails.UserDetailsService;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
 
 /**
@@ -41,11 +43,21 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
     @Autowired
     private UserDetailsService userDetailsService;
 
+    @Autowired
+    private EndUserService endUserService;
+
+    @Autowired
+    private BoundedPasswordEncoder passwordEncoder;
+
     @Override
     public void configure(AuthenticationManagerBuilder auth) throws Exception {
 
-        auth.userDetailsService(userDetailsService)
-                .passwordEncoder(new BCryptPasswordEncoder());
+        // passwords are verified on a bounded pool of threads, and outdated hashes are upgraded on login
+        RehashingAuthenticationProvider authenticationProvider =
+                new RehashingAuthenticationProvider(passwordEncoder, endUserService);
+        authenticationProvider.setUserDetailsService(userDetailsService);
+
+        auth.authenticationProvider(authenticationProvider);
     }
 
     @Bean(name = "authenticationManager")
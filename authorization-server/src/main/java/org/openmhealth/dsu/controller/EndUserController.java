@@ -18,11 +18,14 @@ package org.openmhealth.dsu.controller;
 
 
 import org.openmhealth.dsu.domain.EndUserRegistrationData;
+import org.openmhealth.dsu.security.PasswordHashingUnavailableException;
 import org.openmhealth.dsu.service.EndUserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 
@@ -80,6 +83,16 @@ public class EndUserController {
         return new ResponseEntity<>(CREATED);
     }
 
+    // registration hashes the password on the same bounded pool as logins
+    @ExceptionHandler(PasswordHashingUnavailableException.class)
+    public ResponseEntity<?> handlePasswordHashingUnavailableException(PasswordHashingUnavailableException e) {
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterInSeconds()));
+
+        return new ResponseEntity<>(headers, TOO_MANY_REQUESTS);
+    }
+
     protected List<String> asErrorMessageList(Set<ConstraintViolation<EndUserRegistrationData>> constraintViolations) {
 
         return constraintViolations.stream().map(ConstraintViolation::getMessage).collect(Collectors.toList());
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.security;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+
+/**
+ * A BCrypt password encoder that hashes and verifies passwords on a dedicated, bounded pool of threads instead of on
+ * the request threads of the server. A burst of logins queues up behind the pool, and once the queue is full, or a
+ * password has waited too long, the request fails fast with a {@link PasswordHashingUnavailableException} instead of
+ * tying up a request thread.
+ * <p>
+ * Hashes with a lower work factor than the current one can be upgraded after a successful login using
+ * {@link #rehashInBackground(CharSequence, Consumer)}, which only uses spare capacity of the pool.
+ *
+ * @author Emerson Farrugia
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder, PublicMetrics, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(BoundedPasswordEncoder.class);
+
+    private static final Pattern BCRYPT_PATTERN = Pattern.compile("\\A\\$2a?\\$(\\d\\d)\\$[./0-9A-Za-z]{53}");
+    private static final int MAXIMUM_STRENGTH = 31;
+    private static final int CALIBRATION_WARM_UP_COUNT = 20;
+
+    private final int strength;
+    private final BCryptPasswordEncoder delegate;
+    private final ThreadPoolExecutor executor;
+    private final long maximumWaitInMillis;
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder rehashedCount = new LongAdder();
+    private volatile long latencyInNanos;
+
+    /**
+     * @param strength the BCrypt work factor of new hashes
+     * @param threadCount the number of threads that hash and verify passwords
+     * @param maximumQueueSize the number of passwords that can wait for a thread
+     * @param maximumWaitInMillis the longest time a caller waits for its password to be hashed or verified
+     */
+    public BoundedPasswordEncoder(int strength, int threadCount, int maximumQueueSize, long maximumWaitInMillis) {
+
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("The thread count must be positive.");
+        }
+
+        if (maximumQueueSize <= 0) {
+            throw new IllegalArgumentException("The maximum queue size must be positive.");
+        }
+
+        if (maximumWaitInMillis <= 0) {
+            throw new IllegalArgumentException("The maximum wait must be positive.");
+        }
+
+        this.strength = strength;
+        this.delegate = new BCryptPasswordEncoder(strength);
+        this.maximumWaitInMillis = maximumWaitInMillis;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 0, MILLISECONDS,
+                new ArrayBlockingQueue<>(maximumQueueSize), runnable -> {
+
+            Thread thread = new Thread(runnable, "password-hashing-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Finds the highest work factor at which hashing a password on this machine takes no longer than the target
+     * latency. Each increment of the work factor doubles the time a hash takes, so a single hash at the minimum work
+     * factor is enough to extrapolate from.
+     *
+     * @param minimumStrength the lowest work factor to return
+     * @param targetLatencyInMillis the number of milliseconds a hash should take
+     * @return the work factor
+     */
+    public static int calibrateStrength(int minimumStrength, long targetLatencyInMillis) {
+
+        if (minimumStrength < 4 || minimumStrength > MAXIMUM_STRENGTH) {
+            throw new IllegalArgumentException("The minimum strength must be between 4 and 31.");
+        }
+
+        if (targetLatencyInMillis <= 0) {
+            throw new IllegalArgumentException("The target latency must be positive.");
+        }
+
+        // warm up so that the measured hash is compiled
+        BCryptPasswordEncoder warmUpEncoder = new BCryptPasswordEncoder(4);
+
+        for (int i = 0; i < CALIBRATION_WARM_UP_COUNT; i++) {
+            warmUpEncoder.encode("calibration");
+        }
+
+        long startTime = System.nanoTime();
+        new BCryptPasswordEncoder(minimumStrength).encode("calibration");
+        long latencyInNanos = Math.max(1, System.nanoTime() - startTime);
+
+        double headroom = (double) MILLISECONDS.toNanos(targetLatencyInMillis) / latencyInNanos;
+        int strength = minimumStrength + (int) Math.floor(Math.log(headroom) / Math.log(2));
+
+        return Math.max(minimumStrength, Math.min(strength, MAXIMUM_STRENGTH));
+    }
+
+    /**
+     * @return the BCrypt work factor of new hashes
+     */
+    public int getStrength() {
+        return strength;
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+
+        requireNonNull(rawPassword);
+
+        return execute(() -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+
+        requireNonNull(rawPassword);
+
+        return execute(() -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    /**
+     * @param encodedPassword a password hash
+     * @return true if the hash is a BCrypt hash with a lower work factor than new hashes get
+     */
+    public boolean isUpgradeNeeded(String encodedPassword) {
+
+        if (encodedPassword == null) {
+            return false;
+        }
+
+        Matcher matcher = BCRYPT_PATTERN.matcher(encodedPassword);
+
+        return matcher.find() && Integer.parseInt(matcher.group(1)) < strength;
+    }
+
+    /**
+     * Hashes a password with the current work factor without waiting for the hash. If the pool has no capacity to
+     * spare, the password isn't hashed, and the hash can be upgraded the next time the password is presented.
+     *
+     * @param rawPassword the password
+     * @param hashConsumer the consumer of the new hash, called on a password hashing thread
+     */
+    public void rehashInBackground(CharSequence rawPassword, Consumer<String> hashConsumer) {
+
+        requireNonNull(rawPassword);
+        requireNonNull(hashConsumer);
+
+        // an upgrade would otherwise take a place in the queue from a login, so it's only queued if a thread is idle;
+        // the check races with logins, but at worst delays one of them by a single hash
+        if (!executor.getQueue().isEmpty() || executor.getActiveCount() >= executor.getMaximumPoolSize()) {
+            log.debug("A password hash upgrade has been skipped, since the password hashing pool is busy.");
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    hashConsumer.accept(delegate.encode(rawPassword));
+                    rehashedCount.increment();
+                }
+                catch (RuntimeException e) {
+                    log.warn("A password hash couldn't be upgraded.", e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            log.debug("A password hash upgrade has been skipped, since the password hashing queue is full.");
+        }
+    }
+
+    private <T> T execute(Callable<T> operation) {
+
+        Future<T> future;
+
+        try {
+            future = executor.submit(() -> {
+                long startTime = System.nanoTime();
+
+                try {
+                    return operation.call();
+                }
+                finally {
+                    // an exponentially weighted moving average, used to estimate how long the queue takes to drain;
+                    // concurrent updates may lose a sample, which an estimate can afford
+                    long latency = System.nanoTime() - startTime;
+                    latencyInNanos = latencyInNanos == 0 ? latency : (latencyInNanos * 7 + latency) / 8;
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            throw newUnavailableException();
+        }
+
+        try {
+            return future.get(maximumWaitInMillis, MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            // a password that is still queued is dropped, one that is being hashed is left to finish
+            future.cancel(false);
+            throw newUnavailableException();
+        }
+        catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw newUnavailableException();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private PasswordHashingUnavailableException newUnavailableException() {
+
+        rejectedCount.increment();
+
+        return new PasswordHashingUnavailableException(getRetryAfterInSeconds());
+    }
+
+    /**
+     * Estimates how long the pool needs to work through its queue at the recent hashing latency.
+     */
+    int getRetryAfterInSeconds() {
+
+        long backlog = executor.getQueue().size() + executor.getActiveCount();
+        long drainTimeInNanos = latencyInNanos * backlog / executor.getMaximumPoolSize();
+
+        return (int) Math.max(1, SECONDS.convert(drainTimeInNanos + SECONDS.toNanos(1) - 1, NANOSECONDS));
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        metrics.add(new Metric<>("passwordHashing.strength", strength));
+        metrics.add(new Metric<>("passwordHashing.queue.depth", executor.getQueue().size()));
+        metrics.add(new Metric<>("passwordHashing.active", executor.getActiveCount()));
+        metrics.add(new Metric<>("passwordHashing.latency", NANOSECONDS.toMillis(latencyInNanos)));
+        metrics.add(new Metric<>("passwordHashing.rejected", rejectedCount.sum()));
+        metrics.add(new Metric<>("passwordHashing.rehashed", rehashedCount.sum()));
+
+        return metrics;
+    }
+
+    @Override
+    public void destroy() {
+
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.security;
+
+import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
+
+
+/**
+ * An exception thrown when a password can't be hashed or verified because every password hashing thread is busy.
+ * It is translated to a 429 response with a Retry-After header.
+ *
+ * @author Emerson Farrugia
+ */
+public class PasswordHashingUnavailableException extends OAuth2Exception {
+
+    private final int retryAfterInSeconds;
+
+    public PasswordHashingUnavailableException(int retryAfterInSeconds) {
+
+        super("Too many passwords are being verified, retry later.");
+
+        this.retryAfterInSeconds = retryAfterInSeconds;
+    }
+
+    /**
+     * @return the suggested number of seconds to wait before retrying
+     */
+    public int getRetryAfterInSeconds() {
+        return retryAfterInSeconds;
+    }
+
+    @Override
+    public String getOAuth2ErrorCode() {
+        return "temporarily_unavailable";
+    }
+
+    @Override
+    public int getHttpErrorCode() {
+        return 429;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.security;
+
+import org.openmhealth.dsu.service.EndUserService;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * An authentication provider that verifies passwords with a {@link BoundedPasswordEncoder} and, after a successful
+ * login, upgrades the stored hash of the password if it was hashed with a lower work factor than new hashes get.
+ *
+ * @author Emerson Farrugia
+ */
+public class RehashingAuthenticationProvider extends DaoAuthenticationProvider {
+
+    private final BoundedPasswordEncoder passwordEncoder;
+    private final EndUserService endUserService;
+
+    public RehashingAuthenticationProvider(BoundedPasswordEncoder passwordEncoder, EndUserService endUserService) {
+
+        requireNonNull(passwordEncoder);
+        requireNonNull(endUserService);
+
+        this.passwordEncoder = passwordEncoder;
+        this.endUserService = endUserService;
+
+        setPasswordEncoder(passwordEncoder);
+    }
+
+    @Override
+    protected void additionalAuthenticationChecks(UserDetails userDetails,
+            UsernamePasswordAuthenticationToken authentication) throws AuthenticationException {
+
+        super.additionalAuthenticationChecks(userDetails, authentication);
+
+        // the presented password has just been verified, so it can be hashed again
+        if (passwordEncoder.isUpgradeNeeded(userDetails.getPassword())) {
+            passwordEncoder.rehashInBackground(authentication.getCredentials().toString(),
+                    passwordHash -> endUserService.updatePasswordHash(userDetails.getUsername(), passwordHash));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.security;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
+import org.springframework.security.oauth2.provider.error.DefaultWebResponseExceptionTranslator;
+import org.springframework.security.oauth2.provider.error.WebResponseExceptionTranslator;
+
+
+/**
+ * A translator of token endpoint exceptions that adds a Retry-After header to the 429 responses of requests whose
+ * passwords couldn't be verified in time, and otherwise translates exceptions like the default translator.
+ *
+ * @author Emerson Farrugia
+ */
+public class RetryAfterWebResponseExceptionTranslator implements WebResponseExceptionTranslator {
+
+    private final WebResponseExceptionTranslator delegate = new DefaultWebResponseExceptionTranslator();
+
+    @Override
+    public ResponseEntity<OAuth2Exception> translate(Exception e) throws Exception {
+
+        ResponseEntity<OAuth2Exception> response = delegate.translate(e);
+
+        if (!(response.getBody() instanceof PasswordHashingUnavailableException)) {
+            return response;
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(response.getHeaders());
+        headers.set(HttpHeaders.RETRY_AFTER,
+                String.valueOf(((PasswordHashingUnavailableException) response.getBody()).getRetryAfterInSeconds()));
+
+        return new ResponseEntity<>(response.getBody(), headers, response.getStatusCode());
+    }
+}
@@ -34,4 +34,12 @@ public interface EndUserService {
     void registerUser(EndUserRegistrationData registrationData);
 
     Optional<EndUser> findUser(String username);
+
+    /**
+     * Replaces the password hash of a user, e.g. to upgrade it to a higher work factor.
+     *
+     * @param username the username of the user
+     * @param passwordHash the new hash of the unchanged password
+     */
+    void updatePasswordHash(String username, String passwordHash);
 }
@@ -21,7 +21,6 @@ import org.openmhealth.dsu.domain.EndUserRegistrationData;
 import org.openmhealth.dsu.domain.EndUserRegistrationException;
 import org.openmhealth.dsu.repository.EndUserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -41,7 +40,8 @@ public class EndUserServiceImpl implements EndUserService {
     @Autowired
     private EndUserRepository endUserRepository;
 
-    private PasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+    @Autowired
+    private PasswordEncoder passwordEncoder;
 
     @Override
     @Transactional(readOnly = true)
@@ -81,4 +81,17 @@ public class EndUserServiceImpl implements EndUserService {
 
         return endUserRepository.findOne(username);
     }
-}
\ No newline at end of file
+
+    @Override
+    @Transactional
+    public void updatePasswordHash(String username, String passwordHash) {
+
+        Optional<EndUser> endUser = endUserRepository.findOne(username);
+
+        // the user may have been deleted in the meantime
+        if (endUser.isPresent()) {
+            endUser.get().setPasswordHash(passwordHash);
+            endUserRepository.save(endUser.get());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.security;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * A suite of unit tests for the bounded password encoder.
+ *
+ * @author Emerson Farrugia
+ */
+public class BoundedPasswordEncoderUnitTests {
+
+    private static final String PASSWORD = "password";
+
+    private BoundedPasswordEncoder encoder;
+
+
+    @After
+    public void shutDownEncoder() {
+
+        if (encoder != null) {
+            encoder.destroy();
+        }
+    }
+
+    @Test
+    public void matchesShouldVerifyEncodedPassword() {
+
+        encoder = new BoundedPasswordEncoder(4, 2, 10, 10000);
+
+        String passwordHash = encoder.encode(PASSWORD);
+
+        assertThat(encoder.matches(PASSWORD, passwordHash), equalTo(true));
+        assertThat(encoder.matches("wrong", passwordHash), equalTo(false));
+    }
+
+    @Test
+    public void isUpgradeNeededShouldDetectLowerWorkFactor() {
+
+        encoder = new BoundedPasswordEncoder(4, 1, 1, 10000);
+        String passwordHash = encoder.encode(PASSWORD);
+        encoder.destroy();
+
+        encoder = new BoundedPasswordEncoder(5, 1, 1, 10000);
+
+        assertThat(encoder.isUpgradeNeeded(passwordHash), equalTo(true));
+        assertThat(encoder.isUpgradeNeeded(encoder.encode(PASSWORD)), equalTo(false));
+        assertThat(encoder.isUpgradeNeeded("not a hash"), equalTo(false));
+    }
+
+    @Test
+    public void rehashInBackgroundShouldProvideNewHash() throws InterruptedException {
+
+        encoder = new BoundedPasswordEncoder(4, 1, 1, 10000);
+
+        AtomicReference<String> passwordHash = new AtomicReference<>();
+        CountDownLatch rehashed = new CountDownLatch(1);
+
+        encoder.rehashInBackground(PASSWORD, hash -> {
+            passwordHash.set(hash);
+            rehashed.countDown();
+        });
+
+        assertThat(rehashed.await(10, SECONDS), equalTo(true));
+        assertThat(encoder.matches(PASSWORD, passwordHash.get()), equalTo(true));
+    }
+
+    @Test
+    public void encodeShouldFailFastWhenQueueIsFull() throws InterruptedException {
+
+        encoder = new BoundedPasswordEncoder(4, 1, 1, 10000);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            // occupy the only thread, then the only queue slot
+            encoder.rehashInBackground(PASSWORD, hash -> {
+                started.countDown();
+                awaitUninterruptibly(release);
+            });
+            assertThat(started.await(10, SECONDS), equalTo(true));
+
+            Thread queuedLogin = new Thread(() -> encoder.encode(PASSWORD));
+            queuedLogin.setDaemon(true);
+            queuedLogin.start();
+            awaitQueueDepth(1);
+
+            PasswordHashingUnavailableException exception = null;
+
+            try {
+                encoder.encode(PASSWORD);
+            }
+            catch (PasswordHashingUnavailableException e) {
+                exception = e;
+            }
+
+            assertThat(exception, notNullValue());
+            assertThat(exception.getHttpErrorCode(), equalTo(429));
+            assertThat(exception.getRetryAfterInSeconds(), greaterThan(0));
+        }
+        finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void rehashInBackgroundShouldSkipWhenPoolIsBusy() throws InterruptedException {
+
+        encoder = new BoundedPasswordEncoder(4, 1, 10, 10000);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<String> passwordHash = new AtomicReference<>();
+
+        try {
+            encoder.rehashInBackground(PASSWORD, hash -> {
+                started.countDown();
+                awaitUninterruptibly(release);
+            });
+            assertThat(started.await(10, SECONDS), equalTo(true));
+
+            encoder.rehashInBackground(PASSWORD, passwordHash::set);
+        }
+        finally {
+            release.countDown();
+        }
+
+        // the pool has a single thread, so a skipped upgrade would have run before this hash
+        encoder.encode(PASSWORD);
+
+        assertThat(passwordHash.get(), nullValue());
+    }
+
+    @Test
+    public void calibrateStrengthShouldStayWithinBounds() {
+
+        assertThat(BoundedPasswordEncoder.calibrateStrength(4, 1_000_000_000), equalTo(31));
+        assertThat(BoundedPasswordEncoder.calibrateStrength(6, 1), equalTo(6));
+    }
+
+    private void awaitQueueDepth(int depth) throws InterruptedException {
+
+        for (int i = 0; i < 1000; i++) {
+            for (Metric<?> metric : encoder.metrics()) {
+                if (metric.getName().equals("passwordHashing.queue.depth") && metric.getValue().intValue() == depth) {
+                    return;
+                }
+            }
+
+            MILLISECONDS.sleep(10);
+        }
+
+        throw new AssertionError("The password hashing queue hasn't reached a depth of " + depth + ".");
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+
+        try {
+            latch.await(10, SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.codec;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A benchmark of the Gorilla codec on a 25 Hz accelerometer-like series. The encoded size per sample is reported by
+ * the setup, for comparison with the 8 bytes of a raw double and the considerably larger size of a BSON field.
+ *
+ * @author Emerson Farrugia
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GorillaCodecBenchmark {
+
+    @Param({"1000"})
+    private int length;
+
+    private long[] timestamps;
+    private double[] values;
+
+    private BitWriter writer;
+    private BitReader reader;
+
+    private byte[] encodedTimestamps;
+    private byte[] encodedValues;
+
+    private long[] decodedTimestamps;
+    private double[] decodedValues;
+
+    @Setup
+    public void setUp() {
+
+        Random random = new Random(0);
+
+        timestamps = new long[length];
+        values = new double[length];
+
+        for (int i = 0; i < length; i++) {
+            // mostly regular sampling with occasional jitter
+            timestamps[i] = 1433152800000L + i * 40 + (random.nextInt(20) == 0 ? random.nextInt(5) : 0);
+
+            // a sensor with three decimal places of resolution
+            values[i] = Math.round((9.81 + Math.sin(i / 25.0) + random.nextGaussian() * 0.05) * 1000) / 1000.0;
+        }
+
+        writer = new BitWriter(16 * length);
+        reader = new BitReader();
+
+        GorillaCodec.encodeTimestamps(timestamps, length, writer);
+        encodedTimestamps = writer.toByteArray();
+
+        writer.reset();
+        GorillaCodec.encodeValues(values, length, writer);
+        encodedValues = writer.toByteArray();
+
+        System.out.printf("%nencoded bytes per sample: timestamps %.2f, values %.2f%n",
+                (double) encodedTimestamps.length / length, (double) encodedValues.length / length);
+
+        decodedTimestamps = new long[length];
+        decodedValues = new double[length];
+    }
+
+    @Benchmark
+    public BitWriter encodeTimestamps() {
+
+        writer.reset();
+        GorillaCodec.encodeTimestamps(timestamps, length, writer);
+
+        return writer;
+    }
+
+    @Benchmark
+    public long[] decodeTimestamps() {
+
+        reader.reset(encodedTimestamps, 0, encodedTimestamps.length);
+        GorillaCodec.decodeTimestamps(reader, decodedTimestamps, length);
+
+        return decodedTimestamps;
+    }
+
+    @Benchmark
+    public BitWriter encodeValues() {
+
+        writer.reset();
+        GorillaCodec.encodeValues(values, length, writer);
+
+        return writer;
+    }
+
+    @Benchmark
+    public double[] decodeValues() {
+
+        reader.reset(encodedValues, 0, encodedValues.length);
+        GorillaCodec.decodeValues(reader, decodedValues, length);
+
+        return decodedValues;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.security;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.access.expression.method.ExpressionBasedAnnotationAttributeFactory;
+import org.springframework.security.access.expression.method.ExpressionBasedPreInvocationAdvice;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.access.prepost.PreInvocationAttribute;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.expression.OAuth2MethodSecurityExpressionHandler;
+import org.springframework.security.util.SimpleMethodInvocation;
+
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.openmhealth.dsu.configuration.OAuth2Properties.*;
+import static org.springframework.security.core.authority.AuthorityUtils.createAuthorityList;
+
+
+/**
+ * A benchmark of the per-call cost of a {@link PreAuthorize} check on a data point controller method, comparing the
+ * evaluated expression with its compiled form. The client has the role and scopes of a typical data point client.
+ *
+ * @author Emerson Farrugia
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PreAuthorizeBenchmark {
+
+    private static final String READ_EXPRESSION =
+            "#oauth2.clientHasRole('" + CLIENT_ROLE + "') and #oauth2.hasScope('" + DATA_POINT_READ_SCOPE + "')";
+
+    public static class Controller {
+
+        @PreAuthorize(READ_EXPRESSION)
+        public void readDataPoint() {
+        }
+    }
+
+    private OAuth2Authentication authentication;
+    private MethodInvocation invocation;
+    private PreInvocationAttribute attribute;
+
+    private ExpressionBasedPreInvocationAdvice expressionAdvice;
+    private CompiledPreInvocationAuthorizationAdvice compiledAdvice;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        OAuth2Request request = new OAuth2Request(null, "client", createAuthorityList(CLIENT_ROLE), true,
+                new HashSet<>(asList(DATA_POINT_READ_SCOPE, DATA_POINT_WRITE_SCOPE, DATA_POINT_DELETE_SCOPE)),
+                null, null, null, null);
+
+        authentication = new OAuth2Authentication(request, null);
+        invocation = new SimpleMethodInvocation(new Controller(), Controller.class.getMethod("readDataPoint"));
+
+        OAuth2MethodSecurityExpressionHandler expressionHandler = new OAuth2MethodSecurityExpressionHandler();
+
+        attribute = new ExpressionBasedAnnotationAttributeFactory(expressionHandler)
+                .createPreInvocationAttribute(null, null, READ_EXPRESSION);
+
+        expressionAdvice = new ExpressionBasedPreInvocationAdvice();
+        expressionAdvice.setExpressionHandler(expressionHandler);
+
+        compiledAdvice = new CompiledPreInvocationAuthorizationAdvice(expressionAdvice);
+    }
+
+    @Benchmark
+    public boolean evaluateExpression() {
+
+        return expressionAdvice.before(authentication, invocation, attribute);
+    }
+
+    @Benchmark
+    public boolean checkCompiledMasks() {
+
+        return compiledAdvice.before(authentication, invocation, attribute);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import org.openjdk.jmh.annotations.*;
+import org.openmhealth.dsu.domain.EndUserUserDetails;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singleton;
+import static org.springframework.security.oauth2.common.util.SerializationUtils.deserialize;
+import static org.springframework.security.oauth2.common.util.SerializationUtils.serialize;
+
+
+/**
+ * A benchmark of the compact authentication encoding against the Java serialization used by the relational token
+ * store that ships with Spring Security OAuth, on a typical authentication of an end user. The encoded sizes are
+ * reported by the setup. Run with '-prof gc' to compare allocation rates.
+ *
+ * @author Emerson Farrugia
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TokenSerializationBenchmark {
+
+    private static final String CLIENT_ID = "testClient";
+    private static final String USER_NAME = "testUser";
+
+    private OAuth2Authentication authentication;
+    private byte[] serializedAuthentication;
+    private byte[] encodedAuthentication;
+
+    @Setup
+    public void setUp() {
+
+        Map<String, String> requestParameters = new HashMap<>();
+        requestParameters.put("grant_type", "authorization_code");
+        requestParameters.put("client_id", CLIENT_ID);
+        requestParameters.put("redirect_uri", "http://localhost:8080/callback");
+        requestParameters.put("scope", "read_data_points write_data_points");
+
+        OAuth2Request request = new OAuth2Request(requestParameters, CLIENT_ID,
+                AuthorityUtils.createAuthorityList("ROLE_CLIENT"), true, singleton("read_data_points"),
+                singleton("dataPoints"), "http://localhost:8080/callback", singleton("code"), null);
+
+        EndUserUserDetails userDetails = new EndUserUserDetails(USER_NAME, "");
+
+        authentication = new OAuth2Authentication(request,
+                new UsernamePasswordAuthenticationToken(userDetails, "N/A", userDetails.getAuthorities()));
+
+        serializedAuthentication = serialize(authentication);
+        encodedAuthentication = OAuth2AuthenticationCodec.encode(authentication);
+
+        System.out.printf("%nauthentication bytes: serialized %d, encoded %d%n", serializedAuthentication.length,
+                encodedAuthentication.length);
+    }
+
+    @Benchmark
+    public byte[] serializeAuthentication() {
+
+        return serialize(authentication);
+    }
+
+    @Benchmark
+    public OAuth2Authentication deserializeAuthentication() {
+
+        return deserialize(serializedAuthentication);
+    }
+
+    @Benchmark
+    public byte[] encodeAuthentication() {
+
+        return OAuth2AuthenticationCodec.encode(authentication);
+    }
+
+    @Benchmark
+    public OAuth2Authentication decodeAuthentication() {
+
+        return OAuth2AuthenticationCodec.decode(encodedAuthentication, CLIENT_ID, USER_NAME);
+    }
+}
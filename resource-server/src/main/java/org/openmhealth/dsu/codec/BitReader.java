@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.codec;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * A reader of bit-aligned values from a byte buffer, the counterpart of {@link BitWriter}. A reader can be reset onto
+ * a new buffer, so it doesn't need to be allocated per read.
+ *
+ * @author Emerson Farrugia
+ */
+public final class BitReader {
+
+    private byte[] buffer;
+    private int bitPosition;
+    private int bitLimit;
+
+    public BitReader() {
+    }
+
+    public BitReader(byte[] buffer) {
+        reset(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Starts reading from a new buffer.
+     *
+     * @param buffer the buffer to read
+     * @param offset the offset of the first byte to read
+     * @param length the number of bytes to read
+     */
+    public void reset(byte[] buffer, int offset, int length) {
+
+        checkNotNull(buffer);
+        checkArgument(offset >= 0 && length >= 0 && offset + length <= buffer.length);
+
+        this.buffer = buffer;
+        this.bitPosition = offset << 3;
+        this.bitLimit = (offset + length) << 3;
+    }
+
+    public boolean readBit() {
+
+        checkAvailable(1);
+
+        boolean bit = (buffer[bitPosition >>> 3] & (0x80 >>> (bitPosition & 7))) != 0;
+        bitPosition++;
+
+        return bit;
+    }
+
+    /**
+     * Reads a value, most significant bit first.
+     *
+     * @param count the number of bits to read, from 0 to 64
+     * @return the value, in the lowest bits
+     */
+    public long readBits(int count) {
+
+        checkAvailable(count);
+
+        long value = 0;
+
+        while (count > 0) {
+            int availableBits = 8 - (bitPosition & 7);
+            int bits = Math.min(availableBits, count);
+            int chunk = (buffer[bitPosition >>> 3] >>> (availableBits - bits)) & ((1 << bits) - 1);
+
+            value = (value << bits) | chunk;
+
+            bitPosition += bits;
+            count -= bits;
+        }
+
+        return value;
+    }
+
+    private void checkAvailable(int bits) {
+
+        if (bitPosition + bits > bitLimit) {
+            throw new IllegalStateException("The buffer doesn't have " + bits + " more bits to read.");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.codec;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+
+/**
+ * A writer of bit-aligned values into a reusable byte buffer. The buffer only grows, so a writer that is reset and
+ * reused doesn't allocate once it has reached its working size.
+ *
+ * @author Emerson Farrugia
+ */
+public final class BitWriter {
+
+    private byte[] buffer;
+    private int bitLength;
+
+    public BitWriter(int initialCapacity) {
+
+        checkArgument(initialCapacity > 0);
+
+        this.buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Discards the bits written so far.
+     */
+    public void reset() {
+
+        Arrays.fill(buffer, 0, getByteLength(), (byte) 0);
+        bitLength = 0;
+    }
+
+    public void writeBit(boolean bit) {
+
+        ensureCapacity(1);
+
+        if (bit) {
+            buffer[bitLength >>> 3] |= 0x80 >>> (bitLength & 7);
+        }
+
+        bitLength++;
+    }
+
+    /**
+     * Writes the lowest bits of a value, most significant bit first.
+     *
+     * @param value the value to write
+     * @param count the number of bits to write, from 0 to 64
+     */
+    public void writeBits(long value, int count) {
+
+        ensureCapacity(count);
+
+        while (count > 0) {
+            int freeBits = 8 - (bitLength & 7);
+            int bits = Math.min(freeBits, count);
+            int chunk = (int) (value >>> (count - bits)) & ((1 << bits) - 1);
+
+            buffer[bitLength >>> 3] |= chunk << (freeBits - bits);
+
+            bitLength += bits;
+            count -= bits;
+        }
+    }
+
+    private void ensureCapacity(int bits) {
+
+        int requiredLength = (bitLength + bits + 7) >>> 3;
+
+        if (requiredLength > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(requiredLength, buffer.length * 2));
+        }
+    }
+
+    public int getBitLength() {
+        return bitLength;
+    }
+
+    public int getByteLength() {
+        return (bitLength + 7) >>> 3;
+    }
+
+    /**
+     * @return the buffer, whose first {@link #getByteLength()} bytes hold the bits written so far
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return a copy of the bytes written so far
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, getByteLength());
+    }
+}
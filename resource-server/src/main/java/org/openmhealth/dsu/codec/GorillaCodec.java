@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.codec;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * An encoder and decoder of numeric time series in the style of Facebook's Gorilla, which exploits the regularity of
+ * sensor data. Timestamps are encoded as the difference between consecutive deltas, which is zero for a fixed sampling
+ * rate and costs a single bit. Values are encoded as the XOR of consecutive values, whose meaningful bits are
+ * typically few and clustered, so only those bits are written.
+ * <p>
+ * The methods work on caller-supplied primitive arrays and bit buffers and don't allocate.
+ *
+ * @author Emerson Farrugia
+ * @see <a href="http://www.vldb.org/pvldb/vol8/p1816-teller.pdf">Gorilla: A Fast, Scalable, In-Memory Time Series
+ * Database</a>
+ */
+public final class GorillaCodec {
+
+    private GorillaCodec() {
+    }
+
+    /**
+     * Encodes timestamps. Gorilla's ranges are widened for millisecond precision, and deltas that don't fit any range
+     * are written in full, so any sequence of timestamps can be encoded.
+     *
+     * @param timestamps the timestamps to encode, e.g. in milliseconds since the epoch
+     * @param length the number of timestamps to encode
+     * @param writer the writer to encode the timestamps to
+     */
+    public static void encodeTimestamps(long[] timestamps, int length, BitWriter writer) {
+
+        checkNotNull(timestamps);
+        checkArgument(length >= 0 && length <= timestamps.length);
+        checkNotNull(writer);
+
+        if (length == 0) {
+            return;
+        }
+
+        writer.writeBits(timestamps[0], 64);
+
+        long previousDelta = 0;
+
+        for (int i = 1; i < length; i++) {
+            long delta = timestamps[i] - timestamps[i - 1];
+            long deltaOfDelta = delta - previousDelta;
+
+            if (deltaOfDelta == 0) {
+                writer.writeBit(false);
+            }
+            else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+                writer.writeBits(0b10, 2);
+                writer.writeBits(deltaOfDelta + 63, 7);
+            }
+            else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+                writer.writeBits(0b110, 3);
+                writer.writeBits(deltaOfDelta + 255, 9);
+            }
+            else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+                writer.writeBits(0b1110, 4);
+                writer.writeBits(deltaOfDelta + 2047, 12);
+            }
+            else {
+                writer.writeBits(0b1111, 4);
+                writer.writeBits(deltaOfDelta, 64);
+            }
+
+            previousDelta = delta;
+        }
+    }
+
+    /**
+     * Decodes timestamps encoded by {@link #encodeTimestamps(long[], int, BitWriter)}.
+     *
+     * @param reader the reader to decode the timestamps from
+     * @param timestamps the array to decode the timestamps into
+     * @param length the number of timestamps to decode
+     */
+    public static void decodeTimestamps(BitReader reader, long[] timestamps, int length) {
+
+        checkNotNull(reader);
+        checkNotNull(timestamps);
+        checkArgument(length >= 0 && length <= timestamps.length);
+
+        if (length == 0) {
+            return;
+        }
+
+        timestamps[0] = reader.readBits(64);
+
+        long previousDelta = 0;
+
+        for (int i = 1; i < length; i++) {
+            long deltaOfDelta;
+
+            if (!reader.readBit()) {
+                deltaOfDelta = 0;
+            }
+            else if (!reader.readBit()) {
+                deltaOfDelta = reader.readBits(7) - 63;
+            }
+            else if (!reader.readBit()) {
+                deltaOfDelta = reader.readBits(9) - 255;
+            }
+            else if (!reader.readBit()) {
+                deltaOfDelta = reader.readBits(12) - 2047;
+            }
+            else {
+                deltaOfDelta = reader.readBits(64);
+            }
+
+            previousDelta += deltaOfDelta;
+            timestamps[i] = timestamps[i - 1] + previousDelta;
+        }
+    }
+
+    /**
+     * Encodes values. Values are compared by their raw bits, so NaNs and negative zero survive a round trip.
+     *
+     * @param values the values to encode
+     * @param length the number of values to encode
+     * @param writer the writer to encode the values to
+     */
+    public static void encodeValues(double[] values, int length, BitWriter writer) {
+
+        checkNotNull(values);
+        checkArgument(length >= 0 && length <= values.length);
+        checkNotNull(writer);
+
+        if (length == 0) {
+            return;
+        }
+
+        long previousBits = Double.doubleToRawLongBits(values[0]);
+        writer.writeBits(previousBits, 64);
+
+        int previousLeadingZeros = -1;
+        int previousTrailingZeros = 0;
+
+        for (int i = 1; i < length; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ previousBits;
+
+            if (xor == 0) {
+                writer.writeBit(false);
+            }
+            else {
+                writer.writeBit(true);
+
+                int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int trailingZeros = Long.numberOfTrailingZeros(xor);
+
+                // reuse the previous window of meaningful bits if this XOR fits inside it
+                if (previousLeadingZeros >= 0 && leadingZeros >= previousLeadingZeros
+                        && trailingZeros >= previousTrailingZeros) {
+
+                    writer.writeBit(false);
+                    writer.writeBits(xor >>> previousTrailingZeros, 64 - previousLeadingZeros - previousTrailingZeros);
+                }
+                else {
+                    int meaningfulBits = 64 - leadingZeros - trailingZeros;
+
+                    writer.writeBit(true);
+                    writer.writeBits(leadingZeros, 5);
+                    writer.writeBits(meaningfulBits & 63, 6); // 64 meaningful bits are written as 0
+                    writer.writeBits(xor >>> trailingZeros, meaningfulBits);
+
+                    previousLeadingZeros = leadingZeros;
+                    previousTrailingZeros = trailingZeros;
+                }
+            }
+
+            previousBits = bits;
+        }
+    }
+
+    /**
+     * Decodes values encoded by {@link #encodeValues(double[], int, BitWriter)}.
+     *
+     * @param reader the reader to decode the values from
+     * @param values the array to decode the values into
+     * @param length the number of values to decode
+     */
+    public static void decodeValues(BitReader reader, double[] values, int length) {
+
+        checkNotNull(reader);
+        checkNotNull(values);
+        checkArgument(length >= 0 && length <= values.length);
+
+        if (length == 0) {
+            return;
+        }
+
+        long previousBits = reader.readBits(64);
+        values[0] = Double.longBitsToDouble(previousBits);
+
+        int leadingZeros = 0;
+        int trailingZeros = 0;
+
+        for (int i = 1; i < length; i++) {
+            if (reader.readBit()) {
+                if (reader.readBit()) {
+                    leadingZeros = (int) reader.readBits(5);
+
+                    int meaningfulBits = (int) reader.readBits(6);
+
+                    if (meaningfulBits == 0) {
+                        meaningfulBits = 64;
+                    }
+
+                    trailingZeros = 64 - leadingZeros - meaningfulBits;
+                }
+
+                long xor = reader.readBits(64 - leadingZeros - trailingZeros) << trailingZeros;
+
+                previousBits ^= xor;
+            }
+
+            values[i] = Double.longBitsToDouble(previousBits);
+        }
+    }
+}
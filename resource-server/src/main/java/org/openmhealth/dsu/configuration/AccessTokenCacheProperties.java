@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control the cache of access tokens kept by the resource server.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "accessTokenCache")
+public class AccessTokenCacheProperties {
+
+    private int maximumSize = 100000;
+    private int maximumTimeToLiveInSeconds = 300;
+    private int invalidTokenTimeToLiveInSeconds = 10;
+
+    /**
+     * @return the maximum number of access tokens to cache
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @return the number of seconds after which a cached access token is read from the token store again, which bounds
+     * how long a token revoked by the authorization server remains usable
+     */
+    public int getMaximumTimeToLiveInSeconds() {
+        return maximumTimeToLiveInSeconds;
+    }
+
+    public void setMaximumTimeToLiveInSeconds(int maximumTimeToLiveInSeconds) {
+        this.maximumTimeToLiveInSeconds = maximumTimeToLiveInSeconds;
+    }
+
+    /**
+     * @return the number of seconds for which an unknown or expired access token is remembered as invalid
+     */
+    public int getInvalidTokenTimeToLiveInSeconds() {
+        return invalidTokenTimeToLiveInSeconds;
+    }
+
+    public void setInvalidTokenTimeToLiveInSeconds(int invalidTokenTimeToLiveInSeconds) {
+        this.invalidTokenTimeToLiveInSeconds = invalidTokenTimeToLiveInSeconds;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.configuration;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.openmhealth.dsu.filter.AdmissionControlFilter;
+import org.openmhealth.dsu.filter.GradientConcurrencyLimit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.FilterRegistrationBean;
+import org.springframework.boot.context.embedded.jetty.JettyEmbeddedServletContainerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * A configuration that registers the admission control filter in front of the data point endpoints. The filter is
+ * ordered ahead of the Spring Security filter chain, so that a rejected request costs neither a token lookup nor a
+ * storage round trip.
+ *
+ * @author Emerson Farrugia
+ */
+@Configuration
+public class AdmissionControlConfiguration {
+
+    @Autowired
+    private AdmissionControlProperties properties;
+
+    private final AtomicReference<ThreadPool> serverThreadPool = new AtomicReference<>();
+
+    /**
+     * Captures the Jetty thread pool once the server is created, to expose the depth of its request queue.
+     */
+    @Bean
+    public EmbeddedServletContainerCustomizer serverThreadPoolCapturingCustomizer() {
+
+        return container -> {
+            if (container instanceof JettyEmbeddedServletContainerFactory) {
+                ((JettyEmbeddedServletContainerFactory) container)
+                        .addServerCustomizers(server -> serverThreadPool.set(server.getThreadPool()));
+            }
+        };
+    }
+
+    @Bean
+    public AdmissionControlFilter admissionControlFilter() {
+
+        return new AdmissionControlFilter(
+                newLane("read", properties.getRead()),
+                newLane("write", properties.getWrite()),
+                this::getServerQueueDepth,
+                properties.getMaximumRetryAfterInSeconds());
+    }
+
+    @Bean
+    public FilterRegistrationBean admissionControlFilterRegistration() {
+
+        FilterRegistrationBean registration = new FilterRegistrationBean(admissionControlFilter());
+        registration.setEnabled(properties.isEnabled());
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 2);
+        registration.addUrlPatterns("/v1.0.M1/dataPoints", "/v1.0.M1/dataPoints/*");
+
+        return registration;
+    }
+
+    private AdmissionControlFilter.Lane newLane(String name, AdmissionControlProperties.Lane laneProperties) {
+
+        GradientConcurrencyLimit limit = new GradientConcurrencyLimit(
+                laneProperties.getInitialLimit(),
+                laneProperties.getMinimumLimit(),
+                laneProperties.getMaximumLimit(),
+                properties.getLatencyTolerance(),
+                properties.getSmoothing());
+
+        return new AdmissionControlFilter.Lane(name, limit, laneProperties.getMaximumQueueDepth());
+    }
+
+    private int getServerQueueDepth() {
+
+        ThreadPool threadPool = serverThreadPool.get();
+
+        return threadPool instanceof QueuedThreadPool ? ((QueuedThreadPool) threadPool).getQueueSize() : 0;
+    }
+}
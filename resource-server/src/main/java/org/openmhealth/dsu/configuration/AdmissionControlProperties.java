@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control admission control of data point requests.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "admissionControl")
+public class AdmissionControlProperties {
+
+    private boolean enabled = true;
+    private double latencyTolerance = 1.5;
+    private double smoothing = 0.2;
+    private int maximumRetryAfterInSeconds = 30;
+    private Lane read = new Lane(50, 8, 400, 200);
+    private Lane write = new Lane(20, 4, 200, 50);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return how far latency may rise above its baseline before the concurrency limits shrink, as a ratio
+     */
+    public double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    public void setLatencyTolerance(double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * @return the weight of each new concurrency limit estimate, from 0 to 1
+     */
+    public double getSmoothing() {
+        return smoothing;
+    }
+
+    public void setSmoothing(double smoothing) {
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * @return the longest delay to suggest to a rejected client, in seconds
+     */
+    public int getMaximumRetryAfterInSeconds() {
+        return maximumRetryAfterInSeconds;
+    }
+
+    public void setMaximumRetryAfterInSeconds(int maximumRetryAfterInSeconds) {
+        this.maximumRetryAfterInSeconds = maximumRetryAfterInSeconds;
+    }
+
+    public Lane getRead() {
+        return read;
+    }
+
+    public Lane getWrite() {
+        return write;
+    }
+
+    public static class Lane {
+
+        private int initialLimit;
+        private int minimumLimit;
+        private int maximumLimit;
+        private int maximumQueueDepth;
+
+        public Lane(int initialLimit, int minimumLimit, int maximumLimit, int maximumQueueDepth) {
+
+            this.initialLimit = initialLimit;
+            this.minimumLimit = minimumLimit;
+            this.maximumLimit = maximumLimit;
+            this.maximumQueueDepth = maximumQueueDepth;
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinimumLimit() {
+            return minimumLimit;
+        }
+
+        public void setMinimumLimit(int minimumLimit) {
+            this.minimumLimit = minimumLimit;
+        }
+
+        public int getMaximumLimit() {
+            return maximumLimit;
+        }
+
+        public void setMaximumLimit(int maximumLimit) {
+            this.maximumLimit = maximumLimit;
+        }
+
+        /**
+         * @return the number of requests waiting for a server thread beyond which requests in this lane are rejected
+         */
+        public int getMaximumQueueDepth() {
+            return maximumQueueDepth;
+        }
+
+        public void setMaximumQueueDepth(int maximumQueueDepth) {
+            this.maximumQueueDepth = maximumQueueDepth;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 
 /**
@@ -37,6 +38,7 @@ import org.springframework.context.annotation.Configuration;
         })
 @EnableAutoConfiguration
 @EnableConfigurationProperties
+@EnableScheduling
 public class Application {
 
     public static void main(String[] args) {
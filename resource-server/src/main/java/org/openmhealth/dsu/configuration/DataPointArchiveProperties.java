@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control the archival of data points. Once data points reach a certain age, they are moved out
+ * of MongoDB into compressed columnar segment files on local disk, where they remain searchable.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "dataPointArchive")
+public class DataPointArchiveProperties {
+
+    private boolean enabled = false;
+    private String directory = "archive";
+    private int archiveAfterDays = 90;
+    private int batchSize = 1000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the directory that holds the segment files
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the number of days after their creation that data points are archived
+     */
+    public int getArchiveAfterDays() {
+        return archiveAfterDays;
+    }
+
+    public void setArchiveAfterDays(int archiveAfterDays) {
+        this.archiveAfterDays = archiveAfterDays;
+    }
+
+    /**
+     * @return the number of data points to read from MongoDB at a time while archiving
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+}
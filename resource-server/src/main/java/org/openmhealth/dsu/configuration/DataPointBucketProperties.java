@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.configuration;
+
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The properties that control the bucketed storage of data points. Data points that conform to a bucketed schema are
+ * stored many to a document, grouped by user, schema and time window, instead of one to a document. This suits
+ * high-frequency schemas, e.g. accelerometer samples, whose data points are small and numerous.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "dataPointBuckets")
+public class DataPointBucketProperties {
+
+    private List<String> schemas = new ArrayList<>();
+    private int bucketDurationInMinutes = 60;
+    private int maximumBucketSize = 1000;
+    private int compactionBatchSize = 100;
+
+    /**
+     * @return the schemas whose data points are bucketed, each written as "namespace:name" and covering all versions
+     * of the schema. Data points already stored one to a document aren't moved into buckets when a schema is added.
+     */
+    public List<String> getSchemas() {
+        return schemas;
+    }
+
+    public void setSchemas(List<String> schemas) {
+        this.schemas = schemas;
+    }
+
+    /**
+     * @return the length of the time window covered by a bucket, in minutes
+     */
+    public int getBucketDurationInMinutes() {
+        return bucketDurationInMinutes;
+    }
+
+    public void setBucketDurationInMinutes(int bucketDurationInMinutes) {
+        this.bucketDurationInMinutes = bucketDurationInMinutes;
+    }
+
+    /**
+     * @return the maximum number of data points in a bucket, after which a time window spills over into a new bucket
+     */
+    public int getMaximumBucketSize() {
+        return maximumBucketSize;
+    }
+
+    public void setMaximumBucketSize(int maximumBucketSize) {
+        this.maximumBucketSize = maximumBucketSize;
+    }
+
+    /**
+     * @return the number of sealed buckets to compact at a time
+     */
+    public int getCompactionBatchSize() {
+        return compactionBatchSize;
+    }
+
+    public void setCompactionBatchSize(int compactionBatchSize) {
+        this.compactionBatchSize = compactionBatchSize;
+    }
+
+    public boolean isBucketed(String schemaNamespace, String schemaName) {
+        return schemas.contains(schemaNamespace + ":" + schemaName);
+    }
+
+    public boolean isBucketed(SchemaId schemaId) {
+        return isBucketed(schemaId.getNamespace(), schemaId.getName());
+    }
+}
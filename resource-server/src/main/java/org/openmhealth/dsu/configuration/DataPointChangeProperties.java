@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control the feed of changes to data points.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "dataPointChanges")
+public class DataPointChangeProperties {
+
+    private int retentionInDays = 30;
+    private int maximumPageSize = 1000;
+    private int settlingTimeInSeconds = 60;
+
+    /**
+     * @return the number of days that changes are kept, after which a client that hasn't synced has to start over
+     */
+    public int getRetentionInDays() {
+        return retentionInDays;
+    }
+
+    public void setRetentionInDays(int retentionInDays) {
+        this.retentionInDays = retentionInDays;
+    }
+
+    /**
+     * @return the maximum number of changes to return at a time
+     */
+    public int getMaximumPageSize() {
+        return maximumPageSize;
+    }
+
+    public void setMaximumPageSize(int maximumPageSize) {
+        this.maximumPageSize = maximumPageSize;
+    }
+
+    /**
+     * @return the number of seconds to wait for a change whose sequence has been assigned but which hasn't been
+     * recorded yet, before the changes that follow it are returned without it
+     */
+    public int getSettlingTimeInSeconds() {
+        return settlingTimeInSeconds;
+    }
+
+    public void setSettlingTimeInSeconds(int settlingTimeInSeconds) {
+        this.settlingTimeInSeconds = settlingTimeInSeconds;
+    }
+}
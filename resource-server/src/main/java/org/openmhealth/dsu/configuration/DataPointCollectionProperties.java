@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control the collections data points are stored in. Data points can be partitioned by creation
+ * time into weekly or monthly collections, which keeps the indexes of each collection small, lets searches skip
+ * collections outside their time range, and lets expired data points be dropped a collection at a time.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "dataPointCollections")
+public class DataPointCollectionProperties {
+
+    public enum Period {
+        NONE,
+        WEEKLY,
+        MONTHLY
+    }
+
+    private Period period = Period.NONE;
+    private int retentionInDays = 0;
+    private int queryThreadCount = 8;
+
+    /**
+     * @return the period covered by each collection. Data points stored before partitioning was turned on stay in the
+     * unpartitioned collection, which is still read alongside the partitioned ones. Data points stored under a
+     * different period aren't read, so they have to be moved before changing from one period to another.
+     */
+    public Period getPeriod() {
+        return period;
+    }
+
+    public void setPeriod(Period period) {
+        this.period = period;
+    }
+
+    /**
+     * @return the number of days after their creation that data points are deleted, or zero to keep them
+     * indefinitely. If data points are partitioned, a collection is dropped once its whole period has expired.
+     */
+    public int getRetentionInDays() {
+        return retentionInDays;
+    }
+
+    public void setRetentionInDays(int retentionInDays) {
+        this.retentionInDays = retentionInDays;
+    }
+
+    /**
+     * @return the maximum number of threads that query the collections of a database in parallel
+     */
+    public int getQueryThreadCount() {
+        return queryThreadCount;
+    }
+
+    public void setQueryThreadCount(int queryThreadCount) {
+        this.queryThreadCount = queryThreadCount;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control the data point event log, a local append-only log of data point writes that downstream
+ * consumers read instead of polling MongoDB.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "dataPointEventLog")
+public class DataPointEventLogProperties {
+
+    private boolean enabled = false;
+    private String directory = "event-log";
+    private int segmentSize = 64 * 1024 * 1024;
+    private int maximumSegmentCount = 16;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the directory that holds the segment files and consumer offsets
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the size of a segment file, in bytes
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return the number of segments to keep, after which the oldest segment is discarded whenever a new one is started
+     */
+    public int getMaximumSegmentCount() {
+        return maximumSegmentCount;
+    }
+
+    public void setMaximumSegmentCount(int maximumSegmentCount) {
+        this.maximumSegmentCount = maximumSegmentCount;
+    }
+}
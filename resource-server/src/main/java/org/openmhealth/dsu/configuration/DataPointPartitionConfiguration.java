@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.openmhealth.dsu.repository.PartitionedDataPointRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+
+import java.net.UnknownHostException;
+
+
+/**
+ * A configuration that partitions data points across MongoDB clusters by user, instead of storing them all in the
+ * default database.
+ *
+ * @author Emerson Farrugia
+ */
+@Configuration
+@ConditionalOnExpression("'${dataStore}' == 'mongo' and ${dataPointPartitions.enabled:false}")
+public class DataPointPartitionConfiguration {
+
+    @Autowired
+    private DataPointPartitionProperties properties;
+
+    @Autowired
+    private DataPointCollectionProperties collectionProperties;
+
+    @Autowired
+    private MappingMongoConverter mappingMongoConverter;
+
+    // takes precedence over the repository generated by Spring Data MongoDB, which keeps using the default database
+    @Bean
+    @Primary
+    public PartitionedDataPointRepository partitionedDataPointRepository() throws UnknownHostException {
+
+        return new PartitionedDataPointRepository(properties, collectionProperties, mappingMongoConverter);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The properties that control the partitioning of data points across MongoDB clusters. Each user is assigned to a
+ * partition by consistent hashing of their identifier, so adding or removing a partition only moves the users of
+ * that partition.
+ * <p>
+ * To add a partition, configure it as joining. Its users are read from both their old and new partition while they
+ * are moved, and the partition can be configured as an ordinary one once rebalancing completes. Removing a partition
+ * works the same way, by configuring it as leaving and deleting it once rebalancing completes.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "dataPointPartitions")
+public class DataPointPartitionProperties {
+
+    private boolean enabled = false;
+    private List<Partition> partitions = new ArrayList<>();
+    private int virtualNodeCount = 160;
+    private int rebalancingBatchSize = 500;
+    private int rebalancingLeaseDurationInSeconds = 300;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public List<Partition> getPartitions() {
+        return partitions;
+    }
+
+    public void setPartitions(List<Partition> partitions) {
+        this.partitions = partitions;
+    }
+
+    /**
+     * @return the number of points each partition occupies on the hash ring, which evens out the number of users
+     * assigned to each partition
+     */
+    public int getVirtualNodeCount() {
+        return virtualNodeCount;
+    }
+
+    public void setVirtualNodeCount(int virtualNodeCount) {
+        this.virtualNodeCount = virtualNodeCount;
+    }
+
+    /**
+     * @return the number of data points to read from a partition at a time while rebalancing
+     */
+    public int getRebalancingBatchSize() {
+        return rebalancingBatchSize;
+    }
+
+    public void setRebalancingBatchSize(int rebalancingBatchSize) {
+        this.rebalancingBatchSize = rebalancingBatchSize;
+    }
+
+    /**
+     * @return how long a server may rebalance a partition before another server can take over, unless the server
+     * renews its lease by completing a batch
+     */
+    public int getRebalancingLeaseDurationInSeconds() {
+        return rebalancingLeaseDurationInSeconds;
+    }
+
+    public void setRebalancingLeaseDurationInSeconds(int rebalancingLeaseDurationInSeconds) {
+        this.rebalancingLeaseDurationInSeconds = rebalancingLeaseDurationInSeconds;
+    }
+
+    /**
+     * @return true if a partition is joining or leaving, in which case users are being moved between partitions
+     */
+    public boolean isRebalancing() {
+
+        return partitions.stream().anyMatch(partition -> partition.isJoining() || partition.isLeaving());
+    }
+
+
+    public static class Partition {
+
+        private String name;
+        private String uri;
+        private boolean joining;
+        private boolean leaving;
+
+        /**
+         * @return the name of the partition, which determines its position on the hash ring and must not change
+         */
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return the MongoDB connection string of the partition, including the database name
+         */
+        public String getUri() {
+            return uri;
+        }
+
+        public void setUri(String uri) {
+            this.uri = uri;
+        }
+
+        /**
+         * @return true if users are being moved to this partition
+         */
+        public boolean isJoining() {
+            return joining;
+        }
+
+        public void setJoining(boolean joining) {
+            this.joining = joining;
+        }
+
+        /**
+         * @return true if users are being moved off this partition
+         */
+        public boolean isLeaving() {
+            return leaving;
+        }
+
+        public void setLeaving(boolean leaving) {
+            this.leaving = leaving;
+        }
+    }
+}
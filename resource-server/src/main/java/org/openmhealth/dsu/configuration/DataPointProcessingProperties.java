@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control how data point processors are run.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "dataPointProcessing")
+public class DataPointProcessingProperties {
+
+    private int laneCount = 4;
+    private int laneQueueSize = 1000;
+    private long maximumEnqueueWaitInMillis = 100;
+    private int maximumStateCount = 10000;
+    private int stateExpiryInMinutes = 60;
+    private int maximumConsecutiveFailureCount = 10;
+    private int suspensionInSeconds = 60;
+
+    /**
+     * @return the number of worker threads, each of which processes the data points of a fixed subset of users
+     */
+    public int getLaneCount() {
+        return laneCount;
+    }
+
+    public void setLaneCount(int laneCount) {
+        this.laneCount = laneCount;
+    }
+
+    /**
+     * @return the number of batches of saved data points that can wait for a worker thread
+     */
+    public int getLaneQueueSize() {
+        return laneQueueSize;
+    }
+
+    public void setLaneQueueSize(int laneQueueSize) {
+        this.laneQueueSize = laneQueueSize;
+    }
+
+    /**
+     * @return the time a write waits for room in a full queue before its data points are dropped, in milliseconds
+     */
+    public long getMaximumEnqueueWaitInMillis() {
+        return maximumEnqueueWaitInMillis;
+    }
+
+    public void setMaximumEnqueueWaitInMillis(long maximumEnqueueWaitInMillis) {
+        this.maximumEnqueueWaitInMillis = maximumEnqueueWaitInMillis;
+    }
+
+    /**
+     * @return the maximum number of users whose state is kept for each processor
+     */
+    public int getMaximumStateCount() {
+        return maximumStateCount;
+    }
+
+    public void setMaximumStateCount(int maximumStateCount) {
+        this.maximumStateCount = maximumStateCount;
+    }
+
+    /**
+     * @return the number of minutes after which the state of an idle user is discarded
+     */
+    public int getStateExpiryInMinutes() {
+        return stateExpiryInMinutes;
+    }
+
+    public void setStateExpiryInMinutes(int stateExpiryInMinutes) {
+        this.stateExpiryInMinutes = stateExpiryInMinutes;
+    }
+
+    /**
+     * @return the number of consecutive failures after which a processor is suspended
+     */
+    public int getMaximumConsecutiveFailureCount() {
+        return maximumConsecutiveFailureCount;
+    }
+
+    public void setMaximumConsecutiveFailureCount(int maximumConsecutiveFailureCount) {
+        this.maximumConsecutiveFailureCount = maximumConsecutiveFailureCount;
+    }
+
+    /**
+     * @return the number of seconds a suspended processor skips data points for
+     */
+    public int getSuspensionInSeconds() {
+        return suspensionInSeconds;
+    }
+
+    public void setSuspensionInSeconds(int suspensionInSeconds) {
+        this.suspensionInSeconds = suspensionInSeconds;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control data point streams, i.e. WebSocket connections that data points are written to.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "dataPointStreams")
+public class DataPointStreamProperties {
+
+    private int windowSize = 64;
+    private int insertBatchSize = 500;
+    private int maximumBatchDelayInMillis = 250;
+    private int maximumMessageSize = 1024 * 1024;
+    private int idleTimeoutInSeconds = 300;
+    private int flusherThreadCount = 2;
+
+    /**
+     * @return the number of messages a client can send before it has to wait for them to be acknowledged
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return the number of data points to accumulate from messages before inserting them
+     */
+    public int getInsertBatchSize() {
+        return insertBatchSize;
+    }
+
+    public void setInsertBatchSize(int insertBatchSize) {
+        this.insertBatchSize = insertBatchSize;
+    }
+
+    /**
+     * @return the longest a received data point waits for its batch to fill up before the batch is inserted anyway
+     */
+    public int getMaximumBatchDelayInMillis() {
+        return maximumBatchDelayInMillis;
+    }
+
+    public void setMaximumBatchDelayInMillis(int maximumBatchDelayInMillis) {
+        this.maximumBatchDelayInMillis = maximumBatchDelayInMillis;
+    }
+
+    /**
+     * @return the maximum size of a message, in bytes, after any decompression
+     */
+    public int getMaximumMessageSize() {
+        return maximumMessageSize;
+    }
+
+    public void setMaximumMessageSize(int maximumMessageSize) {
+        this.maximumMessageSize = maximumMessageSize;
+    }
+
+    /**
+     * @return the number of seconds after which a connection that hasn't sent a message is closed
+     */
+    public int getIdleTimeoutInSeconds() {
+        return idleTimeoutInSeconds;
+    }
+
+    public void setIdleTimeoutInSeconds(int idleTimeoutInSeconds) {
+        this.idleTimeoutInSeconds = idleTimeoutInSeconds;
+    }
+
+    /**
+     * @return the number of threads that insert batches that haven't filled up in time
+     */
+    public int getFlusherThreadCount() {
+        return flusherThreadCount;
+    }
+
+    public void setFlusherThreadCount(int flusherThreadCount) {
+        this.flusherThreadCount = flusherThreadCount;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control subscriptions to newly saved data points.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "dataPointSubscriptions")
+public class DataPointSubscriptionProperties {
+
+    private int maximumSubscriptionCount = 10_000;
+    private int bufferSize = 256;
+    private int timeoutInMinutes = 30;
+    private int senderThreadCount = 4;
+
+    /**
+     * @return the maximum number of open subscriptions across all users
+     */
+    public int getMaximumSubscriptionCount() {
+        return maximumSubscriptionCount;
+    }
+
+    public void setMaximumSubscriptionCount(int maximumSubscriptionCount) {
+        this.maximumSubscriptionCount = maximumSubscriptionCount;
+    }
+
+    /**
+     * @return the number of data points to hold for a subscriber that hasn't been sent them yet, beyond which new data
+     * points are dropped
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return the number of minutes after which a subscription is closed, for the client to reconnect
+     */
+    public int getTimeoutInMinutes() {
+        return timeoutInMinutes;
+    }
+
+    public void setTimeoutInMinutes(int timeoutInMinutes) {
+        this.timeoutInMinutes = timeoutInMinutes;
+    }
+
+    /**
+     * @return the number of threads that send data points to subscribers
+     */
+    public int getSenderThreadCount() {
+        return senderThreadCount;
+    }
+
+    public void setSenderThreadCount(int senderThreadCount) {
+        this.senderThreadCount = senderThreadCount;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control resumable data point uploads.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "dataPointUploads")
+public class DataPointUploadProperties {
+
+    private int insertBatchSize = 500;
+    private long maximumChunkSize = 8 * 1024 * 1024;
+    private int sessionExpiryInHours = 7 * 24;
+
+    /**
+     * @return the number of data points of a chunk to insert at a time
+     */
+    public int getInsertBatchSize() {
+        return insertBatchSize;
+    }
+
+    public void setInsertBatchSize(int insertBatchSize) {
+        this.insertBatchSize = insertBatchSize;
+    }
+
+    /**
+     * @return the maximum size of an uncompressed chunk, in bytes, which is held in memory while it's written
+     */
+    public long getMaximumChunkSize() {
+        return maximumChunkSize;
+    }
+
+    public void setMaximumChunkSize(long maximumChunkSize) {
+        this.maximumChunkSize = maximumChunkSize;
+    }
+
+    /**
+     * @return the number of hours after its last modification that an upload session is discarded
+     */
+    public int getSessionExpiryInHours() {
+        return sessionExpiryInHours;
+    }
+
+    public void setSessionExpiryInHours(int sessionExpiryInHours) {
+        this.sessionExpiryInHours = sessionExpiryInHours;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.openmhealth.dsu.filter.LatencyHistogram;
+import org.openmhealth.dsu.filter.RequestLatencyFilter;
+import org.openmhealth.dsu.service.MaintenanceThrottle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+
+/**
+ * A configuration that throttles maintenance jobs against the latency of the data point endpoints. The latency filter
+ * is ordered after admission control, so that requests rejected without touching storage don't dilute the measured
+ * latency.
+ *
+ * @author Emerson Farrugia
+ */
+@Configuration
+public class MaintenanceJobConfiguration {
+
+    @Autowired
+    private MaintenanceJobProperties properties;
+
+    @Bean
+    public LatencyHistogram foregroundLatencyHistogram() {
+
+        return new LatencyHistogram(SECONDS.toNanos(properties.getLatencyWindowInSeconds()), System.nanoTime());
+    }
+
+    @Bean
+    public FilterRegistrationBean requestLatencyFilterRegistration() {
+
+        FilterRegistrationBean registration =
+                new FilterRegistrationBean(new RequestLatencyFilter(foregroundLatencyHistogram()));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 3);
+        registration.addUrlPatterns("/v1.0.M1/dataPoints", "/v1.0.M1/dataPoints/*");
+
+        return registration;
+    }
+
+    @Bean
+    public MaintenanceThrottle maintenanceThrottle() {
+
+        LatencyHistogram histogram = foregroundLatencyHistogram();
+
+        return new MaintenanceThrottle(
+                properties.getMaximumOperationsPerSecond(),
+                properties.getMinimumOperationsPerSecond(),
+                MILLISECONDS.toNanos(properties.getLatencyBudgetInMillis()),
+                () -> histogram.getPercentile(0.99, System.nanoTime()));
+    }
+}
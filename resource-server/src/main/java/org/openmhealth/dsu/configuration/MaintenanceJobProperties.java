@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control background maintenance jobs.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "maintenanceJobs")
+public class MaintenanceJobProperties {
+
+    private int batchSize = 1000;
+    private int maximumOperationsPerSecond = 2000;
+    private int minimumOperationsPerSecond = 50;
+    private int latencyBudgetInMillis = 250;
+    private int latencyWindowInSeconds = 30;
+    private int leaseDurationInSeconds = 300;
+    private int finishedJobRetentionInDays = 7;
+
+    /**
+     * @return the number of operations a job performs per batch, e.g. the number of data points a deletion deletes
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the rate that jobs are paced to while foreground latency is within its budget
+     */
+    public int getMaximumOperationsPerSecond() {
+        return maximumOperationsPerSecond;
+    }
+
+    public void setMaximumOperationsPerSecond(int maximumOperationsPerSecond) {
+        this.maximumOperationsPerSecond = maximumOperationsPerSecond;
+    }
+
+    /**
+     * @return the rate that jobs never back off below, so that they always make progress
+     */
+    public int getMinimumOperationsPerSecond() {
+        return minimumOperationsPerSecond;
+    }
+
+    public void setMinimumOperationsPerSecond(int minimumOperationsPerSecond) {
+        this.minimumOperationsPerSecond = minimumOperationsPerSecond;
+    }
+
+    /**
+     * @return the 99th percentile latency of data point requests above which jobs back off, or zero to disable
+     * backing off
+     */
+    public int getLatencyBudgetInMillis() {
+        return latencyBudgetInMillis;
+    }
+
+    public void setLatencyBudgetInMillis(int latencyBudgetInMillis) {
+        this.latencyBudgetInMillis = latencyBudgetInMillis;
+    }
+
+    /**
+     * @return the duration of the window over which the latency of data point requests is measured
+     */
+    public int getLatencyWindowInSeconds() {
+        return latencyWindowInSeconds;
+    }
+
+    public void setLatencyWindowInSeconds(int latencyWindowInSeconds) {
+        this.latencyWindowInSeconds = latencyWindowInSeconds;
+    }
+
+    /**
+     * @return how long a server may go without saving a checkpoint before another server takes over its job
+     */
+    public int getLeaseDurationInSeconds() {
+        return leaseDurationInSeconds;
+    }
+
+    public void setLeaseDurationInSeconds(int leaseDurationInSeconds) {
+        this.leaseDurationInSeconds = leaseDurationInSeconds;
+    }
+
+    /**
+     * @return the number of days a completed or failed job can still be polled
+     */
+    public int getFinishedJobRetentionInDays() {
+        return finishedJobRetentionInDays;
+    }
+
+    public void setFinishedJobRetentionInDays(int finishedJobRetentionInDays) {
+        this.finishedJobRetentionInDays = finishedJobRetentionInDays;
+    }
+}
@@ -16,17 +16,30 @@
 
 package org.openmhealth.dsu.configuration;
 
+import org.openmhealth.dsu.security.CompiledPreInvocationAuthorizationAdvice;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.access.AccessDecisionManager;
+import org.springframework.security.access.AccessDecisionVoter;
+import org.springframework.security.access.expression.method.ExpressionBasedPreInvocationAdvice;
 import org.springframework.security.access.expression.method.MethodSecurityExpressionHandler;
 import org.springframework.security.access.prepost.PostAuthorize;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.access.prepost.PreInvocationAuthorizationAdviceVoter;
+import org.springframework.security.access.vote.AffirmativeBased;
+import org.springframework.security.access.vote.AuthenticatedVoter;
+import org.springframework.security.access.vote.RoleVoter;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.security.config.annotation.method.configuration.GlobalMethodSecurityConfiguration;
 import org.springframework.security.oauth2.provider.expression.OAuth2MethodSecurityExpressionHandler;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 /**
- * A configuration that enables {@link PreAuthorize} and {@link PostAuthorize} annotations.
+ * A configuration that enables {@link PreAuthorize} and {@link PostAuthorize} annotations. Unless disabled, the
+ * {@link PreAuthorize} role and scope checks are compiled once per method instead of being evaluated on every call.
  *
  * @author Emerson Farrugia
  */
@@ -34,8 +47,31 @@ import org.springframework.security.oauth2.provider.expression.OAuth2MethodSecur
 @EnableGlobalMethodSecurity(prePostEnabled = true, proxyTargetClass = true)
 public class MethodSecurityConfiguration extends GlobalMethodSecurityConfiguration {
 
+    @Autowired
+    private MethodSecurityProperties properties;
+
     @Override
     protected MethodSecurityExpressionHandler createExpressionHandler() {
         return new OAuth2MethodSecurityExpressionHandler();
     }
+
+    @Override
+    protected AccessDecisionManager accessDecisionManager() {
+
+        if (!properties.isCompiledChecksEnabled()) {
+            return super.accessDecisionManager();
+        }
+
+        ExpressionBasedPreInvocationAdvice expressionAdvice = new ExpressionBasedPreInvocationAdvice();
+        expressionAdvice.setExpressionHandler(getExpressionHandler());
+
+        // the same voters as the default, with expressions that can't be compiled still evaluated
+        List<AccessDecisionVoter<?>> decisionVoters = new ArrayList<>();
+        decisionVoters.add(new PreInvocationAuthorizationAdviceVoter(
+                new CompiledPreInvocationAuthorizationAdvice(expressionAdvice)));
+        decisionVoters.add(new RoleVoter());
+        decisionVoters.add(new AuthenticatedVoter());
+
+        return new AffirmativeBased(decisionVoters);
+    }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control how method security annotations are evaluated.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "methodSecurity")
+public class MethodSecurityProperties {
+
+    private boolean compiledChecksEnabled = true;
+
+    /**
+     * @return true if the role and scope requirements of {@code @PreAuthorize} annotations are compiled into bit masks
+     * once per method, false if their expressions are evaluated on every call
+     */
+    public boolean isCompiledChecksEnabled() {
+        return compiledChecksEnabled;
+    }
+
+    public void setCompiledChecksEnabled(boolean compiledChecksEnabled) {
+        this.compiledChecksEnabled = compiledChecksEnabled;
+    }
+}
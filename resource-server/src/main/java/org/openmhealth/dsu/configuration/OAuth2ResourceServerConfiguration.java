@@ -16,11 +16,18 @@
 
 package org.openmhealth.dsu.configuration;
 
+import org.openmhealth.dsu.service.CachingResourceServerTokenServices;
+import org.openmhealth.dsu.service.JwtResourceServerTokenServices;
+import org.openmhealth.dsu.token.KeyRotatingJwtAccessTokenConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.oauth2.config.annotation.web.configuration.EnableResourceServer;
 import org.springframework.security.oauth2.config.annotation.web.configuration.ResourceServerConfigurerAdapter;
 import org.springframework.security.oauth2.config.annotation.web.configurers.ResourceServerSecurityConfigurer;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
+import org.springframework.security.oauth2.provider.token.TokenStore;
 
 
 /**
@@ -32,9 +39,39 @@ import org.springframework.security.oauth2.config.annotation.web.configurers.Res
 @EnableResourceServer
 public class OAuth2ResourceServerConfiguration extends ResourceServerConfigurerAdapter {
 
+    @Autowired
+    private TokenStore tokenStore;
+
+    @Autowired
+    private AccessTokenCacheProperties accessTokenCacheProperties;
+
+    // only present if access tokens are signed
+    @Autowired(required = false)
+    private KeyRotatingJwtAccessTokenConverter accessTokenConverter;
+
+    /**
+     * @return the token services used to authenticate requests, which keep the token store off the path of most
+     * requests
+     */
+    @Bean
+    public ResourceServerTokenServices tokenServices() {
+
+        // signed tokens are verified locally, so there's nothing to cache
+        if (accessTokenConverter != null) {
+            return new JwtResourceServerTokenServices(accessTokenConverter);
+        }
+
+        return new CachingResourceServerTokenServices(tokenStore, accessTokenCacheProperties.getMaximumSize(),
+                accessTokenCacheProperties.getMaximumTimeToLiveInSeconds(),
+                accessTokenCacheProperties.getInvalidTokenTimeToLiveInSeconds());
+    }
+
     @Override
     public void configure(ResourceServerSecurityConfigurer resources) {
-        resources.resourceId(OAuth2Properties.DATA_POINT_RESOURCE_ID);
+
+        resources
+                .resourceId(OAuth2Properties.DATA_POINT_RESOURCE_ID)
+                .tokenServices(tokenServices());
     }
 
     @Override
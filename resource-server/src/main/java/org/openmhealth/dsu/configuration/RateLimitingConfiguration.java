@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.configuration;
+
+import org.openmhealth.dsu.filter.RateLimiter;
+import org.openmhealth.dsu.filter.RateLimitingInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.util.Map;
+
+import static java.util.stream.Collectors.toMap;
+
+
+/**
+ * A configuration that rate limits data point requests by client and user. The limiter is an interceptor rather than
+ * a filter, so that it runs after the access token has been authenticated.
+ *
+ * @author Emerson Farrugia
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "rateLimiting", name = "enabled", matchIfMissing = true)
+public class RateLimitingConfiguration extends WebMvcConfigurerAdapter {
+
+    @Autowired
+    private RateLimitingProperties properties;
+
+    @Bean
+    public RateLimiter rateLimiter() {
+
+        Map<String, RateLimiter.Limit> clientLimits = properties.getClients().entrySet().stream()
+                .collect(toMap(Map.Entry::getKey, entry -> toLimit(entry.getValue())));
+
+        return new RateLimiter(toLimit(properties.getClient()), clientLimits, toLimit(properties.getUser()),
+                properties.getOffenderMetricCount());
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+
+        registry.addInterceptor(new RateLimitingInterceptor(rateLimiter())).addPathPatterns("/v1.0.M1/dataPoints/**");
+    }
+
+    @Scheduled(fixedDelay = 60_000)
+    public void evictIdleBuckets() {
+        rateLimiter().evictIdleBuckets();
+    }
+
+    private RateLimiter.Limit toLimit(RateLimitingProperties.Limit limit) {
+        return new RateLimiter.Limit(limit.getRequestsPerSecond(), limit.getBurst());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The properties that control rate limiting of data point requests by client and user.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "rateLimiting")
+public class RateLimitingProperties {
+
+    private boolean enabled = true;
+    private Limit client = new Limit(50, 200);
+    private Map<String, Limit> clients = new HashMap<>();
+    private Limit user = new Limit(5, 50);
+    private int offenderMetricCount = 10;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the limit of a client that has no limit of its own
+     */
+    public Limit getClient() {
+        return client;
+    }
+
+    /**
+     * @return the limits of specific clients, keyed by client identifier
+     */
+    public Map<String, Limit> getClients() {
+        return clients;
+    }
+
+    /**
+     * @return the limit of each user of a client
+     */
+    public Limit getUser() {
+        return user;
+    }
+
+    /**
+     * @return the number of the most rate limited clients and users to publish metrics for
+     */
+    public int getOffenderMetricCount() {
+        return offenderMetricCount;
+    }
+
+    public void setOffenderMetricCount(int offenderMetricCount) {
+        this.offenderMetricCount = offenderMetricCount;
+    }
+
+    public static class Limit {
+
+        private double requestsPerSecond;
+        private int burst;
+
+        public Limit() {
+        }
+
+        public Limit(double requestsPerSecond, int burst) {
+
+            this.requestsPerSecond = requestsPerSecond;
+            this.burst = burst;
+        }
+
+        public double getRequestsPerSecond() {
+            return requestsPerSecond;
+        }
+
+        public void setRequestsPerSecond(double requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+        }
+
+        /**
+         * @return the number of requests that may be made in a burst on top of the sustained rate
+         */
+        public int getBurst() {
+            return burst;
+        }
+
+        public void setBurst(int burst) {
+            this.burst = burst;
+        }
+    }
+}
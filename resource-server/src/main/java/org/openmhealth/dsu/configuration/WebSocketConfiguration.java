@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.server.WebSocketServerFactory;
+import org.openmhealth.dsu.controller.DataPointStreamHandler;
+import org.openmhealth.dsu.controller.DataPointStreamHandshakeInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.jetty.JettyRequestUpgradeStrategy;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+
+/**
+ * A configuration for WebSocket endpoints.
+ *
+ * @author Emerson Farrugia
+ */
+@Configuration
+@EnableWebSocket
+public class WebSocketConfiguration implements WebSocketConfigurer {
+
+    // matches the version prefix of API controllers
+    public static final String DATA_POINT_STREAM_PATH = "/v1.0.M1/dataPoints/stream";
+
+    @Autowired
+    private DataPointStreamHandler dataPointStreamHandler;
+
+    @Autowired
+    private DataPointStreamHandshakeInterceptor dataPointStreamHandshakeInterceptor;
+
+    @Autowired
+    private DataPointStreamProperties dataPointStreamProperties;
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+
+        // compressed messages are inflated and checked by the handler, so they're allowed to arrive at any size up to
+        // the limit
+        WebSocketPolicy policy = WebSocketPolicy.newServerPolicy();
+        policy.setMaxTextMessageSize(dataPointStreamProperties.getMaximumMessageSize());
+        policy.setMaxBinaryMessageSize(dataPointStreamProperties.getMaximumMessageSize());
+        policy.setIdleTimeout(SECONDS.toMillis(dataPointStreamProperties.getIdleTimeoutInSeconds()));
+
+        registry.addHandler(dataPointStreamHandler, DATA_POINT_STREAM_PATH)
+                .addInterceptors(dataPointStreamHandshakeInterceptor)
+                .setHandshakeHandler(new DefaultHandshakeHandler(
+                        new JettyRequestUpgradeStrategy(new WebSocketServerFactory(policy))));
+    }
+}
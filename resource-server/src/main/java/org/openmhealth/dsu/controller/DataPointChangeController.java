@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.controller;
+
+import org.openmhealth.dsu.domain.DataPointChangePage;
+import org.openmhealth.dsu.domain.DataPointChangeToken;
+import org.openmhealth.dsu.domain.EndUserUserDetails;
+import org.openmhealth.dsu.service.DataPointService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Optional;
+
+import static org.openmhealth.dsu.configuration.OAuth2Properties.*;
+import static org.openmhealth.dsu.controller.DataPointController.DEFAULT_RESULT_LIMIT;
+import static org.openmhealth.dsu.controller.DataPointController.RESULT_LIMIT_PARAMETER;
+import static org.springframework.http.HttpStatus.*;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+import static org.springframework.web.bind.annotation.RequestMethod.HEAD;
+
+
+/**
+ * A controller that serves the feed of changes to the data points of a user. A client first reads a token without
+ * passing one, then exports or reads its data points, and from then on passes the last token it received to read the
+ * data points saved and deleted since. If a client falls behind for longer than changes are retained, its token
+ * expires and it has to start over.
+ *
+ * @author Emerson Farrugia
+ */
+@ApiController
+public class DataPointChangeController {
+
+    public static final String SINCE_PARAMETER = "since";
+
+    @Autowired
+    private DataPointService dataPointService;
+
+    /**
+     * Reads changes to data points.
+     *
+     * @param since the token returned with the last page of changes, or null to get a token without reading changes
+     * @param limit the maximum number of changes to return
+     * @return the changes and the token that follows them, or a 410 if the token has expired
+     */
+    // only allow clients with read scope to read changes
+    @PreAuthorize("#oauth2.clientHasRole('" + CLIENT_ROLE + "') and #oauth2.hasScope('" + DATA_POINT_READ_SCOPE + "')")
+    @RequestMapping(value = "/dataPoints/changes", method = {HEAD, GET}, produces = APPLICATION_JSON_VALUE)
+    public
+    @ResponseBody
+    ResponseEntity<DataPointChangePage> readChanges(
+            @RequestParam(value = SINCE_PARAMETER, required = false) final String since,
+            @RequestParam(value = RESULT_LIMIT_PARAMETER, defaultValue = DEFAULT_RESULT_LIMIT) final Integer limit,
+            Authentication authentication) {
+
+        if (limit <= 0) {
+            return new ResponseEntity<>(BAD_REQUEST);
+        }
+
+        DataPointChangeToken token = null;
+
+        if (since != null) {
+            Optional<DataPointChangeToken> parsedToken = DataPointChangeToken.parse(since);
+
+            if (!parsedToken.isPresent()) {
+                return new ResponseEntity<>(BAD_REQUEST);
+            }
+
+            token = parsedToken.get();
+        }
+
+        Optional<DataPointChangePage> page =
+                dataPointService.findChanges(getEndUserId(authentication), token, limit);
+
+        if (!page.isPresent()) {
+            return new ResponseEntity<>(GONE);
+        }
+
+        return new ResponseEntity<>(page.get(), OK);
+    }
+
+    private String getEndUserId(Authentication authentication) {
+
+        return ((EndUserUserDetails) authentication.getPrincipal()).getUsername();
+    }
+}
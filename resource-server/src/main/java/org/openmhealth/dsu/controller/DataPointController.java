@@ -21,21 +21,19 @@ import org.openmhealth.dsu.domain.DataPointSearchCriteria;
 import org.openmhealth.dsu.domain.EndUserUserDetails;
 import org.openmhealth.dsu.service.DataPointService;
 import org.openmhealth.schema.domain.omh.DataPoint;
-import org.openmhealth.schema.domain.omh.DataPointHeader;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.access.prepost.PostAuthorize;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
-import java.lang.reflect.Field;
 import java.time.OffsetDateTime;
 import java.util.Optional;
 
 import static org.openmhealth.dsu.configuration.OAuth2Properties.*;
+import static org.openmhealth.dsu.domain.DataPointHeaders.setUserId;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 import static org.springframework.web.bind.annotation.RequestMethod.*;
@@ -142,20 +140,19 @@ public class DataPointController {
     // TODO confirm if HEAD handling needs anything additional
     // only allow clients with read scope to read a data point
     @PreAuthorize("#oauth2.clientHasRole('" + CLIENT_ROLE + "') and #oauth2.hasScope('" + DATA_POINT_READ_SCOPE + "')")
-    // ensure that the returned data point belongs to the user associated with the access token
-    @PostAuthorize("returnObject.body == null || returnObject.body.header.userId == principal.username")
     @RequestMapping(value = "/dataPoints/{id}", method = {HEAD, GET}, produces = APPLICATION_JSON_VALUE)
     public
     @ResponseBody
-    ResponseEntity<DataPoint> readDataPoint(@PathVariable String id) {
+    ResponseEntity<DataPoint> readDataPoint(@PathVariable String id, Authentication authentication) {
 
-        Optional<DataPoint> dataPoint = dataPointService.findOne(id);
+        // the query is restricted to the user associated with the access token, so a data point that belongs to
+        // another user is indistinguishable from one that doesn't exist
+        Optional<DataPoint> dataPoint = dataPointService.findByIdAndUserId(id, getEndUserId(authentication));
 
         if (!dataPoint.isPresent()) {
             return new ResponseEntity<>(NOT_FOUND);
         }
 
-        // FIXME test @PostAuthorize
         return new ResponseEntity<>(dataPoint.get(), OK);
     }
 
@@ -169,13 +166,13 @@ public class DataPointController {
     @RequestMapping(value = "/dataPoints", method = POST, consumes = APPLICATION_JSON_VALUE)
     public ResponseEntity<?> writeDataPoint(@RequestBody @Valid DataPoint dataPoint, Authentication authentication) {
 
+        String endUserId = getEndUserId(authentication);
+
         // FIXME test validation
-        if (dataPointService.exists(dataPoint.getHeader().getId())) {
+        if (dataPointService.existsForUserId(dataPoint.getHeader().getId(), endUserId)) {
             return new ResponseEntity<>(CONFLICT);
         }
 
-        String endUserId = getEndUserId(authentication);
-
         // set the owner of the data point to be the user associated with the access token
         setUserId(dataPoint.getHeader(), endUserId);
 
@@ -184,18 +181,6 @@ public class DataPointController {
         return new ResponseEntity<>(CREATED);
     }
 
-    // this is currently implemented using reflection, until we see other use cases where mutability would be useful
-    private void setUserId(DataPointHeader header, String endUserId) {
-        try {
-            Field userIdField = header.getClass().getDeclaredField("userId");
-            userIdField.setAccessible(true);
-            userIdField.set(header, endUserId);
-        }
-        catch (NoSuchFieldException | IllegalAccessException e) {
-            throw new IllegalStateException("A user identifier property can't be changed in the data point header.", e);
-        }
-    }
-
     /**
      * Deletes a data point.
      *
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.controller;
+
+import com.google.common.collect.Range;
+import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.dsu.domain.EndUserUserDetails;
+import org.openmhealth.dsu.domain.MaintenanceJob;
+import org.openmhealth.dsu.service.DataPointDeletionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.time.OffsetDateTime;
+import java.util.Optional;
+
+import static org.openmhealth.dsu.configuration.OAuth2Properties.*;
+import static org.openmhealth.dsu.controller.DataPointController.*;
+import static org.springframework.http.HttpStatus.*;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.web.bind.annotation.RequestMethod.*;
+
+
+/**
+ * A controller that handles bulk deletions of data points. A deletion runs in the background, so a client creates a
+ * deletion job and polls it until it completes.
+ *
+ * @author Emerson Farrugia
+ */
+@ApiController
+public class DataPointDeletionController {
+
+    public static final String PURGE_PARAMETER = "purge";
+
+    @Autowired
+    private DataPointDeletionService deletionService;
+
+    /**
+     * Creates a job that deletes the data points that match search criteria.
+     *
+     * @param schemaNamespace the namespace of the schema the data points conform to
+     * @param schemaName the name of the schema the data points conform to
+     * @param schemaVersion the version of the schema the data points conform to
+     * @param createdOnOrAfter the earliest creation timestamp of the data points to delete, inclusive
+     * @param createdBefore the latest creation timestamp of the data points to delete, exclusive
+     * @return the queued deletion job
+     */
+    // only allow clients with delete scope to delete data points
+    @PreAuthorize("#oauth2.clientHasRole('" + CLIENT_ROLE + "') and #oauth2.hasScope('" + DATA_POINT_DELETE_SCOPE + "')")
+    @RequestMapping(value = "/dataPoints/deletions", method = POST, produces = APPLICATION_JSON_VALUE,
+            params = {SCHEMA_NAMESPACE_PARAMETER, SCHEMA_NAME_PARAMETER, SCHEMA_VERSION_PARAMETER})
+    public
+    @ResponseBody
+    ResponseEntity<MaintenanceJob> createJob(
+            @RequestParam(value = SCHEMA_NAMESPACE_PARAMETER) final String schemaNamespace,
+            @RequestParam(value = SCHEMA_NAME_PARAMETER) final String schemaName,
+            @RequestParam(value = SCHEMA_VERSION_PARAMETER) final String schemaVersion,
+            @RequestParam(value = CREATED_ON_OR_AFTER_PARAMETER, required = false)
+            final OffsetDateTime createdOnOrAfter,
+            @RequestParam(value = CREATED_BEFORE_PARAMETER, required = false) final OffsetDateTime createdBefore,
+            Authentication authentication) {
+
+        DataPointSearchCriteria searchCriteria =
+                new DataPointSearchCriteria(getEndUserId(authentication), schemaNamespace, schemaName, schemaVersion);
+
+        if (createdOnOrAfter != null && createdBefore != null) {
+            searchCriteria.setCreationTimestampRange(Range.closedOpen(createdOnOrAfter, createdBefore));
+        }
+        else if (createdOnOrAfter != null) {
+            searchCriteria.setCreationTimestampRange(Range.atLeast(createdOnOrAfter));
+        }
+        else if (createdBefore != null) {
+            searchCriteria.setCreationTimestampRange(Range.lessThan(createdBefore));
+        }
+
+        return newAcceptedResponse(deletionService.createJob(searchCriteria));
+    }
+
+    /**
+     * Creates a job that deletes all the data points of the user. The purge parameter must be set, so that a request
+     * that is missing its search criteria can't delete everything by accident.
+     *
+     * @return the queued deletion job
+     */
+    @PreAuthorize("#oauth2.clientHasRole('" + CLIENT_ROLE + "') and #oauth2.hasScope('" + DATA_POINT_DELETE_SCOPE + "')")
+    @RequestMapping(value = "/dataPoints/deletions", method = POST, produces = APPLICATION_JSON_VALUE,
+            params = PURGE_PARAMETER + "=true")
+    public
+    @ResponseBody
+    ResponseEntity<MaintenanceJob> createPurgeJob(Authentication authentication) {
+
+        return newAcceptedResponse(deletionService.createPurgeJob(getEndUserId(authentication)));
+    }
+
+    /**
+     * Reads a deletion job.
+     *
+     * @param jobId the identifier of the deletion job
+     * @return the deletion job, if found
+     */
+    @PreAuthorize("#oauth2.clientHasRole('" + CLIENT_ROLE + "') and #oauth2.hasScope('" + DATA_POINT_DELETE_SCOPE + "')")
+    @RequestMapping(value = "/dataPoints/deletions/{jobId}", method = {HEAD, GET}, produces = APPLICATION_JSON_VALUE)
+    public
+    @ResponseBody
+    ResponseEntity<MaintenanceJob> readJob(@PathVariable String jobId, Authentication authentication) {
+
+        Optional<MaintenanceJob> job = deletionService.findJob(jobId, getEndUserId(authentication));
+
+        if (!job.isPresent()) {
+            return new ResponseEntity<>(NOT_FOUND);
+        }
+
+        return new ResponseEntity<>(job.get(), OK);
+    }
+
+    private ResponseEntity<MaintenanceJob> newAcceptedResponse(MaintenanceJob job) {
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setLocation(ServletUriComponentsBuilder.fromCurrentRequestUri()
+                .path("/{jobId}").buildAndExpand(job.getId()).toUri());
+
+        return new ResponseEntity<>(job, headers, ACCEPTED);
+    }
+
+    private String getEndUserId(Authentication authentication) {
+
+        return ((EndUserUserDetails) authentication.getPrincipal()).getUsername();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openmhealth.dsu.domain.DataPointExportToken;
+import org.openmhealth.dsu.domain.EndUserUserDetails;
+import org.openmhealth.dsu.service.DataPointService;
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.openmhealth.schema.domain.omh.SchemaVersion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+
+import static com.fasterxml.jackson.databind.SerializationFeature.FLUSH_AFTER_WRITE_VALUE;
+import static org.openmhealth.dsu.configuration.OAuth2Properties.*;
+import static org.openmhealth.dsu.controller.DataPointController.*;
+import static org.openmhealth.schema.domain.omh.SchemaId.isValidName;
+import static org.openmhealth.schema.domain.omh.SchemaId.isValidNamespace;
+import static org.openmhealth.schema.domain.omh.SchemaVersion.isValidVersion;
+import static org.springframework.http.HttpHeaders.CONTENT_DISPOSITION;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+
+/**
+ * A controller that exports all the data points of a user as a gzip compressed file of newline-delimited JSON. Data
+ * points are written as they're read from storage, so an export of any size is streamed in constant memory, and it's
+ * written asynchronously, so it doesn't hold on to a request thread. Each line holds a data point and the token to
+ * resume after it, and a client whose download is interrupted resumes it by passing the token of the last data point
+ * it received in full.
+ *
+ * @author Emerson Farrugia
+ */
+@ApiController
+public class DataPointExportController {
+
+    public static final String GZIP_MEDIA_TYPE = "application/gzip";
+    public static final String AFTER_PARAMETER = "after";
+    public static final String RESUME_TOKEN_FIELD = "resume_token";
+    public static final String DATA_POINT_FIELD = "data_point";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private DataPointService dataPointService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Exports data points.
+     *
+     * @param schemaNamespace the namespace of the schema the data points conform to, if only data points of one
+     * schema are exported
+     * @param schemaName the name of the schema the data points conform to, if only data points of one schema are
+     * exported
+     * @param schemaVersion the version of the schema the data points conform to, if only data points of one schema
+     * are exported
+     * @param after the resume token of the last data point received by an interrupted export, if it's being resumed
+     * @return the gzip compressed data points and their resume tokens, one per line
+     */
+    // only allow clients with read scope to export data points
+    @PreAuthorize("#oauth2.clientHasRole('" + CLIENT_ROLE + "') and #oauth2.hasScope('" + DATA_POINT_READ_SCOPE + "')")
+    @RequestMapping(value = "/dataPoints/export", method = GET, produces = GZIP_MEDIA_TYPE)
+    public ResponseEntity<StreamingResponseBody> exportDataPoints(
+            @RequestParam(value = SCHEMA_NAMESPACE_PARAMETER, required = false) final String schemaNamespace,
+            @RequestParam(value = SCHEMA_NAME_PARAMETER, required = false) final String schemaName,
+            @RequestParam(value = SCHEMA_VERSION_PARAMETER, required = false) final String schemaVersion,
+            @RequestParam(value = AFTER_PARAMETER, required = false) final String after,
+            Authentication authentication) {
+
+        SchemaId schemaId = null;
+
+        if (schemaNamespace != null || schemaName != null || schemaVersion != null) {
+
+            // a schema is either identified in full or not at all
+            if (schemaNamespace == null || schemaName == null || schemaVersion == null
+                    || !isValidNamespace(schemaNamespace) || !isValidName(schemaName)
+                    || !isValidVersion(schemaVersion)) {
+
+                return new ResponseEntity<>(BAD_REQUEST);
+            }
+
+            schemaId = new SchemaId(schemaNamespace, schemaName, new SchemaVersion(schemaVersion));
+        }
+
+        DataPointExportToken afterToken = null;
+
+        if (after != null) {
+            Optional<DataPointExportToken> parsedToken = DataPointExportToken.parse(after);
+
+            if (!parsedToken.isPresent()) {
+                return new ResponseEntity<>(BAD_REQUEST);
+            }
+
+            afterToken = parsedToken.get();
+        }
+
+        // the body is written on another thread, once the security context of the request is gone
+        String endUserId = getEndUserId(authentication);
+        SchemaId exportedSchemaId = schemaId;
+        DataPointExportToken exportedAfterToken = afterToken;
+
+        StreamingResponseBody body = outputStream -> {
+
+            EndableGZIPOutputStream gzipOutputStream = new EndableGZIPOutputStream(outputStream, BUFFER_SIZE);
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(gzipOutputStream);
+            ObjectWriter writer = objectMapper.writer().without(FLUSH_AFTER_WRITE_VALUE);
+
+            try {
+                dataPointService.exportByUserId(endUserId, exportedSchemaId, exportedAfterToken, (token, dataPoint) -> {
+                    try {
+                        generator.writeStartObject();
+                        generator.writeStringField(RESUME_TOKEN_FIELD, token.toString());
+                        generator.writeFieldName(DATA_POINT_FIELD);
+                        writer.writeValue(generator, dataPoint);
+                        generator.writeEndObject();
+                        generator.writeRaw('\n');
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+
+                // the gzip trailer is only written once every data point has been, so that a client can tell an
+                // export that failed part way through from one that completed
+                generator.flush();
+                gzipOutputStream.finish();
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            finally {
+                gzipOutputStream.end();
+            }
+        };
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(GZIP_MEDIA_TYPE));
+        headers.set(CONTENT_DISPOSITION, "attachment; filename=\"dataPoints.ndjson.gz\"");
+
+        return new ResponseEntity<>(body, headers, OK);
+    }
+
+    private String getEndUserId(Authentication authentication) {
+
+        return ((EndUserUserDetails) authentication.getPrincipal()).getUsername();
+    }
+
+
+    /**
+     * A gzip output stream whose deflater can be ended without closing the stream, since closing it would write the
+     * trailer even when the export has failed.
+     */
+    private static class EndableGZIPOutputStream extends GZIPOutputStream {
+
+        EndableGZIPOutputStream(OutputStream outputStream, int size) throws IOException {
+            super(outputStream, size);
+        }
+
+        void end() {
+            def.end();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.openmhealth.dsu.configuration.DataPointStreamProperties;
+import org.openmhealth.dsu.domain.DataPointUploadException;
+import org.openmhealth.dsu.service.DataPointService;
+import org.openmhealth.dsu.service.DataPointUploadService;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.openmhealth.dsu.controller.DataPointStreamHandshakeInterceptor.ACCESS_TOKEN_EXPIRATION_ATTRIBUTE;
+import static org.openmhealth.dsu.controller.DataPointStreamHandshakeInterceptor.USER_ID_ATTRIBUTE;
+
+
+/**
+ * A WebSocket handler that accepts a continuous stream of data points. Each message holds newline-delimited JSON
+ * data points, either as text or as gzip compressed binary. Data points from consecutive messages are inserted
+ * together, once a batch fills up or has waited long enough, and the server then acknowledges the number of messages
+ * received so far, e.g. <code>{"acknowledged": 12}</code>.
+ * <p>
+ * When a stream opens, the server sends the size of its window, e.g. <code>{"window": 64}</code>, which is the number
+ * of messages a client can send before it has to wait for an acknowledgement. A client that loses its connection
+ * sends the unacknowledged messages again on a new one, and data points that were already inserted are skipped.
+ * <p>
+ * A stream is closed once the access token it was opened with expires, and the client then opens a new one with a
+ * fresh access token.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+public class DataPointStreamHandler extends AbstractWebSocketHandler implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(DataPointStreamHandler.class);
+
+    private static final CloseStatus ACCESS_TOKEN_EXPIRED_STATUS =
+            CloseStatus.POLICY_VIOLATION.withReason("The access token has expired.");
+
+    @Autowired
+    private DataPointService dataPointService;
+
+    @Autowired
+    private DataPointUploadService uploadService;
+
+    @Autowired
+    private DataPointStreamProperties properties;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Map<String, DataPointStream> streams = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executorService;
+
+    @PostConstruct
+    public void initializeExecutorService() {
+
+        executorService = Executors.newScheduledThreadPool(properties.getFlusherThreadCount(),
+                new ThreadFactoryBuilder().setNameFormat("data-point-stream-%d").setDaemon(true).build());
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+
+        DataPointStream stream = new DataPointStream(session, (String) session.getAttributes().get(USER_ID_ATTRIBUTE),
+                (Date) session.getAttributes().get(ACCESS_TOKEN_EXPIRATION_ATTRIBUTE));
+
+        streams.put(session.getId(), stream);
+
+        synchronized (stream) {
+            stream.send("window", properties.getWindowSize());
+        }
+
+        // the stream is closed when its access token expires, even if the client has stopped sending
+        if (stream.accessTokenExpiration != null) {
+            executorService.schedule(() -> closeExpired(stream),
+                    stream.accessTokenExpiration.getTime() - System.currentTimeMillis(), MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+
+        receive(session, new BufferedReader(new StringReader(message.getPayload())));
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+
+        byte[] inflatedMessage;
+
+        // the message is inflated in full before any of it is read, so that none of a message that is too large is
+        // inserted, and reading one byte past the limit is enough to tell that it's too large
+        try (GZIPInputStream inputStream = new GZIPInputStream(new ByteBufferBackedInputStream(message.getPayload()))) {
+            inflatedMessage = ByteStreams.toByteArray(ByteStreams.limit(inputStream,
+                    properties.getMaximumMessageSize() + 1L));
+        }
+        catch (IOException e) {
+            session.close(CloseStatus.BAD_DATA.withReason("The message isn't valid gzip."));
+            return;
+        }
+
+        if (inflatedMessage.length > properties.getMaximumMessageSize()) {
+            session.close(CloseStatus.TOO_BIG_TO_PROCESS);
+            return;
+        }
+
+        receive(session, new BufferedReader(new InputStreamReader(new ByteArrayInputStream(inflatedMessage), UTF_8)));
+    }
+
+    private void receive(WebSocketSession session, BufferedReader message) throws IOException {
+
+        DataPointStream stream = streams.get(session.getId());
+
+        if (stream == null) {
+            return;
+        }
+
+        if (stream.isAccessTokenExpired()) {
+            session.close(ACCESS_TOKEN_EXPIRED_STATUS);
+            return;
+        }
+
+        List<DataPoint> dataPoints;
+
+        try {
+            dataPoints = uploadService.readDataPoints(message, stream.userId);
+        }
+        catch (DataPointUploadException e) {
+            session.close(CloseStatus.BAD_DATA.withReason(e.getMessage()));
+            return;
+        }
+
+        synchronized (stream) {
+
+            stream.receivedMessageCount++;
+
+            long unacknowledgedMessageCount = stream.receivedMessageCount - stream.acknowledgedMessageCount;
+
+            if (unacknowledgedMessageCount > properties.getWindowSize()) {
+                session.close(CloseStatus.POLICY_VIOLATION.withReason("The window has been exceeded."));
+                return;
+            }
+
+            stream.batch.addAll(dataPoints);
+
+            // inserting on the receiving thread stops the stream from being read until the batch is persisted
+            if (stream.batch.size() >= properties.getInsertBatchSize()
+                    || unacknowledgedMessageCount == properties.getWindowSize()) {
+
+                flush(stream);
+            }
+            else if (!stream.flushScheduled) {
+                stream.flushScheduled = true;
+                executorService.schedule(() -> flushLate(stream), properties.getMaximumBatchDelayInMillis(),
+                        MILLISECONDS);
+            }
+        }
+    }
+
+    private void flushLate(DataPointStream stream) {
+
+        synchronized (stream) {
+
+            stream.flushScheduled = false;
+
+            if (stream.session.isOpen() && stream.receivedMessageCount > stream.acknowledgedMessageCount) {
+                flush(stream);
+            }
+        }
+    }
+
+    private void closeExpired(DataPointStream stream) {
+
+        synchronized (stream) {
+            try {
+                if (stream.session.isOpen()) {
+                    stream.session.close(ACCESS_TOKEN_EXPIRED_STATUS);
+                }
+            }
+            catch (IOException e) {
+                log.debug("An expired data point stream couldn't be closed.", e);
+            }
+        }
+    }
+
+    /**
+     * Inserts the batch of a stream and acknowledges the messages it came from. Must be called holding the lock of
+     * the stream.
+     */
+    private void flush(DataPointStream stream) {
+
+        try {
+            for (List<DataPoint> batch : Lists.partition(stream.batch, properties.getInsertBatchSize())) {
+                dataPointService.insert(batch);
+            }
+
+            stream.batch = new ArrayList<>();
+            stream.acknowledgedMessageCount = stream.receivedMessageCount;
+
+            stream.send("acknowledged", stream.acknowledgedMessageCount);
+        }
+        catch (IOException | RuntimeException e) {
+            log.warn("A data point stream of user '{}' has failed.", stream.userId, e);
+
+            // the client resends the unacknowledged messages on a new connection
+            try {
+                stream.session.close(CloseStatus.SERVER_ERROR);
+            }
+            catch (IOException closeException) {
+                log.debug("A failed data point stream couldn't be closed.", closeException);
+            }
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+
+        // unacknowledged data points are discarded, since the client sends them again
+        streams.remove(session.getId());
+    }
+
+    @Override
+    public void destroy() {
+
+        executorService.shutdownNow();
+
+        for (DataPointStream stream : streams.values()) {
+            try {
+                stream.session.close(CloseStatus.GOING_AWAY);
+            }
+            catch (IOException e) {
+                log.debug("A data point stream couldn't be closed.", e);
+            }
+        }
+    }
+
+    private class DataPointStream {
+
+        private final WebSocketSession session;
+        private final String userId;
+        private final Date accessTokenExpiration;
+        private List<DataPoint> batch = new ArrayList<>();
+        private long receivedMessageCount;
+        private long acknowledgedMessageCount;
+        private boolean flushScheduled;
+
+        DataPointStream(WebSocketSession session, String userId, Date accessTokenExpiration) {
+
+            this.session = session;
+            this.userId = userId;
+            this.accessTokenExpiration = accessTokenExpiration;
+        }
+
+        boolean isAccessTokenExpired() {
+            return accessTokenExpiration != null && accessTokenExpiration.getTime() <= System.currentTimeMillis();
+        }
+
+        /**
+         * Sends a message to the client. Must be called holding the lock of the stream, since sessions aren't
+         * thread-safe.
+         */
+        void send(String key, long value) throws IOException {
+
+            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(Collections.singletonMap(key, value))));
+        }
+    }
+}
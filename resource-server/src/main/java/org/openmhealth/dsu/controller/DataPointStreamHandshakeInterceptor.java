@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.controller;
+
+import org.openmhealth.dsu.domain.EndUserUserDetails;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.authentication.OAuth2AuthenticationDetails;
+import org.springframework.security.oauth2.provider.expression.OAuth2ExpressionUtils;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.util.Date;
+import java.util.Map;
+
+import static org.openmhealth.dsu.configuration.OAuth2Properties.CLIENT_ROLE;
+import static org.openmhealth.dsu.configuration.OAuth2Properties.DATA_POINT_WRITE_SCOPE;
+import static org.springframework.http.HttpStatus.FORBIDDEN;
+
+
+/**
+ * A handshake interceptor that only lets a data point stream open if its access token could write data points over
+ * HTTP, i.e. if it belongs to a client with write scope. The access token is checked once, when the stream opens, and
+ * the user it's associated with owns every data point written to the stream. Its expiration time is passed on to the
+ * handler, which closes the stream once the access token expires.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+public class DataPointStreamHandshakeInterceptor implements HandshakeInterceptor {
+
+    public static final String USER_ID_ATTRIBUTE = "userId";
+    public static final String ACCESS_TOKEN_EXPIRATION_ATTRIBUTE = "accessTokenExpiration";
+
+    @Autowired
+    private ResourceServerTokenServices tokenServices;
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+            WebSocketHandler webSocketHandler, Map<String, Object> attributes) {
+
+        // the access token has already been authenticated by the resource server filter
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+
+        if (authentication == null
+                || !(authentication.getPrincipal() instanceof EndUserUserDetails)
+                || !OAuth2ExpressionUtils.clientHasAnyRole(authentication, CLIENT_ROLE)
+                || !OAuth2ExpressionUtils.hasAnyScope(authentication, new String[]{DATA_POINT_WRITE_SCOPE})) {
+
+            response.setStatusCode(FORBIDDEN);
+            return false;
+        }
+
+        OAuth2AccessToken accessToken = readAccessToken(authentication);
+
+        if (accessToken == null) {
+            response.setStatusCode(FORBIDDEN);
+            return false;
+        }
+
+        attributes.put(USER_ID_ATTRIBUTE, ((EndUserUserDetails) authentication.getPrincipal()).getUsername());
+
+        // an access token without an expiration time never expires
+        if (accessToken.getExpiration() != null) {
+            attributes.put(ACCESS_TOKEN_EXPIRATION_ATTRIBUTE, new Date(accessToken.getExpiration().getTime()));
+        }
+
+        return true;
+    }
+
+    private OAuth2AccessToken readAccessToken(Authentication authentication) {
+
+        if (!(authentication.getDetails() instanceof OAuth2AuthenticationDetails)) {
+            return null;
+        }
+
+        String accessTokenValue = ((OAuth2AuthenticationDetails) authentication.getDetails()).getTokenValue();
+
+        return accessTokenValue == null ? null : tokenServices.readAccessToken(accessTokenValue);
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+            WebSocketHandler webSocketHandler, Exception exception) {
+    }
+}
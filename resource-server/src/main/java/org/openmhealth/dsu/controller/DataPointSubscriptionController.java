@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.controller;
+
+import org.openmhealth.dsu.domain.EndUserUserDetails;
+import org.openmhealth.dsu.service.DataPointSubscriptionService;
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.openmhealth.schema.domain.omh.SchemaVersion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Optional;
+
+import static org.openmhealth.dsu.configuration.OAuth2Properties.*;
+import static org.openmhealth.dsu.controller.DataPointController.*;
+import static org.openmhealth.schema.domain.omh.SchemaId.isValidName;
+import static org.openmhealth.schema.domain.omh.SchemaId.isValidNamespace;
+import static org.openmhealth.schema.domain.omh.SchemaVersion.isValidVersion;
+import static org.springframework.http.HttpStatus.*;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+
+/**
+ * A controller that pushes newly saved data points to clients as server-sent events, so that live dashboards don't
+ * have to poll for them.
+ *
+ * @author Emerson Farrugia
+ */
+@ApiController
+public class DataPointSubscriptionController {
+
+    public static final String EVENT_STREAM_MEDIA_TYPE = "text/event-stream";
+
+    @Autowired
+    private DataPointSubscriptionService subscriptionService;
+
+    /**
+     * Subscribes to newly saved data points.
+     *
+     * @param schemaNamespace the namespace of the schema the data points conform to, if only data points of one
+     * schema are sent
+     * @param schemaName the name of the schema the data points conform to, if only data points of one schema are sent
+     * @param schemaVersion the version of the schema the data points conform to, if only data points of one schema
+     * are sent
+     * @return a stream of events, or a 503 if the server has too many subscribers
+     */
+    // only allow clients with read scope to subscribe to data points
+    @PreAuthorize("#oauth2.clientHasRole('" + CLIENT_ROLE + "') and #oauth2.hasScope('" + DATA_POINT_READ_SCOPE + "')")
+    @RequestMapping(value = "/dataPoints/events", method = GET, produces = EVENT_STREAM_MEDIA_TYPE)
+    public ResponseEntity<SseEmitter> subscribe(
+            @RequestParam(value = SCHEMA_NAMESPACE_PARAMETER, required = false) final String schemaNamespace,
+            @RequestParam(value = SCHEMA_NAME_PARAMETER, required = false) final String schemaName,
+            @RequestParam(value = SCHEMA_VERSION_PARAMETER, required = false) final String schemaVersion,
+            Authentication authentication) {
+
+        SchemaId schemaId = null;
+
+        if (schemaNamespace != null || schemaName != null || schemaVersion != null) {
+
+            // a schema is either identified in full or not at all
+            if (schemaNamespace == null || schemaName == null || schemaVersion == null
+                    || !isValidNamespace(schemaNamespace) || !isValidName(schemaName)
+                    || !isValidVersion(schemaVersion)) {
+
+                return new ResponseEntity<>(BAD_REQUEST);
+            }
+
+            schemaId = new SchemaId(schemaNamespace, schemaName, new SchemaVersion(schemaVersion));
+        }
+
+        Optional<SseEmitter> emitter = subscriptionService.subscribe(getEndUserId(authentication), schemaId);
+
+        if (!emitter.isPresent()) {
+            return new ResponseEntity<>(SERVICE_UNAVAILABLE);
+        }
+
+        return new ResponseEntity<>(emitter.get(), OK);
+    }
+
+    private String getEndUserId(Authentication authentication) {
+
+        return ((EndUserUserDetails) authentication.getPrincipal()).getUsername();
+    }
+}
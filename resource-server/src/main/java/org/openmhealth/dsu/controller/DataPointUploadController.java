@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.controller;
+
+import org.openmhealth.dsu.domain.DataPointUploadException;
+import org.openmhealth.dsu.domain.DataPointUploadSession;
+import org.openmhealth.dsu.domain.EndUserUserDetails;
+import org.openmhealth.dsu.service.DataPointUploadService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+
+import static org.openmhealth.dsu.configuration.OAuth2Properties.*;
+import static org.springframework.http.HttpStatus.*;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.web.bind.annotation.RequestMethod.*;
+
+
+/**
+ * A controller that handles resumable uploads of data points. A client creates an upload session, writes numbered
+ * chunks of newline-delimited JSON data points to it in order, and commits it once its backlog is empty. A client
+ * that loses its connection reads the session to find the first chunk that hasn't been acknowledged.
+ *
+ * @author Emerson Farrugia
+ */
+@ApiController
+public class DataPointUploadController {
+
+    public static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+
+    private static final Logger log = LoggerFactory.getLogger(DataPointUploadController.class);
+
+    @Autowired
+    private DataPointUploadService uploadService;
+
+    /**
+     * Creates an upload session.
+     *
+     * @return the new upload session
+     */
+    // only allow clients with write scope to upload data points
+    @PreAuthorize("#oauth2.clientHasRole('" + CLIENT_ROLE + "') and #oauth2.hasScope('" + DATA_POINT_WRITE_SCOPE + "')")
+    @RequestMapping(value = "/dataPoints/uploads", method = POST, produces = APPLICATION_JSON_VALUE)
+    public
+    @ResponseBody
+    ResponseEntity<DataPointUploadSession> createSession(Authentication authentication) {
+
+        DataPointUploadSession session = uploadService.createSession(getEndUserId(authentication));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setLocation(ServletUriComponentsBuilder.fromCurrentRequest()
+                .path("/{sessionId}").buildAndExpand(session.getId()).toUri());
+
+        return new ResponseEntity<>(session, headers, CREATED);
+    }
+
+    /**
+     * Reads an upload session.
+     *
+     * @param sessionId the identifier of the upload session
+     * @return the upload session, if found
+     */
+    @PreAuthorize("#oauth2.clientHasRole('" + CLIENT_ROLE + "') and #oauth2.hasScope('" + DATA_POINT_WRITE_SCOPE + "')")
+    @RequestMapping(value = "/dataPoints/uploads/{sessionId}", method = {HEAD, GET}, produces = APPLICATION_JSON_VALUE)
+    public
+    @ResponseBody
+    ResponseEntity<DataPointUploadSession> readSession(@PathVariable String sessionId,
+            Authentication authentication) {
+
+        Optional<DataPointUploadSession> session =
+                uploadService.findSession(sessionId, getEndUserId(authentication));
+
+        if (!session.isPresent()) {
+            return new ResponseEntity<>(NOT_FOUND);
+        }
+
+        return new ResponseEntity<>(session.get(), OK);
+    }
+
+    /**
+     * Writes a chunk of newline-delimited JSON data points to an upload session. The chunk may be gzip compressed.
+     *
+     * @param sessionId the identifier of the upload session
+     * @param chunkNumber the zero-based number of the chunk
+     * @return the upload session once the chunk has been persisted
+     */
+    @PreAuthorize("#oauth2.clientHasRole('" + CLIENT_ROLE + "') and #oauth2.hasScope('" + DATA_POINT_WRITE_SCOPE + "')")
+    @RequestMapping(value = "/dataPoints/uploads/{sessionId}/chunks/{chunkNumber}", method = PUT,
+            consumes = NDJSON_MEDIA_TYPE, produces = APPLICATION_JSON_VALUE)
+    public
+    @ResponseBody
+    ResponseEntity<DataPointUploadSession> writeChunk(@PathVariable String sessionId, @PathVariable int chunkNumber,
+            HttpServletRequest request, Authentication authentication) throws IOException {
+
+        if (chunkNumber < 0) {
+            return new ResponseEntity<>(BAD_REQUEST);
+        }
+
+        Optional<DataPointUploadSession> session =
+                uploadService.findSession(sessionId, getEndUserId(authentication));
+
+        if (!session.isPresent()) {
+            return new ResponseEntity<>(NOT_FOUND);
+        }
+
+        // a gzip encoded chunk has already been inflated by the request decompression filter
+        try (InputStream chunk = request.getInputStream()) {
+            return new ResponseEntity<>(uploadService.writeChunk(session.get(), chunkNumber, chunk), OK);
+        }
+    }
+
+    /**
+     * Commits an upload session, after which no more chunks can be written to it.
+     *
+     * @param sessionId the identifier of the upload session
+     * @return the committed upload session
+     */
+    @PreAuthorize("#oauth2.clientHasRole('" + CLIENT_ROLE + "') and #oauth2.hasScope('" + DATA_POINT_WRITE_SCOPE + "')")
+    @RequestMapping(value = "/dataPoints/uploads/{sessionId}/commit", method = POST,
+            produces = APPLICATION_JSON_VALUE)
+    public
+    @ResponseBody
+    ResponseEntity<DataPointUploadSession> commitSession(@PathVariable String sessionId,
+            Authentication authentication) {
+
+        Optional<DataPointUploadSession> session =
+                uploadService.findSession(sessionId, getEndUserId(authentication));
+
+        if (!session.isPresent()) {
+            return new ResponseEntity<>(NOT_FOUND);
+        }
+
+        return new ResponseEntity<>(uploadService.commitSession(session.get()), OK);
+    }
+
+    @ExceptionHandler(DataPointUploadException.class)
+    public ResponseEntity<?> handleDataPointUploadException(DataPointUploadException e, HttpServletRequest request) {
+
+        log.debug("A {} request for '{}' failed.", request.getMethod(), request.getPathInfo(), e);
+
+        HttpStatus status;
+
+        switch (e.getReason()) {
+            case CHUNK_TOO_LARGE:
+                status = PAYLOAD_TOO_LARGE;
+                break;
+            case MALFORMED_DATA_POINT:
+                status = BAD_REQUEST;
+                break;
+            default:
+                status = CONFLICT;
+        }
+
+        return new ResponseEntity<>(status);
+    }
+
+    // a concurrent write of the same chunk has already updated the session
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    @ResponseStatus(CONFLICT)
+    public void handleOptimisticLockingFailureException(Exception e, HttpServletRequest request) {
+
+        log.debug("A {} request for '{}' conflicted with a concurrent request.", request.getMethod(),
+                request.getPathInfo(), e);
+    }
+
+    private String getEndUserId(Authentication authentication) {
+
+        return ((EndUserUserDetails) authentication.getPrincipal()).getUsername();
+    }
+}
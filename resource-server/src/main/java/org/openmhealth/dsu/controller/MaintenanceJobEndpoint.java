@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.controller;
+
+import org.openmhealth.dsu.service.MaintenanceJobService;
+import org.openmhealth.dsu.service.MaintenanceThrottle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+
+/**
+ * An actuator endpoint that shows the progress of maintenance jobs and the state of the throttle that paces them.
+ * Like other actuator endpoints, it's sensitive by default, so it's only exposed to authorised users.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+public class MaintenanceJobEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    @Autowired
+    private MaintenanceJobService jobService;
+
+    @Autowired
+    private MaintenanceThrottle throttle;
+
+    public MaintenanceJobEndpoint() {
+        super("maintenanceJobs");
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+
+        Map<String, Object> throttleState = new LinkedHashMap<>();
+
+        throttleState.put("operationsPerSecond", throttle.getRate());
+        throttleState.put("foregroundLatencyInMillis", NANOSECONDS.toMillis(throttle.getLatency()));
+        throttleState.put("latencyBudgetInMillis", NANOSECONDS.toMillis(throttle.getLatencyBudget()));
+        throttleState.put("backoffCount", throttle.getBackoffCount());
+
+        Map<String, Object> result = new LinkedHashMap<>();
+
+        result.put("throttle", throttleState);
+        result.put("activeJobs", jobService.findActiveJobs());
+        result.put("finishedJobs", jobService.findRecentlyFinishedJobs());
+
+        return result;
+    }
+}
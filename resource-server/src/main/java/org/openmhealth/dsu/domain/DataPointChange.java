@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.OffsetDateTime;
+import java.util.Date;
+
+import static com.fasterxml.jackson.annotation.JsonInclude.Include.NON_NULL;
+
+
+/**
+ * A change to the data points of a user. Each change is numbered with a sequence that is assigned as it's recorded
+ * and increases with every change to the data points of the same user, so a client can ask for the changes that
+ * follow the last one it has seen.
+ *
+ * @author Emerson Farrugia
+ */
+@Document(collection = "dataPointChanges")
+@JsonInclude(NON_NULL)
+public class DataPointChange {
+
+    public enum Operation {
+        SAVE,
+        DELETE,
+        DELETE_MATCHING
+    }
+
+    private String id;
+    private String userId;
+    private long sequence;
+    private Operation operation;
+    private String dataPointId;
+    private DataPoint dataPoint;
+    private String schemaNamespace;
+    private String schemaName;
+    private String schemaVersion;
+    private OffsetDateTime createdOnOrAfter;
+    private OffsetDateTime createdBefore;
+    private OffsetDateTime timestamp;
+    @Indexed(expireAfterSeconds = 0)
+    private Date expirationTimestamp;
+
+    @Id
+    @JsonIgnore
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    @JsonIgnore
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    /**
+     * @return the position of the change among the changes to the data points of the user
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public void setOperation(Operation operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * @return the identifier of the saved or deleted data point, unless the change deletes matching data points
+     */
+    public String getDataPointId() {
+        return dataPointId;
+    }
+
+    public void setDataPointId(String dataPointId) {
+        this.dataPointId = dataPointId;
+    }
+
+    /**
+     * @return the saved data point, which isn't stored with the change but read when the change is
+     */
+    @Transient
+    public DataPoint getDataPoint() {
+        return dataPoint;
+    }
+
+    public void setDataPoint(DataPoint dataPoint) {
+        this.dataPoint = dataPoint;
+    }
+
+    /**
+     * @return the schema namespace of the deleted data points, or null if every data point of the user was deleted
+     */
+    public String getSchemaNamespace() {
+        return schemaNamespace;
+    }
+
+    public void setSchemaNamespace(String schemaNamespace) {
+        this.schemaNamespace = schemaNamespace;
+    }
+
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    public void setSchemaName(String schemaName) {
+        this.schemaName = schemaName;
+    }
+
+    public String getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    public void setSchemaVersion(String schemaVersion) {
+        this.schemaVersion = schemaVersion;
+    }
+
+    /**
+     * @return the earliest creation timestamp of the deleted data points, inclusive, if they were restricted by it
+     */
+    public OffsetDateTime getCreatedOnOrAfter() {
+        return createdOnOrAfter;
+    }
+
+    public void setCreatedOnOrAfter(OffsetDateTime createdOnOrAfter) {
+        this.createdOnOrAfter = createdOnOrAfter;
+    }
+
+    /**
+     * @return the latest creation timestamp of the deleted data points, exclusive, if they were restricted by it
+     */
+    public OffsetDateTime getCreatedBefore() {
+        return createdBefore;
+    }
+
+    public void setCreatedBefore(OffsetDateTime createdBefore) {
+        this.createdBefore = createdBefore;
+    }
+
+    /**
+     * @return the time the change was recorded
+     */
+    public OffsetDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(OffsetDateTime timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return the time after which MongoDB removes the change, stored as a date to support a TTL index
+     */
+    @JsonIgnore
+    public Date getExpirationTimestamp() {
+        return expirationTimestamp;
+    }
+
+    public void setExpirationTimestamp(Date expirationTimestamp) {
+        this.expirationTimestamp = expirationTimestamp;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A page of changes to the data points of a user, and the token to ask for the changes that follow them.
+ *
+ * @author Emerson Farrugia
+ */
+public class DataPointChangePage {
+
+    private List<DataPointChange> changes = new ArrayList<>();
+    private String nextToken;
+    private boolean moreAvailable;
+
+    /**
+     * @return the changes, in sequence order
+     */
+    public List<DataPointChange> getChanges() {
+        return changes;
+    }
+
+    public void setChanges(List<DataPointChange> changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * @return the token to pass to read the changes that follow this page
+     */
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    public void setNextToken(String nextToken) {
+        this.nextToken = nextToken;
+    }
+
+    /**
+     * @return true if more changes can be read right away, false if the client is up to date
+     */
+    public boolean isMoreAvailable() {
+        return moreAvailable;
+    }
+
+    public void setMoreAvailable(boolean moreAvailable) {
+        this.moreAvailable = moreAvailable;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.domain;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * A token that marks how far a client has read the changes to the data points of a user. A token holds the sequence
+ * of the last change the client has read, and the time the token was issued, which determines whether the changes
+ * that follow it are still retained. Clients should treat its textual representation as opaque.
+ *
+ * @author Emerson Farrugia
+ */
+public class DataPointChangeToken {
+
+    private static final char SEPARATOR = '-';
+
+    private final long sequence;
+    private final Instant issueTimestamp;
+
+    /**
+     * @param sequence the sequence of the last change read, or zero if no changes have been read
+     * @param issueTimestamp the time the token was issued
+     */
+    public DataPointChangeToken(long sequence, Instant issueTimestamp) {
+
+        checkArgument(sequence >= 0);
+        checkNotNull(issueTimestamp);
+
+        this.sequence = sequence;
+        this.issueTimestamp = issueTimestamp;
+    }
+
+    /**
+     * @param token the textual representation of a token
+     * @return the token, or an empty optional if the representation is malformed
+     */
+    public static Optional<DataPointChangeToken> parse(String token) {
+
+        checkNotNull(token);
+
+        int separatorIndex = token.indexOf(SEPARATOR);
+
+        if (separatorIndex <= 0) {
+            return Optional.empty();
+        }
+
+        try {
+            long sequence = Long.parseLong(token.substring(0, separatorIndex));
+            long issueTimestamp = Long.parseLong(token.substring(separatorIndex + 1));
+
+            if (sequence < 0 || issueTimestamp < 0) {
+                return Optional.empty();
+            }
+
+            return Optional.of(new DataPointChangeToken(sequence, Instant.ofEpochSecond(issueTimestamp)));
+        }
+        catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Instant getIssueTimestamp() {
+        return issueTimestamp;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+
+        if (this == object) {
+            return true;
+        }
+
+        if (object == null || getClass() != object.getClass()) {
+            return false;
+        }
+
+        DataPointChangeToken that = (DataPointChangeToken) object;
+
+        return sequence == that.sequence && issueTimestamp.getEpochSecond() == that.issueTimestamp.getEpochSecond();
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(sequence) + Long.hashCode(issueTimestamp.getEpochSecond());
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sequence) + SEPARATOR + issueTimestamp.getEpochSecond();
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.domain;
+
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.openmhealth.schema.domain.omh.SchemaVersion;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+
+/**
+ * An event in the data point event log, recording that a data point was saved or deleted. An event is a view of its
+ * bytes in the log, which are only decoded as its properties are read, so it mustn't be kept once the consumer it was
+ * passed to returns.
+ * <p>
+ * An event is laid out as an operation byte, the creation timestamp of the data point and the timestamp at which the
+ * event was logged, both in epoch milliseconds, followed by the data point identifier, user identifier and schema
+ * namespace, name and version as length-prefixed UTF-8 strings. The schema strings of a deletion are empty.
+ *
+ * @author Emerson Farrugia
+ */
+public class DataPointEvent {
+
+    public enum Operation {
+        SAVE,
+        DELETE
+    }
+
+    private static final int OPERATION_POSITION = 0;
+    private static final int CREATION_TIMESTAMP_POSITION = 1;
+    private static final int LOG_TIMESTAMP_POSITION = 9;
+    private static final int STRINGS_POSITION = 17;
+    private static final int MAXIMUM_STRING_LENGTH = 0xFFFF;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private final long offset;
+    private final ByteBuffer payload;
+
+    /**
+     * @param offset the offset of the event in the log
+     * @param payload the bytes of the event
+     */
+    public DataPointEvent(long offset, ByteBuffer payload) {
+
+        checkArgument(offset >= 0);
+        checkNotNull(payload);
+
+        this.offset = offset;
+        this.payload = payload;
+    }
+
+    /**
+     * @return the offset of the event in the log
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public Operation getOperation() {
+        return Operation.values()[payload.get(OPERATION_POSITION)];
+    }
+
+    public String getDataPointId() {
+        return getString(0);
+    }
+
+    public String getUserId() {
+        return getString(1);
+    }
+
+    /**
+     * @return the schema of the data point, or null if the event is a deletion
+     */
+    @Nullable
+    public SchemaId getSchemaId() {
+
+        String namespace = getString(2);
+
+        if (namespace.isEmpty()) {
+            return null;
+        }
+
+        return new SchemaId(namespace, getString(3), new SchemaVersion(getString(4)));
+    }
+
+    /**
+     * @return the creation timestamp in the header of the data point, or null if the event is a deletion
+     */
+    @Nullable
+    public Instant getCreationTimestamp() {
+
+        long epochMilli = payload.getLong(CREATION_TIMESTAMP_POSITION);
+
+        return epochMilli == NO_TIMESTAMP ? null : Instant.ofEpochMilli(epochMilli);
+    }
+
+    /**
+     * @return the time at which the event was appended to the log
+     */
+    public Instant getLogTimestamp() {
+        return Instant.ofEpochMilli(payload.getLong(LOG_TIMESTAMP_POSITION));
+    }
+
+    /**
+     * @return a read-only view of the bytes of the event, for consumers that forward events without decoding them
+     */
+    public ByteBuffer getPayload() {
+        return payload.asReadOnlyBuffer();
+    }
+
+    private String getString(int index) {
+
+        int position = STRINGS_POSITION;
+
+        for (int i = 0; i < index; i++) {
+            position += 2 + Short.toUnsignedInt(payload.getShort(position));
+        }
+
+        int length = Short.toUnsignedInt(payload.getShort(position));
+        byte[] bytes = new byte[length];
+
+        // an absolute bulk get isn't available, so a duplicate is positioned instead
+        ByteBuffer string = payload.duplicate();
+        string.position(position + 2);
+        string.get(bytes);
+
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Encodes an event in the layout read by this class.
+     *
+     * @param operation the operation
+     * @param dataPointId the identifier of the data point
+     * @param userId the identifier of the user who owns the data point
+     * @param schemaId the schema of the data point, or null if the event is a deletion
+     * @param creationDateTime the creation timestamp in the header of the data point, or null if the event is a
+     * deletion
+     * @param logTimestamp the time at which the event is appended to the log
+     * @return the bytes of the event
+     */
+    public static byte[] encode(Operation operation, String dataPointId, String userId, @Nullable SchemaId schemaId,
+            @Nullable OffsetDateTime creationDateTime, Instant logTimestamp) {
+
+        checkNotNull(operation);
+        checkNotNull(dataPointId);
+        checkNotNull(userId);
+        checkNotNull(logTimestamp);
+
+        byte[][] strings = {
+                dataPointId.getBytes(UTF_8),
+                userId.getBytes(UTF_8),
+                (schemaId == null ? "" : schemaId.getNamespace()).getBytes(UTF_8),
+                (schemaId == null ? "" : schemaId.getName()).getBytes(UTF_8),
+                (schemaId == null ? "" : schemaId.getVersion().toString()).getBytes(UTF_8)
+        };
+
+        int length = STRINGS_POSITION;
+
+        for (byte[] string : strings) {
+            checkArgument(string.length <= MAXIMUM_STRING_LENGTH);
+            length += 2 + string.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        buffer.put((byte) operation.ordinal());
+        buffer.putLong(creationDateTime == null ? NO_TIMESTAMP : creationDateTime.toInstant().toEpochMilli());
+        buffer.putLong(logTimestamp.toEpochMilli());
+
+        for (byte[] string : strings) {
+            buffer.putShort((short) string.length);
+            buffer.put(string);
+        }
+
+        return buffer.array();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.domain;
+
+import java.util.Locale;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * A token that marks how far a client has read an export of the data points of a user. A token holds the store the
+ * last data point the client has read was exported from, and the identifier of that data point. The store is part of
+ * the token because a data point can move between stores while an export is interrupted. Clients should treat its
+ * textual representation as opaque.
+ *
+ * @author Emerson Farrugia
+ */
+public class DataPointExportToken {
+
+    private static final char SEPARATOR = ':';
+
+    /**
+     * The stores data points are exported from, in the order they're read.
+     */
+    public enum Store {
+
+        DOCUMENTS,
+        BUCKETS,
+        ARCHIVE;
+
+        private String getKey() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    private final Store store;
+    private final String dataPointId;
+
+    /**
+     * @param store the store the data point was exported from
+     * @param dataPointId the identifier of the data point
+     */
+    public DataPointExportToken(Store store, String dataPointId) {
+
+        checkNotNull(store);
+        checkNotNull(dataPointId);
+        checkArgument(!dataPointId.isEmpty());
+
+        this.store = store;
+        this.dataPointId = dataPointId;
+    }
+
+    /**
+     * @param token the textual representation of a token
+     * @return the token, or an empty optional if the representation is malformed
+     */
+    public static Optional<DataPointExportToken> parse(String token) {
+
+        checkNotNull(token);
+
+        int separatorIndex = token.indexOf(SEPARATOR);
+
+        if (separatorIndex <= 0 || separatorIndex == token.length() - 1) {
+            return Optional.empty();
+        }
+
+        String key = token.substring(0, separatorIndex);
+
+        for (Store store : Store.values()) {
+            if (store.getKey().equals(key)) {
+                return Optional.of(new DataPointExportToken(store, token.substring(separatorIndex + 1)));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    public Store getStore() {
+        return store;
+    }
+
+    public String getDataPointId() {
+        return dataPointId;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+
+        if (this == object) {
+            return true;
+        }
+
+        if (object == null || getClass() != object.getClass()) {
+            return false;
+        }
+
+        DataPointExportToken that = (DataPointExportToken) object;
+
+        return store == that.store && dataPointId.equals(that.dataPointId);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * store.hashCode() + dataPointId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return store.getKey() + SEPARATOR + dataPointId;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.domain;
+
+import org.openmhealth.schema.domain.omh.DataPointHeader;
+
+import java.lang.reflect.Field;
+
+
+/**
+ * A set of helper methods for data point headers.
+ *
+ * @author Emerson Farrugia
+ */
+public final class DataPointHeaders {
+
+    private DataPointHeaders() {
+    }
+
+    // this is currently implemented using reflection, until we see other use cases where mutability would be useful
+    public static void setUserId(DataPointHeader header, String endUserId) {
+        try {
+            Field userIdField = header.getClass().getDeclaredField("userId");
+            userIdField.setAccessible(true);
+            userIdField.set(header, endUserId);
+        }
+        catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException("A user identifier property can't be changed in the data point header.", e);
+        }
+    }
+}
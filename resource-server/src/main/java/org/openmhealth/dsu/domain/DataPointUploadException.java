@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.domain;
+
+/**
+ * An exception thrown to indicate that a chunk can't be written to an upload session.
+ *
+ * @author Emerson Farrugia
+ */
+public class DataPointUploadException extends RuntimeException {
+
+    public enum Reason {
+        SESSION_NOT_OPEN,
+        CHUNK_OUT_OF_ORDER,
+        CHUNK_TOO_LARGE,
+        MALFORMED_DATA_POINT
+    }
+
+    private Reason reason;
+
+    public DataPointUploadException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public DataPointUploadException(Reason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.OffsetDateTime;
+import java.util.Date;
+
+
+/**
+ * The state of a resumable upload of data points. An upload consists of numbered chunks that are written in order.
+ * Each chunk is persisted before it is acknowledged, so a client that loses its connection can query the session and
+ * resume with the first unacknowledged chunk.
+ *
+ * @author Emerson Farrugia
+ */
+@Document(collection = "dataPointUploadSessions")
+public class DataPointUploadSession {
+
+    public enum Status {
+        OPEN,
+        COMMITTED
+    }
+
+    private String id;
+    private String userId;
+    private Status status = Status.OPEN;
+    private int acknowledgedChunkCount;
+    private long acknowledgedByteCount;
+    private long dataPointCount;
+    private OffsetDateTime creationTimestamp;
+    private OffsetDateTime modificationTimestamp;
+    @Indexed(expireAfterSeconds = 0)
+    private Date expirationTimestamp;
+    private Long version;
+
+    @Id
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the identifier of the user who owns the uploaded data points
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /**
+     * @return the number of chunks that have been persisted, which is also the number of the next chunk to write
+     */
+    public int getAcknowledgedChunkCount() {
+        return acknowledgedChunkCount;
+    }
+
+    public void setAcknowledgedChunkCount(int acknowledgedChunkCount) {
+        this.acknowledgedChunkCount = acknowledgedChunkCount;
+    }
+
+    /**
+     * @return the number of uncompressed bytes that have been persisted, i.e. the offset in the client's backlog at
+     * which to resume
+     */
+    public long getAcknowledgedByteCount() {
+        return acknowledgedByteCount;
+    }
+
+    public void setAcknowledgedByteCount(long acknowledgedByteCount) {
+        this.acknowledgedByteCount = acknowledgedByteCount;
+    }
+
+    /**
+     * @return the number of data points inserted by this upload
+     */
+    public long getDataPointCount() {
+        return dataPointCount;
+    }
+
+    public void setDataPointCount(long dataPointCount) {
+        this.dataPointCount = dataPointCount;
+    }
+
+    public OffsetDateTime getCreationTimestamp() {
+        return creationTimestamp;
+    }
+
+    public void setCreationTimestamp(OffsetDateTime creationTimestamp) {
+        this.creationTimestamp = creationTimestamp;
+    }
+
+    public OffsetDateTime getModificationTimestamp() {
+        return modificationTimestamp;
+    }
+
+    public void setModificationTimestamp(OffsetDateTime modificationTimestamp) {
+        this.modificationTimestamp = modificationTimestamp;
+    }
+
+    /**
+     * @return the time after which MongoDB removes the session, stored as a date to support a TTL index
+     */
+    @JsonIgnore
+    public Date getExpirationTimestamp() {
+        return expirationTimestamp;
+    }
+
+    public void setExpirationTimestamp(Date expirationTimestamp) {
+        this.expirationTimestamp = expirationTimestamp;
+    }
+
+    @JsonIgnore
+    @Version
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.domain;
+
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * An event published once data points have been saved.
+ *
+ * @author Emerson Farrugia
+ */
+public class DataPointsSavedEvent extends ApplicationEvent {
+
+    private final List<DataPoint> dataPoints;
+
+    /**
+     * @param source the object that saved the data points
+     * @param dataPoints the saved data points, which mustn't be modified
+     */
+    public DataPointsSavedEvent(Object source, List<DataPoint> dataPoints) {
+
+        super(source);
+
+        checkNotNull(dataPoints);
+
+        this.dataPoints = dataPoints;
+    }
+
+    public List<DataPoint> getDataPoints() {
+        return dataPoints;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.OffsetDateTime;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The state of a background maintenance job, e.g. a bulk deletion. A job runs in batches on whichever server holds
+ * its lease, and saves a checkpoint after each batch, so that a job whose server fails can be resumed by another
+ * server once the lease expires.
+ *
+ * @author Emerson Farrugia
+ */
+@Document(collection = "maintenanceJobs")
+public class MaintenanceJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    private String id;
+    private String type;
+    private String userId;
+    private Map<String, String> parameters = new HashMap<>();
+    private Map<String, String> checkpoint = new HashMap<>();
+    private Status status = Status.QUEUED;
+    private long processedCount;
+    private String failureMessage;
+    private String leaseOwner;
+    private Date leaseExpirationTimestamp;
+    private OffsetDateTime creationTimestamp;
+    private OffsetDateTime modificationTimestamp;
+    private OffsetDateTime completionTimestamp;
+    @Indexed(expireAfterSeconds = 0)
+    private Date expirationTimestamp;
+
+    @Id
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the type of the job, which determines the handler that runs it
+     */
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * @return the identifier of the user the job was created on behalf of, if any
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    /**
+     * @return the parameters of the job, as interpreted by its handler
+     */
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    public void setParameters(Map<String, String> parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * @return the state a handler needs to resume the job after its last completed batch
+     */
+    public Map<String, String> getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(Map<String, String> checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /**
+     * @return the number of operations performed so far, e.g. the number of data points deleted
+     */
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    public void setProcessedCount(long processedCount) {
+        this.processedCount = processedCount;
+    }
+
+    public String getFailureMessage() {
+        return failureMessage;
+    }
+
+    public void setFailureMessage(String failureMessage) {
+        this.failureMessage = failureMessage;
+    }
+
+    /**
+     * @return the identifier of the server running the job, if any
+     */
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    /**
+     * @return the time after which another server may take over the job, stored as a date so that it's compared as
+     * one in queries
+     */
+    @JsonIgnore
+    public Date getLeaseExpirationTimestamp() {
+        return leaseExpirationTimestamp;
+    }
+
+    public void setLeaseExpirationTimestamp(Date leaseExpirationTimestamp) {
+        this.leaseExpirationTimestamp = leaseExpirationTimestamp;
+    }
+
+    public OffsetDateTime getCreationTimestamp() {
+        return creationTimestamp;
+    }
+
+    public void setCreationTimestamp(OffsetDateTime creationTimestamp) {
+        this.creationTimestamp = creationTimestamp;
+    }
+
+    public OffsetDateTime getModificationTimestamp() {
+        return modificationTimestamp;
+    }
+
+    public void setModificationTimestamp(OffsetDateTime modificationTimestamp) {
+        this.modificationTimestamp = modificationTimestamp;
+    }
+
+    public OffsetDateTime getCompletionTimestamp() {
+        return completionTimestamp;
+    }
+
+    public void setCompletionTimestamp(OffsetDateTime completionTimestamp) {
+        this.completionTimestamp = completionTimestamp;
+    }
+
+    /**
+     * @return the time after which MongoDB removes a finished job, stored as a date to support a TTL index
+     */
+    @JsonIgnore
+    public Date getExpirationTimestamp() {
+        return expirationTimestamp;
+    }
+
+    public void setExpirationTimestamp(Date expirationTimestamp) {
+        this.expirationTimestamp = expirationTimestamp;
+    }
+
+    /**
+     * @return true if the job has completed or failed
+     */
+    @JsonIgnore
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.filter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.springframework.http.HttpStatus.TOO_MANY_REQUESTS;
+
+
+/**
+ * A filter that sheds load before it reaches storage. Reads and writes are admitted through separate lanes, each with
+ * its own adaptive concurrency limit and its own bound on the depth of the server's request queue, so that a spike in
+ * ingestion sheds writes while reads continue to be served. A rejected request gets a 429 response with a
+ * Retry-After header estimating how long the lane needs to drain.
+ *
+ * @author Emerson Farrugia
+ */
+public class AdmissionControlFilter extends OncePerRequestFilter implements PublicMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionControlFilter.class);
+
+    private final Lane readLane;
+    private final Lane writeLane;
+    private final IntSupplier queueDepthSupplier;
+    private final int maximumRetryAfterInSeconds;
+
+    /**
+     * @param readLane the lane for safe requests, i.e. GET and HEAD
+     * @param writeLane the lane for all other requests
+     * @param queueDepthSupplier the number of requests waiting for a server thread
+     * @param maximumRetryAfterInSeconds the longest delay to suggest to a rejected client
+     */
+    public AdmissionControlFilter(Lane readLane, Lane writeLane, IntSupplier queueDepthSupplier,
+            int maximumRetryAfterInSeconds) {
+
+        checkNotNull(readLane);
+        checkNotNull(writeLane);
+        checkNotNull(queueDepthSupplier);
+        checkArgument(maximumRetryAfterInSeconds > 0);
+
+        this.readLane = readLane;
+        this.writeLane = writeLane;
+        this.queueDepthSupplier = queueDepthSupplier;
+        this.maximumRetryAfterInSeconds = maximumRetryAfterInSeconds;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+
+        Lane lane = isRead(request) ? readLane : writeLane;
+
+        int queueDepth = queueDepthSupplier.getAsInt();
+
+        if (queueDepth > lane.maximumQueueDepth) {
+            reject(lane, request, response, lane.inFlight.get() + queueDepth);
+            return;
+        }
+
+        int inFlight = lane.inFlight.incrementAndGet();
+
+        if (inFlight > lane.limit.getLimit()) {
+            lane.inFlight.decrementAndGet();
+            reject(lane, request, response, inFlight);
+            return;
+        }
+
+        lane.admittedCount.increment();
+
+        long startTime = System.nanoTime();
+        boolean failed = true;
+
+        try {
+            filterChain.doFilter(request, response);
+            failed = response.getStatus() >= 500;
+        }
+        finally {
+            lane.inFlight.decrementAndGet();
+
+            // the latency of a long-lived asynchronous request doesn't reflect the load on storage
+            if (!request.isAsyncStarted()) {
+                lane.limit.onSample(System.nanoTime() - startTime, inFlight, failed);
+            }
+        }
+    }
+
+    private boolean isRead(HttpServletRequest request) {
+
+        String method = request.getMethod();
+
+        return method.equals("GET") || method.equals("HEAD");
+    }
+
+    private void reject(Lane lane, HttpServletRequest request, HttpServletResponse response, int backlog) {
+
+        lane.rejectedCount.increment();
+
+        int retryAfter = getRetryAfterInSeconds(lane, backlog);
+
+        log.debug("A {} request for '{}' has been rejected with a backlog of {}, retry in {} seconds.",
+                request.getMethod(), request.getRequestURI(), backlog, retryAfter);
+
+        response.setStatus(TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+    }
+
+    /**
+     * Estimates how long the lane needs to work through its backlog at its current limit and latency. The estimate is
+     * jittered upwards so that clients rejected together don't all retry together.
+     */
+    int getRetryAfterInSeconds(Lane lane, int backlog) {
+
+        double drainTime = NANOSECONDS.toMillis(lane.limit.getLatency()) / 1000.0 * backlog / lane.limit.getLimit();
+
+        int retryAfter = (int) Math.max(1, Math.ceil(drainTime));
+        retryAfter += ThreadLocalRandom.current().nextInt(retryAfter / 2 + 1);
+
+        return Math.min(retryAfter, maximumRetryAfterInSeconds);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        metrics.add(new Metric<>("admission.queue.depth", queueDepthSupplier.getAsInt()));
+
+        readLane.addMetrics(metrics);
+        writeLane.addMetrics(metrics);
+
+        return metrics;
+    }
+
+    /**
+     * A class of requests that are admitted against the same limit.
+     */
+    public static class Lane {
+
+        private final String name;
+        private final GradientConcurrencyLimit limit;
+        private final int maximumQueueDepth;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder admittedCount = new LongAdder();
+        private final LongAdder rejectedCount = new LongAdder();
+
+        /**
+         * @param name the name of the lane, used in metric names
+         * @param limit the concurrency limit of the lane
+         * @param maximumQueueDepth the number of requests waiting for a server thread beyond which the lane rejects
+         * requests
+         */
+        public Lane(String name, GradientConcurrencyLimit limit, int maximumQueueDepth) {
+
+            checkNotNull(name);
+            checkNotNull(limit);
+            checkArgument(maximumQueueDepth >= 0);
+
+            this.name = name;
+            this.limit = limit;
+            this.maximumQueueDepth = maximumQueueDepth;
+        }
+
+        private void addMetrics(List<Metric<?>> metrics) {
+
+            String prefix = "admission." + name + ".";
+
+            metrics.add(new Metric<>(prefix + "limit", limit.getLimit()));
+            metrics.add(new Metric<>(prefix + "concurrency", inFlight.get()));
+            metrics.add(new Metric<>(prefix + "latency", NANOSECONDS.toMillis(limit.getLatency())));
+            metrics.add(new Metric<>(prefix + "admitted", admittedCount.sum()));
+            metrics.add(new Metric<>(prefix + "rejected", rejectedCount.sum()));
+        }
+    }
+}
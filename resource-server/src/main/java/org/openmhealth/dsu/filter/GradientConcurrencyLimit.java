@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.filter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+
+/**
+ * An adaptive concurrency limit that follows the latency gradient. It compares a short-term average of request latency
+ * against a long-term baseline, and shrinks the limit as latency climbs above the baseline, i.e. as requests start to
+ * queue in front of storage. While latency stays near the baseline, the limit grows by roughly its square root per
+ * sample. Failed requests, e.g. storage timeouts, cut the limit multiplicatively.
+ * <p>
+ * The limit is on the path of every admitted request, so samples never wait for each other. A sample that arrives
+ * while another is being applied is skipped, since the averages only need a fraction of the samples to track latency.
+ * A skipped failure is kept, and applied by the next sample that gets through.
+ *
+ * @author Emerson Farrugia
+ */
+public class GradientConcurrencyLimit {
+
+    private static final double SHORT_TERM_WEIGHT = 0.1;
+    private static final double LONG_TERM_WEIGHT = 0.002;
+    private static final double MINIMUM_GRADIENT = 0.5;
+    private static final double FAILURE_BACKOFF_RATIO = 0.9;
+
+    private final int minimumLimit;
+    private final int maximumLimit;
+    private final double latencyTolerance;
+    private final double smoothing;
+
+    private final ReentrantLock sampleLock = new ReentrantLock();
+    private final AtomicInteger skippedFailureCount = new AtomicInteger();
+
+    private volatile double limit;
+    private volatile double shortTermLatency;
+    private double longTermLatency;
+
+    /**
+     * @param initialLimit the limit to start with
+     * @param minimumLimit the lowest limit to shrink to
+     * @param maximumLimit the highest limit to grow to
+     * @param latencyTolerance how far the short-term latency may rise above the baseline before the limit shrinks, as
+     * a ratio
+     * @param smoothing the weight of each new limit estimate, from 0 to 1
+     */
+    public GradientConcurrencyLimit(int initialLimit, int minimumLimit, int maximumLimit, double latencyTolerance,
+            double smoothing) {
+
+        checkArgument(minimumLimit > 0);
+        checkArgument(maximumLimit >= minimumLimit);
+        checkArgument(initialLimit >= minimumLimit && initialLimit <= maximumLimit);
+        checkArgument(latencyTolerance >= 1.0);
+        checkArgument(smoothing > 0.0 && smoothing <= 1.0);
+
+        this.limit = initialLimit;
+        this.minimumLimit = minimumLimit;
+        this.maximumLimit = maximumLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * @return the number of requests that may currently be in flight
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return the short-term average latency, in nanoseconds, or 0 if nothing has been sampled yet
+     */
+    public long getLatency() {
+        return (long) shortTermLatency;
+    }
+
+    /**
+     * Updates the limit with the outcome of a request.
+     *
+     * @param latency the latency of the request, in nanoseconds
+     * @param inFlight the number of requests that were in flight when the request was admitted
+     * @param failed true if the request failed in a way that suggests overload
+     */
+    public void onSample(long latency, int inFlight, boolean failed) {
+
+        if (!sampleLock.tryLock()) {
+            if (failed) {
+                skippedFailureCount.incrementAndGet();
+            }
+
+            return;
+        }
+
+        try {
+            for (int i = skippedFailureCount.getAndSet(0); i > 0; i--) {
+                backOff();
+            }
+
+            applySample(latency, inFlight, failed);
+        }
+        finally {
+            sampleLock.unlock();
+        }
+    }
+
+    private void backOff() {
+        limit = Math.max(minimumLimit, limit * FAILURE_BACKOFF_RATIO);
+    }
+
+    private void applySample(long latency, int inFlight, boolean failed) {
+
+        if (failed) {
+            backOff();
+            return;
+        }
+
+        if (shortTermLatency == 0) {
+            shortTermLatency = latency;
+            longTermLatency = latency;
+            return;
+        }
+
+        shortTermLatency += (latency - shortTermLatency) * SHORT_TERM_WEIGHT;
+        longTermLatency += (latency - longTermLatency) * LONG_TERM_WEIGHT;
+
+        // a baseline that has drifted well above current latency is stale, e.g. after a burst, so let it recover
+        if (longTermLatency > shortTermLatency * 2) {
+            longTermLatency *= 0.95;
+        }
+
+        // if less than half the limit is in use, latency says nothing about whether the limit is too low
+        if (inFlight < limit / 2) {
+            return;
+        }
+
+        double gradient =
+                Math.max(MINIMUM_GRADIENT, Math.min(1.0, latencyTolerance * longTermLatency / shortTermLatency));
+
+        double estimate = limit * gradient + Math.sqrt(limit);
+
+        limit = Math.max(minimumLimit, Math.min(maximumLimit, limit * (1 - smoothing) + estimate * smoothing));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.filter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+
+/**
+ * A histogram of request latencies over a sliding window, used to estimate latency percentiles without keeping
+ * samples. Latencies are counted in log-linear buckets, four per power of two microseconds, so an estimate is within
+ * 25% of the true value. The window is made up of two halves, and the older half is discarded every time the window
+ * advances by half its duration. All times are in nanoseconds on the {@link System#nanoTime()} timeline.
+ *
+ * @author Emerson Farrugia
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = 128;
+
+    private final long halfWindowDuration;
+
+    private volatile AtomicLongArray currentCounts = new AtomicLongArray(BUCKET_COUNT);
+    private volatile AtomicLongArray previousCounts = new AtomicLongArray(BUCKET_COUNT);
+    private volatile long currentStartTime;
+
+    /**
+     * @param windowDuration the duration of the sliding window
+     * @param now the current time
+     */
+    public LatencyHistogram(long windowDuration, long now) {
+
+        checkArgument(windowDuration > 1);
+
+        this.halfWindowDuration = windowDuration / 2;
+        this.currentStartTime = now;
+    }
+
+    /**
+     * @param latency the latency of a request
+     * @param now the current time
+     */
+    public void record(long latency, long now) {
+
+        advance(now);
+
+        currentCounts.incrementAndGet(getBucketIndex(NANOSECONDS.toMicros(Math.max(0, latency))));
+    }
+
+    /**
+     * @param percentile the percentile, from 0 to 1
+     * @param now the current time
+     * @return an upper bound on the latency at the percentile, or zero if no latencies have been recorded in the window
+     */
+    public long getPercentile(double percentile, long now) {
+
+        checkArgument(percentile >= 0 && percentile <= 1);
+
+        advance(now);
+
+        AtomicLongArray current = currentCounts;
+        AtomicLongArray previous = previousCounts;
+
+        long[] counts = new long[BUCKET_COUNT];
+        long totalCount = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = current.get(i) + previous.get(i);
+            totalCount += counts[i];
+        }
+
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile * totalCount);
+        long cumulativeCount = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulativeCount += counts[i];
+
+            if (cumulativeCount >= rank && counts[i] > 0) {
+                return MICROSECONDS.toNanos(getBucketUpperBound(i));
+            }
+        }
+
+        return MICROSECONDS.toNanos(getBucketUpperBound(BUCKET_COUNT - 1));
+    }
+
+    private void advance(long now) {
+
+        if (now - currentStartTime < halfWindowDuration) {
+            return;
+        }
+
+        synchronized (this) {
+
+            long elapsedTime = now - currentStartTime;
+
+            if (elapsedTime < halfWindowDuration) {
+                return;
+            }
+
+            // if a whole window has passed without samples, the current half is stale too
+            previousCounts = (elapsedTime < 2 * halfWindowDuration) ? currentCounts : new AtomicLongArray(BUCKET_COUNT);
+            currentCounts = new AtomicLongArray(BUCKET_COUNT);
+            currentStartTime = now;
+        }
+    }
+
+    /**
+     * @return the index of the bucket that counts the latency, in microseconds
+     */
+    static int getBucketIndex(long latency) {
+
+        if (latency < SUB_BUCKET_COUNT) {
+            return (int) latency;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(latency);
+        int subBucket = (int) ((latency >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+
+        return Math.min(BUCKET_COUNT - 1, (exponent - 1) * SUB_BUCKET_COUNT + subBucket);
+    }
+
+    /**
+     * @return the largest latency, in microseconds, that the bucket counts
+     */
+    static long getBucketUpperBound(int index) {
+
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKET_COUNT + 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+
+        return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.filter;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * A rate limiter that keeps a token bucket per client and a token bucket per user of each client. A request is only
+ * admitted if both its client's bucket and its user's bucket have a token, so a single client can't starve other
+ * clients, and a single user can't starve other users of the same client. A token taken from a user's bucket is
+ * returned if the client's bucket then rejects the request.
+ * <p>
+ * Buckets are held in a concurrent map, which stripes its locks, and the buckets themselves are lock-free, so the
+ * limiter doesn't become a point of contention. Buckets that have filled up again are evicted periodically.
+ * <p>
+ * The clients rejected most often are published as metrics. Users aren't, since their identifiers don't belong in
+ * metric names, and there are too many of them to give each their own metric.
+ *
+ * @author Emerson Farrugia
+ */
+public class RateLimiter implements PublicMetrics {
+
+    private static final String CLIENT_BUCKET_KEY_PREFIX = "client:";
+    private static final String USER_BUCKET_KEY_PREFIX = "user:";
+
+    private final Limit defaultClientLimit;
+    private final Map<String, Limit> clientLimits;
+    private final Limit userLimit;
+    private final int offenderMetricCount;
+    private final LongSupplier clock;
+
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * @param defaultClientLimit the limit of a client that has no limit of its own
+     * @param clientLimits the limits of specific clients, keyed by client identifier
+     * @param userLimit the limit of each user of a client
+     * @param offenderMetricCount the number of the most rejected clients to publish metrics for
+     */
+    public RateLimiter(Limit defaultClientLimit, Map<String, Limit> clientLimits, Limit userLimit,
+            int offenderMetricCount) {
+
+        this(defaultClientLimit, clientLimits, userLimit, offenderMetricCount, System::nanoTime);
+    }
+
+    RateLimiter(Limit defaultClientLimit, Map<String, Limit> clientLimits, Limit userLimit, int offenderMetricCount,
+            LongSupplier clock) {
+
+        checkNotNull(defaultClientLimit);
+        checkNotNull(clientLimits);
+        checkNotNull(userLimit);
+        checkArgument(offenderMetricCount >= 0);
+        checkNotNull(clock);
+
+        this.defaultClientLimit = defaultClientLimit;
+        this.clientLimits = clientLimits;
+        this.userLimit = userLimit;
+        this.offenderMetricCount = offenderMetricCount;
+        this.clock = clock;
+    }
+
+    /**
+     * Takes a token for a request.
+     *
+     * @param clientId the identifier of the client making the request
+     * @param userId the identifier of the user the client is acting on behalf of, if any
+     * @return the outcome, reported against whichever of the buckets is closer to empty
+     */
+    public Decision acquire(String clientId, String userId) {
+
+        checkNotNull(clientId);
+
+        long now = clock.getAsLong();
+
+        TokenBucket clientBucket = buckets.computeIfAbsent(CLIENT_BUCKET_KEY_PREFIX + clientId,
+                key -> clientLimits.getOrDefault(clientId, defaultClientLimit).newBucket(now));
+
+        TokenBucket userBucket = userId == null ? null : buckets.computeIfAbsent(
+                USER_BUCKET_KEY_PREFIX + clientId + ":" + userId, key -> userLimit.newBucket(now));
+
+        // check the narrower bucket first, so that a user who is over their limit doesn't drain their client's bucket
+        long waitTime = userBucket == null ? 0 : userBucket.tryAcquire(now);
+
+        TokenBucket reportedBucket = userBucket;
+
+        if (waitTime == 0) {
+            waitTime = clientBucket.tryAcquire(now);
+
+            // a request the client's bucket rejects mustn't cost the user a token
+            if (waitTime > 0 && userBucket != null) {
+                userBucket.release();
+            }
+
+            if (userBucket == null || waitTime > 0 || clientBucket.getRemaining(now) < userBucket.getRemaining(now)) {
+                reportedBucket = clientBucket;
+            }
+        }
+
+        if (waitTime > 0) {
+            rejectedCount.increment();
+        }
+
+        return new Decision(waitTime == 0, reportedBucket.getCapacity(), reportedBucket.getRemaining(now),
+                toSeconds(reportedBucket.getTimeUntilFull(now)), toSeconds(waitTime));
+    }
+
+    /**
+     * Evicts the buckets that have filled up again, since a new bucket would behave the same. A request racing the
+     * eviction of its bucket may get a token from a fresh bucket, which at worst admits one extra request.
+     */
+    public void evictIdleBuckets() {
+
+        long now = clock.getAsLong();
+
+        buckets.values().removeIf(bucket -> bucket.getTimeUntilFull(now) == 0);
+    }
+
+    private static long toSeconds(long nanos) {
+        return (nanos + 999_999_999) / 1_000_000_000;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        metrics.add(new Metric<>("rateLimiting.buckets", buckets.size()));
+        metrics.add(new Metric<>("rateLimiting.rejected", rejectedCount.sum()));
+
+        buckets.entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith(CLIENT_BUCKET_KEY_PREFIX))
+                .filter(entry -> entry.getValue().getRejectedCount() > 0)
+                .sorted(Comparator.comparingLong(
+                        (Map.Entry<String, TokenBucket> entry) -> entry.getValue().getRejectedCount()).reversed())
+                .limit(offenderMetricCount)
+                .forEach(entry -> metrics.add(new Metric<>("rateLimiting.offenders." + entry.getKey() + ".rejected",
+                        entry.getValue().getRejectedCount())));
+
+        return metrics;
+    }
+
+    /**
+     * A sustained request rate and the burst allowed on top of it.
+     */
+    public static class Limit {
+
+        private final double requestsPerSecond;
+        private final int burst;
+
+        public Limit(double requestsPerSecond, int burst) {
+
+            checkArgument(requestsPerSecond > 0);
+            checkArgument(burst > 0);
+
+            this.requestsPerSecond = requestsPerSecond;
+            this.burst = burst;
+        }
+
+        private TokenBucket newBucket(long now) {
+            return new TokenBucket(requestsPerSecond, burst, now);
+        }
+    }
+
+    /**
+     * The outcome of an attempt to acquire a token.
+     */
+    public static class Decision {
+
+        private final boolean admitted;
+        private final int limit;
+        private final int remaining;
+        private final long resetInSeconds;
+        private final long retryAfterInSeconds;
+
+        public Decision(boolean admitted, int limit, int remaining, long resetInSeconds, long retryAfterInSeconds) {
+
+            this.admitted = admitted;
+            this.limit = limit;
+            this.remaining = remaining;
+            this.resetInSeconds = resetInSeconds;
+            this.retryAfterInSeconds = retryAfterInSeconds;
+        }
+
+        public boolean isAdmitted() {
+            return admitted;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public int getRemaining() {
+            return remaining;
+        }
+
+        /**
+         * @return the number of seconds until the bucket is full again
+         */
+        public long getResetInSeconds() {
+            return resetInSeconds;
+        }
+
+        /**
+         * @return the number of seconds until a rejected request can be retried, or 0 if the request was admitted
+         */
+        public long getRetryAfterInSeconds() {
+            return retryAfterInSeconds;
+        }
+    }
+}
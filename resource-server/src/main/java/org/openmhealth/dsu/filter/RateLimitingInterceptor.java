@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.filter;
+
+import org.openmhealth.dsu.domain.EndUserUserDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.springframework.http.HttpStatus.TOO_MANY_REQUESTS;
+
+
+/**
+ * An interceptor that rate limits requests by OAuth client and end user. It runs after Spring Security has
+ * authenticated the access token, and reports the state of the narrower bucket in the de facto standard
+ * X-RateLimit-Limit, X-RateLimit-Remaining and X-RateLimit-Reset headers. A request that is dispatched again to
+ * complete asynchronous processing has already been charged, so it's let through.
+ *
+ * @author Emerson Farrugia
+ */
+public class RateLimitingInterceptor extends HandlerInterceptorAdapter {
+
+    public static final String LIMIT_HEADER = "X-RateLimit-Limit";
+    public static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+    public static final String RESET_HEADER = "X-RateLimit-Reset";
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimitingInterceptor.class);
+
+    private final RateLimiter rateLimiter;
+
+    public RateLimitingInterceptor(RateLimiter rateLimiter) {
+
+        checkNotNull(rateLimiter);
+
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+
+        // the response of an asynchronous dispatch may already be committed, so it's too late to reject it anyway
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+
+        if (!(authentication instanceof OAuth2Authentication)) {
+            return true;
+        }
+
+        OAuth2Authentication oauth2Authentication = (OAuth2Authentication) authentication;
+
+        String clientId = oauth2Authentication.getOAuth2Request().getClientId();
+        String userId = null;
+
+        if (oauth2Authentication.getPrincipal() instanceof EndUserUserDetails) {
+            userId = ((EndUserUserDetails) oauth2Authentication.getPrincipal()).getUsername();
+        }
+
+        RateLimiter.Decision decision = rateLimiter.acquire(clientId, userId);
+
+        response.setHeader(LIMIT_HEADER, String.valueOf(decision.getLimit()));
+        response.setHeader(REMAINING_HEADER, String.valueOf(decision.getRemaining()));
+        response.setHeader(RESET_HEADER, String.valueOf(decision.getResetInSeconds()));
+
+        if (!decision.isAdmitted()) {
+            log.debug("A {} request for '{}' by client '{}' and user '{}' has been rate limited.",
+                    request.getMethod(), request.getRequestURI(), clientId, userId);
+
+            response.setStatus(TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(decision.getRetryAfterInSeconds()));
+
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.filter;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * A filter that records the latency of each request in a histogram, so that background work can tell when it's
+ * slowing down foreground requests.
+ *
+ * @author Emerson Farrugia
+ */
+public class RequestLatencyFilter extends OncePerRequestFilter {
+
+    private final LatencyHistogram histogram;
+
+    public RequestLatencyFilter(LatencyHistogram histogram) {
+
+        checkNotNull(histogram);
+
+        this.histogram = histogram;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+
+        long startTime = System.nanoTime();
+
+        try {
+            filterChain.doFilter(request, response);
+        }
+        finally {
+            // the latency of a long-lived asynchronous request doesn't reflect the load on storage
+            if (!request.isAsyncStarted()) {
+                long now = System.nanoTime();
+                histogram.record(now - startTime, now);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.filter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+
+/**
+ * A lock-free token bucket implemented as a generic cell rate algorithm (GCRA). The whole state of the bucket is the
+ * theoretical arrival time of the next request, held in a single atomic long, so acquiring a token is a read and a
+ * compare-and-set. All times are in nanoseconds on the {@link System#nanoTime()} timeline.
+ *
+ * @author Emerson Farrugia
+ */
+public class TokenBucket {
+
+    private final long emissionInterval;
+    private final long burstTolerance;
+    private final int capacity;
+    private final AtomicLong theoreticalArrivalTime;
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * @param requestsPerSecond the rate at which tokens are replenished
+     * @param capacity the number of tokens the bucket holds, i.e. the largest burst it admits
+     * @param now the current time
+     */
+    public TokenBucket(double requestsPerSecond, int capacity, long now) {
+
+        checkArgument(requestsPerSecond > 0);
+        checkArgument(capacity > 0);
+
+        this.emissionInterval = (long) (1_000_000_000 / requestsPerSecond);
+        this.burstTolerance = emissionInterval * capacity;
+        this.capacity = capacity;
+        this.theoreticalArrivalTime = new AtomicLong(now);
+    }
+
+    /**
+     * Takes a token from the bucket, if one is available.
+     *
+     * @param now the current time
+     * @return 0 if a token was taken, or how long to wait until one is available
+     */
+    public long tryAcquire(long now) {
+
+        while (true) {
+            long arrivalTime = theoreticalArrivalTime.get();
+            long nextArrivalTime = Math.max(arrivalTime, now) + emissionInterval;
+
+            if (nextArrivalTime - now > burstTolerance) {
+                rejectedCount.increment();
+                return nextArrivalTime - now - burstTolerance;
+            }
+
+            if (theoreticalArrivalTime.compareAndSet(arrivalTime, nextArrivalTime)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Returns a token taken by {@link #tryAcquire(long)} to the bucket, for a request that was rejected after the
+     * token was taken. The token is returned even if other tokens have been taken since.
+     */
+    public void release() {
+        theoreticalArrivalTime.addAndGet(-emissionInterval);
+    }
+
+    /**
+     * @return the number of tokens in a full bucket
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param now the current time
+     * @return the number of tokens currently in the bucket
+     */
+    public int getRemaining(long now) {
+        return (int) ((burstTolerance - getTimeUntilFull(now)) / emissionInterval);
+    }
+
+    /**
+     * @param now the current time
+     * @return how long until the bucket is full again
+     */
+    public long getTimeUntilFull(long now) {
+        return Math.max(0, theoreticalArrivalTime.get() - now);
+    }
+
+    /**
+     * @return the number of requests this bucket has rejected
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import com.google.common.collect.Iterators;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * A set of factory methods for closeable iterators that stream data points from MongoDB cursors.
+ *
+ * @author Emerson Farrugia
+ */
+final class CloseableIterators {
+
+    private CloseableIterators() {
+    }
+
+    /**
+     * @param iterator the iterator to read, which holds no resources
+     * @return a closeable iterator that reads the iterator
+     */
+    static <T> CloseableIterator<T> of(Iterator<T> iterator) {
+
+        return of(iterator, () -> {
+        });
+    }
+
+    /**
+     * @param iterator the iterator to read
+     * @param closer the action that releases the resources of the iterator once it's closed
+     * @return a closeable iterator that reads the iterator
+     */
+    static <T> CloseableIterator<T> of(Iterator<T> iterator, Runnable closer) {
+
+        checkNotNull(iterator);
+        checkNotNull(closer);
+
+        return new CloseableIterator<T>() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+                closer.run();
+            }
+        };
+    }
+
+    /**
+     * @param cursor the cursor to read, which is closed once the iterator is closed
+     * @param mapper the function that maps documents to elements
+     * @return a closeable iterator that reads the cursor
+     */
+    static <T> CloseableIterator<T> of(DBCursor cursor, Function<DBObject, T> mapper) {
+
+        checkNotNull(cursor);
+        checkNotNull(mapper);
+
+        return of(Iterators.transform(cursor, mapper::apply), cursor::close);
+    }
+
+    /**
+     * @param iterators iterators whose elements are each sorted
+     * @param comparator the comparator the elements are sorted by
+     * @return a closeable iterator that merges the elements in order, and closes every iterator once it's closed
+     */
+    static <T> CloseableIterator<T> mergeSorted(List<CloseableIterator<T>> iterators,
+            Comparator<? super T> comparator) {
+
+        checkNotNull(iterators);
+        checkNotNull(comparator);
+
+        if (iterators.size() == 1) {
+            return iterators.get(0);
+        }
+
+        List<CloseableIterator<T>> closeableIterators = new ArrayList<>(iterators);
+
+        return of(Iterators.mergeSorted(closeableIterators, comparator), () -> {
+            for (CloseableIterator<T> iterator : closeableIterators) {
+                iterator.close();
+            }
+        });
+    }
+}
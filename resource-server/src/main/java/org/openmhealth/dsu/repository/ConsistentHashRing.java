@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+
+/**
+ * A consistent hash ring that assigns keys to nodes. Each node occupies a number of virtual positions on the ring,
+ * derived from its name, and a key is assigned to the node at the first position at or after the hash of the key.
+ * Adding or removing a node therefore only reassigns the keys of the positions it gains or loses.
+ *
+ * @param <T> the type of node
+ * @author Emerson Farrugia
+ */
+public class ConsistentHashRing<T> {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final NavigableMap<Long, T> nodesByPosition = new TreeMap<>();
+
+    /**
+     * @param nodesByName the nodes to place on the ring, keyed by a name that is stable across restarts
+     * @param virtualNodeCount the number of positions each node occupies on the ring
+     */
+    public ConsistentHashRing(Map<String, T> nodesByName, int virtualNodeCount) {
+
+        checkNotNull(nodesByName);
+        checkArgument(!nodesByName.isEmpty());
+        checkArgument(virtualNodeCount > 0);
+
+        // iterate in name order so that a collision between positions is resolved the same way on every server
+        new TreeMap<>(nodesByName).forEach((name, node) -> {
+            for (int i = 0; i < virtualNodeCount; i++) {
+                nodesByPosition.putIfAbsent(hash(name + "#" + i), node);
+            }
+        });
+    }
+
+    /**
+     * @param key a key
+     * @return the node the key is assigned to
+     */
+    public T getNode(String key) {
+
+        checkNotNull(key);
+
+        Map.Entry<Long, T> entry = nodesByPosition.ceilingEntry(hash(key));
+
+        // wrap around the ring
+        if (entry == null) {
+            entry = nodesByPosition.firstEntry();
+        }
+
+        return entry.getValue();
+    }
+
+    private static long hash(String value) {
+
+        return HASH_FUNCTION.hashString(value, UTF_8).asLong();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+/**
+ * A set of data point change repository methods not automatically implemented by Spring Data repositories. These
+ * methods maintain the sequence each user's changes are numbered with.
+ *
+ * @author Emerson Farrugia
+ */
+public interface CustomDataPointChangeRepository {
+
+    /**
+     * Assigns sequences to changes to the data points of a user. The sequences are assigned atomically, so changes
+     * recorded concurrently never share a sequence.
+     *
+     * @param userId the identifier of the user
+     * @param count the number of sequences to assign
+     * @return the last of the assigned sequences, which follow each other
+     */
+    long allocateSequences(String userId, int count);
+
+    /**
+     * @param userId the identifier of the user
+     * @return the last sequence assigned to a change to the data points of the user, or zero if none has been
+     */
+    long findLastSequence(String userId);
+}
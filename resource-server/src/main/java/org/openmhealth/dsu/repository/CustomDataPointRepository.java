@@ -18,8 +18,13 @@ package org.openmhealth.dsu.repository;
 
 import org.openmhealth.dsu.domain.DataPointSearchCriteria;
 import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.springframework.data.util.CloseableIterator;
 
 import javax.annotation.Nullable;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
 
 
 /**
@@ -31,4 +36,69 @@ public interface CustomDataPointRepository {
 
     Iterable<DataPoint> findBySearchCriteria(DataPointSearchCriteria searchCriteria, @Nullable Integer offset,
             @Nullable Integer limit);
+
+    /**
+     * @param ids the identifiers of data points
+     * @return the data points that exist, in no particular order
+     */
+    List<DataPoint> findByIdIn(Collection<String> ids);
+
+    /**
+     * Reads the data points of a user in identifier order. The data points are read from open cursors as the
+     * iterator advances, so they can be streamed without being held in memory.
+     *
+     * @param userId the identifier of the user
+     * @param schemaId the schema of the data points to read, or null to read data points of every schema
+     * @param afterId the identifier after which to start, or null to start with the first data point
+     * @return the data points, in an iterator that must be closed
+     */
+    CloseableIterator<DataPoint> streamByHeaderUserId(String userId, @Nullable SchemaId schemaId,
+            @Nullable String afterId);
+
+    /**
+     * Inserts data points in bulk. Data points whose identifiers already exist are skipped, which makes it safe to
+     * repeat an insert that was interrupted.
+     *
+     * @param dataPoints the data points to insert
+     * @return the data points that were inserted
+     */
+    List<DataPoint> insert(List<DataPoint> dataPoints);
+
+    /**
+     * Deletes data points created before a timestamp. If data points are partitioned by creation time, a partition is
+     * only deleted once its whole period precedes the timestamp, so some of these data points may be kept until then.
+     *
+     * @param timestamp the timestamp
+     */
+    void deleteByCreationTimestampBefore(OffsetDateTime timestamp);
+
+    /**
+     * @param timestamp the timestamp
+     * @param limit the maximum number of data points to return
+     * @return data points created before the timestamp, grouped by user and schema
+     */
+    List<DataPoint> findByCreationTimestampBefore(OffsetDateTime timestamp, int limit);
+
+    /**
+     * @param ids the identifiers of the data points to delete
+     */
+    void deleteByIdIn(Collection<String> ids);
+
+    /**
+     * Deletes a batch of the data points that match search criteria.
+     *
+     * @param searchCriteria the search criteria
+     * @param limit the maximum number of data points to delete
+     * @return the number of data points deleted, which is zero once no matching data points are left
+     */
+    long deleteBySearchCriteria(DataPointSearchCriteria searchCriteria, int limit);
+
+    /**
+     * Deletes a batch of the data points of a user.
+     *
+     * @param userId the identifier of the user
+     * @param limit the maximum number of data points to delete
+     * @return the number of data points deleted, which is zero once the user has no data points left
+     */
+    long deleteByHeaderUserId(String userId, int limit);
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.openmhealth.dsu.domain.MaintenanceJob;
+
+import java.util.Optional;
+
+
+/**
+ * A set of maintenance job repository methods not automatically implemented by Spring Data repositories. These
+ * methods implement the leases that ensure only one server runs a job at a time.
+ *
+ * @author Emerson Farrugia
+ */
+public interface CustomMaintenanceJobRepository {
+
+    /**
+     * Leases the oldest job that is queued, or that is running but whose lease has expired.
+     *
+     * @param leaseOwner the identifier of the server taking the lease
+     * @param leaseDurationInMillis how long the lease lasts unless it's renewed
+     * @return the leased job, if any
+     */
+    Optional<MaintenanceJob> acquireLease(String leaseOwner, long leaseDurationInMillis);
+
+    /**
+     * Saves the progress and status of a job, and renews its lease unless the job has finished, in which case the
+     * lease is released.
+     *
+     * @param job the job, whose lease owner must be set
+     * @param leaseDurationInMillis how long the renewed lease lasts
+     * @return true if the job was saved, or false if its lease has been taken by another server
+     */
+    boolean saveCheckpoint(MaintenanceJob job, long leaseDurationInMillis);
+
+    /**
+     * Releases the lease on a job, so that another server can resume it immediately.
+     *
+     * @param job the job, whose lease owner must be set
+     */
+    void releaseLease(MaintenanceJob job);
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.springframework.data.util.CloseableIterator;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+
+/**
+ * An archive of data points that are rarely read. Archived data points can be searched and deleted, but not changed.
+ *
+ * @author Emerson Farrugia
+ */
+public interface DataPointArchive {
+
+    /**
+     * Archives data points. Data points that have already been archived are skipped, which makes it safe to repeat an
+     * archival that was interrupted.
+     *
+     * @param dataPoints the data points to archive
+     */
+    void archive(List<DataPoint> dataPoints);
+
+    /**
+     * @param searchCriteria the search criteria
+     * @return the number of archived data points that match the criteria
+     */
+    long countBySearchCriteria(DataPointSearchCriteria searchCriteria);
+
+    /**
+     * @param searchCriteria the search criteria
+     * @param offset the number of matching data points to skip
+     * @param limit the maximum number of data points to return
+     * @return the archived data points that match the criteria, oldest first
+     */
+    List<DataPoint> findBySearchCriteria(DataPointSearchCriteria searchCriteria, @Nullable Integer offset,
+            @Nullable Integer limit);
+
+    /**
+     * @param id the identifier of a data point
+     * @param userId the identifier of the user who owns the data point
+     * @return true if the data point is archived and hasn't been deleted
+     */
+    boolean existsByIdAndUserId(String id, String userId);
+
+    /**
+     * Reads the archived data points of a user, in the order they were archived. Data points are read as the iterator
+     * advances, so they can be streamed without being held in memory.
+     *
+     * @param userId the identifier of the user
+     * @param schemaId the schema of the data points to read, or null to read data points of every schema
+     * @param afterId the identifier of the data point after which to start, or null to start with the first data
+     * point, which is also where a data point that isn't archived starts
+     * @return the data points, in an iterator that must be closed
+     */
+    CloseableIterator<DataPoint> streamByUserId(String userId, @Nullable SchemaId schemaId, @Nullable String afterId);
+
+    /**
+     * @param id the identifier of the data point to delete
+     * @param userId the identifier of the user who owns the data point
+     * @return the number of data points deleted
+     */
+    long deleteByIdAndUserId(String id, String userId);
+
+    /**
+     * @param searchCriteria the search criteria
+     * @return the number of archived data points deleted
+     */
+    long deleteBySearchCriteria(DataPointSearchCriteria searchCriteria);
+
+    /**
+     * @param userId the identifier of the user whose archived data points to delete
+     * @return the number of archived data points deleted
+     */
+    long deleteByUserId(String userId);
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.repository;
+
+import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.springframework.data.util.CloseableIterator;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+
+/**
+ * A repository of data points that are stored in buckets, i.e. many data points to a stored document. The buckets
+ * are a storage concern, so the repository reads and writes individual data points.
+ *
+ * @author Emerson Farrugia
+ */
+public interface DataPointBucketRepository {
+
+    boolean exists(String id);
+
+    Optional<DataPoint> findOne(String id);
+
+    /**
+     * @param id the identifier of the data point
+     * @param userId the identifier of the user who must own the data point
+     * @return the data point, if it exists and is owned by the user
+     */
+    Optional<DataPoint> findByIdAndUserId(String id, String userId);
+
+    /**
+     * @param ids the identifiers of data points
+     * @return the data points that exist, in no particular order
+     */
+    List<DataPoint> findByIdIn(Collection<String> ids);
+
+    Iterable<DataPoint> findBySearchCriteria(DataPointSearchCriteria searchCriteria, @Nullable Integer offset,
+            @Nullable Integer limit);
+
+    /**
+     * Reads the data points of a user one bucket at a time, in the order of bucket identifiers. The buckets are
+     * read from an open cursor as the iterator advances, so they can be streamed without being held in memory.
+     *
+     * @param userId the identifier of the user
+     * @param schemaId the schema of the data points to read, or null to read data points of every schema
+     * @param afterId the identifier of the data point after which to start, or null to start with the first data
+     * point
+     * @return the data points, in an iterator that must be closed
+     */
+    CloseableIterator<DataPoint> streamByUserId(String userId, @Nullable SchemaId schemaId, @Nullable String afterId);
+
+    /**
+     * Appends data points to their buckets. Data points whose identifiers already exist are skipped, which makes it
+     * safe to repeat an insert that was interrupted.
+     *
+     * @param dataPoints the data points to insert
+     * @return the data points that were inserted
+     */
+    List<DataPoint> insert(List<DataPoint> dataPoints);
+
+    void delete(String id);
+
+    Long deleteByIdAndUserId(String id, String userId);
+
+    /**
+     * Deletes a batch of the data points that match search criteria. Buckets whose data points all match are removed
+     * outright. Once none are left, the buckets that straddle a bound of the creation timestamp range are rewritten
+     * without their matching data points.
+     *
+     * @param searchCriteria the search criteria
+     * @param maximumBucketCount the maximum number of buckets to remove or rewrite
+     * @return the number of data points deleted, which is zero once no matching data points are left
+     */
+    long deleteBySearchCriteria(DataPointSearchCriteria searchCriteria, int maximumBucketCount);
+
+    /**
+     * Deletes a batch of the buckets of a user.
+     *
+     * @param userId the identifier of the user
+     * @param maximumBucketCount the maximum number of buckets to remove
+     * @return the number of data points deleted, which is zero once the user has no data points left
+     */
+    long deleteByUserId(String userId, int maximumBucketCount);
+
+    /**
+     * Seals and compacts the buckets whose time window has passed or that are full. No more data points are appended
+     * to a sealed bucket.
+     *
+     * @param maximumBucketCount the maximum number of buckets to compact
+     * @return the number of buckets compacted
+     */
+    int compactSealedBuckets(int maximumBucketCount);
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.openmhealth.dsu.domain.DataPointChange;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.NoRepositoryBean;
+import org.springframework.data.repository.Repository;
+
+import java.util.List;
+
+
+/**
+ * A repository of changes to data points.
+ *
+ * @see org.springframework.data.repository.CrudRepository
+ * @author Emerson Farrugia
+ */
+@NoRepositoryBean
+public interface DataPointChangeRepository extends Repository<DataPointChange, String>,
+        CustomDataPointChangeRepository {
+
+    /**
+     * @param userId the identifier of the user
+     * @param sequence the sequence after which to start
+     * @param pageable the number of changes to return
+     * @return the changes to the data points of the user that follow the sequence, in sequence order
+     */
+    List<DataPointChange> findByUserIdAndSequenceGreaterThanOrderBySequenceAsc(String userId, long sequence,
+            Pageable pageable);
+
+    Iterable<DataPointChange> save(Iterable<DataPointChange> changes);
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.openmhealth.dsu.configuration.DataPointCollectionProperties.Period;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.time.ZoneOffset.UTC;
+import static java.time.temporal.TemporalAdjusters.firstDayOfMonth;
+import static java.time.temporal.TemporalAdjusters.previousOrSame;
+
+
+/**
+ * A partitioning of data points into collections by the UTC date of their creation. Each collection is named after
+ * the first day of its period, e.g. "dataPoint_20160301", so collection names sort chronologically.
+ *
+ * @author Emerson Farrugia
+ */
+class DataPointCollectionPartitioner {
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final String baseCollectionName;
+    private final Period period;
+
+    /**
+     * @param baseCollectionName the name of the collection data points are stored in when they aren't partitioned
+     * @param period the period covered by each collection
+     */
+    DataPointCollectionPartitioner(String baseCollectionName, Period period) {
+
+        checkNotNull(baseCollectionName);
+        checkNotNull(period);
+
+        this.baseCollectionName = baseCollectionName;
+        this.period = period;
+    }
+
+    boolean isPartitioned() {
+        return period != Period.NONE;
+    }
+
+    String getBaseCollectionName() {
+        return baseCollectionName;
+    }
+
+    /**
+     * @param creationTimestamp the creation timestamp of a data point
+     * @return the name of the collection that holds the data point
+     */
+    String getCollectionName(OffsetDateTime creationTimestamp) {
+
+        checkNotNull(creationTimestamp);
+
+        if (!isPartitioned()) {
+            return baseCollectionName;
+        }
+
+        return getCollectionName(getPeriodStart(creationTimestamp.atZoneSameInstant(UTC).toLocalDate()));
+    }
+
+    /**
+     * @param collectionName the name of a collection
+     * @return the first day of the period of the collection, if it's a collection of this partitioning
+     */
+    Optional<LocalDate> getPeriodStart(String collectionName) {
+
+        checkNotNull(collectionName);
+
+        if (!isPartitioned() || !collectionName.startsWith(baseCollectionName + "_")) {
+            return Optional.empty();
+        }
+
+        try {
+            LocalDate start = LocalDate.parse(collectionName.substring(baseCollectionName.length() + 1),
+                    DATE_FORMATTER);
+
+            // a collection of a different period isn't part of this partitioning
+            return start.equals(getPeriodStart(start)) ? Optional.of(start) : Optional.empty();
+        }
+        catch (DateTimeParseException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param periodStart the first day of a period
+     * @return the first day of the following period
+     */
+    LocalDate getPeriodEnd(LocalDate periodStart) {
+
+        return (period == Period.WEEKLY) ? periodStart.plusWeeks(1) : periodStart.plusMonths(1);
+    }
+
+    private LocalDate getPeriodStart(LocalDate date) {
+
+        return (period == Period.WEEKLY)
+                ? date.with(previousOrSame(DayOfWeek.MONDAY))
+                : date.with(firstDayOfMonth());
+    }
+
+    private String getCollectionName(LocalDate periodStart) {
+
+        return baseCollectionName + "_" + periodStart.format(DATE_FORMATTER);
+    }
+}
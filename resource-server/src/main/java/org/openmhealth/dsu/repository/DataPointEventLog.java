@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.openmhealth.dsu.domain.DataPointEvent;
+import org.openmhealth.schema.domain.omh.DataPoint;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+
+/**
+ * An append-only log of the writes made to data points, which downstream consumers read instead of querying the data
+ * point store for new data. Events are addressed by offset, and each named consumer has an offset that it commits as
+ * it makes progress, so it can resume where it left off.
+ *
+ * @author Emerson Farrugia
+ */
+public interface DataPointEventLog {
+
+    /**
+     * Appends an event for each saved data point.
+     *
+     * @param dataPoints the saved data points
+     */
+    void appendSaves(List<DataPoint> dataPoints);
+
+    /**
+     * Appends an event for a deleted data point.
+     *
+     * @param userId the identifier of the user who owned the data point
+     * @param dataPointId the identifier of the data point
+     */
+    void appendDeletion(String userId, String dataPointId);
+
+    /**
+     * @return the offset of the oldest event that hasn't been discarded
+     */
+    long getStartOffset();
+
+    /**
+     * @return the offset that the next event will be appended at
+     */
+    long getEndOffset();
+
+    /**
+     * Reads events in the order they were appended. Events that have been discarded are skipped.
+     *
+     * @param offset the offset to start reading at, which must be the offset of an event or the end offset
+     * @param maximumCount the maximum number of events to read
+     * @param consumer the consumer to pass each event to, which mustn't keep the event once it returns
+     * @return the offset that follows the last event read
+     */
+    long read(long offset, int maximumCount, Consumer<DataPointEvent> consumer);
+
+    /**
+     * @param consumerName the name of the consumer
+     * @return the offset committed by the consumer, or the start offset if it hasn't committed one yet
+     */
+    long getConsumerOffset(String consumerName);
+
+    /**
+     * @param consumerName the name of the consumer
+     * @param offset the offset that the consumer should resume reading at
+     */
+    void commitConsumerOffset(String consumerName, long offset);
+
+    /**
+     * Reads the events that follow the committed offset of a consumer, and commits the offset that follows them once
+     * the consumer has processed them all. An event is therefore read again if the consumer fails before then.
+     *
+     * @param consumerName the name of the consumer
+     * @param maximumCount the maximum number of events to read
+     * @param consumer the consumer to pass each event to, which mustn't keep the event once it returns
+     * @return the number of events read
+     */
+    int tail(String consumerName, int maximumCount, Consumer<DataPointEvent> consumer);
+}
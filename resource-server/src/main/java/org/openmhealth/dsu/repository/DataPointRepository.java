@@ -36,6 +36,13 @@ public interface DataPointRepository extends Repository<DataPoint, String>, Cust
 
     Optional<DataPoint> findOne(String id);
 
+    /**
+     * @param id the identifier of the data point
+     * @param userId the identifier of the user who must own the data point
+     * @return the data point, if it exists and is owned by the user
+     */
+    Optional<DataPoint> findByIdAndHeaderUserId(String id, String userId);
+
     DataPoint save(DataPoint dataPoint);
 
     Iterable<DataPoint> save(Iterable<DataPoint> dataPoints);
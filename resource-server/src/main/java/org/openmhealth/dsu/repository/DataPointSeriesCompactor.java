@@ -0,0 +1,406 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.repository;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.openmhealth.dsu.codec.BitReader;
+import org.openmhealth.dsu.codec.BitWriter;
+import org.openmhealth.dsu.codec.GorillaCodec;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * A compactor of the data point documents of a bucket into a columnar series. Every field path that the documents
+ * share is stored once, either as a constant if its value never changes, or as a Gorilla-encoded column if its values
+ * are numbers or timestamps. Whatever is left, e.g. data point identifiers, stays in a residual document per data
+ * point, and so does the identifier of each document.
+ * <p>
+ * The first document serves as a skeleton that preserves the order of the shared fields when the documents are
+ * expanded again. Fields that only some documents have are restored after the shared ones.
+ *
+ * @author Emerson Farrugia
+ */
+class DataPointSeriesCompactor {
+
+    static final String SKELETON_KEY = "skeleton";
+    static final String COLUMNS_KEY = "columns";
+    static final String PATH_KEY = "path";
+    static final String TYPE_KEY = "type";
+    static final String OFFSET_KEY = "offset";
+    static final String DATA_KEY = "data";
+
+    private static final long MAXIMUM_EXACT_LONG = 1L << 53;
+
+    private enum ColumnType {
+        DOUBLE,
+        INT32,
+        INT64,
+        TIMESTAMP
+    }
+
+    private final BitWriter writer = new BitWriter(4096);
+    private final BitReader reader = new BitReader();
+
+    /**
+     * Compacts documents into a series.
+     *
+     * @param documents the documents to compact, which are left as they are
+     * @param residuals the list to add a residual document to for each compacted document
+     * @return the series
+     */
+    public DBObject compact(List<DBObject> documents, List<DBObject> residuals) {
+
+        checkNotNull(documents);
+        checkArgument(!documents.isEmpty());
+        checkNotNull(residuals);
+
+        List<Map<String, Object>> flattenedDocuments = new ArrayList<>(documents.size());
+
+        for (DBObject document : documents) {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            flatten("", document, fields);
+            flattenedDocuments.add(fields);
+        }
+
+        Map<String, Object> skeletonFields = new LinkedHashMap<>();
+        Set<String> extractedPaths = new HashSet<>();
+        BasicDBList columns = new BasicDBList();
+
+        for (String path : flattenedDocuments.get(0).keySet()) {
+
+            Object[] values = getValues(flattenedDocuments, path);
+
+            // identifiers stay in the residuals, where they're indexed
+            if (values == null || path.equals("_id")) {
+                continue;
+            }
+
+            if (areEqual(values)) {
+                skeletonFields.put(path, values[0]);
+                extractedPaths.add(path);
+                continue;
+            }
+
+            // the field is shared, so it goes into the skeleton even if its values stay in the residuals
+            skeletonFields.put(path, null);
+
+            DBObject column = newColumn(path, values);
+
+            if (column != null) {
+                columns.add(column);
+                extractedPaths.add(path);
+            }
+        }
+
+        for (Map<String, Object> fields : flattenedDocuments) {
+
+            DBObject residual = new BasicDBObject();
+
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                if (!extractedPaths.contains(field.getKey())) {
+                    setPath(residual, field.getKey(), field.getValue());
+                }
+            }
+
+            residuals.add(residual);
+        }
+
+        DBObject skeleton = new BasicDBObject();
+
+        for (Map.Entry<String, Object> field : skeletonFields.entrySet()) {
+            setPath(skeleton, field.getKey(), field.getValue());
+        }
+
+        return new BasicDBObject(SKELETON_KEY, skeleton).append(COLUMNS_KEY, columns);
+    }
+
+    /**
+     * Expands a series back into documents.
+     *
+     * @param series the series
+     * @param residuals the residual documents of the series, in order
+     * @return the documents
+     */
+    public List<DBObject> expand(DBObject series, List<?> residuals) {
+
+        checkNotNull(series);
+        checkNotNull(residuals);
+
+        int length = residuals.size();
+
+        List<BasicDBObject> documents = new ArrayList<>(length);
+        BasicDBObject skeleton = (BasicDBObject) series.get(SKELETON_KEY);
+
+        for (int i = 0; i < length; i++) {
+            documents.add((BasicDBObject) skeleton.copy());
+        }
+
+        long[] longs = null;
+        double[] doubles = null;
+
+        for (Object columnObject : (List<?>) series.get(COLUMNS_KEY)) {
+
+            DBObject column = (DBObject) columnObject;
+
+            String path = (String) column.get(PATH_KEY);
+            ColumnType type = ColumnType.valueOf((String) column.get(TYPE_KEY));
+            byte[] data = (byte[]) column.get(DATA_KEY);
+
+            reader.reset(data, 0, data.length);
+
+            if (type == ColumnType.TIMESTAMP) {
+                longs = longs == null ? new long[length] : longs;
+                GorillaCodec.decodeTimestamps(reader, longs, length);
+
+                ZoneOffset offset = ZoneOffset.ofTotalSeconds((Integer) column.get(OFFSET_KEY));
+
+                for (int i = 0; i < length; i++) {
+                    setPath(documents.get(i), path,
+                            OffsetDateTime.ofInstant(Instant.ofEpochMilli(longs[i]), offset).toString());
+                }
+            }
+            else {
+                doubles = doubles == null ? new double[length] : doubles;
+                GorillaCodec.decodeValues(reader, doubles, length);
+
+                for (int i = 0; i < length; i++) {
+                    setPath(documents.get(i), path, fromDouble(doubles[i], type));
+                }
+            }
+        }
+
+        for (int i = 0; i < length; i++) {
+            Map<String, Object> residualFields = new LinkedHashMap<>();
+            flatten("", (DBObject) residuals.get(i), residualFields);
+
+            for (Map.Entry<String, Object> field : residualFields.entrySet()) {
+                setPath(documents.get(i), field.getKey(), field.getValue());
+            }
+        }
+
+        return new ArrayList<>(documents);
+    }
+
+    /**
+     * @return the values of a field in each document, or null if any document lacks the field
+     */
+    private Object[] getValues(List<Map<String, Object>> flattenedDocuments, String path) {
+
+        Object[] values = new Object[flattenedDocuments.size()];
+
+        for (int i = 0; i < values.length; i++) {
+            Map<String, Object> fields = flattenedDocuments.get(i);
+
+            if (!fields.containsKey(path)) {
+                return null;
+            }
+
+            values[i] = fields.get(path);
+        }
+
+        return values;
+    }
+
+    private boolean areEqual(Object[] values) {
+
+        for (int i = 1; i < values.length; i++) {
+            if (!Objects.equals(values[0], values[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return a column of the values, or null if they can't be encoded exactly
+     */
+    private DBObject newColumn(String path, Object[] values) {
+
+        ColumnType type = getNumericType(values);
+        Integer offset = null;
+
+        writer.reset();
+
+        if (type != null) {
+            double[] doubles = new double[values.length];
+
+            for (int i = 0; i < values.length; i++) {
+                doubles[i] = ((Number) values[i]).doubleValue();
+            }
+
+            GorillaCodec.encodeValues(doubles, doubles.length, writer);
+        }
+        else {
+            long[] timestamps = new long[values.length];
+            offset = toTimestamps(values, timestamps);
+
+            if (offset == null) {
+                return null;
+            }
+
+            type = ColumnType.TIMESTAMP;
+            GorillaCodec.encodeTimestamps(timestamps, timestamps.length, writer);
+        }
+
+        DBObject column = new BasicDBObject(PATH_KEY, path).append(TYPE_KEY, type.name());
+
+        if (offset != null) {
+            column.put(OFFSET_KEY, offset);
+        }
+
+        column.put(DATA_KEY, writer.toByteArray());
+
+        return column;
+    }
+
+    /**
+     * @return the type of the column that holds the numbers exactly, or null if the values aren't all numbers of the
+     * same type
+     */
+    private ColumnType getNumericType(Object[] values) {
+
+        Class<?> valueClass = values[0] == null ? null : values[0].getClass();
+
+        for (Object value : values) {
+            if (value == null || value.getClass() != valueClass) {
+                return null;
+            }
+
+            if (value instanceof Long && Math.abs((Long) value) > MAXIMUM_EXACT_LONG) {
+                return null;
+            }
+        }
+
+        if (valueClass == Double.class) {
+            return ColumnType.DOUBLE;
+        }
+
+        if (valueClass == Integer.class) {
+            return ColumnType.INT32;
+        }
+
+        if (valueClass == Long.class) {
+            return ColumnType.INT64;
+        }
+
+        return null;
+    }
+
+    private Object fromDouble(double value, ColumnType type) {
+
+        switch (type) {
+            case INT32:
+                return (int) value;
+            case INT64:
+                return (long) value;
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Converts timestamp strings to milliseconds since the epoch, if they share an offset and are written the way
+     * {@link OffsetDateTime#toString()} writes them, since only then can they be restored exactly.
+     *
+     * @return the offset of the timestamps in seconds, or null if they can't be converted
+     */
+    private Integer toTimestamps(Object[] values, long[] timestamps) {
+
+        ZoneOffset offset = null;
+
+        for (int i = 0; i < values.length; i++) {
+
+            if (!(values[i] instanceof String)) {
+                return null;
+            }
+
+            OffsetDateTime timestamp;
+
+            try {
+                timestamp = OffsetDateTime.parse((String) values[i]);
+            }
+            catch (DateTimeParseException e) {
+                return null;
+            }
+
+            if (offset == null) {
+                offset = timestamp.getOffset();
+            }
+
+            timestamps[i] = timestamp.toInstant().toEpochMilli();
+
+            OffsetDateTime restoredTimestamp = OffsetDateTime.ofInstant(Instant.ofEpochMilli(timestamps[i]), offset);
+
+            if (!restoredTimestamp.toString().equals(values[i])) {
+                return null;
+            }
+        }
+
+        return offset.getTotalSeconds();
+    }
+
+    /**
+     * Flattens a document into its fields, keyed by dotted path. Arrays and empty documents are treated as values.
+     */
+    private static void flatten(String prefix, DBObject document, Map<String, Object> fields) {
+
+        for (String key : document.keySet()) {
+
+            Object value = document.get(key);
+            String path = prefix + key;
+
+            if (value instanceof DBObject && !(value instanceof List) && !((DBObject) value).keySet().isEmpty()) {
+                flatten(path + ".", (DBObject) value, fields);
+            }
+            else {
+                fields.put(path, value);
+            }
+        }
+    }
+
+    private static void setPath(DBObject document, String path, Object value) {
+
+        int separatorIndex;
+
+        while ((separatorIndex = path.indexOf('.')) >= 0) {
+
+            String key = path.substring(0, separatorIndex);
+            Object child = document.get(key);
+
+            if (!(child instanceof DBObject) || child instanceof List) {
+                child = new BasicDBObject();
+                document.put(key, child);
+            }
+
+            document = (DBObject) child;
+            path = path.substring(separatorIndex + 1);
+        }
+
+        document.put(path, value);
+    }
+}
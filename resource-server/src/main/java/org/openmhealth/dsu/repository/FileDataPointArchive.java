@@ -0,0 +1,881 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Range;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import org.bson.BasicBSONEncoder;
+import org.openmhealth.dsu.configuration.DataPointArchiveProperties;
+import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.DSYNC;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toList;
+
+
+/**
+ * A data point archive that stores data points in segment files on local disk. Each segment holds data points of one
+ * user and schema, compacted into Gorilla-encoded columns by a {@link DataPointSeriesCompactor} and deflated. Segments
+ * are written once and memory-mapped when read.
+ * <p>
+ * The header of every segment, i.e. its user, schema, time range and size, is kept in memory, so a search only reads
+ * the segments that can match it, and skips whole segments while paging. Deleting a data point records a tombstone
+ * instead of rewriting its segment.
+ *
+ * @author Emerson Farrugia
+ */
+@Repository
+@ConditionalOnProperty(prefix = "dataPointArchive", name = "enabled")
+public class FileDataPointArchive implements DataPointArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(FileDataPointArchive.class);
+
+    private static final int MAGIC_NUMBER = 0x4F4D4841; // "OMHA"
+    private static final byte FORMAT_VERSION = 1;
+    private static final String SEGMENT_FILE_SUFFIX = ".segment";
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+    private static final String TOMBSTONE_FILE_NAME = "deleted";
+    private static final String SERIES_KEY = "series";
+    private static final String RESIDUALS_KEY = "residuals";
+    private static final BaseEncoding USER_ID_ENCODING = BaseEncoding.base64Url().omitPadding();
+
+    @Autowired
+    private DataPointArchiveProperties properties;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    private final ThreadLocal<DataPointSeriesCompactor> compactor =
+            ThreadLocal.withInitial(DataPointSeriesCompactor::new);
+
+    private final ConcurrentMap<String, UserArchive> userArchives = new ConcurrentHashMap<>();
+
+    private Path directory;
+
+    /**
+     * Reads the headers of all segments and the tombstones of all users into memory.
+     */
+    @PostConstruct
+    public void loadIndex() throws IOException {
+
+        directory = Paths.get(properties.getDirectory()).toAbsolutePath();
+        Files.createDirectories(directory);
+
+        userArchives.clear();
+
+        int segmentCount = 0;
+
+        // the layout is <directory>/<user hash>/<encoded user identifier>/<files>
+        try (Stream<Path> paths = Files.walk(directory, 3)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+
+                String fileName = path.getFileName().toString();
+
+                if (fileName.endsWith(TEMPORARY_FILE_SUFFIX)) {
+                    // a segment that was being written when the server stopped, whose data points are still in MongoDB
+                    Files.delete(path);
+                }
+                else if (fileName.endsWith(SEGMENT_FILE_SUFFIX)) {
+                    getUserArchive(path.getParent()).addSegment(readSegment(path));
+                    segmentCount++;
+                }
+                else if (fileName.equals(TOMBSTONE_FILE_NAME)) {
+                    getUserArchive(path.getParent()).loadTombstones();
+                }
+            }
+        }
+
+        log.info("{} data point archive segments of {} users have been loaded from '{}'.", segmentCount,
+                userArchives.size(), directory);
+    }
+
+    @Override
+    public void archive(List<DataPoint> dataPoints) {
+
+        checkNotNull(dataPoints);
+
+        Map<List<String>, List<DataPoint>> dataPointsBySegmentKey = new LinkedHashMap<>();
+
+        for (DataPoint dataPoint : dataPoints) {
+            SchemaId schemaId = dataPoint.getHeader().getSchemaId();
+
+            List<String> segmentKey = Arrays.asList(dataPoint.getHeader().getUserId(), schemaId.getNamespace(),
+                    schemaId.getName(), schemaId.getVersion().toString());
+
+            dataPointsBySegmentKey.computeIfAbsent(segmentKey, key -> new ArrayList<>()).add(dataPoint);
+        }
+
+        dataPointsBySegmentKey.forEach((segmentKey, segmentDataPoints) -> {
+
+            segmentDataPoints.sort(comparing(dataPoint -> dataPoint.getHeader().getCreationDateTime().toInstant()));
+
+            UserArchive userArchive = userArchives.computeIfAbsent(segmentKey.get(0),
+                    userId -> new UserArchive(getUserDirectory(userId)));
+
+            try {
+                userArchive.archive(segmentKey.get(1), segmentKey.get(2), segmentKey.get(3), segmentDataPoints);
+            }
+            catch (IOException e) {
+                throw new DataAccessResourceFailureException("Data points couldn't be archived.", e);
+            }
+        });
+    }
+
+    @Override
+    public long countBySearchCriteria(DataPointSearchCriteria searchCriteria) {
+
+        checkNotNull(searchCriteria);
+
+        UserArchive userArchive = userArchives.get(searchCriteria.getUserId());
+
+        if (userArchive == null) {
+            return 0;
+        }
+
+        Optional<Range<OffsetDateTime>> range = searchCriteria.getCreationTimestampRange();
+        long count = 0;
+
+        for (Segment segment : userArchive.segments) {
+
+            if (!segment.matches(searchCriteria)) {
+                continue;
+            }
+
+            Set<String> deletedIds = userArchive.getDeletedIds(segment);
+
+            if (segment.isEnclosedBy(range)) {
+                count += segment.size - deletedIds.size();
+            }
+            else {
+                count += readDataPoints(segment, deletedIds, range).size();
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public List<DataPoint> findBySearchCriteria(DataPointSearchCriteria searchCriteria, @Nullable Integer offset,
+            @Nullable Integer limit) {
+
+        checkNotNull(searchCriteria);
+        checkArgument(offset == null || offset >= 0);
+        checkArgument(limit == null || limit >= 0);
+
+        UserArchive userArchive = userArchives.get(searchCriteria.getUserId());
+
+        if (userArchive == null) {
+            return Collections.emptyList();
+        }
+
+        Optional<Range<OffsetDateTime>> range = searchCriteria.getCreationTimestampRange();
+        long skippedCount = (offset == null) ? 0 : offset;
+        long remainingCount = (limit == null) ? Long.MAX_VALUE : limit;
+
+        List<DataPoint> dataPoints = new ArrayList<>();
+
+        for (Segment segment : userArchive.segments) {
+
+            if (remainingCount == 0) {
+                break;
+            }
+
+            if (!segment.matches(searchCriteria)) {
+                continue;
+            }
+
+            Set<String> deletedIds = userArchive.getDeletedIds(segment);
+
+            // a page that starts after the segment doesn't need to read it
+            if (segment.isEnclosedBy(range) && skippedCount >= segment.size - deletedIds.size()) {
+                skippedCount -= segment.size - deletedIds.size();
+                continue;
+            }
+
+            for (DataPoint dataPoint : readDataPoints(segment, deletedIds, range)) {
+
+                if (skippedCount > 0) {
+                    skippedCount--;
+                }
+                else if (remainingCount > 0) {
+                    dataPoints.add(dataPoint);
+                    remainingCount--;
+                }
+            }
+        }
+
+        return dataPoints;
+    }
+
+    @Override
+    public boolean existsByIdAndUserId(String id, String userId) {
+
+        checkNotNull(id);
+        checkNotNull(userId);
+
+        UserArchive userArchive = userArchives.get(userId);
+
+        if (userArchive == null) {
+            return false;
+        }
+
+        // a deleted data point can be archived again with the same identifier, in a later segment
+        for (Segment segment : userArchive.segments) {
+
+            if (userArchive.getDeletedIds(segment).contains(id)) {
+                continue;
+            }
+
+            if (readDocuments(segment).stream().anyMatch(document -> id.equals(document.get("_id").toString()))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public CloseableIterator<DataPoint> streamByUserId(String userId, @Nullable SchemaId schemaId,
+            @Nullable String afterId) {
+
+        checkNotNull(userId);
+
+        UserArchive userArchive = userArchives.get(userId);
+
+        if (userArchive == null) {
+            return CloseableIterators.of(Collections.emptyIterator());
+        }
+
+        // segments are read in the order they were written, so a segment written while an export is interrupted
+        // is read once the export resumes
+        List<Segment> segments = userArchive.segments.stream()
+                .filter(segment -> schemaId == null || segment.matches(schemaId.getNamespace(), schemaId.getName(),
+                        schemaId.getVersion().toString()))
+                .sorted(comparing((Segment segment) -> segment.creationTime).thenComparing(Segment::getFileName))
+                .collect(toList());
+
+        Iterator<DataPoint> remainingDataPoints = Collections.emptyIterator();
+        int nextSegmentIndex = 0;
+
+        if (afterId != null) {
+            for (int i = 0; i < segments.size(); i++) {
+
+                Segment segment = segments.get(i);
+                List<DBObject> documents = readDocuments(segment);
+
+                int index = Iterables.indexOf(documents, document -> afterId.equals(document.get("_id").toString()));
+
+                if (index >= 0) {
+                    remainingDataPoints = toDataPoints(documents.subList(index + 1, documents.size()),
+                            userArchive.getDeletedIds(segment), Optional.empty()).iterator();
+                    nextSegmentIndex = i + 1;
+                    break;
+                }
+            }
+        }
+
+        // each segment is only read once the data points of the previous one have been
+        Iterator<DataPoint> dataPoints = Iterators.concat(remainingDataPoints,
+                Iterators.concat(Iterators.transform(segments.subList(nextSegmentIndex, segments.size()).iterator(),
+                        segment -> readDataPoints(segment, userArchive.getDeletedIds(segment), Optional.empty())
+                                .iterator())));
+
+        return CloseableIterators.of(dataPoints);
+    }
+
+    @Override
+    public long deleteByIdAndUserId(String id, String userId) {
+
+        checkNotNull(id);
+        checkNotNull(userId);
+
+        UserArchive userArchive = userArchives.get(userId);
+
+        if (userArchive == null) {
+            return 0;
+        }
+
+        try {
+            return userArchive.delete(id) ? 1 : 0;
+        }
+        catch (IOException e) {
+            throw new DataAccessResourceFailureException("An archived data point couldn't be deleted.", e);
+        }
+    }
+
+    @Override
+    public long deleteBySearchCriteria(DataPointSearchCriteria searchCriteria) {
+
+        checkNotNull(searchCriteria);
+
+        UserArchive userArchive = userArchives.get(searchCriteria.getUserId());
+
+        if (userArchive == null) {
+            return 0;
+        }
+
+        try {
+            return userArchive.delete(searchCriteria);
+        }
+        catch (IOException e) {
+            throw new DataAccessResourceFailureException("Archived data points couldn't be deleted.", e);
+        }
+    }
+
+    @Override
+    public long deleteByUserId(String userId) {
+
+        checkNotNull(userId);
+
+        UserArchive userArchive = userArchives.remove(userId);
+
+        if (userArchive == null) {
+            return 0;
+        }
+
+        try {
+            return userArchive.deleteAll();
+        }
+        catch (IOException e) {
+            throw new DataAccessResourceFailureException("Archived data points couldn't be deleted.", e);
+        }
+    }
+
+    private UserArchive getUserArchive(Path userDirectory) {
+
+        String userId = new String(USER_ID_ENCODING.decode(userDirectory.getFileName().toString()), UTF_8);
+
+        return userArchives.computeIfAbsent(userId, key -> new UserArchive(userDirectory));
+    }
+
+    /**
+     * @return the directory of a user, spread over subdirectories to keep directories small
+     */
+    private Path getUserDirectory(String userId) {
+
+        String hash = String.format("%02x", Hashing.murmur3_32().hashString(userId, UTF_8).asInt() & 0xff);
+
+        return directory.resolve(hash).resolve(USER_ID_ENCODING.encode(userId.getBytes(UTF_8)));
+    }
+
+    /**
+     * @return the segment whose header is in the file
+     */
+    private Segment readSegment(Path path) throws IOException {
+
+        try (DataInputStream inputStream = new DataInputStream(new ByteBufferInputStream(map(path)))) {
+
+            if (inputStream.readInt() != MAGIC_NUMBER || inputStream.readByte() != FORMAT_VERSION) {
+                throw new IOException("The file '" + path + "' isn't a data point archive segment.");
+            }
+
+            return new Segment(path, inputStream.readUTF(), inputStream.readUTF(), inputStream.readUTF(),
+                    inputStream.readLong(), inputStream.readLong(), inputStream.readInt(),
+                    Files.getLastModifiedTime(path).toMillis());
+        }
+    }
+
+    /**
+     * @return the documents in the segment, in order of creation
+     */
+    private List<DBObject> readDocuments(Segment segment) {
+
+        try (DataInputStream inputStream = new DataInputStream(new ByteBufferInputStream(map(segment.path)))) {
+
+            // skip the header
+            inputStream.readInt();
+            inputStream.readByte();
+            inputStream.readUTF();
+            inputStream.readUTF();
+            inputStream.readUTF();
+            inputStream.readLong();
+            inputStream.readLong();
+            inputStream.readInt();
+
+            // closing the stream releases the native memory of its inflater
+            try (InflaterInputStream inflaterInputStream = new InflaterInputStream(inputStream)) {
+
+                DBObject body = new DefaultDBDecoder().decode(inflaterInputStream, (DBCollection) null);
+
+                return compactor.get().expand((DBObject) body.get(SERIES_KEY), (List<?>) body.get(RESIDUALS_KEY));
+            }
+        }
+        catch (IOException e) {
+            throw new DataAccessResourceFailureException("The archive segment '" + segment.path
+                    + "' couldn't be read.", e);
+        }
+    }
+
+    private List<DataPoint> readDataPoints(Segment segment, Set<String> deletedIds,
+            Optional<Range<OffsetDateTime>> range) {
+
+        return toDataPoints(readDocuments(segment), deletedIds, range);
+    }
+
+    private List<DataPoint> toDataPoints(List<DBObject> documents, Set<String> deletedIds,
+            Optional<Range<OffsetDateTime>> range) {
+
+        List<DataPoint> dataPoints = new ArrayList<>(documents.size());
+
+        for (DBObject document : documents) {
+
+            if (deletedIds.contains(document.get("_id").toString())) {
+                continue;
+            }
+
+            DataPoint dataPoint = mongoOperations.getConverter().read(DataPoint.class, document);
+
+            if (!range.isPresent() || range.get().contains(dataPoint.getHeader().getCreationDateTime())) {
+                dataPoints.add(dataPoint);
+            }
+        }
+
+        return dataPoints;
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+
+        // the mapping outlives the channel, and is released once the buffer is garbage collected
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            return channel.map(READ_ONLY, 0, channel.size());
+        }
+    }
+
+
+    /**
+     * The segments and tombstones of a user. Writes are serialized per user, and reads don't need to lock.
+     */
+    private class UserArchive {
+
+        private final Path directory;
+        private final List<Segment> segments = new CopyOnWriteArrayList<>();
+        private final Map<String, Set<String>> deletedIdsBySegmentFileName = new ConcurrentHashMap<>();
+
+        UserArchive(Path directory) {
+            this.directory = directory;
+        }
+
+        synchronized void addSegment(Segment segment) {
+
+            segments.add(segment);
+            segments.sort(comparing((Segment candidate) -> candidate.minimumTime));
+        }
+
+        Set<String> getDeletedIds(Segment segment) {
+
+            return deletedIdsBySegmentFileName.getOrDefault(segment.getFileName(), Collections.emptySet());
+        }
+
+        synchronized void loadTombstones() throws IOException {
+
+            for (String line : Files.readAllLines(directory.resolve(TOMBSTONE_FILE_NAME), UTF_8)) {
+
+                String[] fields = line.split("\t", 2);
+
+                if (fields.length == 2) {
+                    addTombstone(fields[0], fields[1]);
+                }
+            }
+        }
+
+        private void addTombstone(String segmentFileName, String id) {
+
+            deletedIdsBySegmentFileName.computeIfAbsent(segmentFileName, key -> ConcurrentHashMap.newKeySet())
+                    .add(id);
+        }
+
+        synchronized void archive(String namespace, String name, String version, List<DataPoint> dataPoints)
+                throws IOException {
+
+            long minimumTime = toEpochMilli(dataPoints.get(0));
+            long maximumTime = toEpochMilli(dataPoints.get(dataPoints.size() - 1));
+
+            // skip data points archived by an earlier archival that was interrupted before deleting them from MongoDB,
+            // but not those written again with the identifier of a deleted data point, which would otherwise be lost
+            Set<String> archivedIds = new HashSet<>();
+
+            for (Segment segment : segments) {
+                if (segment.matches(namespace, name, version)
+                        && segment.minimumTime <= maximumTime && segment.maximumTime >= minimumTime) {
+
+                    Set<String> deletedIds = getDeletedIds(segment);
+
+                    readDocuments(segment).stream()
+                            .map(document -> document.get("_id").toString())
+                            .filter(id -> !deletedIds.contains(id))
+                            .forEach(archivedIds::add);
+                }
+            }
+
+            List<DBObject> documents = new ArrayList<>(dataPoints.size());
+
+            for (DataPoint dataPoint : dataPoints) {
+
+                if (archivedIds.contains(dataPoint.getHeader().getId())) {
+                    continue;
+                }
+
+                DBObject document = new BasicDBObject();
+                mongoOperations.getConverter().write(dataPoint, document);
+
+                // the type hint would otherwise be repeated for every data point
+                document.removeField("_class");
+                document.put("_id", dataPoint.getHeader().getId());
+
+                documents.add(document);
+            }
+
+            if (documents.isEmpty()) {
+                return;
+            }
+
+            List<DBObject> residuals = new ArrayList<>(documents.size());
+            DBObject body = new BasicDBObject(SERIES_KEY, compactor.get().compact(documents, residuals))
+                    .append(RESIDUALS_KEY, residuals);
+
+            Files.createDirectories(directory);
+
+            String fileName = minimumTime + "-" + UUID.randomUUID() + SEGMENT_FILE_SUFFIX;
+            Path temporaryPath = directory.resolve(fileName + TEMPORARY_FILE_SUFFIX);
+            Path path = directory.resolve(fileName);
+
+            try (FileChannel channel = FileChannel.open(temporaryPath, CREATE_NEW, WRITE)) {
+
+                OutputStream outputStream = Channels.newOutputStream(channel);
+                DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+
+                dataOutputStream.writeInt(MAGIC_NUMBER);
+                dataOutputStream.writeByte(FORMAT_VERSION);
+                dataOutputStream.writeUTF(namespace);
+                dataOutputStream.writeUTF(name);
+                dataOutputStream.writeUTF(version);
+                dataOutputStream.writeLong(minimumTime);
+                dataOutputStream.writeLong(maximumTime);
+                dataOutputStream.writeInt(documents.size());
+                dataOutputStream.flush();
+
+                // the stream can't be closed before the channel is forced, so its deflater is ended explicitly
+                Deflater deflater = new Deflater();
+
+                try {
+                    DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(outputStream, deflater);
+                    deflaterOutputStream.write(new BasicBSONEncoder().encode(body));
+                    deflaterOutputStream.finish();
+                }
+                finally {
+                    deflater.end();
+                }
+
+                // the data points are deleted from MongoDB once this returns, so they must be on disk
+                channel.force(true);
+            }
+
+            Files.move(temporaryPath, path, ATOMIC_MOVE);
+
+            addSegment(new Segment(path, namespace, name, version, minimumTime, maximumTime, documents.size(),
+                    Files.getLastModifiedTime(path).toMillis()));
+        }
+
+        synchronized boolean delete(String id) throws IOException {
+
+            for (Segment segment : segments) {
+
+                if (getDeletedIds(segment).contains(id)) {
+                    continue;
+                }
+
+                if (readDocuments(segment).stream().anyMatch(document -> id.equals(document.get("_id").toString()))) {
+
+                    Files.write(directory.resolve(TOMBSTONE_FILE_NAME),
+                            (segment.getFileName() + "\t" + id + "\n").getBytes(UTF_8), CREATE, APPEND, DSYNC);
+
+                    addTombstone(segment.getFileName(), id);
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Deletes the data points that match search criteria. A segment whose data points all match is deleted
+         * outright, and the matching data points of any other segment are tombstoned.
+         *
+         * @return the number of data points deleted
+         */
+        synchronized long delete(DataPointSearchCriteria searchCriteria) throws IOException {
+
+            Optional<Range<OffsetDateTime>> range = searchCriteria.getCreationTimestampRange();
+
+            long deletedCount = 0;
+            StringBuilder tombstones = new StringBuilder();
+            Map<String, List<String>> deletedIdsBySegmentFileName = new LinkedHashMap<>();
+
+            for (Segment segment : segments) {
+
+                if (!segment.matches(searchCriteria)) {
+                    continue;
+                }
+
+                Set<String> deletedIds = getDeletedIds(segment);
+
+                if (segment.isEnclosedBy(range)) {
+                    deletedCount += segment.size - deletedIds.size();
+                    deleteSegment(segment);
+                    continue;
+                }
+
+                for (DataPoint dataPoint : readDataPoints(segment, deletedIds, range)) {
+
+                    String id = dataPoint.getHeader().getId();
+
+                    tombstones.append(segment.getFileName()).append('\t').append(id).append('\n');
+                    deletedIdsBySegmentFileName.computeIfAbsent(segment.getFileName(), key -> new ArrayList<>())
+                            .add(id);
+                    deletedCount++;
+                }
+            }
+
+            if (tombstones.length() > 0) {
+                Files.write(directory.resolve(TOMBSTONE_FILE_NAME), tombstones.toString().getBytes(UTF_8), CREATE,
+                        APPEND, DSYNC);
+
+                deletedIdsBySegmentFileName.forEach((segmentFileName, ids) ->
+                        ids.forEach(id -> addTombstone(segmentFileName, id)));
+            }
+
+            return deletedCount;
+        }
+
+        /**
+         * Deletes the directory of the user, along with all its segments and tombstones.
+         *
+         * @return the number of data points deleted
+         */
+        synchronized long deleteAll() throws IOException {
+
+            long deletedCount = 0;
+
+            for (Segment segment : segments) {
+                deletedCount += segment.size - getDeletedIds(segment).size();
+            }
+
+            segments.clear();
+            deletedIdsBySegmentFileName.clear();
+
+            if (!Files.exists(directory)) {
+                return deletedCount;
+            }
+
+            List<Path> paths;
+
+            try (Stream<Path> pathStream = Files.walk(directory)) {
+                paths = pathStream.sorted(Comparator.reverseOrder()).collect(toList());
+            }
+
+            // in reverse order, the files in a directory come before the directory itself
+            for (Path path : paths) {
+                Files.deleteIfExists(path);
+            }
+
+            return deletedCount;
+        }
+
+        private void deleteSegment(Segment segment) throws IOException {
+
+            // the segment stops being read before its file is deleted
+            segments.remove(segment);
+            deletedIdsBySegmentFileName.remove(segment.getFileName());
+
+            Files.deleteIfExists(segment.path);
+        }
+
+        private long toEpochMilli(DataPoint dataPoint) {
+
+            return dataPoint.getHeader().getCreationDateTime().toInstant().toEpochMilli();
+        }
+    }
+
+
+    /**
+     * The header of a segment file.
+     */
+    private static class Segment {
+
+        private final Path path;
+        private final String namespace;
+        private final String name;
+        private final String version;
+        private final long minimumTime;
+        private final long maximumTime;
+        private final int size;
+        private final long creationTime;
+
+        Segment(Path path, String namespace, String name, String version, long minimumTime, long maximumTime,
+                int size, long creationTime) {
+
+            this.path = path;
+            this.namespace = namespace;
+            this.name = name;
+            this.version = version;
+            this.minimumTime = minimumTime;
+            this.maximumTime = maximumTime;
+            this.size = size;
+            this.creationTime = creationTime;
+        }
+
+        String getFileName() {
+            return path.getFileName().toString();
+        }
+
+        boolean matches(String namespace, String name, String version) {
+
+            return this.namespace.equals(namespace) && this.name.equals(name) && this.version.equals(version);
+        }
+
+        /**
+         * @return true if the segment holds data points of the schema and may hold data points in the time range
+         */
+        boolean matches(DataPointSearchCriteria searchCriteria) {
+
+            if (!matches(searchCriteria.getSchemaNamespace(), searchCriteria.getSchemaName(),
+                    searchCriteria.getSchemaVersion().toString())) {
+                return false;
+            }
+
+            if (!searchCriteria.getCreationTimestampRange().isPresent()) {
+                return true;
+            }
+
+            Range<OffsetDateTime> range = searchCriteria.getCreationTimestampRange().get();
+
+            // times are truncated to milliseconds, so these comparisons err on the side of reading the segment
+            return !(range.hasLowerBound() && maximumTime < toEpochMilli(range.lowerEndpoint()))
+                    && !(range.hasUpperBound() && minimumTime > toEpochMilli(range.upperEndpoint()));
+        }
+
+        /**
+         * @return true if every data point in the segment is certainly in the time range
+         */
+        boolean isEnclosedBy(Optional<Range<OffsetDateTime>> range) {
+
+            if (!range.isPresent()) {
+                return true;
+            }
+
+            return (!range.get().hasLowerBound() || minimumTime > toEpochMilli(range.get().lowerEndpoint()))
+                    && (!range.get().hasUpperBound() || maximumTime + 1 <= toEpochMilli(range.get().upperEndpoint()));
+        }
+
+        private static long toEpochMilli(OffsetDateTime timestamp) {
+            return timestamp.toInstant().toEpochMilli();
+        }
+    }
+
+
+    /**
+     * An input stream that reads a memory-mapped file without copying it onto the heap first.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int readCount = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, readCount);
+
+            return readCount;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.openmhealth.dsu.configuration.DataPointEventLogProperties;
+import org.openmhealth.dsu.domain.DataPointEvent;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.DataPointHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.stream.Collectors.toList;
+import static org.openmhealth.dsu.domain.DataPointEvent.Operation.DELETE;
+import static org.openmhealth.dsu.domain.DataPointEvent.Operation.SAVE;
+
+
+/**
+ * A data point event log that stores events in memory-mapped segment files on local disk. Events are appended to the
+ * newest segment, and a new segment is started once it's full. The offset of an event is the offset of its segment,
+ * which is also the name of the segment file, plus its position in the segment, so offsets grow across segments.
+ * <p>
+ * Each event is stored as a record holding its length, its CRC-32 and its bytes. Reads are bounded by the end offset,
+ * which is only advanced once a batch of events has been written, and pass consumers views of the mapped segments
+ * instead of copies. A record that was torn by a crash fails its checksum when the log is reopened, and is overwritten.
+ * <p>
+ * The committed offset of each consumer is kept in a memory-mapped file of its own.
+ *
+ * @author Emerson Farrugia
+ */
+@Repository
+@ConditionalOnProperty(prefix = "dataPointEventLog", name = "enabled")
+public class FileDataPointEventLog implements DataPointEventLog, PublicMetrics, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(FileDataPointEventLog.class);
+
+    private static final String SEGMENT_FILE_SUFFIX = ".log";
+    private static final String CONSUMER_DIRECTORY_NAME = "consumers";
+    private static final String CONSUMER_OFFSET_FILE_SUFFIX = ".offset";
+    private static final Pattern CONSUMER_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final int RECORD_HEADER_SIZE = 8; // the length and CRC-32 of the event
+
+    @Autowired
+    private DataPointEventLogProperties properties;
+
+    private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, MappedByteBuffer> consumerOffsets = new ConcurrentHashMap<>();
+
+    private Path directory;
+    private Path consumerDirectory;
+    private Segment activeSegment;
+    private volatile long endOffset;
+
+    /**
+     * Maps the existing segments and consumer offsets, and finds the end of the newest segment.
+     */
+    @PostConstruct
+    public synchronized void open() throws IOException {
+
+        directory = Paths.get(properties.getDirectory()).toAbsolutePath();
+        consumerDirectory = directory.resolve(CONSUMER_DIRECTORY_NAME);
+        Files.createDirectories(consumerDirectory);
+
+        segments.clear();
+        consumerOffsets.clear();
+
+        for (Path path : listFiles(directory, SEGMENT_FILE_SUFFIX)) {
+            long offset = Long.parseLong(getBaseName(path, SEGMENT_FILE_SUFFIX));
+            segments.put(offset, new Segment(offset, path, map(path, (int) Files.size(path))));
+        }
+
+        for (Path path : listFiles(consumerDirectory, CONSUMER_OFFSET_FILE_SUFFIX)) {
+            consumerOffsets.put(getBaseName(path, CONSUMER_OFFSET_FILE_SUFFIX), map(path, Long.BYTES));
+        }
+
+        if (segments.isEmpty()) {
+            activeSegment = createSegment(0);
+        }
+        else {
+            activeSegment = segments.lastEntry().getValue();
+            activeSegment.size = findEnd(activeSegment.buffer);
+        }
+
+        endOffset = activeSegment.offset + activeSegment.size;
+
+        log.info("The data point event log in '{}' has been opened with {} segment(s) ending at offset {}.",
+                directory, segments.size(), endOffset);
+    }
+
+    private List<Path> listFiles(Path directory, String suffix) throws IOException {
+
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(suffix)).collect(toList());
+        }
+    }
+
+    private String getBaseName(Path path, String suffix) {
+
+        String fileName = path.getFileName().toString();
+
+        return fileName.substring(0, fileName.length() - suffix.length());
+    }
+
+    private MappedByteBuffer map(Path path, int size) throws IOException {
+
+        // the mapping remains valid once the channel is closed
+        try (FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE)) {
+            return channel.map(READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * @return the position that follows the last intact record in a segment
+     */
+    private int findEnd(ByteBuffer buffer) {
+
+        int position = 0;
+
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+
+            int length = buffer.getInt(position);
+
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+
+            ByteBuffer event = buffer.duplicate();
+            event.position(position + RECORD_HEADER_SIZE).limit(position + RECORD_HEADER_SIZE + length);
+
+            if (buffer.getInt(position + 4) != checksum(event)) {
+                break;
+            }
+
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        return position;
+    }
+
+    private int checksum(ByteBuffer event) {
+
+        CRC32 crc = new CRC32();
+        crc.update(event);
+
+        return (int) crc.getValue();
+    }
+
+    private Segment createSegment(long offset) throws IOException {
+
+        Path path = directory.resolve(format("%020d%s", offset, SEGMENT_FILE_SUFFIX));
+        Segment segment = new Segment(offset, path, map(path, properties.getSegmentSize()));
+
+        segments.put(offset, segment);
+
+        return segment;
+    }
+
+    @Override
+    public void appendSaves(List<DataPoint> dataPoints) {
+
+        checkNotNull(dataPoints);
+
+        Instant now = Instant.now();
+        List<byte[]> events = new ArrayList<>(dataPoints.size());
+
+        for (DataPoint dataPoint : dataPoints) {
+            DataPointHeader header = dataPoint.getHeader();
+
+            events.add(DataPointEvent.encode(SAVE, header.getId(), header.getUserId(), header.getSchemaId(),
+                    header.getCreationDateTime(), now));
+        }
+
+        append(events);
+    }
+
+    @Override
+    public void appendDeletion(String userId, String dataPointId) {
+
+        checkNotNull(userId);
+        checkNotNull(dataPointId);
+
+        append(Collections.singletonList(DataPointEvent.encode(DELETE, dataPointId, userId, null, null,
+                Instant.now())));
+    }
+
+    private synchronized void append(List<byte[]> events) {
+
+        if (events.isEmpty()) {
+            return;
+        }
+
+        try {
+            for (byte[] event : events) {
+
+                int recordSize = RECORD_HEADER_SIZE + event.length;
+
+                checkArgument(recordSize <= properties.getSegmentSize(), "An event doesn't fit in a segment.");
+
+                if (activeSegment.size + recordSize > activeSegment.buffer.capacity()) {
+                    startSegment();
+                }
+
+                // the shared buffer is only read and written at absolute positions, so a duplicate is positioned
+                ByteBuffer record = activeSegment.buffer.duplicate();
+                record.position(activeSegment.size);
+                record.putInt(event.length);
+                record.putInt(checksum(ByteBuffer.wrap(event)));
+                record.put(event);
+
+                activeSegment.size += recordSize;
+            }
+        }
+        catch (IOException e) {
+            throw new DataAccessResourceFailureException("A segment of the data point event log couldn't be started.",
+                    e);
+        }
+        finally {
+            // advancing the end offset makes the written events visible to readers
+            endOffset = activeSegment.offset + activeSegment.size;
+        }
+    }
+
+    /**
+     * Starts a new segment at the end of the active segment, and discards the oldest segments beyond the maximum.
+     */
+    private void startSegment() throws IOException {
+
+        activeSegment.buffer.force();
+        activeSegment = createSegment(activeSegment.offset + activeSegment.size);
+
+        while (segments.size() > properties.getMaximumSegmentCount()) {
+
+            // a segment that's being read when it's discarded stays mapped until its buffer is collected
+            Segment discardedSegment = segments.pollFirstEntry().getValue();
+            Files.deleteIfExists(discardedSegment.path);
+
+            log.debug("The data point event log segment starting at offset {} has been discarded.",
+                    discardedSegment.offset);
+        }
+    }
+
+    @Override
+    public long getStartOffset() {
+        return segments.firstKey();
+    }
+
+    @Override
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    @Override
+    public long read(long offset, int maximumCount, Consumer<DataPointEvent> consumer) {
+
+        checkArgument(offset >= 0);
+        checkArgument(maximumCount >= 0);
+        checkNotNull(consumer);
+
+        long endOffset = this.endOffset;
+
+        checkArgument(offset <= endOffset);
+
+        for (int count = 0; count < maximumCount && offset < endOffset; count++) {
+
+            Map.Entry<Long, Segment> segment = segments.floorEntry(offset);
+
+            // the events that have been discarded are skipped
+            if (segment == null) {
+                offset = getStartOffset();
+                segment = segments.floorEntry(offset);
+            }
+
+            // the end of a full segment is the offset of the next segment, which the lookup above finds instead
+            ByteBuffer buffer = segment.getValue().buffer;
+            int position = (int) (offset - segment.getKey());
+            int length = buffer.getInt(position);
+
+            ByteBuffer event = buffer.duplicate();
+            event.position(position + RECORD_HEADER_SIZE).limit(position + RECORD_HEADER_SIZE + length);
+
+            consumer.accept(new DataPointEvent(offset, event.slice().asReadOnlyBuffer()));
+
+            offset += RECORD_HEADER_SIZE + length;
+        }
+
+        return offset;
+    }
+
+    @Override
+    public long getConsumerOffset(String consumerName) {
+
+        long offset = getConsumerOffsetBuffer(consumerName).getLong(0);
+
+        // an offset can be past the end if the events it follows were lost in a crash before the log was forced, in
+        // which case the consumer carries on from the events written since
+        return Math.min(Math.max(offset, getStartOffset()), endOffset);
+    }
+
+    @Override
+    public void commitConsumerOffset(String consumerName, long offset) {
+
+        checkArgument(offset >= 0 && offset <= endOffset);
+
+        getConsumerOffsetBuffer(consumerName).putLong(0, offset);
+    }
+
+    private MappedByteBuffer getConsumerOffsetBuffer(String consumerName) {
+
+        checkNotNull(consumerName);
+        checkArgument(CONSUMER_NAME_PATTERN.matcher(consumerName).matches(),
+                "The consumer name '%s' isn't valid.", consumerName);
+
+        return consumerOffsets.computeIfAbsent(consumerName, name -> {
+            try {
+                // a new offset file is zero-filled, which is earlier than any offset that hasn't been discarded
+                return map(consumerDirectory.resolve(name + CONSUMER_OFFSET_FILE_SUFFIX), Long.BYTES);
+            }
+            catch (IOException e) {
+                throw new DataAccessResourceFailureException(
+                        format("The offset of consumer '%s' couldn't be opened.", name), e);
+            }
+        });
+    }
+
+    @Override
+    public int tail(String consumerName, int maximumCount, Consumer<DataPointEvent> consumer) {
+
+        int[] count = {0};
+
+        long offset = read(getConsumerOffset(consumerName), maximumCount, event -> {
+            consumer.accept(event);
+            count[0]++;
+        });
+
+        commitConsumerOffset(consumerName, offset);
+
+        return count[0];
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        metrics.add(new Metric<>("dataPointEventLog.endOffset", endOffset));
+        metrics.add(new Metric<>("dataPointEventLog.segments", segments.size()));
+
+        for (String consumerName : consumerOffsets.keySet()) {
+            metrics.add(new Metric<>("dataPointEventLog.consumers." + consumerName + ".lag",
+                    endOffset - getConsumerOffset(consumerName)));
+        }
+
+        return metrics;
+    }
+
+    @Override
+    public synchronized void destroy() {
+
+        activeSegment.buffer.force();
+        consumerOffsets.values().forEach(MappedByteBuffer::force);
+    }
+
+    private static class Segment {
+
+        private final long offset;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int size; // guarded by the log
+
+        Segment(long offset, Path path, MappedByteBuffer buffer) {
+
+            this.offset = offset;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.openmhealth.dsu.domain.MaintenanceJob;
+import org.openmhealth.dsu.domain.MaintenanceJob.Status;
+import org.springframework.data.repository.NoRepositoryBean;
+import org.springframework.data.repository.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+
+/**
+ * A repository of maintenance jobs.
+ *
+ * @see org.springframework.data.repository.CrudRepository
+ * @author Emerson Farrugia
+ */
+@NoRepositoryBean
+public interface MaintenanceJobRepository extends Repository<MaintenanceJob, String>, CustomMaintenanceJobRepository {
+
+    Optional<MaintenanceJob> findOne(String id);
+
+    /**
+     * @param statuses the statuses to match
+     * @return the jobs that have any of the statuses, oldest first
+     */
+    List<MaintenanceJob> findByStatusInOrderByCreationTimestampAsc(Collection<Status> statuses);
+
+    /**
+     * @param statuses the statuses to match
+     * @return the most recently modified jobs that have any of the statuses
+     */
+    List<MaintenanceJob> findTop20ByStatusInOrderByModificationTimestampDesc(Collection<Status> statuses);
+
+    MaintenanceJob save(MaintenanceJob job);
+}
@@ -0,0 +1,696 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.repository;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Range;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.openmhealth.dsu.configuration.DataPointBucketProperties;
+import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.IndexOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.partition;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.stream.Collectors.toList;
+import static org.openmhealth.dsu.repository.MongoDataPointRepositoryImpl.addSchemaCriteria;
+import static org.openmhealth.dsu.repository.MongoDataPointRepositoryImpl.newRangeCriteria;
+import static org.springframework.data.domain.Sort.Direction.ASC;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+
+/**
+ * A MongoDB repository of bucketed data points. Each bucket document holds the data points of a single user and
+ * schema whose creation timestamps fall into the same time window, along with the earliest and latest of those
+ * timestamps. The compound index on user, schema and window has an entry per bucket rather than per data point, and
+ * per-document overhead is paid once per bucket. The index on data point identifiers is multikey, so it still has an
+ * entry per data point.
+ * <p>
+ * A bucket is open until its time window has passed or it's full. It's then sealed and compacted, which encodes the
+ * fields its data points share as a series of Gorilla-encoded columns, see {@link DataPointSeriesCompactor}. Reads
+ * expand compacted buckets transparently.
+ *
+ * @author Emerson Farrugia
+ */
+@Repository
+@ConditionalOnExpression("'${dataStore}' == 'mongo'")
+public class MongoDataPointBucketRepository implements DataPointBucketRepository {
+
+    public static final String COLLECTION_NAME = "dataPointBuckets";
+
+    private static final String DATA_POINTS_KEY = "data_points";
+    private static final String DATA_POINT_ID_KEY = DATA_POINTS_KEY + "._id";
+    private static final String OPEN_KEY = "open";
+    private static final String SERIES_KEY = "series";
+    private static final String COUNT_KEY = "count";
+    private static final int MAXIMUM_DELETE_ATTEMPTS = 3;
+
+    // a compactor reuses its buffers, so each thread gets its own
+    private final ThreadLocal<DataPointSeriesCompactor> compactor =
+            ThreadLocal.withInitial(DataPointSeriesCompactor::new);
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private DataPointBucketProperties properties;
+
+    @PostConstruct
+    public void ensureIndexes() {
+
+        IndexOperations indexOperations = mongoOperations.indexOps(COLLECTION_NAME);
+
+        indexOperations.ensureIndex(new Index()
+                .on("user_id", ASC)
+                .on("schema_id.namespace", ASC)
+                .on("schema_id.name", ASC)
+                .on("schema_id.version.major", ASC)
+                .on("schema_id.version.minor", ASC)
+                .on("window_start", ASC));
+
+        indexOperations.ensureIndex(new Index().on(DATA_POINT_ID_KEY, ASC));
+
+        // supports reading the buckets of a user in order of creation, e.g. to export them
+        indexOperations.ensureIndex(new Index().on("user_id", ASC).on("_id", ASC));
+
+        // only open buckets have the field, so the index stays small
+        indexOperations.ensureIndex(new Index().on(OPEN_KEY, ASC).sparse());
+    }
+
+    @Override
+    public boolean exists(String id) {
+
+        checkNotNull(id);
+
+        return mongoOperations.exists(query(where(DATA_POINT_ID_KEY).is(id)), COLLECTION_NAME);
+    }
+
+    @Override
+    public Optional<DataPoint> findOne(String id) {
+
+        checkNotNull(id);
+
+        return findOne(where(DATA_POINT_ID_KEY).is(id), id);
+    }
+
+    @Override
+    public Optional<DataPoint> findByIdAndUserId(String id, String userId) {
+
+        checkNotNull(id);
+        checkNotNull(userId);
+
+        return findOne(where(DATA_POINT_ID_KEY).is(id).and("user_id").is(userId), id);
+    }
+
+    private Optional<DataPoint> findOne(Criteria bucketCriteria, String id) {
+
+        DBObject bucket = mongoOperations.findOne(query(bucketCriteria), DBObject.class, COLLECTION_NAME);
+
+        if (bucket == null) {
+            return Optional.empty();
+        }
+
+        return getDataPointDocuments(bucket).stream()
+                .filter(document -> id.equals(document.get("_id")))
+                .findFirst()
+                .map(this::toDataPoint);
+    }
+
+    @Override
+    public List<DataPoint> findByIdIn(Collection<String> ids) {
+
+        checkNotNull(ids);
+
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<DataPoint> dataPoints = new ArrayList<>();
+
+        for (DBObject bucket : mongoOperations.find(query(where(DATA_POINT_ID_KEY).in(ids)), DBObject.class,
+                COLLECTION_NAME)) {
+
+            getDataPointDocuments(bucket).stream()
+                    .filter(document -> ids.contains(document.get("_id")))
+                    .map(this::toDataPoint)
+                    .forEach(dataPoints::add);
+        }
+
+        return dataPoints;
+    }
+
+    @Override
+    public Iterable<DataPoint> findBySearchCriteria(DataPointSearchCriteria searchCriteria, @Nullable Integer offset,
+            @Nullable Integer limit) {
+
+        checkNotNull(searchCriteria);
+        checkArgument(offset == null || offset >= 0);
+        checkArgument(limit == null || limit >= 0);
+
+        Range<OffsetDateTime> timestampRange = searchCriteria.getCreationTimestampRange().orElse(Range.all());
+
+        DBObject bucketQueryObject = toMongoQuery(newOverlappingBucketQuery(searchCriteria));
+        boolean filtered = timestampRange.hasLowerBound() || timestampRange.hasUpperBound();
+
+        return mongoOperations.execute(COLLECTION_NAME, collection -> {
+
+            List<DataPoint> dataPoints = new ArrayList<>();
+            int remainingOffset = offset == null ? 0 : offset;
+
+            try (DBCursor cursor = collection.find(bucketQueryObject).sort(new BasicDBObject("window_start", 1))) {
+
+                while (cursor.hasNext() && (limit == null || dataPoints.size() < limit)) {
+
+                    DBObject bucket = cursor.next();
+                    int count = ((Number) bucket.get(COUNT_KEY)).intValue();
+
+                    // a bucket that is skipped in its entirety doesn't need to be expanded
+                    if (!filtered && remainingOffset >= count) {
+                        remainingOffset -= count;
+                        continue;
+                    }
+
+                    for (DBObject document : getDataPointDocuments(bucket)) {
+
+                        DataPoint dataPoint = toDataPoint(document);
+
+                        // the bucket bounds are coarse, so the data points themselves are filtered too
+                        if (filtered && !timestampRange.contains(dataPoint.getHeader().getCreationDateTime())) {
+                            continue;
+                        }
+
+                        if (remainingOffset > 0) {
+                            remainingOffset--;
+                            continue;
+                        }
+
+                        dataPoints.add(dataPoint);
+
+                        if (limit != null && dataPoints.size() == limit) {
+                            break;
+                        }
+                    }
+                }
+            }
+
+            return dataPoints;
+        });
+    }
+
+    @Override
+    public CloseableIterator<DataPoint> streamByUserId(String userId, @Nullable SchemaId schemaId,
+            @Nullable String afterId) {
+
+        checkNotNull(userId);
+
+        Query bucketQuery = query(where("user_id").is(userId).and(COUNT_KEY).gt(0));
+
+        if (schemaId != null) {
+            addSchemaCriteria(bucketQuery, "schema_id", schemaId.getNamespace(), schemaId.getName(),
+                    schemaId.getVersion());
+        }
+
+        Iterator<DBObject> remainingDocuments = Collections.emptyIterator();
+
+        if (afterId != null) {
+            DBObject bucket = mongoOperations.findOne(query(where(DATA_POINT_ID_KEY).is(afterId).and("user_id")
+                    .is(userId)), DBObject.class, COLLECTION_NAME);
+
+            // resume with the data points that follow in the same bucket, and then with the buckets that follow it
+            if (bucket != null) {
+                List<DBObject> documents = getDataPointDocuments(bucket);
+
+                int index = Iterables.indexOf(documents, document -> afterId.equals(document.get("_id")));
+
+                remainingDocuments = documents.subList(index + 1, documents.size()).iterator();
+                bucketQuery.addCriteria(where("_id").gt(bucket.get("_id")));
+            }
+        }
+
+        DBObject bucketQueryObject = toMongoQuery(bucketQuery);
+
+        // buckets are upserted, so their identifiers are object identifiers that grow with creation time
+        DBCursor cursor = mongoOperations.execute(COLLECTION_NAME,
+                collection -> collection.find(bucketQueryObject).sort(new BasicDBObject("_id", 1)));
+
+        Iterator<DBObject> documents = Iterators.concat(remainingDocuments,
+                Iterators.concat(Iterators.transform(cursor, bucket -> getDataPointDocuments(bucket).iterator())));
+
+        return CloseableIterators.of(Iterators.transform(documents, this::toDataPoint), cursor::close);
+    }
+
+    /**
+     * @return a query for the buckets of the user and schema in the search criteria, ignoring its time range
+     */
+    private Query newBucketQuery(DataPointSearchCriteria searchCriteria) {
+
+        Query bucketQuery = query(where("user_id").is(searchCriteria.getUserId()));
+
+        addSchemaCriteria(bucketQuery, "schema_id", searchCriteria.getSchemaNamespace(),
+                searchCriteria.getSchemaName(), searchCriteria.getSchemaVersion());
+
+        return bucketQuery;
+    }
+
+    /**
+     * @return a query for the buckets that may hold data points matching the search criteria
+     */
+    private Query newOverlappingBucketQuery(DataPointSearchCriteria searchCriteria) {
+
+        Query bucketQuery = newBucketQuery(searchCriteria);
+        Range<OffsetDateTime> timestampRange = searchCriteria.getCreationTimestampRange().orElse(Range.all());
+
+        // skip buckets that end before the range starts or start after the range ends
+        if (timestampRange.hasLowerBound()) {
+            bucketQuery.addCriteria(newRangeCriteria("max_time",
+                    Range.downTo(toDate(timestampRange.lowerEndpoint()), timestampRange.lowerBoundType())));
+        }
+
+        if (timestampRange.hasUpperBound()) {
+            bucketQuery.addCriteria(newRangeCriteria("min_time",
+                    Range.upTo(toDate(timestampRange.upperEndpoint()), timestampRange.upperBoundType())));
+        }
+
+        return bucketQuery;
+    }
+
+    /**
+     * @return a query for the non-empty buckets that only hold data points matching the search criteria
+     */
+    private Query newEnclosedBucketQuery(DataPointSearchCriteria searchCriteria) {
+
+        Query bucketQuery = newBucketQuery(searchCriteria);
+        Range<OffsetDateTime> timestampRange = searchCriteria.getCreationTimestampRange().orElse(Range.all());
+
+        bucketQuery.addCriteria(where(COUNT_KEY).gt(0));
+
+        // the bucket bounds are truncated to milliseconds, so strict comparisons err on the side of keeping a bucket
+        if (timestampRange.hasLowerBound()) {
+            bucketQuery.addCriteria(where("min_time").gt(toDate(timestampRange.lowerEndpoint())));
+        }
+
+        if (timestampRange.hasUpperBound()) {
+            bucketQuery.addCriteria(where("max_time").lt(toDate(timestampRange.upperEndpoint())));
+        }
+
+        return bucketQuery;
+    }
+
+    @Override
+    public List<DataPoint> insert(List<DataPoint> dataPoints) {
+
+        checkNotNull(dataPoints);
+
+        if (dataPoints.isEmpty()) {
+            return dataPoints;
+        }
+
+        Map<String, DataPoint> dataPointsById = new LinkedHashMap<>();
+
+        for (DataPoint dataPoint : dataPoints) {
+            dataPointsById.putIfAbsent(dataPoint.getHeader().getId(), dataPoint);
+        }
+
+        dataPointsById.keySet().removeAll(findExistingIds(dataPointsById.keySet()));
+
+        if (dataPointsById.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<DBObject, List<DBObject>> documentsByBucket = new LinkedHashMap<>();
+
+        for (DataPoint dataPoint : dataPointsById.values()) {
+
+            DBObject document = new BasicDBObject();
+            mongoOperations.getConverter().write(dataPoint, document);
+
+            // the type hint would otherwise be repeated in every element of a bucket
+            document.removeField("_class");
+            document.put("_id", dataPoint.getHeader().getId());
+
+            documentsByBucket.computeIfAbsent(newBucketKey(dataPoint, document), key -> new ArrayList<>())
+                    .add(document);
+        }
+
+        mongoOperations.execute(COLLECTION_NAME, collection -> {
+
+            // an unordered bulk operation lets the server apply the appends to different buckets in parallel
+            BulkWriteOperation bulkWriteOperation = collection.initializeUnorderedBulkOperation();
+
+            for (Map.Entry<DBObject, List<DBObject>> entry : documentsByBucket.entrySet()) {
+                for (List<DBObject> documents : partition(entry.getValue(), properties.getMaximumBucketSize())) {
+                    appendToBucket(bulkWriteOperation, entry.getKey(), documents);
+                }
+            }
+
+            return bulkWriteOperation.execute();
+        });
+
+        return new ArrayList<>(dataPointsById.values());
+    }
+
+    private Set<String> findExistingIds(Set<String> ids) {
+
+        DBObject query = new BasicDBObject(DATA_POINT_ID_KEY, new BasicDBObject("$in", ids));
+
+        // this returns every identifier in the matching buckets, not just the ones asked for
+        Set<String> existingIds = new HashSet<>();
+
+        for (Object id : mongoOperations.getCollection(COLLECTION_NAME).distinct(DATA_POINT_ID_KEY, query)) {
+            existingIds.add((String) id);
+        }
+
+        existingIds.retainAll(ids);
+
+        return existingIds;
+    }
+
+    /**
+     * @return the equality conditions that identify the buckets of a data point, in the form an upsert copies into a
+     * new bucket
+     */
+    private DBObject newBucketKey(DataPoint dataPoint, DBObject document) {
+
+        DBObject header = (DBObject) document.get("header");
+        DBObject schemaId = (DBObject) header.get("schema_id");
+        DBObject schemaVersion = (DBObject) schemaId.get("version");
+
+        DBObject bucketKey = new BasicDBObject();
+
+        bucketKey.put("user_id", header.get("user_id"));
+        bucketKey.put("schema_id.namespace", schemaId.get("namespace"));
+        bucketKey.put("schema_id.name", schemaId.get("name"));
+        bucketKey.put("schema_id.version.major", schemaVersion.get("major"));
+        bucketKey.put("schema_id.version.minor", schemaVersion.get("minor"));
+        bucketKey.put("schema_id.version.qualifier", schemaVersion.containsField("qualifier")
+                ? schemaVersion.get("qualifier")
+                : new BasicDBObject("$exists", false));
+        bucketKey.put("window_start", getWindowStart(dataPoint.getHeader().getCreationDateTime()));
+        bucketKey.put(OPEN_KEY, true);
+
+        return bucketKey;
+    }
+
+    private Date getWindowStart(OffsetDateTime timestamp) {
+
+        long windowDuration = MINUTES.toMillis(properties.getBucketDurationInMinutes());
+        long time = timestamp.toInstant().toEpochMilli();
+
+        return new Date(Math.floorDiv(time, windowDuration) * windowDuration);
+    }
+
+    /**
+     * Appends documents to the first open bucket that has room for them, creating a bucket if there's none.
+     */
+    private void appendToBucket(BulkWriteOperation bulkWriteOperation, DBObject bucketKey, List<DBObject> documents) {
+
+        Date minimumTime = null;
+        Date maximumTime = null;
+
+        for (DBObject document : documents) {
+            Date time = toDate(getCreationTimestamp(document));
+
+            if (minimumTime == null || time.before(minimumTime)) {
+                minimumTime = time;
+            }
+
+            if (maximumTime == null || time.after(maximumTime)) {
+                maximumTime = time;
+            }
+        }
+
+        BasicDBObject query = new BasicDBObject(bucketKey.toMap());
+        query.put(COUNT_KEY, new BasicDBObject("$lte", properties.getMaximumBucketSize() - documents.size()));
+
+        DBObject update = new BasicDBObject()
+                .append("$push", new BasicDBObject(DATA_POINTS_KEY, new BasicDBObject("$each", documents)))
+                .append("$inc", new BasicDBObject(COUNT_KEY, documents.size()))
+                .append("$min", new BasicDBObject("min_time", minimumTime))
+                .append("$max", new BasicDBObject("max_time", maximumTime));
+
+        bulkWriteOperation.find(query).upsert().updateOne(update);
+    }
+
+    private OffsetDateTime getCreationTimestamp(DBObject document) {
+
+        Object creationTimestamp = ((DBObject) document.get("header")).get("creation_date_time");
+
+        return mongoOperations.getConverter().getConversionService().convert(creationTimestamp, OffsetDateTime.class);
+    }
+
+    @Override
+    public void delete(String id) {
+
+        checkNotNull(id);
+
+        deleteFromBucket(where(DATA_POINT_ID_KEY).is(id), document -> id.equals(document.get("_id")));
+    }
+
+    @Override
+    public Long deleteByIdAndUserId(String id, String userId) {
+
+        checkNotNull(id);
+        checkNotNull(userId);
+
+        return deleteFromBucket(where(DATA_POINT_ID_KEY).is(id).and("user_id").is(userId),
+                document -> id.equals(document.get("_id")));
+    }
+
+    @Override
+    public long deleteBySearchCriteria(DataPointSearchCriteria searchCriteria, int maximumBucketCount) {
+
+        checkNotNull(searchCriteria);
+        checkArgument(maximumBucketCount > 0);
+
+        Range<OffsetDateTime> timestampRange = searchCriteria.getCreationTimestampRange().orElse(Range.all());
+
+        long deletedCount = removeBuckets(() -> newEnclosedBucketQuery(searchCriteria), maximumBucketCount);
+
+        if (deletedCount > 0 || (!timestampRange.hasLowerBound() && !timestampRange.hasUpperBound())) {
+            return deletedCount;
+        }
+
+        // the buckets that are left straddle a bound of the range, so their data points are filtered individually
+        Query bucketQuery = newOverlappingBucketQuery(searchCriteria).limit(maximumBucketCount);
+        bucketQuery.fields().include("_id");
+
+        for (DBObject bucket : mongoOperations.find(bucketQuery, DBObject.class, COLLECTION_NAME)) {
+            deletedCount += deleteFromBucket(where("_id").is(bucket.get("_id")),
+                    document -> timestampRange.contains(getCreationTimestamp(document)));
+        }
+
+        return deletedCount;
+    }
+
+    @Override
+    public long deleteByUserId(String userId, int maximumBucketCount) {
+
+        checkNotNull(userId);
+        checkArgument(maximumBucketCount > 0);
+
+        long deletedCount = removeBuckets(() -> query(where("user_id").is(userId).and(COUNT_KEY).gt(0)),
+                maximumBucketCount);
+
+        // buckets emptied by earlier deletes hold no data points, but still identify the user
+        if (deletedCount == 0) {
+            mongoOperations.remove(query(where("user_id").is(userId)), COLLECTION_NAME);
+        }
+
+        return deletedCount;
+    }
+
+    /**
+     * Removes a batch of the buckets that match a query. The query is repeated in the remove, so a bucket that has
+     * been appended to since it was read is only removed if it still matches.
+     *
+     * @return the number of data points in the buckets as they were read
+     */
+    private long removeBuckets(Supplier<Query> querySupplier, int maximumBucketCount) {
+
+        Query bucketQuery = querySupplier.get().limit(maximumBucketCount);
+        bucketQuery.fields().include(COUNT_KEY);
+
+        List<Object> bucketIds = new ArrayList<>();
+        long dataPointCount = 0;
+
+        for (DBObject bucket : mongoOperations.find(bucketQuery, DBObject.class, COLLECTION_NAME)) {
+            bucketIds.add(bucket.get("_id"));
+            dataPointCount += ((Number) bucket.get(COUNT_KEY)).longValue();
+        }
+
+        if (!bucketIds.isEmpty()) {
+            mongoOperations.remove(querySupplier.get().addCriteria(where("_id").in(bucketIds)), COLLECTION_NAME);
+        }
+
+        return dataPointCount;
+    }
+
+    /**
+     * Deletes the data points that match a filter from a bucket. The bucket is only written if its count hasn't
+     * changed since it was read, so that a compacted bucket isn't rewritten from a stale copy. An emptied bucket is
+     * left in place, and the time bounds of a bucket are left as they are, since they only need to contain its data
+     * points.
+     *
+     * @param criteria the criteria that identify the bucket
+     * @param filter the filter that selects the data point documents to delete
+     * @return the number of data points deleted
+     */
+    private long deleteFromBucket(Criteria criteria, Predicate<DBObject> filter) {
+
+        for (int attempt = 0; attempt < MAXIMUM_DELETE_ATTEMPTS; attempt++) {
+
+            DBObject bucket = mongoOperations.findOne(query(criteria), DBObject.class, COLLECTION_NAME);
+
+            if (bucket == null) {
+                return 0;
+            }
+
+            List<DBObject> documents = getDataPointDocuments(bucket);
+            List<Object> deletedIds = documents.stream()
+                    .filter(filter)
+                    .map(document -> document.get("_id"))
+                    .collect(toList());
+
+            if (deletedIds.isEmpty()) {
+                return 0;
+            }
+
+            Query bucketQuery = query(where("_id").is(bucket.get("_id")).and(COUNT_KEY).is(bucket.get(COUNT_KEY)));
+            Update update;
+
+            if (bucket.containsField(SERIES_KEY)) {
+                documents.removeIf(filter);
+
+                update = newCompactionUpdate(documents);
+            }
+            else {
+                update = new Update().pull(DATA_POINTS_KEY,
+                        new BasicDBObject("_id", new BasicDBObject("$in", deletedIds)));
+            }
+
+            update.inc(COUNT_KEY, -deletedIds.size());
+
+            if (mongoOperations.updateFirst(bucketQuery, update, COLLECTION_NAME).getN() == 1) {
+                return deletedIds.size();
+            }
+        }
+
+        throw new OptimisticLockingFailureException("The bucket matching " + criteria.getCriteriaObject()
+                + " kept changing.");
+    }
+
+    @Override
+    public int compactSealedBuckets(int maximumBucketCount) {
+
+        checkArgument(maximumBucketCount > 0);
+
+        Date windowCutoff = new Date(System.currentTimeMillis()
+                - MINUTES.toMillis(properties.getBucketDurationInMinutes()));
+
+        Query query = query(where(OPEN_KEY).is(true).orOperator(
+                where("window_start").lt(windowCutoff),
+                where(COUNT_KEY).gte(properties.getMaximumBucketSize())));
+
+        query.limit(maximumBucketCount);
+
+        int compactedBucketCount = 0;
+
+        for (DBObject bucket : mongoOperations.find(query, DBObject.class, COLLECTION_NAME)) {
+
+            List<DBObject> documents = getDataPointDocuments(bucket);
+
+            Update update = newCompactionUpdate(documents).unset(OPEN_KEY);
+
+            // a bucket that has been appended to since it was read is left for the next pass
+            Query bucketQuery = query(where("_id").is(bucket.get("_id"))
+                    .and(COUNT_KEY).is(bucket.get(COUNT_KEY))
+                    .and(OPEN_KEY).is(true));
+
+            compactedBucketCount += mongoOperations.updateFirst(bucketQuery, update, COLLECTION_NAME).getN();
+        }
+
+        return compactedBucketCount;
+    }
+
+    private Update newCompactionUpdate(List<DBObject> documents) {
+
+        if (documents.isEmpty()) {
+            return new Update().set(DATA_POINTS_KEY, documents).unset(SERIES_KEY);
+        }
+
+        List<DBObject> residuals = new ArrayList<>();
+        DBObject series = compactor.get().compact(documents, residuals);
+
+        return new Update().set(SERIES_KEY, series).set(DATA_POINTS_KEY, residuals);
+    }
+
+    /**
+     * @return the data point documents of a bucket, expanded if the bucket has been compacted
+     */
+    @SuppressWarnings("unchecked")
+    private List<DBObject> getDataPointDocuments(DBObject bucket) {
+
+        List<?> dataPoints = (List<?>) bucket.get(DATA_POINTS_KEY);
+
+        if (bucket.containsField(SERIES_KEY)) {
+            return compactor.get().expand((DBObject) bucket.get(SERIES_KEY), dataPoints);
+        }
+
+        return new ArrayList<>((List<DBObject>) dataPoints);
+    }
+
+    private DBObject toMongoQuery(Query query) {
+
+        return new QueryMapper(mongoOperations.getConverter()).getMappedObject(query.getQueryObject(), null);
+    }
+
+    private DataPoint toDataPoint(DBObject document) {
+
+        return mongoOperations.getConverter().read(DataPoint.class, document);
+    }
+
+    private static Date toDate(OffsetDateTime timestamp) {
+
+        return Date.from(timestamp.toInstant());
+    }
+}
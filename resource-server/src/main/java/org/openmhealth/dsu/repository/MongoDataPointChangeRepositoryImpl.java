@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import com.mongodb.DBObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Update;
+
+import javax.annotation.PostConstruct;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.springframework.data.domain.Sort.Direction.ASC;
+import static org.springframework.data.mongodb.core.FindAndModifyOptions.options;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+
+/**
+ * @author Emerson Farrugia
+ */
+public class MongoDataPointChangeRepositoryImpl implements CustomDataPointChangeRepository {
+
+    public static final String COLLECTION_NAME = "dataPointChanges";
+    public static final String SEQUENCE_COLLECTION_NAME = "dataPointChangeSequences";
+
+    private static final String SEQUENCE_KEY = "sequence";
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @PostConstruct
+    public void ensureIndexes() {
+
+        // supports reading the changes that follow a sequence, and rejects a sequence that is assigned twice
+        mongoOperations.indexOps(COLLECTION_NAME).ensureIndex(new Index()
+                .on("user_id", ASC)
+                .on("sequence", ASC)
+                .unique());
+    }
+
+    @Override
+    public long allocateSequences(String userId, int count) {
+
+        checkNotNull(userId);
+        checkArgument(count > 0);
+
+        // the counter of a user is created by the first change to the user's data points
+        DBObject counter = mongoOperations.findAndModify(query(where("_id").is(userId)),
+                new Update().inc(SEQUENCE_KEY, count), options().upsert(true).returnNew(true), DBObject.class,
+                SEQUENCE_COLLECTION_NAME);
+
+        return ((Number) counter.get(SEQUENCE_KEY)).longValue();
+    }
+
+    @Override
+    public long findLastSequence(String userId) {
+
+        checkNotNull(userId);
+
+        DBObject counter = mongoOperations.findOne(query(where("_id").is(userId)), DBObject.class,
+                SEQUENCE_COLLECTION_NAME);
+
+        return counter == null ? 0 : ((Number) counter.get(SEQUENCE_KEY)).longValue();
+    }
+}
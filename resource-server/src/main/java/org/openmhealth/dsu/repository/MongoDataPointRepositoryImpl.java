@@ -17,30 +17,186 @@
 package org.openmhealth.dsu.repository;
 
 import com.google.common.collect.Range;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.openmhealth.dsu.configuration.DataPointCollectionProperties;
+import org.openmhealth.dsu.configuration.DataPointCollectionProperties.Period;
 import org.openmhealth.dsu.domain.DataPointSearchCriteria;
 import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.openmhealth.schema.domain.omh.SchemaVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.IndexOperations;
 import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.BasicQuery;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
 
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.BoundType.CLOSED;
+import static java.time.ZoneOffset.UTC;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static org.springframework.data.domain.Sort.Direction.ASC;
 import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
 
 /**
+ * A data point repository that stores data points either in a single collection, or in weekly or monthly
+ * collections partitioned by creation time. Its methods take precedence over the ones generated by Spring Data, so
+ * that every operation is routed to the right collections.
+ * <p>
+ * When data points are partitioned, a search is only sent to the collections whose periods overlap its creation
+ * timestamp range, in parallel, and the results are combined in chronological order of collection. Lookups by
+ * identifier are sent to every collection in parallel.
+ *
  * @author Emerson Farrugia
  */
 public class MongoDataPointRepositoryImpl implements CustomDataPointRepository {
 
+    private static final Logger log = LoggerFactory.getLogger(MongoDataPointRepositoryImpl.class);
+
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+    private static final long COLLECTION_NAME_CACHE_DURATION_IN_MILLIS = 60_000;
+
     @Autowired
     private MongoOperations mongoOperations;
 
+    // data points are stored in a single collection if no collection properties are available
+    @Autowired(required = false)
+    private DataPointCollectionProperties collectionProperties;
+
+    private volatile ExecutorService executorService;
+    private volatile DataPointCollectionPartitioner partitioner;
+    private final NavigableSet<String> collectionNames = new ConcurrentSkipListSet<>();
+    private volatile long collectionNamesLoadTime;
+
+    public MongoDataPointRepositoryImpl() {
+    }
+
+    /**
+     * @param mongoOperations the operations of the database to store data points in, if not the default database
+     * @param collectionProperties the collection properties
+     */
+    public MongoDataPointRepositoryImpl(MongoOperations mongoOperations,
+            DataPointCollectionProperties collectionProperties) {
+
+        checkNotNull(mongoOperations);
+        checkNotNull(collectionProperties);
+
+        this.mongoOperations = mongoOperations;
+        this.collectionProperties = collectionProperties;
+    }
+
+    /**
+     * Creates the indexes of the collection data points are stored in before partitioning, which also holds every
+     * data point if they aren't partitioned. The collections of partitions get their indexes once they're created.
+     */
+    @PostConstruct
+    public void ensureIndexes() {
+
+        ensureIndexes(getPartitioner().getBaseCollectionName());
+    }
+
+    /**
+     * @see DataPointRepository#exists(String)
+     */
+    public boolean exists(String id) {
+
+        checkNotNull(id);
+
+        return fanOut(getCollectionNames(), collectionName -> mongoOperations.exists(newIdQuery(id), DataPoint.class,
+                collectionName))
+                .contains(true);
+    }
+
+    /**
+     * @see DataPointRepository#findOne(String)
+     */
+    public Optional<DataPoint> findOne(String id) {
+
+        checkNotNull(id);
+
+        return fanOut(getCollectionNames(),
+                collectionName -> mongoOperations.findById(id, DataPoint.class, collectionName))
+                .stream()
+                .filter(dataPoint -> dataPoint != null)
+                .findFirst();
+    }
+
+    /**
+     * @see DataPointRepository#findByIdAndHeaderUserId(String, String)
+     */
+    public Optional<DataPoint> findByIdAndHeaderUserId(String id, String userId) {
+
+        checkNotNull(id);
+        checkNotNull(userId);
+
+        Query query = newIdQuery(id).addCriteria(where("header.user_id").is(userId));
+
+        return fanOut(getCollectionNames(), collectionName -> mongoOperations.findOne(query, DataPoint.class,
+                collectionName))
+                .stream()
+                .filter(dataPoint -> dataPoint != null)
+                .findFirst();
+    }
+
+    @Override
+    public List<DataPoint> findByIdIn(Collection<String> ids) {
+
+        checkNotNull(ids);
+
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Query query = query(where("_id").in(ids));
+
+        return fanOut(getCollectionNames(), collectionName -> mongoOperations.find(query, DataPoint.class,
+                collectionName))
+                .stream()
+                .flatMap(List::stream)
+                .collect(toList());
+    }
+
     // if a data point is filtered by its data and not just its header, these queries will need to be written using
     // the MongoDB Java driver instead of Spring Data MongoDB, since there is no mapping information to work against
     @Override
@@ -52,16 +208,31 @@ public class MongoDataPointRepositoryImpl implements CustomDataPointRepository {
         checkArgument(limit == null || limit >= 0);
 
         Query query = newQuery(searchCriteria);
+        List<String> collectionNames = getCollectionNames(searchCriteria.getCreationTimestampRange());
+
+        if (collectionNames.size() == 1) {
+            if (offset != null) {
+                query.skip(offset);
+            }
+
+            if (limit != null) {
+                query.limit(limit);
+            }
 
-        if (offset != null) {
-            query.skip(offset);
+            return mongoOperations.find(query, DataPoint.class, collectionNames.get(0));
         }
 
+        // the page can't be pushed down to any one collection, so read enough of each to cover it
         if (limit != null) {
-            query.limit(limit);
+            query.limit((offset == null ? 0 : offset) + limit);
         }
 
-        return mongoOperations.find(query, DataPoint.class);
+        return fanOut(collectionNames, collectionName -> mongoOperations.find(query, DataPoint.class, collectionName))
+                .stream()
+                .flatMap(List::stream)
+                .skip(offset == null ? 0 : offset)
+                .limit(limit == null ? Long.MAX_VALUE : limit)
+                .collect(toList());
     }
 
     private Query newQuery(DataPointSearchCriteria searchCriteria) {
@@ -69,18 +240,9 @@ public class MongoDataPointRepositoryImpl implements CustomDataPointRepository {
         Query query = new Query();
 
         query.addCriteria(where("header.user_id").is(searchCriteria.getUserId()));
-        query.addCriteria(where("header.schema_id.namespace").is(searchCriteria.getSchemaNamespace()));
-        query.addCriteria(where("header.schema_id.name").is(searchCriteria.getSchemaName()));
-        query.addCriteria(where("header.schema_id.version.major").is(searchCriteria.getSchemaVersion().getMajor()));
-        query.addCriteria(where("header.schema_id.version.minor").is(searchCriteria.getSchemaVersion().getMinor()));
 
-        if (searchCriteria.getSchemaVersion().getQualifier().isPresent()) {
-            query.addCriteria(where("header.schema_id.version.qualifier")
-                    .is(searchCriteria.getSchemaVersion().getQualifier().get()));
-        }
-        else {
-            query.addCriteria(where("header.schema_id.version.qualifier").exists(false));
-        }
+        addSchemaCriteria(query, "header.schema_id", searchCriteria.getSchemaNamespace(),
+                searchCriteria.getSchemaName(), searchCriteria.getSchemaVersion());
 
         if (searchCriteria.getCreationTimestampRange().isPresent()) {
             addCreationTimestampCriteria(query, searchCriteria.getCreationTimestampRange().get());
@@ -89,31 +251,596 @@ public class MongoDataPointRepositoryImpl implements CustomDataPointRepository {
         return query;
     }
 
+    /**
+     * Restricts a query to a schema.
+     *
+     * @param key the key of the schema identifier field
+     */
+    static void addSchemaCriteria(Query query, String key, String namespace, String name, SchemaVersion version) {
+
+        query.addCriteria(where(key + ".namespace").is(namespace));
+        query.addCriteria(where(key + ".name").is(name));
+        query.addCriteria(where(key + ".version.major").is(version.getMajor()));
+        query.addCriteria(where(key + ".version.minor").is(version.getMinor()));
+
+        if (version.getQualifier().isPresent()) {
+            query.addCriteria(where(key + ".version.qualifier").is(version.getQualifier().get()));
+        }
+        else {
+            query.addCriteria(where(key + ".version.qualifier").exists(false));
+        }
+    }
+
+    @Override
+    public CloseableIterator<DataPoint> streamByHeaderUserId(String userId, @Nullable SchemaId schemaId,
+            @Nullable String afterId) {
+
+        checkNotNull(userId);
+
+        Query query = query(where("header.user_id").is(userId));
+
+        if (schemaId != null) {
+            addSchemaCriteria(query, "header.schema_id", schemaId.getNamespace(), schemaId.getName(),
+                    schemaId.getVersion());
+        }
+
+        if (afterId != null) {
+            query.addCriteria(where("_id").gt(afterId));
+        }
+
+        List<CloseableIterator<DataPoint>> iterators = new ArrayList<>();
+
+        // each collection is read in identifier order using its index on user and identifier, and the collections
+        // are merged as they're read
+        for (String collectionName : getCollectionNames()) {
+
+            DBCursor cursor = mongoOperations.execute(collectionName,
+                    collection -> collection.find(query.getQueryObject()).sort(new BasicDBObject("_id", 1)));
+
+            iterators.add(CloseableIterators.of(cursor,
+                    document -> mongoOperations.getConverter().read(DataPoint.class, document)));
+        }
+
+        return CloseableIterators.mergeSorted(iterators,
+                comparing((DataPoint dataPoint) -> dataPoint.getHeader().getId()));
+    }
+
     void addCreationTimestampCriteria(Query query, Range<OffsetDateTime> timestampRange) {
 
         if (timestampRange.hasLowerBound() || timestampRange.hasUpperBound()) {
+            query.addCriteria(newRangeCriteria("header.creation_date_time", timestampRange));
+        }
+    }
+
+    /**
+     * @param key the key of the field to restrict
+     * @param range the range to restrict the field to, which must be bounded on at least one side
+     * @return criteria that restrict the field to the range
+     */
+    static Criteria newRangeCriteria(String key, Range<?> range) {
 
-            Criteria timestampCriteria = where("header.creation_date_time");
+        checkArgument(range.hasLowerBound() || range.hasUpperBound());
 
-            if (timestampRange.hasLowerBound()) {
-                if (timestampRange.lowerBoundType() == CLOSED) {
-                    timestampCriteria = timestampCriteria.gte(timestampRange.lowerEndpoint());
+        Criteria criteria = where(key);
+
+        if (range.hasLowerBound()) {
+            if (range.lowerBoundType() == CLOSED) {
+                criteria = criteria.gte(range.lowerEndpoint());
+            }
+            else {
+                criteria = criteria.gt(range.lowerEndpoint());
+            }
+        }
+
+        if (range.hasUpperBound()) {
+            if (range.upperBoundType() == CLOSED) {
+                criteria = criteria.lte(range.upperEndpoint());
+            }
+            else {
+                criteria = criteria.lt(range.upperEndpoint());
+            }
+        }
+
+        return criteria;
+    }
+
+    /**
+     * @see DataPointRepository#save(DataPoint)
+     */
+    public DataPoint save(DataPoint dataPoint) {
+
+        checkNotNull(dataPoint);
+
+        mongoOperations.save(dataPoint, getCollectionName(dataPoint));
+
+        return dataPoint;
+    }
+
+    /**
+     * @see DataPointRepository#save(Iterable)
+     */
+    public Iterable<DataPoint> save(Iterable<DataPoint> dataPoints) {
+
+        checkNotNull(dataPoints);
+
+        List<DataPoint> savedDataPoints = new ArrayList<>();
+
+        for (DataPoint dataPoint : dataPoints) {
+            savedDataPoints.add(save(dataPoint));
+        }
+
+        return savedDataPoints;
+    }
+
+    @Override
+    public List<DataPoint> insert(List<DataPoint> dataPoints) {
+
+        checkNotNull(dataPoints);
+
+        if (dataPoints.isEmpty()) {
+            return dataPoints;
+        }
+
+        // a retried data point may belong in a different collection than its first copy, e.g. if its creation
+        // timestamp was set on arrival, so duplicates are looked for in every collection and not just its own
+        if (getPartitioner().isPartitioned()) {
+            Set<String> existingIds = findExistingIds(dataPoints.stream()
+                    .map(dataPoint -> dataPoint.getHeader().getId())
+                    .collect(toList()));
+
+            if (!existingIds.isEmpty()) {
+                dataPoints = dataPoints.stream()
+                        .filter(dataPoint -> !existingIds.contains(dataPoint.getHeader().getId()))
+                        .collect(toList());
+
+                if (dataPoints.isEmpty()) {
+                    return dataPoints;
                 }
-                else {
-                    timestampCriteria = timestampCriteria.gt(timestampRange.lowerEndpoint());
+            }
+        }
+
+        Map<String, List<DataPoint>> dataPointsByCollectionName =
+                dataPoints.stream().collect(groupingBy(this::getCollectionName, LinkedHashMap::new, toList()));
+
+        if (dataPointsByCollectionName.size() == 1) {
+            return insert(dataPointsByCollectionName.keySet().iterator().next(), dataPoints);
+        }
+
+        return fanOut(new ArrayList<>(dataPointsByCollectionName.keySet()),
+                collectionName -> insert(collectionName, dataPointsByCollectionName.get(collectionName)))
+                .stream()
+                .flatMap(List::stream)
+                .collect(toList());
+    }
+
+    private List<DataPoint> insert(String collectionName, List<DataPoint> dataPoints) {
+
+        return mongoOperations.execute(collectionName, collection -> {
+
+            // an unordered bulk operation carries on past duplicates instead of stopping at the first one
+            BulkWriteOperation bulkWriteOperation = collection.initializeUnorderedBulkOperation();
+
+            for (DataPoint dataPoint : dataPoints) {
+                DBObject document = new BasicDBObject();
+                mongoOperations.getConverter().write(dataPoint, document);
+                bulkWriteOperation.insert(document);
+            }
+
+            BitSet duplicateIndices = new BitSet(dataPoints.size());
+
+            try {
+                bulkWriteOperation.execute();
+            }
+            catch (BulkWriteException e) {
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    if (error.getCode() != DUPLICATE_KEY_ERROR_CODE) {
+                        throw e;
+                    }
+
+                    duplicateIndices.set(error.getIndex());
                 }
             }
 
-            if (timestampRange.hasUpperBound()) {
-                if (timestampRange.upperBoundType() == CLOSED) {
-                    timestampCriteria = timestampCriteria.lte(timestampRange.upperEndpoint());
+            if (duplicateIndices.isEmpty()) {
+                return dataPoints;
+            }
+
+            List<DataPoint> insertedDataPoints = new ArrayList<>(dataPoints.size() - duplicateIndices.cardinality());
+
+            for (int i = 0; i < dataPoints.size(); i++) {
+                if (!duplicateIndices.get(i)) {
+                    insertedDataPoints.add(dataPoints.get(i));
                 }
-                else {
-                    timestampCriteria = timestampCriteria.lt(timestampRange.upperEndpoint());
+            }
+
+            return insertedDataPoints;
+        });
+    }
+
+    /**
+     * @see DataPointRepository#delete(String)
+     */
+    public void delete(String id) {
+
+        checkNotNull(id);
+
+        fanOut(getCollectionNames(), collectionName -> mongoOperations.remove(newIdQuery(id), DataPoint.class,
+                collectionName));
+    }
+
+    /**
+     * @see DataPointRepository#deleteByIdAndHeaderUserId(String, String)
+     */
+    public Long deleteByIdAndHeaderUserId(String id, String userId) {
+
+        checkNotNull(id);
+        checkNotNull(userId);
+
+        Query query = newIdQuery(id).addCriteria(where("header.user_id").is(userId));
+
+        return fanOut(getCollectionNames(), collectionName -> mongoOperations.remove(query, DataPoint.class,
+                collectionName).getN())
+                .stream()
+                .mapToLong(Integer::longValue)
+                .sum();
+    }
+
+    @Override
+    public void deleteByCreationTimestampBefore(OffsetDateTime timestamp) {
+
+        checkNotNull(timestamp);
+
+        DataPointCollectionPartitioner partitioner = getPartitioner();
+
+        if (!partitioner.isPartitioned()) {
+            mongoOperations.remove(query(where("header.creation_date_time").lt(timestamp)), DataPoint.class,
+                    partitioner.getBaseCollectionName());
+            return;
+        }
+
+        LocalDate date = timestamp.atZoneSameInstant(UTC).toLocalDate();
+
+        for (String collectionName : getCollectionNames()) {
+
+            Optional<LocalDate> periodStart = partitioner.getPeriodStart(collectionName);
+
+            // the unpartitioned collection can't be dropped, since it may also hold data points to keep
+            if (!periodStart.isPresent()) {
+                mongoOperations.remove(query(where("header.creation_date_time").lt(timestamp)), DataPoint.class,
+                        collectionName);
+                continue;
+            }
+
+            if (partitioner.getPeriodEnd(periodStart.get()).isAfter(date)) {
+                break;
+            }
+
+            mongoOperations.dropCollection(collectionName);
+            collectionNames.remove(collectionName);
+
+            log.info("The data point collection '{}' has been dropped.", collectionName);
+        }
+    }
+
+    @Override
+    public List<DataPoint> findByCreationTimestampBefore(OffsetDateTime timestamp, int limit) {
+
+        checkNotNull(timestamp);
+        checkArgument(limit > 0);
+
+        // this order matches the index of a partitioned collection
+        Query query = query(where("header.creation_date_time").lt(timestamp))
+                .with(new Sort(ASC, "header.user_id", "header.schema_id.namespace", "header.schema_id.name",
+                        "header.schema_id.version.major", "header.schema_id.version.minor",
+                        "header.creation_date_time"));
+
+        List<DataPoint> dataPoints = new ArrayList<>();
+
+        // the oldest collections are read first, and only as many as needed
+        for (String collectionName : getCollectionNames(Optional.of(Range.lessThan(timestamp)))) {
+
+            query.limit(limit - dataPoints.size());
+            dataPoints.addAll(mongoOperations.find(query, DataPoint.class, collectionName));
+
+            if (dataPoints.size() == limit) {
+                break;
+            }
+        }
+
+        return dataPoints;
+    }
+
+    /**
+     * @param afterId the identifier after which to start, or null to start with the first data point
+     * @param limit the maximum number of data points to return
+     * @return the data points in identifier order
+     */
+    List<DataPoint> findOrderedById(@Nullable String afterId, int limit) {
+
+        checkArgument(limit > 0);
+
+        Query query = new Query().with(new Sort(ASC, "_id")).limit(limit);
+
+        if (afterId != null) {
+            query.addCriteria(where("_id").gt(afterId));
+        }
+
+        return fanOut(getCollectionNames(), collectionName -> mongoOperations.find(query, DataPoint.class,
+                collectionName))
+                .stream()
+                .flatMap(List::stream)
+                .sorted((first, second) -> first.getHeader().getId().compareTo(second.getHeader().getId()))
+                .limit(limit)
+                .collect(toList());
+    }
+
+    /**
+     * @param ids the identifiers of data points
+     * @return the identifiers of the data points that exist
+     */
+    Set<String> findExistingIds(Collection<String> ids) {
+
+        checkNotNull(ids);
+
+        Query query = query(where("_id").in(ids));
+        query.fields().include("_id");
+
+        Set<String> existingIds = new HashSet<>();
+
+        for (List<DataPoint> dataPoints : fanOut(getCollectionNames(),
+                collectionName -> mongoOperations.find(query, DataPoint.class, collectionName))) {
+
+            dataPoints.forEach(dataPoint -> existingIds.add(dataPoint.getHeader().getId()));
+        }
+
+        return existingIds;
+    }
+
+    /**
+     * Deletes data points, unless they have been replaced by different data points with the same identifiers since
+     * they were read.
+     *
+     * @param dataPoints the data points as they were read
+     */
+    void deleteUnchanged(List<DataPoint> dataPoints) {
+
+        checkNotNull(dataPoints);
+
+        for (DataPoint dataPoint : dataPoints) {
+            DBObject document = new BasicDBObject();
+            mongoOperations.getConverter().write(dataPoint, document);
+
+            // a query on the whole document only matches a document that is equal field by field
+            Query query = new BasicQuery(document);
+
+            fanOut(getCollectionNames(), collectionName -> mongoOperations.remove(query, collectionName));
+        }
+    }
+
+    @Override
+    public void deleteByIdIn(Collection<String> ids) {
+
+        checkNotNull(ids);
+
+        Query query = query(where("_id").in(ids));
+
+        fanOut(getCollectionNames(), collectionName -> mongoOperations.remove(query, DataPoint.class, collectionName));
+    }
+
+    @Override
+    public long deleteBySearchCriteria(DataPointSearchCriteria searchCriteria, int limit) {
+
+        checkNotNull(searchCriteria);
+        checkArgument(limit > 0);
+
+        return deleteBatch(() -> newQuery(searchCriteria),
+                getCollectionNames(searchCriteria.getCreationTimestampRange()), limit);
+    }
+
+    @Override
+    public long deleteByHeaderUserId(String userId, int limit) {
+
+        checkNotNull(userId);
+        checkArgument(limit > 0);
+
+        return deleteBatch(() -> query(where("header.user_id").is(userId)), getCollectionNames(), limit);
+    }
+
+    /**
+     * Deletes a batch of the data points that match a query, oldest collections first. A remove can't be limited to a
+     * number of documents, so the identifiers of the batch are read using the index and then removed.
+     *
+     * @return the number of data points deleted
+     */
+    private long deleteBatch(Supplier<Query> querySupplier, List<String> collectionNames, int limit) {
+
+        long deletedCount = 0;
+
+        for (String collectionName : collectionNames) {
+
+            Query query = querySupplier.get().limit((int) (limit - deletedCount));
+            query.fields().include("_id");
+
+            List<String> ids = mongoOperations.find(query, DataPoint.class, collectionName).stream()
+                    .map(dataPoint -> dataPoint.getHeader().getId())
+                    .collect(toList());
+
+            if (ids.isEmpty()) {
+                continue;
+            }
+
+            deletedCount += mongoOperations.remove(query(where("_id").in(ids)), DataPoint.class, collectionName)
+                    .getN();
+
+            if (deletedCount >= limit) {
+                break;
+            }
+        }
+
+        return deletedCount;
+    }
+
+    private ExecutorService getExecutorService() {
+
+        if (executorService == null) {
+            int threadCount = collectionProperties != null ? collectionProperties.getQueryThreadCount() : 1;
+
+            // threads are only created when searches span collections, and are discarded once idle
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threadCount, threadCount, 60, SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    new ThreadFactoryBuilder().setNameFormat("data-point-collection-%d").setDaemon(true).build());
+
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+
+            executorService = threadPoolExecutor;
+        }
+
+        return executorService;
+    }
+
+    private DataPointCollectionPartitioner getPartitioner() {
+
+        if (partitioner == null) {
+            partitioner = new DataPointCollectionPartitioner(mongoOperations.getCollectionName(DataPoint.class),
+                    collectionProperties != null ? collectionProperties.getPeriod() : Period.NONE);
+        }
+
+        return partitioner;
+    }
+
+    /**
+     * @return the name of the collection the data point belongs in, which is created if necessary
+     */
+    private String getCollectionName(DataPoint dataPoint) {
+
+        DataPointCollectionPartitioner partitioner = getPartitioner();
+
+        String collectionName = partitioner.getCollectionName(dataPoint.getHeader().getCreationDateTime());
+
+        if (partitioner.isPartitioned() && !getCollectionNames().contains(collectionName)) {
+            ensureIndexes(collectionName);
+            collectionNames.add(collectionName);
+        }
+
+        return collectionName;
+    }
+
+    private void ensureIndexes(String collectionName) {
+
+        IndexOperations indexOperations = mongoOperations.indexOps(collectionName);
+
+        indexOperations.ensureIndex(new Index()
+                .on("header.user_id", ASC)
+                .on("header.schema_id.namespace", ASC)
+                .on("header.schema_id.name", ASC)
+                .on("header.schema_id.version.major", ASC)
+                .on("header.schema_id.version.minor", ASC)
+                .on("header.creation_date_time", ASC));
+
+        // supports reading the data points of a user in identifier order, e.g. to export them
+        indexOperations.ensureIndex(new Index()
+                .on("header.user_id", ASC)
+                .on("_id", ASC));
+    }
+
+    /**
+     * @return the names of the collections that hold data points, in chronological order, starting with the
+     * unpartitioned collection if it holds data points stored before partitioning was turned on
+     */
+    private List<String> getCollectionNames() {
+
+        DataPointCollectionPartitioner partitioner = getPartitioner();
+
+        if (!partitioner.isPartitioned()) {
+            return Collections.singletonList(partitioner.getBaseCollectionName());
+        }
+
+        // other servers may have created collections since they were last listed
+        if (System.currentTimeMillis() - collectionNamesLoadTime > COLLECTION_NAME_CACHE_DURATION_IN_MILLIS) {
+
+            for (String collectionName : mongoOperations.getCollectionNames()) {
+
+                // the unpartitioned collection sorts before the partitioned ones, since their names extend its name
+                if (collectionName.equals(partitioner.getBaseCollectionName())
+                        || partitioner.getPeriodStart(collectionName).isPresent()) {
+
+                    collectionNames.add(collectionName);
                 }
             }
 
-            query.addCriteria(timestampCriteria);
+            collectionNamesLoadTime = System.currentTimeMillis();
+        }
+
+        return new ArrayList<>(collectionNames);
+    }
+
+    /**
+     * @return the names of the collections whose periods overlap the timestamp range, in chronological order
+     */
+    private List<String> getCollectionNames(Optional<Range<OffsetDateTime>> timestampRange) {
+
+        DataPointCollectionPartitioner partitioner = getPartitioner();
+
+        if (!partitioner.isPartitioned() || !timestampRange.isPresent()) {
+            return getCollectionNames();
+        }
+
+        Range<OffsetDateTime> range = timestampRange.get();
+
+        Optional<LocalDate> from = range.hasLowerBound()
+                ? Optional.of(range.lowerEndpoint().atZoneSameInstant(UTC).toLocalDate())
+                : Optional.empty();
+
+        Optional<LocalDate> to = range.hasUpperBound()
+                ? Optional.of(range.upperEndpoint().atZoneSameInstant(UTC).toLocalDate())
+                : Optional.empty();
+
+        return getCollectionNames().stream()
+                .filter(collectionName -> {
+                    Optional<LocalDate> periodStart = partitioner.getPeriodStart(collectionName);
+
+                    // the unpartitioned collection may hold data points of any time
+                    if (!periodStart.isPresent()) {
+                        return true;
+                    }
+
+                    return !(from.isPresent() && !partitioner.getPeriodEnd(periodStart.get()).isAfter(from.get()))
+                            && !(to.isPresent() && periodStart.get().isAfter(to.get()));
+                })
+                .collect(toList());
+    }
+
+    private static Query newIdQuery(String id) {
+
+        return query(where("_id").is(id));
+    }
+
+    /**
+     * Applies an operation to each of the given collections in parallel.
+     *
+     * @return the results of the operation, in collection order
+     */
+    private <R> List<R> fanOut(List<String> collectionNames, Function<String, R> operation) {
+
+        // avoid a thread hand-off when there's nothing to parallelize
+        if (collectionNames.size() <= 1) {
+            return collectionNames.stream().map(operation).collect(toList());
+        }
+
+        List<CompletableFuture<R>> futures = collectionNames.stream()
+                .map(collectionName -> CompletableFuture.supplyAsync(() -> operation.apply(collectionName),
+                        getExecutorService()))
+                .collect(toList());
+
+        try {
+            return futures.stream().map(CompletableFuture::join).collect(toList());
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw e;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.openmhealth.dsu.domain.MaintenanceJob;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Date;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.openmhealth.dsu.domain.MaintenanceJob.Status.QUEUED;
+import static org.openmhealth.dsu.domain.MaintenanceJob.Status.RUNNING;
+import static org.springframework.data.domain.Sort.Direction.ASC;
+import static org.springframework.data.mongodb.core.FindAndModifyOptions.options;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+
+/**
+ * @author Emerson Farrugia
+ */
+public class MongoMaintenanceJobRepositoryImpl implements CustomMaintenanceJobRepository {
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Override
+    public Optional<MaintenanceJob> acquireLease(String leaseOwner, long leaseDurationInMillis) {
+
+        checkNotNull(leaseOwner);
+        checkArgument(leaseDurationInMillis > 0);
+
+        Date now = new Date();
+
+        // the lease is taken atomically, so when several servers race for a job only one of them gets it
+        Query query = query(where("status").in(QUEUED, RUNNING).orOperator(
+                where("leaseExpirationTimestamp").exists(false),
+                where("leaseExpirationTimestamp").lt(now)))
+                .with(new Sort(ASC, "creationTimestamp"));
+
+        Update update = new Update()
+                .set("status", RUNNING)
+                .set("leaseOwner", leaseOwner)
+                .set("leaseExpirationTimestamp", new Date(now.getTime() + leaseDurationInMillis));
+
+        return Optional.ofNullable(mongoOperations.findAndModify(query, update, options().returnNew(true),
+                MaintenanceJob.class));
+    }
+
+    @Override
+    public boolean saveCheckpoint(MaintenanceJob job, long leaseDurationInMillis) {
+
+        checkNotNull(job);
+        checkNotNull(job.getLeaseOwner());
+        checkArgument(leaseDurationInMillis > 0);
+
+        Update update = new Update()
+                .set("status", job.getStatus())
+                .set("checkpoint", job.getCheckpoint())
+                .set("processedCount", job.getProcessedCount())
+                .set("modificationTimestamp", job.getModificationTimestamp());
+
+        if (job.isFinished()) {
+            update.set("failureMessage", job.getFailureMessage())
+                    .set("completionTimestamp", job.getCompletionTimestamp())
+                    .set("expirationTimestamp", job.getExpirationTimestamp())
+                    .unset("leaseOwner")
+                    .unset("leaseExpirationTimestamp");
+        }
+        else {
+            update.set("leaseExpirationTimestamp", new Date(System.currentTimeMillis() + leaseDurationInMillis));
+        }
+
+        return mongoOperations.updateFirst(newLeaseQuery(job), update, MaintenanceJob.class).getN() == 1;
+    }
+
+    @Override
+    public void releaseLease(MaintenanceJob job) {
+
+        checkNotNull(job);
+        checkNotNull(job.getLeaseOwner());
+
+        mongoOperations.updateFirst(newLeaseQuery(job),
+                new Update().unset("leaseOwner").unset("leaseExpirationTimestamp"), MaintenanceJob.class);
+    }
+
+    private static Query newLeaseQuery(MaintenanceJob job) {
+
+        return query(where("id").is(job.getId()).and("leaseOwner").is(job.getLeaseOwner()));
+    }
+}
@@ -0,0 +1,798 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClientURI;
+import org.openmhealth.dsu.configuration.DataPointCollectionProperties;
+import org.openmhealth.dsu.configuration.DataPointPartitionProperties;
+import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.SimpleMongoDbFactory;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import javax.annotation.Nullable;
+import java.lang.management.ManagementFactory;
+import java.net.UnknownHostException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayList;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static org.springframework.data.mongodb.core.FindAndModifyOptions.options;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+
+/**
+ * A data point repository that partitions data points across MongoDB clusters by user. Operations on the data points
+ * of a user are routed to the partition the user is assigned to, so throughput grows with the number of partitions.
+ * Operations that aren't scoped to a user are sent to every partition in parallel.
+ * <p>
+ * While partitions are joining or leaving, the data points of a user that is being moved may be split between the
+ * partition the user was assigned to and the partition the user is now assigned to. Writes go to the new partition
+ * and reads consult both, until {@link #rebalance()} has moved every data point to where it belongs. The progress of
+ * rebalancing is kept in each partition, so that it survives restarts and is shared by every server.
+ *
+ * @author Emerson Farrugia
+ */
+public class PartitionedDataPointRepository implements DataPointRepository, PublicMetrics, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionedDataPointRepository.class);
+
+    private static final String REBALANCING_COLLECTION_NAME = "dataPointRebalancing";
+
+    private final List<MongoPartition> partitions = new ArrayList<>();
+    private final ConsistentHashRing<MongoPartition> ring;
+    private final ConsistentHashRing<MongoPartition> previousRing;
+    private final String rebalancingId;
+    private final int rebalancingBatchSize;
+    private final long rebalancingLeaseDurationInMillis;
+    private final ExecutorService executorService;
+    private final LongAdder movedDataPointCount = new LongAdder();
+
+    // keeps a data point from being replaced on this server while rebalancing moves it
+    private final Striped<Lock> userLocks = Striped.lock(256);
+
+    // the process name usually identifies the host, and the suffix tells apart processes that reuse an identifier
+    private final String serverId =
+            ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+
+    /**
+     * @param properties the partitioning properties
+     * @param collectionProperties the properties of the data point collections in each partition
+     * @param converter the converter used to map data points to documents in every partition
+     */
+    public PartitionedDataPointRepository(DataPointPartitionProperties properties,
+            DataPointCollectionProperties collectionProperties, MappingMongoConverter converter)
+            throws UnknownHostException {
+
+        checkNotNull(properties);
+        checkNotNull(collectionProperties);
+        checkNotNull(converter);
+        checkArgument(!properties.getPartitions().isEmpty(), "No data point partitions are configured.");
+
+        Map<String, MongoPartition> currentPartitions = new LinkedHashMap<>();
+        Map<String, MongoPartition> previousPartitions = new LinkedHashMap<>();
+
+        for (DataPointPartitionProperties.Partition partitionProperties : properties.getPartitions()) {
+
+            checkArgument(partitionProperties.getName() != null, "A data point partition doesn't have a name.");
+            checkArgument(partitionProperties.getUri() != null,
+                    "The data point partition '%s' doesn't have a URI.", partitionProperties.getName());
+            checkArgument(!(partitionProperties.isJoining() && partitionProperties.isLeaving()),
+                    "The data point partition '%s' can't both join and leave.", partitionProperties.getName());
+
+            SimpleMongoDbFactory mongoDbFactory =
+                    new SimpleMongoDbFactory(new MongoClientURI(partitionProperties.getUri()));
+
+            MongoTemplate mongoTemplate = new MongoTemplate(mongoDbFactory, converter);
+
+            // the repository isn't a bean, so its indexes aren't created unless it's asked to
+            MongoDataPointRepositoryImpl repository =
+                    new MongoDataPointRepositoryImpl(mongoTemplate, collectionProperties);
+            repository.ensureIndexes();
+
+            MongoPartition partition = new MongoPartition(partitionProperties.getName(), mongoDbFactory,
+                    mongoTemplate, repository);
+
+            // a joining partition has no data points to move elsewhere
+            partition.rebalanced = partitionProperties.isJoining();
+
+            partitions.add(partition);
+
+            if (!partitionProperties.isLeaving()) {
+                currentPartitions.put(partition.name, partition);
+            }
+
+            if (!partitionProperties.isJoining()) {
+                previousPartitions.put(partition.name, partition);
+            }
+        }
+
+        this.ring = new ConsistentHashRing<>(currentPartitions, properties.getVirtualNodeCount());
+        this.previousRing = properties.isRebalancing()
+                ? new ConsistentHashRing<>(previousPartitions, properties.getVirtualNodeCount())
+                : null;
+
+        // the progress of an earlier round of rebalancing mustn't be mistaken for the progress of this one
+        this.rebalancingId = properties.getPartitions().stream()
+                .map(partition ->
+                        partition.getName() + (partition.isJoining() ? "+" : partition.isLeaving() ? "-" : ""))
+                .collect(joining(","));
+
+        this.rebalancingBatchSize = properties.getRebalancingBatchSize();
+        this.rebalancingLeaseDurationInMillis = properties.getRebalancingLeaseDurationInSeconds() * 1000L;
+
+        this.executorService = Executors.newFixedThreadPool(partitions.size() * 4,
+                new ThreadFactoryBuilder().setNameFormat("data-point-partition-%d").setDaemon(true).build());
+    }
+
+    @Override
+    public boolean exists(String id) {
+
+        checkNotNull(id);
+
+        return fanOut(partitions, partition -> partition.repository.exists(id))
+                .contains(true);
+    }
+
+    @Override
+    public Optional<DataPoint> findOne(String id) {
+
+        checkNotNull(id);
+
+        return fanOut(partitions, partition -> partition.repository.findOne(id))
+                .stream()
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .findFirst();
+    }
+
+    @Override
+    public Optional<DataPoint> findByIdAndHeaderUserId(String id, String userId) {
+
+        checkNotNull(id);
+        checkNotNull(userId);
+
+        // only the partitions of the owner can hold the data point, so there's no need to fan out
+        for (MongoPartition partition : getPartitions(userId)) {
+            Optional<DataPoint> dataPoint = partition.repository.findByIdAndHeaderUserId(id, userId);
+
+            if (dataPoint.isPresent()) {
+                return dataPoint;
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    @Override
+    public List<DataPoint> findByIdIn(Collection<String> ids) {
+
+        checkNotNull(ids);
+
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // a data point that is being moved is briefly on two partitions, so only one of its copies is kept
+        Map<String, DataPoint> dataPointsById = new LinkedHashMap<>();
+
+        for (List<DataPoint> partitionDataPoints : fanOut(partitions, partition ->
+                partition.repository.findByIdIn(ids))) {
+
+            partitionDataPoints.forEach(dataPoint ->
+                    dataPointsById.putIfAbsent(dataPoint.getHeader().getId(), dataPoint));
+        }
+
+        return new ArrayList<>(dataPointsById.values());
+    }
+
+    @Override
+    public Iterable<DataPoint> findBySearchCriteria(DataPointSearchCriteria searchCriteria, @Nullable Integer offset,
+            @Nullable Integer limit) {
+
+        checkNotNull(searchCriteria);
+        checkArgument(offset == null || offset >= 0);
+        checkArgument(limit == null || limit >= 0);
+
+        List<MongoPartition> userPartitions = getPartitions(searchCriteria.getUserId());
+
+        if (userPartitions.size() == 1) {
+            return userPartitions.get(0).repository.findBySearchCriteria(searchCriteria, offset, limit);
+        }
+
+        // while a user is being moved, the page can't be pushed down to either partition, so read enough of both to
+        // cover it and page the combination
+        Integer partitionLimit = (limit == null) ? null : (offset == null ? 0 : offset) + limit;
+
+        // a data point that is being moved is briefly on both partitions, so only one of its copies is kept
+        Map<String, DataPoint> dataPointsById = new LinkedHashMap<>();
+
+        for (List<DataPoint> partitionDataPoints : fanOut(userPartitions, partition -> newArrayList(
+                partition.repository.findBySearchCriteria(searchCriteria, null, partitionLimit)))) {
+
+            partitionDataPoints.forEach(dataPoint ->
+                    dataPointsById.putIfAbsent(dataPoint.getHeader().getId(), dataPoint));
+        }
+
+        return dataPointsById.values().stream()
+                .skip(offset == null ? 0 : offset)
+                .limit(limit == null ? Long.MAX_VALUE : limit)
+                .collect(toList());
+    }
+
+    @Override
+    public CloseableIterator<DataPoint> streamByHeaderUserId(String userId, @Nullable SchemaId schemaId,
+            @Nullable String afterId) {
+
+        checkNotNull(userId);
+
+        List<MongoPartition> userPartitions = getPartitions(userId);
+
+        if (userPartitions.size() == 1) {
+            return userPartitions.get(0).repository.streamByHeaderUserId(userId, schemaId, afterId);
+        }
+
+        // while a user is being moved, the data points of both partitions are merged as they're read
+        List<CloseableIterator<DataPoint>> iterators = new ArrayList<>();
+
+        for (MongoPartition partition : userPartitions) {
+            iterators.add(partition.repository.streamByHeaderUserId(userId, schemaId, afterId));
+        }
+
+        CloseableIterator<DataPoint> dataPoints = CloseableIterators.mergeSorted(iterators,
+                comparing((DataPoint dataPoint) -> dataPoint.getHeader().getId()));
+
+        // a data point that is being moved is briefly on both partitions, and its copies are adjacent once merged
+        String[] previousId = new String[1];
+
+        return CloseableIterators.of(Iterators.filter(dataPoints, dataPoint -> {
+
+            boolean repeated = dataPoint.getHeader().getId().equals(previousId[0]);
+            previousId[0] = dataPoint.getHeader().getId();
+
+            return !repeated;
+        }), dataPoints::close);
+    }
+
+    @Override
+    public DataPoint save(DataPoint dataPoint) {
+
+        checkNotNull(dataPoint);
+
+        String userId = dataPoint.getHeader().getUserId();
+
+        Optional<MongoPartition> previousPartition = getPreviousPartition(userId);
+
+        if (!previousPartition.isPresent()) {
+            getPartition(userId).repository.save(dataPoint);
+            return dataPoint;
+        }
+
+        Lock userLock = userLocks.get(userId);
+        userLock.lock();
+
+        try {
+            getPartition(userId).repository.save(dataPoint);
+
+            // don't leave a stale copy behind on the partition the user is being moved from
+            previousPartition.get().repository.delete(dataPoint.getHeader().getId());
+        }
+        finally {
+            userLock.unlock();
+        }
+
+        return dataPoint;
+    }
+
+    @Override
+    public Iterable<DataPoint> save(Iterable<DataPoint> dataPoints) {
+
+        checkNotNull(dataPoints);
+
+        List<DataPoint> savedDataPoints = new ArrayList<>();
+
+        for (List<DataPoint> partitionDataPoints : fanOutByUser(newArrayList(dataPoints),
+                (partition, userDataPoints) -> {
+                    userDataPoints.forEach(this::save);
+                    return userDataPoints;
+                })) {
+
+            savedDataPoints.addAll(partitionDataPoints);
+        }
+
+        return savedDataPoints;
+    }
+
+    @Override
+    public List<DataPoint> insert(List<DataPoint> dataPoints) {
+
+        checkNotNull(dataPoints);
+
+        if (dataPoints.isEmpty()) {
+            return dataPoints;
+        }
+
+        List<DataPoint> insertedDataPoints = new ArrayList<>();
+
+        for (List<DataPoint> partitionDataPoints : fanOutByUser(dataPoints,
+                (partition, userDataPoints) ->
+                        partition.repository.insert(removePreviouslyInserted(userDataPoints)))) {
+
+            insertedDataPoints.addAll(partitionDataPoints);
+        }
+
+        return insertedDataPoints;
+    }
+
+    /**
+     * @return the data points whose identifiers don't exist on the partitions their users are being moved from
+     */
+    private List<DataPoint> removePreviouslyInserted(List<DataPoint> dataPoints) {
+
+        if (previousRing == null) {
+            return dataPoints;
+        }
+
+        Map<MongoPartition, List<DataPoint>> dataPointsByPreviousPartition = new LinkedHashMap<>();
+
+        for (DataPoint dataPoint : dataPoints) {
+            getPreviousPartition(dataPoint.getHeader().getUserId()).ifPresent(partition ->
+                    dataPointsByPreviousPartition.computeIfAbsent(partition, key -> new ArrayList<>())
+                            .add(dataPoint));
+        }
+
+        if (dataPointsByPreviousPartition.isEmpty()) {
+            return dataPoints;
+        }
+
+        Set<String> existingIds = new HashSet<>();
+
+        dataPointsByPreviousPartition.forEach((partition, movingDataPoints) ->
+                existingIds.addAll(partition.repository.findExistingIds(getIds(movingDataPoints))));
+
+        return dataPoints.stream()
+                .filter(dataPoint -> !existingIds.contains(dataPoint.getHeader().getId()))
+                .collect(toList());
+    }
+
+    @Override
+    public void delete(String id) {
+
+        checkNotNull(id);
+
+        fanOut(partitions, partition -> {
+            partition.repository.delete(id);
+            return null;
+        });
+    }
+
+    @Override
+    public Long deleteByIdAndHeaderUserId(String id, String userId) {
+
+        checkNotNull(id);
+        checkNotNull(userId);
+
+        long deletedCount = 0;
+
+        for (MongoPartition partition : getPartitions(userId)) {
+            deletedCount += partition.repository.deleteByIdAndHeaderUserId(id, userId);
+        }
+
+        return deletedCount;
+    }
+
+    @Override
+    public void deleteByCreationTimestampBefore(OffsetDateTime timestamp) {
+
+        checkNotNull(timestamp);
+
+        fanOut(partitions, partition -> {
+            partition.repository.deleteByCreationTimestampBefore(timestamp);
+            return null;
+        });
+    }
+
+    @Override
+    public List<DataPoint> findByCreationTimestampBefore(OffsetDateTime timestamp, int limit) {
+
+        checkNotNull(timestamp);
+        checkArgument(limit > 0);
+
+        return fanOut(partitions, partition -> partition.repository.findByCreationTimestampBefore(timestamp, limit))
+                .stream()
+                .flatMap(List::stream)
+                .limit(limit)
+                .collect(toList());
+    }
+
+    @Override
+    public void deleteByIdIn(Collection<String> ids) {
+
+        checkNotNull(ids);
+
+        fanOut(partitions, partition -> {
+            partition.repository.deleteByIdIn(ids);
+            return null;
+        });
+    }
+
+    @Override
+    public long deleteBySearchCriteria(DataPointSearchCriteria searchCriteria, int limit) {
+
+        checkNotNull(searchCriteria);
+        checkArgument(limit > 0);
+
+        long deletedCount = 0;
+
+        for (MongoPartition partition : getPartitions(searchCriteria.getUserId())) {
+
+            deletedCount += partition.repository.deleteBySearchCriteria(searchCriteria, (int) (limit - deletedCount));
+
+            if (deletedCount >= limit) {
+                break;
+            }
+        }
+
+        return deletedCount;
+    }
+
+    @Override
+    public long deleteByHeaderUserId(String userId, int limit) {
+
+        checkNotNull(userId);
+        checkArgument(limit > 0);
+
+        long deletedCount = 0;
+
+        for (MongoPartition partition : getPartitions(userId)) {
+
+            deletedCount += partition.repository.deleteByHeaderUserId(userId, (int) (limit - deletedCount));
+
+            if (deletedCount >= limit) {
+                break;
+            }
+        }
+
+        return deletedCount;
+    }
+
+    /**
+     * Moves a batch of data points from a partition their users are no longer assigned to, to the partition their
+     * users are now assigned to. A data point is inserted into its new partition before it's removed from its old
+     * one, so it can always be read, and a batch that is interrupted can safely be moved again.
+     * <p>
+     * Only the server that holds the lease on a partition rebalances it, and the position it has reached is saved
+     * after each batch, so another server can carry on from there if the lease expires.
+     *
+     * @return the number of data points examined, which is zero once rebalancing is complete or while another server
+     * holds the lease
+     */
+    public int rebalance() {
+
+        if (previousRing == null) {
+            return 0;
+        }
+
+        Optional<MongoPartition> source = partitions.stream().filter(partition -> !partition.rebalanced).findFirst();
+
+        if (!source.isPresent()) {
+            return 0;
+        }
+
+        MongoPartition sourcePartition = source.get();
+
+        Optional<DBObject> state = acquireRebalancingLease(sourcePartition);
+
+        if (!state.isPresent()) {
+            return 0;
+        }
+
+        // another server may have finished the partition
+        if (Boolean.TRUE.equals(state.get().get("rebalanced"))) {
+            sourcePartition.rebalanced = true;
+            return rebalance();
+        }
+
+        List<DataPoint> dataPoints = sourcePartition.repository.findOrderedById((String) state.get().get("cursor"),
+                rebalancingBatchSize);
+
+        if (dataPoints.isEmpty()) {
+            sourcePartition.mongoTemplate.updateFirst(newRebalancingLeaseQuery(),
+                    new Update().set("rebalanced", true).unset("leaseOwner").unset("leaseExpirationTimestamp"),
+                    REBALANCING_COLLECTION_NAME);
+
+            sourcePartition.rebalanced = true;
+
+            log.info("The data point partition '{}' has been rebalanced.", sourcePartition.name);
+
+            if (partitions.stream().allMatch(partition -> partition.rebalanced)) {
+                log.info("All data point partitions have been rebalanced, so joining and leaving partitions can "
+                        + "now be configured as ordinary or removed.");
+            }
+
+            return rebalance();
+        }
+
+        List<DataPoint> movingDataPoints = dataPoints.stream()
+                .filter(dataPoint -> getPartition(dataPoint.getHeader().getUserId()) != sourcePartition)
+                .collect(toList());
+
+        Iterable<Lock> movingUserLocks = userLocks.bulkGet(movingDataPoints.stream()
+                .map(dataPoint -> dataPoint.getHeader().getUserId())
+                .collect(toList()));
+
+        // the locks are handed out in a consistent order, so rebalancing can't deadlock with itself
+        movingUserLocks.forEach(Lock::lock);
+
+        try {
+            movingDataPoints.stream()
+                    .collect(groupingBy(dataPoint -> getPartition(dataPoint.getHeader().getUserId())))
+                    .forEach((targetPartition, targetDataPoints) ->
+                            move(targetDataPoints, sourcePartition, targetPartition));
+        }
+        finally {
+            movingUserLocks.forEach(Lock::unlock);
+        }
+
+        // if the lease has been lost in the meantime, the batch is moved again, which is harmless
+        sourcePartition.mongoTemplate.updateFirst(newRebalancingLeaseQuery(),
+                new Update().set("cursor", dataPoints.get(dataPoints.size() - 1).getHeader().getId()),
+                REBALANCING_COLLECTION_NAME);
+
+        return dataPoints.size();
+    }
+
+    private void move(List<DataPoint> dataPoints, MongoPartition sourcePartition, MongoPartition targetPartition) {
+
+        // data points already on the target partition are newer than their copies and are kept
+        List<DataPoint> insertedDataPoints = targetPartition.repository.insert(dataPoints);
+
+        // a data point that is no longer on the source partition was deleted after it was read, so its copy mustn't
+        // outlive it, unless it has since been replaced
+        Set<String> remainingIds = sourcePartition.repository.findExistingIds(getIds(dataPoints));
+
+        List<DataPoint> deletedDataPoints = insertedDataPoints.stream()
+                .filter(dataPoint -> !remainingIds.contains(dataPoint.getHeader().getId()))
+                .collect(toList());
+
+        if (!deletedDataPoints.isEmpty()) {
+            targetPartition.repository.deleteUnchanged(deletedDataPoints);
+        }
+
+        sourcePartition.repository.deleteByIdIn(remainingIds);
+
+        movedDataPointCount.add(remainingIds.size());
+    }
+
+    /**
+     * Takes or renews the lease on rebalancing a partition, creating the rebalancing state of the partition if it
+     * doesn't exist yet.
+     *
+     * @return the rebalancing state of the partition, or nothing if another server holds the lease
+     */
+    private Optional<DBObject> acquireRebalancingLease(MongoPartition partition) {
+
+        Date now = new Date();
+
+        Query query = query(where("_id").is(rebalancingId).orOperator(
+                where("leaseOwner").is(serverId),
+                where("leaseExpirationTimestamp").exists(false),
+                where("leaseExpirationTimestamp").lt(now)));
+
+        Update update = new Update()
+                .set("leaseOwner", serverId)
+                .set("leaseExpirationTimestamp", new Date(now.getTime() + rebalancingLeaseDurationInMillis));
+
+        try {
+            return Optional.of(partition.mongoTemplate.findAndModify(query, update,
+                    options().upsert(true).returnNew(true), BasicDBObject.class, REBALANCING_COLLECTION_NAME));
+        }
+        // the state exists, so the upsert tried to create it again because the lease is held by another server
+        catch (DuplicateKeyException e) {
+            return Optional.empty();
+        }
+    }
+
+    private Query newRebalancingLeaseQuery() {
+
+        return query(where("_id").is(rebalancingId).and("leaseOwner").is(serverId));
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        metrics.add(new Metric<>("dataPointPartitions.count", partitions.size()));
+
+        if (previousRing != null) {
+            metrics.add(new Metric<>("dataPointPartitions.rebalancing.moved", movedDataPointCount.sum()));
+            metrics.add(new Metric<>("dataPointPartitions.rebalancing.remaining",
+                    partitions.stream().filter(partition -> !partition.rebalanced).count()));
+        }
+
+        return metrics;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+
+        executorService.shutdownNow();
+
+        for (MongoPartition partition : partitions) {
+            partition.mongoDbFactory.destroy();
+        }
+    }
+
+    /**
+     * @return the partition the user is assigned to
+     */
+    private MongoPartition getPartition(String userId) {
+
+        return ring.getNode(userId);
+    }
+
+    /**
+     * @return the partition the user is being moved from, if any
+     */
+    private Optional<MongoPartition> getPreviousPartition(String userId) {
+
+        if (previousRing == null) {
+            return Optional.empty();
+        }
+
+        MongoPartition previousPartition = previousRing.getNode(userId);
+
+        if (previousPartition == getPartition(userId) || previousPartition.rebalanced) {
+            return Optional.empty();
+        }
+
+        return Optional.of(previousPartition);
+    }
+
+    /**
+     * @return the partitions that may hold data points of the user, older first
+     */
+    private List<MongoPartition> getPartitions(String userId) {
+
+        List<MongoPartition> userPartitions = new ArrayList<>(2);
+
+        getPreviousPartition(userId).ifPresent(userPartitions::add);
+        userPartitions.add(getPartition(userId));
+
+        return userPartitions;
+    }
+
+    /**
+     * Applies an operation to each of the given partitions in parallel.
+     *
+     * @return the results of the operation, in partition order
+     */
+    private <R> List<R> fanOut(List<MongoPartition> targetPartitions, Function<MongoPartition, R> operation) {
+
+        // avoid a thread hand-off when there's nothing to parallelize
+        if (targetPartitions.size() == 1) {
+            List<R> results = new ArrayList<>(1);
+            results.add(operation.apply(targetPartitions.get(0)));
+            return results;
+        }
+
+        List<CompletableFuture<R>> futures = targetPartitions.stream()
+                .map(partition -> CompletableFuture.supplyAsync(() -> operation.apply(partition), executorService))
+                .collect(toList());
+
+        try {
+            return futures.stream().map(CompletableFuture::join).collect(toList());
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Groups data points by the partition their users are assigned to and applies an operation to each group in
+     * parallel.
+     */
+    private <R> List<R> fanOutByUser(List<DataPoint> dataPoints, PartitionOperation<R> operation) {
+
+        Map<MongoPartition, List<DataPoint>> dataPointsByPartition = dataPoints.stream()
+                .collect(groupingBy(dataPoint -> getPartition(dataPoint.getHeader().getUserId())));
+
+        return fanOut(new ArrayList<>(dataPointsByPartition.keySet()),
+                partition -> operation.apply(partition, dataPointsByPartition.get(partition)));
+    }
+
+    private static List<String> getIds(List<DataPoint> dataPoints) {
+
+        return dataPoints.stream().map(dataPoint -> dataPoint.getHeader().getId()).collect(toList());
+    }
+
+
+    @FunctionalInterface
+    private interface PartitionOperation<R> {
+
+        R apply(MongoPartition partition, List<DataPoint> dataPoints);
+    }
+
+
+    /**
+     * A MongoDB cluster that holds a partition of data points.
+     */
+    private static class MongoPartition {
+
+        private final String name;
+        private final SimpleMongoDbFactory mongoDbFactory;
+        private final MongoTemplate mongoTemplate;
+        private final MongoDataPointRepositoryImpl repository;
+
+        // caches the rebalancing state kept in the partition, which only ever goes from false to true
+        private volatile boolean rebalanced;
+
+        MongoPartition(String name, SimpleMongoDbFactory mongoDbFactory, MongoTemplate mongoTemplate,
+                MongoDataPointRepositoryImpl repository) {
+
+            this.name = name;
+            this.mongoDbFactory = mongoDbFactory;
+            this.mongoTemplate = mongoTemplate;
+            this.repository = repository;
+        }
+    }
+}
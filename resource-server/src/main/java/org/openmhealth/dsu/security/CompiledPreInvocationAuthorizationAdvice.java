@@ -0,0 +1,272 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.security;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.access.prepost.PreFilter;
+import org.springframework.security.access.prepost.PreInvocationAttribute;
+import org.springframework.security.access.prepost.PreInvocationAuthorizationAdvice;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.common.exceptions.InsufficientScopeException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Collections.singleton;
+
+
+/**
+ * A pre-invocation advice that compiles the {@link PreAuthorize} expressions of methods into bit mask checks. An
+ * expression that is a conjunction of {@code #oauth2.clientHasRole('...')} terms followed by
+ * {@code #oauth2.hasScope('...')} terms is compiled the first time its method is called. Every required role and scope
+ * is assigned a bit, and each later call only compares the masks of the method with the masks of the roles and scopes
+ * granted to the client, instead of building an evaluation context and evaluating the expression.
+ * <p>
+ * Compiled checks behave like the expressions they replace. A client that lacks a role is denied access, and a client
+ * that lacks a scope is denied access with an {@link InsufficientScopeException}, as {@code #oauth2.throwOnError}
+ * does. Any other expression, and any method that also has a {@link PreFilter} annotation, is handed to the fallback
+ * advice.
+ *
+ * @author Emerson Farrugia
+ */
+public class CompiledPreInvocationAuthorizationAdvice implements PreInvocationAuthorizationAdvice {
+
+    private static final Pattern TERM_PATTERN = Pattern.compile("#oauth2\\.(clientHasRole|hasScope)\\('([^']+)'\\)");
+    private static final Pattern CONJUNCTION_PATTERN = Pattern.compile("\\s+and\\s+");
+    private static final int MAXIMUM_BIT_COUNT = Long.SIZE;
+
+    private final PreInvocationAuthorizationAdvice fallbackAdvice;
+    private final Map<String, Integer> roleBits = new ConcurrentHashMap<>();
+    private final Map<String, Integer> scopeBits = new ConcurrentHashMap<>();
+    private final Map<Method, Optional<CompiledCheck>> checksByMethod = new ConcurrentHashMap<>();
+
+    /**
+     * @param fallbackAdvice the advice that evaluates expressions which can't be compiled
+     */
+    public CompiledPreInvocationAuthorizationAdvice(PreInvocationAuthorizationAdvice fallbackAdvice) {
+
+        checkNotNull(fallbackAdvice);
+
+        this.fallbackAdvice = fallbackAdvice;
+    }
+
+    @Override
+    public boolean before(Authentication authentication, MethodInvocation invocation,
+            PreInvocationAttribute attribute) {
+
+        Optional<CompiledCheck> check = checksByMethod.computeIfAbsent(invocation.getMethod(), this::compile);
+
+        if (!check.isPresent()) {
+            return fallbackAdvice.before(authentication, invocation, attribute);
+        }
+
+        return check.get().isSatisfiedBy(authentication);
+    }
+
+    /**
+     * @return the compiled check of the method, or empty if the method has to be handled by the fallback advice
+     */
+    private Optional<CompiledCheck> compile(Method method) {
+
+        if (AnnotationUtils.findAnnotation(method, PreFilter.class) != null) {
+            return Optional.empty();
+        }
+
+        PreAuthorize preAuthorize = AnnotationUtils.findAnnotation(method, PreAuthorize.class);
+
+        if (preAuthorize == null) {
+            return Optional.empty();
+        }
+
+        return compile(preAuthorize.value());
+    }
+
+    /**
+     * @param expression a {@link PreAuthorize} expression
+     * @return the compiled check of the expression, or empty if the expression can't be compiled
+     */
+    Optional<CompiledCheck> compile(String expression) {
+
+        long requiredRoleMask = 0;
+        long requiredScopeMask = 0;
+        List<String> requiredScopes = new ArrayList<>();
+
+        for (String term : CONJUNCTION_PATTERN.split(expression.trim())) {
+            Matcher matcher = TERM_PATTERN.matcher(term);
+
+            if (!matcher.matches()) {
+                return Optional.empty();
+            }
+
+            String name = matcher.group(2);
+
+            if (matcher.group(1).equals("clientHasRole")) {
+
+                // evaluation stops at the first failed term, so a role check after a scope check changes which
+                // failure is reported
+                if (!requiredScopes.isEmpty()) {
+                    return Optional.empty();
+                }
+
+                int bit = getBit(roleBits, name);
+
+                if (bit < 0) {
+                    return Optional.empty();
+                }
+
+                requiredRoleMask |= 1L << bit;
+            }
+            else {
+                int bit = getBit(scopeBits, name);
+
+                if (bit < 0) {
+                    return Optional.empty();
+                }
+
+                requiredScopeMask |= 1L << bit;
+                requiredScopes.add(name);
+            }
+        }
+
+        return Optional.of(new CompiledCheck(requiredRoleMask, requiredScopeMask, requiredScopes));
+    }
+
+    /**
+     * @return the bit assigned to the name, or -1 if every bit has already been assigned
+     */
+    private synchronized int getBit(Map<String, Integer> bits, String name) {
+
+        Integer bit = bits.get(name);
+
+        if (bit != null) {
+            return bit;
+        }
+
+        if (bits.size() == MAXIMUM_BIT_COUNT) {
+            return -1;
+        }
+
+        bits.put(name, bits.size());
+
+        return bits.size() - 1;
+    }
+
+    private long getRoleMask(OAuth2Request request) {
+
+        long mask = 0;
+
+        for (GrantedAuthority authority : request.getAuthorities()) {
+            Integer bit = roleBits.get(authority.getAuthority());
+
+            if (bit != null) {
+                mask |= 1L << bit;
+            }
+        }
+
+        return mask;
+    }
+
+    private long getScopeMask(OAuth2Request request) {
+
+        long mask = 0;
+
+        for (String scope : request.getScope()) {
+            Integer bit = scopeBits.get(scope);
+
+            if (bit != null) {
+                mask |= 1L << bit;
+            }
+        }
+
+        return mask;
+    }
+
+    /**
+     * The compiled form of a {@link PreAuthorize} expression.
+     */
+    class CompiledCheck {
+
+        private final long requiredRoleMask;
+        private final long requiredScopeMask;
+        private final String[] requiredScopes;
+
+        private CompiledCheck(long requiredRoleMask, long requiredScopeMask, List<String> requiredScopes) {
+
+            this.requiredRoleMask = requiredRoleMask;
+            this.requiredScopeMask = requiredScopeMask;
+            this.requiredScopes = requiredScopes.toArray(new String[requiredScopes.size()]);
+        }
+
+        /**
+         * @return true if the client has every required role and scope, false if it lacks a role
+         * @throws AccessDeniedException if the client has every required role but lacks a scope
+         */
+        boolean isSatisfiedBy(Authentication authentication) {
+
+            long roleMask = 0;
+            long scopeMask = 0;
+
+            if (authentication instanceof OAuth2Authentication) {
+                OAuth2Request request = ((OAuth2Authentication) authentication).getOAuth2Request();
+
+                roleMask = getRoleMask(request);
+                scopeMask = getScopeMask(request);
+            }
+
+            if ((roleMask & requiredRoleMask) != requiredRoleMask) {
+                return false;
+            }
+
+            if ((scopeMask & requiredScopeMask) != requiredScopeMask) {
+                throw newInsufficientScopeException(scopeMask);
+            }
+
+            return true;
+        }
+
+        private AccessDeniedException newInsufficientScopeException(long scopeMask) {
+
+            // like the expression, only report the first scope that is missing
+            String missingScope = null;
+
+            for (String requiredScope : requiredScopes) {
+                if ((scopeMask & (1L << scopeBits.get(requiredScope))) == 0) {
+                    missingScope = requiredScope;
+                    break;
+                }
+            }
+
+            InsufficientScopeException cause =
+                    new InsufficientScopeException("Insufficient scope for this resource", singleton(missingScope));
+
+            return new AccessDeniedException(cause.getMessage(), cause);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+
+/**
+ * Resource server token services that cache the access tokens read from a token store, along with their
+ * authentications, so that most requests don't touch the token store. A cached token is read again once it expires or
+ * once the maximum time to live has passed, whichever comes first, and unknown tokens are remembered as invalid for a
+ * short while. Concurrent requests that miss the cache for the same token share a single read.
+ * <p>
+ * Tokens revoked through the token store of this server are evicted by calling {@link #evict(String)}. Tokens revoked
+ * elsewhere, e.g. by the authorization server, remain usable for at most the maximum time to live.
+ *
+ * @author Emerson Farrugia
+ */
+public class CachingResourceServerTokenServices implements ResourceServerTokenServices, PublicMetrics {
+
+    private final TokenStore tokenStore;
+    private final long maximumTimeToLiveInMillis;
+    private final long invalidTokenTimeToLiveInMillis;
+    private final Cache<String, CachedToken> cache;
+
+    /**
+     * @param tokenStore the token store to read access tokens from
+     * @param maximumSize the maximum number of access tokens to cache
+     * @param maximumTimeToLiveInSeconds the number of seconds after which a cached access token is read again
+     * @param invalidTokenTimeToLiveInSeconds the number of seconds for which an invalid access token is remembered
+     */
+    public CachingResourceServerTokenServices(TokenStore tokenStore, int maximumSize, int maximumTimeToLiveInSeconds,
+            int invalidTokenTimeToLiveInSeconds) {
+
+        checkNotNull(tokenStore);
+        checkArgument(maximumSize >= 0);
+        checkArgument(maximumTimeToLiveInSeconds > 0);
+        checkArgument(invalidTokenTimeToLiveInSeconds >= 0);
+
+        this.tokenStore = tokenStore;
+        this.maximumTimeToLiveInMillis = SECONDS.toMillis(maximumTimeToLiveInSeconds);
+        this.invalidTokenTimeToLiveInMillis = SECONDS.toMillis(invalidTokenTimeToLiveInSeconds);
+
+        // entries that expire sooner are checked when they're read
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(maximumTimeToLiveInSeconds, SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public OAuth2Authentication loadAuthentication(String accessTokenValue)
+            throws AuthenticationException, InvalidTokenException {
+
+        CachedToken cachedToken = getCachedToken(accessTokenValue);
+
+        if (cachedToken.authentication == null) {
+            throw new InvalidTokenException("Invalid access token: " + accessTokenValue);
+        }
+
+        // the authentication manager sets request details on the authentication, so each request gets its own
+        OAuth2Authentication authentication = new OAuth2Authentication(cachedToken.authentication.getOAuth2Request(),
+                cachedToken.authentication.getUserAuthentication());
+
+        authentication.setDetails(cachedToken.authentication.getDetails());
+
+        return authentication;
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(String accessToken) {
+
+        return getCachedToken(accessToken).accessToken;
+    }
+
+    private CachedToken getCachedToken(String accessTokenValue) {
+
+        checkNotNull(accessTokenValue);
+
+        try {
+            CachedToken cachedToken = cache.get(accessTokenValue, () -> readToken(accessTokenValue));
+
+            if (cachedToken.isStale()) {
+
+                // concurrent requests that see the same stale entry only remove it once, and then share the read
+                cache.asMap().remove(accessTokenValue, cachedToken);
+                cachedToken = cache.get(accessTokenValue, () -> readToken(accessTokenValue));
+            }
+
+            return cachedToken;
+        }
+        catch (ExecutionException | UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private CachedToken readToken(String accessTokenValue) {
+
+        long now = System.currentTimeMillis();
+
+        OAuth2AccessToken accessToken = tokenStore.readAccessToken(accessTokenValue);
+
+        if (accessToken == null) {
+            return new CachedToken(null, null, now + invalidTokenTimeToLiveInMillis);
+        }
+
+        if (accessToken.isExpired()) {
+            tokenStore.removeAccessToken(accessToken);
+            return new CachedToken(null, null, now + invalidTokenTimeToLiveInMillis);
+        }
+
+        OAuth2Authentication authentication = tokenStore.readAuthentication(accessToken);
+
+        if (authentication == null) {
+            return new CachedToken(null, null, now + invalidTokenTimeToLiveInMillis);
+        }
+
+        long staleAfter = now + maximumTimeToLiveInMillis;
+
+        if (accessToken.getExpiration() != null) {
+            staleAfter = Math.min(staleAfter, accessToken.getExpiration().getTime());
+        }
+
+        return new CachedToken(accessToken, authentication, staleAfter);
+    }
+
+    /**
+     * Evicts an access token from the cache, e.g. once it has been revoked, so that the next request that uses it
+     * reads it from the token store.
+     *
+     * @param accessTokenValue the value of the access token
+     */
+    public void evict(String accessTokenValue) {
+
+        checkNotNull(accessTokenValue);
+
+        cache.invalidate(accessTokenValue);
+    }
+
+    /**
+     * Evicts all access tokens from the cache.
+     */
+    public void evictAll() {
+
+        cache.invalidateAll();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+
+        List<Metric<?>> metrics = new ArrayList<>();
+        CacheStats stats = cache.stats();
+
+        metrics.add(new Metric<>("accessTokenCache.size", cache.size()));
+        metrics.add(new Metric<>("accessTokenCache.hits", stats.hitCount()));
+        metrics.add(new Metric<>("accessTokenCache.misses", stats.missCount()));
+        metrics.add(new Metric<>("accessTokenCache.evictions", stats.evictionCount()));
+
+        return metrics;
+    }
+
+    private static class CachedToken {
+
+        private final OAuth2AccessToken accessToken;
+        private final OAuth2Authentication authentication;
+        private final long staleAfter;
+
+        CachedToken(@Nullable OAuth2AccessToken accessToken, @Nullable OAuth2Authentication authentication,
+                long staleAfter) {
+
+            this.accessToken = accessToken;
+            this.authentication = authentication;
+            this.staleAfter = staleAfter;
+        }
+
+        boolean isStale() {
+            return System.currentTimeMillis() >= staleAfter;
+        }
+    }
+}
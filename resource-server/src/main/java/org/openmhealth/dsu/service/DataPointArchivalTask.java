@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.dsu.configuration.DataPointArchiveProperties;
+import org.openmhealth.dsu.repository.DataPointArchive;
+import org.openmhealth.dsu.repository.DataPointRepository;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+
+/**
+ * A task that periodically moves data points that have reached a certain age from MongoDB into the archive. Data
+ * points are only deleted from MongoDB once they have been archived.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConditionalOnProperty(prefix = "dataPointArchive", name = "enabled")
+public class DataPointArchivalTask {
+
+    private static final Logger log = LoggerFactory.getLogger(DataPointArchivalTask.class);
+
+    @Autowired
+    private DataPointRepository repository;
+
+    @Autowired
+    private DataPointArchive archive;
+
+    @Autowired
+    private DataPointArchiveProperties properties;
+
+    @Scheduled(fixedDelay = 3_600_000)
+    public void archiveDataPoints() {
+
+        OffsetDateTime cutoff = OffsetDateTime.now().minusDays(properties.getArchiveAfterDays());
+
+        List<DataPoint> dataPoints;
+
+        do {
+            dataPoints = repository.findByCreationTimestampBefore(cutoff, properties.getBatchSize());
+
+            if (dataPoints.isEmpty()) {
+                break;
+            }
+
+            archive.archive(dataPoints);
+            repository.deleteByIdIn(
+                    dataPoints.stream().map(dataPoint -> dataPoint.getHeader().getId()).collect(toList()));
+
+            log.debug("{} data points have been archived.", dataPoints.size());
+        }
+        while (dataPoints.size() == properties.getBatchSize());
+    }
+}
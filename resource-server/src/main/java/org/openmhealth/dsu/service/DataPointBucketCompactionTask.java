@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.dsu.configuration.DataPointBucketProperties;
+import org.openmhealth.dsu.repository.DataPointBucketRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * A task that periodically seals and compacts data point buckets.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+public class DataPointBucketCompactionTask {
+
+    private static final Logger log = LoggerFactory.getLogger(DataPointBucketCompactionTask.class);
+
+    @Autowired
+    private DataPointBucketRepository bucketRepository;
+
+    @Autowired
+    private DataPointBucketProperties properties;
+
+    @Scheduled(fixedDelay = 60_000)
+    public void compactSealedBuckets() {
+
+        if (properties.getSchemas().isEmpty()) {
+            return;
+        }
+
+        int compactedBucketCount;
+
+        // keep going while there's a backlog, e.g. after downtime
+        do {
+            compactedBucketCount = bucketRepository.compactSealedBuckets(properties.getCompactionBatchSize());
+
+            log.debug("{} data point buckets have been compacted.", compactedBucketCount);
+        }
+        while (compactedBucketCount == properties.getCompactionBatchSize());
+    }
+}
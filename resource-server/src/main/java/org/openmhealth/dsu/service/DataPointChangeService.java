@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.dsu.domain.DataPointChange;
+import org.openmhealth.dsu.domain.DataPointChangeToken;
+import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.schema.domain.omh.DataPoint;
+
+import java.util.List;
+
+
+/**
+ * A service that records changes to data points, so that clients can sync the changes that follow the last one they
+ * have seen instead of reading data points again. Data points that are archived, or that outlive their retention
+ * period, aren't recorded as changes, since clients keep their copies.
+ *
+ * @author Emerson Farrugia
+ */
+public interface DataPointChangeService {
+
+    /**
+     * Records that data points have been saved. The changes are numbered in the order of the data points.
+     *
+     * @param dataPoints the saved data points
+     */
+    void recordSaves(List<DataPoint> dataPoints);
+
+    /**
+     * Records that a data point has been deleted.
+     *
+     * @param userId the identifier of the user who owned the data point
+     * @param dataPointId the identifier of the data point
+     */
+    void recordDeletion(String userId, String dataPointId);
+
+    /**
+     * Records that the data points that match search criteria have been deleted.
+     *
+     * @param searchCriteria the search criteria, whose creation timestamp range, if any, must be closed below and
+     * open above
+     */
+    void recordDeletion(DataPointSearchCriteria searchCriteria);
+
+    /**
+     * Records that every data point of a user has been deleted.
+     *
+     * @param userId the identifier of the user
+     */
+    void recordPurge(String userId);
+
+    /**
+     * Reads the changes that follow a sequence. If a change whose sequence has been assigned hasn't been recorded yet,
+     * the changes that follow it are held back until it has been, or until it has been given up on.
+     *
+     * @param userId the identifier of the user
+     * @param sequence the sequence after which to start
+     * @param limit the maximum number of changes to read
+     * @return the changes, in sequence order, without their data points
+     */
+    List<DataPointChange> findChanges(String userId, long sequence, int limit);
+
+    /**
+     * @param userId the identifier of the user
+     * @return the last sequence assigned to a change to the data points of the user, or zero if none has been
+     */
+    long findLastSequence(String userId);
+
+    /**
+     * @param token a token
+     * @return true if changes that follow the token may no longer be retained, in which case the client has to start
+     * over
+     */
+    boolean isExpired(DataPointChangeToken token);
+}
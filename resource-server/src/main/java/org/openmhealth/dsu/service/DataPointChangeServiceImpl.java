@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import com.google.common.collect.Range;
+import org.openmhealth.dsu.configuration.DataPointChangeProperties;
+import org.openmhealth.dsu.domain.DataPointChange;
+import org.openmhealth.dsu.domain.DataPointChangeToken;
+import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.dsu.repository.DataPointChangeRepository;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.BoundType.CLOSED;
+import static com.google.common.collect.BoundType.OPEN;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.time.temporal.ChronoUnit.SECONDS;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static org.openmhealth.dsu.domain.DataPointChange.Operation.DELETE;
+import static org.openmhealth.dsu.domain.DataPointChange.Operation.DELETE_MATCHING;
+import static org.openmhealth.dsu.domain.DataPointChange.Operation.SAVE;
+
+
+/**
+ * A data point change service that numbers the changes of each user with a counter. Changes are recorded after the
+ * data points they describe have been written, so a change is never read before its data point can be. Changes
+ * expire after the retention period, and so do the tokens that point at them.
+ *
+ * @author Emerson Farrugia
+ */
+@Service
+public class DataPointChangeServiceImpl implements DataPointChangeService {
+
+    @Autowired
+    private DataPointChangeRepository repository;
+
+    @Autowired
+    private DataPointChangeProperties properties;
+
+    @Override
+    public void recordSaves(List<DataPoint> dataPoints) {
+
+        checkNotNull(dataPoints);
+
+        Map<String, List<DataPoint>> dataPointsByUser = dataPoints.stream()
+                .collect(groupingBy(dataPoint -> dataPoint.getHeader().getUserId(), LinkedHashMap::new, toList()));
+
+        dataPointsByUser.forEach((userId, userDataPoints) -> {
+
+            List<DataPointChange> changes = new ArrayList<>(userDataPoints.size());
+
+            for (DataPoint dataPoint : userDataPoints) {
+                DataPointChange change = newChange(userId, SAVE);
+                change.setDataPointId(dataPoint.getHeader().getId());
+                changes.add(change);
+            }
+
+            record(userId, changes);
+        });
+    }
+
+    @Override
+    public void recordDeletion(String userId, String dataPointId) {
+
+        checkNotNull(userId);
+        checkNotNull(dataPointId);
+
+        DataPointChange change = newChange(userId, DELETE);
+        change.setDataPointId(dataPointId);
+
+        record(userId, Collections.singletonList(change));
+    }
+
+    @Override
+    public void recordDeletion(DataPointSearchCriteria searchCriteria) {
+
+        checkNotNull(searchCriteria);
+
+        DataPointChange change = newChange(searchCriteria.getUserId(), DELETE_MATCHING);
+        change.setSchemaNamespace(searchCriteria.getSchemaNamespace());
+        change.setSchemaName(searchCriteria.getSchemaName());
+        change.setSchemaVersion(searchCriteria.getSchemaVersion().toString());
+
+        if (searchCriteria.getCreationTimestampRange().isPresent()) {
+            Range<OffsetDateTime> range = searchCriteria.getCreationTimestampRange().get();
+
+            if (range.hasLowerBound()) {
+                checkArgument(range.lowerBoundType() == CLOSED);
+                change.setCreatedOnOrAfter(range.lowerEndpoint());
+            }
+
+            if (range.hasUpperBound()) {
+                checkArgument(range.upperBoundType() == OPEN);
+                change.setCreatedBefore(range.upperEndpoint());
+            }
+        }
+
+        record(searchCriteria.getUserId(), Collections.singletonList(change));
+    }
+
+    @Override
+    public void recordPurge(String userId) {
+
+        checkNotNull(userId);
+
+        record(userId, Collections.singletonList(newChange(userId, DELETE_MATCHING)));
+    }
+
+    private DataPointChange newChange(String userId, DataPointChange.Operation operation) {
+
+        OffsetDateTime now = OffsetDateTime.now();
+
+        DataPointChange change = new DataPointChange();
+        change.setUserId(userId);
+        change.setOperation(operation);
+        change.setTimestamp(now);
+        change.setExpirationTimestamp(Date.from(now.plusDays(properties.getRetentionInDays()).toInstant()));
+
+        return change;
+    }
+
+    private void record(String userId, List<DataPointChange> changes) {
+
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        long sequence = repository.allocateSequences(userId, changes.size()) - changes.size();
+
+        for (DataPointChange change : changes) {
+            change.setSequence(++sequence);
+        }
+
+        repository.save(changes);
+    }
+
+    @Override
+    public List<DataPointChange> findChanges(String userId, long sequence, int limit) {
+
+        checkNotNull(userId);
+        checkArgument(sequence >= 0);
+        checkArgument(limit > 0);
+
+        List<DataPointChange> changes = repository.findByUserIdAndSequenceGreaterThanOrderBySequenceAsc(userId,
+                sequence, new PageRequest(0, limit));
+
+        // a gap means a sequence has been assigned to a change that is still being recorded, so the changes that
+        // follow it are held back, unless it's been long enough to assume the change was never recorded
+        OffsetDateTime settledTimestamp = OffsetDateTime.now().minusSeconds(properties.getSettlingTimeInSeconds());
+        long expectedSequence = sequence + 1;
+
+        for (int i = 0; i < changes.size(); i++) {
+
+            DataPointChange change = changes.get(i);
+
+            if (change.getSequence() != expectedSequence && change.getTimestamp().isAfter(settledTimestamp)) {
+                return changes.subList(0, i);
+            }
+
+            expectedSequence = change.getSequence() + 1;
+        }
+
+        return changes;
+    }
+
+    @Override
+    public long findLastSequence(String userId) {
+
+        checkNotNull(userId);
+
+        return repository.findLastSequence(userId);
+    }
+
+    @Override
+    public boolean isExpired(DataPointChangeToken token) {
+
+        checkNotNull(token);
+
+        // the changes that follow a token were recorded after it was issued, less the time a change can take to settle
+        Instant expirationTimestamp = token.getIssueTimestamp()
+                .plus(properties.getRetentionInDays(), DAYS)
+                .minus(properties.getSettlingTimeInSeconds(), SECONDS);
+
+        return expirationTimestamp.isBefore(Instant.now());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import com.google.common.collect.Range;
+import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.dsu.domain.MaintenanceJob;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.BoundType.CLOSED;
+import static com.google.common.collect.BoundType.OPEN;
+
+
+/**
+ * A handler that deletes data points in batches, either those that match search criteria or all those of a user.
+ * Since deleted data points no longer match, a job doesn't need a checkpoint to resume where it left off.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+public class DataPointDeletionJobHandler implements MaintenanceJobHandler {
+
+    public static final String JOB_TYPE = "dataPointDeletion";
+
+    public static final String PURGE_PARAMETER = "purge";
+    public static final String SCHEMA_NAMESPACE_PARAMETER = "schemaNamespace";
+    public static final String SCHEMA_NAME_PARAMETER = "schemaName";
+    public static final String SCHEMA_VERSION_PARAMETER = "schemaVersion";
+    public static final String CREATED_ON_OR_AFTER_PARAMETER = "createdOnOrAfter";
+    public static final String CREATED_BEFORE_PARAMETER = "createdBefore";
+
+    @Autowired
+    private DataPointService dataPointService;
+
+    @Autowired
+    private DataPointChangeService changeService;
+
+    @Override
+    public String getJobType() {
+        return JOB_TYPE;
+    }
+
+    @Override
+    public long runBatch(MaintenanceJob job, int batchSize) {
+
+        if (Boolean.parseBoolean(job.getParameters().get(PURGE_PARAMETER))) {
+            long deletedCount = dataPointService.deleteByUserId(job.getUserId(), batchSize);
+
+            if (deletedCount == 0) {
+                changeService.recordPurge(job.getUserId());
+            }
+
+            return deletedCount;
+        }
+
+        DataPointSearchCriteria searchCriteria = newSearchCriteria(job);
+
+        long deletedCount = dataPointService.deleteBySearchCriteria(searchCriteria, batchSize);
+
+        // the deletion is recorded as a single change once it completes, rather than one change per data point
+        if (deletedCount == 0) {
+            changeService.recordDeletion(searchCriteria);
+        }
+
+        return deletedCount;
+    }
+
+    /**
+     * @param searchCriteria search criteria, whose creation timestamp range, if any, must be closed below and open
+     * above
+     * @return the job parameters that represent the search criteria
+     */
+    static Map<String, String> newParameters(DataPointSearchCriteria searchCriteria) {
+
+        Map<String, String> parameters = new HashMap<>();
+
+        parameters.put(SCHEMA_NAMESPACE_PARAMETER, searchCriteria.getSchemaNamespace());
+        parameters.put(SCHEMA_NAME_PARAMETER, searchCriteria.getSchemaName());
+        parameters.put(SCHEMA_VERSION_PARAMETER, searchCriteria.getSchemaVersion().toString());
+
+        if (searchCriteria.getCreationTimestampRange().isPresent()) {
+            Range<OffsetDateTime> range = searchCriteria.getCreationTimestampRange().get();
+
+            if (range.hasLowerBound()) {
+                checkArgument(range.lowerBoundType() == CLOSED);
+                parameters.put(CREATED_ON_OR_AFTER_PARAMETER, range.lowerEndpoint().toString());
+            }
+
+            if (range.hasUpperBound()) {
+                checkArgument(range.upperBoundType() == OPEN);
+                parameters.put(CREATED_BEFORE_PARAMETER, range.upperEndpoint().toString());
+            }
+        }
+
+        return parameters;
+    }
+
+    static DataPointSearchCriteria newSearchCriteria(MaintenanceJob job) {
+
+        Map<String, String> parameters = job.getParameters();
+
+        DataPointSearchCriteria searchCriteria = new DataPointSearchCriteria(job.getUserId(),
+                parameters.get(SCHEMA_NAMESPACE_PARAMETER), parameters.get(SCHEMA_NAME_PARAMETER),
+                parameters.get(SCHEMA_VERSION_PARAMETER));
+
+        OffsetDateTime createdOnOrAfter = parseTimestamp(parameters.get(CREATED_ON_OR_AFTER_PARAMETER));
+        OffsetDateTime createdBefore = parseTimestamp(parameters.get(CREATED_BEFORE_PARAMETER));
+
+        if (createdOnOrAfter != null && createdBefore != null) {
+            searchCriteria.setCreationTimestampRange(Range.closedOpen(createdOnOrAfter, createdBefore));
+        }
+        else if (createdOnOrAfter != null) {
+            searchCriteria.setCreationTimestampRange(Range.atLeast(createdOnOrAfter));
+        }
+        else if (createdBefore != null) {
+            searchCriteria.setCreationTimestampRange(Range.lessThan(createdBefore));
+        }
+
+        return searchCriteria;
+    }
+
+    private static OffsetDateTime parseTimestamp(String timestamp) {
+
+        return timestamp == null ? null : OffsetDateTime.parse(timestamp);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.dsu.domain.MaintenanceJob;
+
+import java.util.Optional;
+
+
+/**
+ * A service that queues the deletion of data points as maintenance jobs.
+ *
+ * @author Emerson Farrugia
+ */
+public interface DataPointDeletionService {
+
+    /**
+     * Queues the deletion of the data points that match search criteria.
+     *
+     * @param searchCriteria the search criteria, whose creation timestamp range, if any, must be closed below and
+     * open above
+     * @return the queued job
+     */
+    MaintenanceJob createJob(DataPointSearchCriteria searchCriteria);
+
+    /**
+     * Queues the deletion of all the data points of a user.
+     *
+     * @param userId the identifier of the user
+     * @return the queued job
+     */
+    MaintenanceJob createPurgeJob(String userId);
+
+    Optional<MaintenanceJob> findJob(String jobId, String userId);
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import com.google.common.collect.ImmutableMap;
+import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.dsu.domain.MaintenanceJob;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.openmhealth.dsu.service.DataPointDeletionJobHandler.JOB_TYPE;
+import static org.openmhealth.dsu.service.DataPointDeletionJobHandler.PURGE_PARAMETER;
+import static org.openmhealth.dsu.service.DataPointDeletionJobHandler.newParameters;
+
+
+/**
+ * A data point deletion service that runs deletions as maintenance jobs, which are throttled against the latency of
+ * foreground requests.
+ *
+ * @author Emerson Farrugia
+ * @see DataPointDeletionJobHandler
+ */
+@Service
+public class DataPointDeletionServiceImpl implements DataPointDeletionService {
+
+    @Autowired
+    private MaintenanceJobService jobService;
+
+    @Override
+    public MaintenanceJob createJob(DataPointSearchCriteria searchCriteria) {
+
+        checkNotNull(searchCriteria);
+
+        return jobService.createJob(JOB_TYPE, searchCriteria.getUserId(), newParameters(searchCriteria));
+    }
+
+    @Override
+    public MaintenanceJob createPurgeJob(String userId) {
+
+        checkNotNull(userId);
+        checkArgument(!userId.isEmpty());
+
+        return jobService.createJob(JOB_TYPE, userId, ImmutableMap.of(PURGE_PARAMETER, "true"));
+    }
+
+    @Override
+    public Optional<MaintenanceJob> findJob(String jobId, String userId) {
+
+        checkNotNull(jobId);
+        checkNotNull(userId);
+
+        // jobs belonging to other users are indistinguishable from missing jobs
+        return jobService.findJob(jobId)
+                .filter(job -> job.getType().equals(JOB_TYPE) && userId.equals(job.getUserId()));
+    }
+}
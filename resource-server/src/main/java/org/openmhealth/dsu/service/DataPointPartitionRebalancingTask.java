@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.dsu.repository.PartitionedDataPointRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * A task that periodically moves data points to the partitions their users are assigned to, while partitions are
+ * joining or leaving.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConditionalOnExpression("'${dataStore}' == 'mongo' and ${dataPointPartitions.enabled:false}")
+public class DataPointPartitionRebalancingTask {
+
+    private static final Logger log = LoggerFactory.getLogger(DataPointPartitionRebalancingTask.class);
+
+    @Autowired
+    private PartitionedDataPointRepository repository;
+
+    @Scheduled(fixedDelay = 60_000)
+    public void rebalance() {
+
+        int examinedDataPointCount;
+
+        do {
+            examinedDataPointCount = repository.rebalance();
+
+            log.debug("{} data points have been examined for rebalancing.", examinedDataPointCount);
+        }
+        while (examinedDataPointCount > 0);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
+
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * A processor that derives data points from data points as they're saved, e.g. step counts from raw accelerometer
+ * readings. Processors are discovered as beans, and are run by a {@link DataPointProcessorDispatcher}.
+ * <p>
+ * A processor is passed the data points of a user one at a time, in the order in which they were saved, and is never
+ * called concurrently for the same user, so the state it keeps for a user needn't be thread-safe. That state is only
+ * held in memory, and is discarded once the user has been idle for a while, so it should be limited to a small window
+ * of recent data points.
+ *
+ * @param <S> the type of the state kept for each user
+ * @author Emerson Farrugia
+ */
+public interface DataPointProcessor<S> {
+
+    /**
+     * @return the name of the processor, which must be unique and is used to name its metrics
+     */
+    String getName();
+
+    /**
+     * @return the schemas of the data points to process
+     */
+    Set<SchemaId> getSchemaIds();
+
+    /**
+     * @param userId the identifier of the user
+     * @return the initial state of a user
+     */
+    S createState(String userId);
+
+    /**
+     * Processes a saved data point.
+     *
+     * @param dataPoint the saved data point
+     * @param state the state of the user who owns the data point, which the processor may update
+     * @return the derived data points to save, which must belong to the same user
+     */
+    List<DataPoint> process(DataPoint dataPoint, S state);
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.openmhealth.dsu.configuration.DataPointProcessingProperties;
+import org.openmhealth.dsu.domain.DataPointsSavedEvent;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+
+/**
+ * A dispatcher that runs the {@link DataPointProcessor} beans on saved data points. Each user is assigned to one of a
+ * fixed number of lanes, each with a bounded queue and a single worker thread, so the data points of a user are
+ * processed in order, and a slow user only holds up the users in the same lane.
+ * <p>
+ * A write waits a short while for room in a full queue, which slows down clients that write faster than the data points
+ * can be processed, and its data points are dropped for processing if the queue stays full. A processor that throws is
+ * isolated from the others: its state for the user is discarded, and once it has failed repeatedly it is suspended for
+ * a while. Derived data points are saved through the data point service, so they can be processed in turn.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+public class DataPointProcessorDispatcher
+        implements ApplicationListener<DataPointsSavedEvent>, PublicMetrics, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(DataPointProcessorDispatcher.class);
+
+    @Autowired
+    private DataPointService dataPointService;
+
+    @Autowired
+    private DataPointProcessingProperties properties;
+
+    @Autowired(required = false)
+    private List<DataPointProcessor<?>> processors = Collections.emptyList();
+
+    // derived data points are saved on lane threads, which mustn't wait for room in a queue that may be their own
+    private final ThreadLocal<Boolean> onLaneThread = ThreadLocal.withInitial(() -> false);
+
+    private final List<ProcessorRunner<?>> runners = new ArrayList<>();
+    private final List<Lane> lanes = new ArrayList<>();
+    private final LongAdder droppedDataPointCount = new LongAdder();
+
+    @PostConstruct
+    public void startLanes() {
+
+        Set<String> names = new HashSet<>();
+
+        for (DataPointProcessor<?> processor : processors) {
+            checkState(names.add(processor.getName()), "The processor name '%s' isn't unique.", processor.getName());
+            runners.add(new ProcessorRunner<>(processor));
+        }
+
+        if (runners.isEmpty()) {
+            return;
+        }
+
+        ThreadFactory threadFactory =
+                new ThreadFactoryBuilder().setNameFormat("data-point-processor-%d").setDaemon(true).build();
+
+        for (int i = 0; i < properties.getLaneCount(); i++) {
+            Lane lane = new Lane(properties.getLaneQueueSize());
+
+            lanes.add(lane);
+            threadFactory.newThread(lane).start();
+        }
+
+        log.info("{} data point processor(s) will run in {} lane(s).", runners.size(), lanes.size());
+    }
+
+    @Override
+    public void onApplicationEvent(DataPointsSavedEvent event) {
+
+        if (runners.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<DataPoint>> dataPointsByUser = new LinkedHashMap<>();
+
+        for (DataPoint dataPoint : event.getDataPoints()) {
+            if (runners.stream().anyMatch(runner -> runner.subscribesTo(dataPoint))) {
+                dataPointsByUser
+                        .computeIfAbsent(dataPoint.getHeader().getUserId(), userId -> new ArrayList<>())
+                        .add(dataPoint);
+            }
+        }
+
+        dataPointsByUser.forEach(this::enqueue);
+    }
+
+    private void enqueue(String userId, List<DataPoint> dataPoints) {
+
+        Lane lane = lanes.get(Math.floorMod(userId.hashCode(), lanes.size()));
+        Batch batch = new Batch(userId, dataPoints);
+
+        boolean queued;
+
+        try {
+            queued = onLaneThread.get()
+                    ? lane.queue.offer(batch)
+                    : lane.queue.offer(batch, properties.getMaximumEnqueueWaitInMillis(), MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+
+        if (!queued) {
+            droppedDataPointCount.add(dataPoints.size());
+            log.debug("{} data point(s) of user '{}' have been dropped for processing.", dataPoints.size(), userId);
+        }
+    }
+
+    private void process(Batch batch) {
+
+        for (DataPoint dataPoint : batch.dataPoints) {
+            for (ProcessorRunner<?> runner : runners) {
+                if (runner.subscribesTo(dataPoint)) {
+                    runner.process(batch.userId, dataPoint);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        metrics.add(new Metric<>("dataPointProcessors.queued",
+                lanes.stream().mapToInt(lane -> lane.queue.size()).sum()));
+        metrics.add(new Metric<>("dataPointProcessors.dropped", droppedDataPointCount.sum()));
+
+        for (ProcessorRunner<?> runner : runners) {
+
+            String prefix = "dataPointProcessors." + runner.processor.getName();
+
+            metrics.add(new Metric<>(prefix + ".processed", runner.processedCount.sum()));
+            metrics.add(new Metric<>(prefix + ".emitted", runner.emittedCount.sum()));
+            metrics.add(new Metric<>(prefix + ".failed", runner.failedCount.sum()));
+            metrics.add(new Metric<>(prefix + ".skipped", runner.skippedCount.sum()));
+            metrics.add(new Metric<>(prefix + ".processingTimeInMillis",
+                    NANOSECONDS.toMillis(runner.processingTimeInNanos.sum())));
+        }
+
+        return metrics;
+    }
+
+    @Override
+    public void destroy() {
+
+        for (Lane lane : lanes) {
+            lane.stop();
+        }
+    }
+
+    private static class Batch {
+
+        private final String userId;
+        private final List<DataPoint> dataPoints;
+
+        Batch(String userId, List<DataPoint> dataPoints) {
+
+            this.userId = userId;
+            this.dataPoints = dataPoints;
+        }
+    }
+
+    private class Lane implements Runnable {
+
+        private final BlockingQueue<Batch> queue;
+        private volatile Thread thread;
+
+        Lane(int queueSize) {
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        @Override
+        public void run() {
+
+            thread = Thread.currentThread();
+            onLaneThread.set(true);
+
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    process(queue.take());
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (!queue.isEmpty()) {
+                log.warn("{} batch(es) of data points haven't been processed on shutdown.", queue.size());
+            }
+        }
+
+        void stop() {
+
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    private class ProcessorRunner<S> {
+
+        private final DataPointProcessor<S> processor;
+        private final Set<SchemaId> schemaIds;
+        private final Cache<String, S> states;
+        private final AtomicInteger consecutiveFailureCount = new AtomicInteger();
+        private volatile long suspendedUntil;
+        private final LongAdder processedCount = new LongAdder();
+        private final LongAdder emittedCount = new LongAdder();
+        private final LongAdder failedCount = new LongAdder();
+        private final LongAdder skippedCount = new LongAdder();
+        private final LongAdder processingTimeInNanos = new LongAdder();
+
+        ProcessorRunner(DataPointProcessor<S> processor) {
+
+            this.processor = processor;
+            this.schemaIds = new HashSet<>(processor.getSchemaIds());
+            this.states = CacheBuilder.newBuilder()
+                    .maximumSize(properties.getMaximumStateCount())
+                    .expireAfterAccess(properties.getStateExpiryInMinutes(), MINUTES)
+                    .build();
+        }
+
+        boolean subscribesTo(DataPoint dataPoint) {
+            return schemaIds.contains(dataPoint.getHeader().getSchemaId());
+        }
+
+        void process(String userId, DataPoint dataPoint) {
+
+            if (System.currentTimeMillis() < suspendedUntil) {
+                skippedCount.increment();
+                return;
+            }
+
+            long startTime = System.nanoTime();
+
+            try {
+                List<DataPoint> derivedDataPoints =
+                        processor.process(dataPoint, states.get(userId, () -> processor.createState(userId)));
+
+                for (DataPoint derivedDataPoint : derivedDataPoints) {
+                    checkArgument(userId.equals(derivedDataPoint.getHeader().getUserId()),
+                            "A derived data point belongs to a different user.");
+                }
+
+                if (!derivedDataPoints.isEmpty()) {
+                    dataPointService.save(derivedDataPoints);
+                    emittedCount.add(derivedDataPoints.size());
+                }
+
+                processedCount.increment();
+                consecutiveFailureCount.set(0);
+            }
+            catch (ExecutionException | RuntimeException e) {
+                onFailure(userId, dataPoint, e);
+            }
+            finally {
+                processingTimeInNanos.add(System.nanoTime() - startTime);
+            }
+        }
+
+        private void onFailure(String userId, DataPoint dataPoint, Exception e) {
+
+            failedCount.increment();
+
+            // the state may have been left half updated
+            states.invalidate(userId);
+
+            if (consecutiveFailureCount.incrementAndGet() < properties.getMaximumConsecutiveFailureCount()) {
+                log.warn("The data point processor '{}' has failed to process data point '{}'.", processor.getName(),
+                        dataPoint.getHeader().getId(), e);
+                return;
+            }
+
+            consecutiveFailureCount.set(0);
+            suspendedUntil = System.currentTimeMillis() + SECONDS.toMillis(properties.getSuspensionInSeconds());
+
+            log.error("The data point processor '{}' has been suspended for {} seconds after {} consecutive failures.",
+                    processor.getName(), properties.getSuspensionInSeconds(),
+                    properties.getMaximumConsecutiveFailureCount(), e);
+        }
+    }
+}
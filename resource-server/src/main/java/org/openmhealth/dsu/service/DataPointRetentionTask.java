@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.dsu.configuration.DataPointCollectionProperties;
+import org.openmhealth.dsu.repository.DataPointRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.OffsetDateTime;
+
+
+/**
+ * A task that periodically deletes data points that have outlived their retention period.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+public class DataPointRetentionTask {
+
+    @Autowired
+    private DataPointRepository repository;
+
+    @Autowired
+    private DataPointCollectionProperties properties;
+
+    @Scheduled(fixedDelay = 3_600_000)
+    public void deleteExpiredDataPoints() {
+
+        if (properties.getRetentionInDays() <= 0) {
+            return;
+        }
+
+        repository.deleteByCreationTimestampBefore(OffsetDateTime.now().minusDays(properties.getRetentionInDays()));
+    }
+}
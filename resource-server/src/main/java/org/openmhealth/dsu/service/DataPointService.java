@@ -16,11 +16,17 @@
 
 package org.openmhealth.dsu.service;
 
+import org.openmhealth.dsu.domain.DataPointChangePage;
+import org.openmhealth.dsu.domain.DataPointChangeToken;
+import org.openmhealth.dsu.domain.DataPointExportToken;
 import org.openmhealth.dsu.domain.DataPointSearchCriteria;
 import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
 
 import javax.annotation.Nullable;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.BiConsumer;
 
 
 /**
@@ -32,16 +38,93 @@ public interface DataPointService {
 
     boolean exists(String id);
 
+    /**
+     * Checks whether a data point saved on behalf of a user would clash with an existing data point. Identifiers are
+     * unique across users and partitions, so every partition is checked, along with the archived data points of the
+     * user.
+     *
+     * @param id the identifier of a data point
+     * @param userId the identifier of the user the data point would be saved on behalf of
+     * @return true if a data point with the identifier exists
+     */
+    boolean existsForUserId(String id, String userId);
+
     Optional<DataPoint> findOne(String id);
 
+    /**
+     * Reads a data point on behalf of a user. The owner is part of the query, so a data point owned by another user
+     * is never read.
+     *
+     * @param id the identifier of the data point
+     * @param userId the identifier of the user who must own the data point
+     * @return the data point, if it exists and is owned by the user
+     */
+    Optional<DataPoint> findByIdAndUserId(String id, String userId);
+
     Iterable<DataPoint> findBySearchCriteria(DataPointSearchCriteria searchCriteria, @Nullable Integer offset,
             @Nullable Integer limit);
 
+    /**
+     * Reads all the data points of a user, e.g. to export them. Data points stored one to a document are read first,
+     * in identifier order, then bucketed data points, then archived data points. Each data point is passed along with
+     * the token to resume after it, which names the store it was read from. Since data points only ever move into the
+     * archive, which is read last, a data point that is archived while an export is interrupted is still read once it
+     * resumes, although it may be read twice.
+     *
+     * @param userId the identifier of the user
+     * @param schemaId the schema of the data points to read, or null to read data points of every schema
+     * @param after the token of the last data point read by an interrupted export, which resumes with the data point
+     * that followed it in the same store, or null to start with the first data point
+     * @param consumer the consumer to pass the data points and their tokens to as they're read
+     */
+    void exportByUserId(String userId, @Nullable SchemaId schemaId, @Nullable DataPointExportToken after,
+            BiConsumer<DataPointExportToken, DataPoint> consumer);
+
+    /**
+     * Reads the changes to the data points of a user that follow a token. Saved data points are read along with their
+     * changes, except those that have since been deleted or archived.
+     *
+     * @param userId the identifier of the user
+     * @param token the token returned with the last page of changes read, or null to get a token that marks the
+     * current state of the data points without reading any changes
+     * @param limit the maximum number of changes to read
+     * @return the changes, or an empty optional if the token has expired
+     */
+    Optional<DataPointChangePage> findChanges(String userId, @Nullable DataPointChangeToken token, int limit);
+
     DataPoint save(DataPoint dataPoint);
 
     Iterable<DataPoint> save(Iterable<DataPoint> dataPoints);
 
+    /**
+     * Inserts data points in bulk, skipping any whose identifiers already exist.
+     *
+     * @param dataPoints the data points to insert
+     * @return the data points that were inserted
+     */
+    List<DataPoint> insert(List<DataPoint> dataPoints);
+
     void delete(String id);
 
     Long deleteByIdAndUserId(String id, String userId);
+
+    /**
+     * Deletes a batch of the data points that match search criteria. Archived data points are only deleted once no
+     * matching data points are left in MongoDB.
+     *
+     * @param searchCriteria the search criteria
+     * @param batchSize the approximate number of data points to delete
+     * @return the number of data points deleted, which is zero once no matching data points are left
+     */
+    long deleteBySearchCriteria(DataPointSearchCriteria searchCriteria, int batchSize);
+
+    /**
+     * Deletes a batch of the data points of a user, across all schemas. Archived data points are only deleted once
+     * the user has no data points left in MongoDB.
+     *
+     * @param userId the identifier of the user
+     * @param batchSize the approximate number of data points to delete
+     * @return the number of data points deleted, which is zero once the user has no data points left
+     */
+    long deleteByUserId(String userId, int batchSize);
 }
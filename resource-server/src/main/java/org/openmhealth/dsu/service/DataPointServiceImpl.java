@@ -16,21 +16,58 @@
 
 package org.openmhealth.dsu.service;
 
+import org.openmhealth.dsu.configuration.DataPointBucketProperties;
+import org.openmhealth.dsu.configuration.DataPointChangeProperties;
+import org.openmhealth.dsu.domain.DataPointChange;
+import org.openmhealth.dsu.domain.DataPointChangePage;
+import org.openmhealth.dsu.domain.DataPointChangeToken;
+import org.openmhealth.dsu.domain.DataPointExportToken;
+import org.openmhealth.dsu.domain.DataPointExportToken.Store;
 import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.dsu.domain.DataPointsSavedEvent;
+import org.openmhealth.dsu.repository.DataPointArchive;
+import org.openmhealth.dsu.repository.DataPointBucketRepository;
+import org.openmhealth.dsu.repository.DataPointEventLog;
 import org.openmhealth.dsu.repository.DataPointRepository;
 import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Nullable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.partitioningBy;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
+import static org.openmhealth.dsu.domain.DataPointChange.Operation.SAVE;
+import static org.openmhealth.dsu.domain.DataPointExportToken.Store.ARCHIVE;
+import static org.openmhealth.dsu.domain.DataPointExportToken.Store.BUCKETS;
+import static org.openmhealth.dsu.domain.DataPointExportToken.Store.DOCUMENTS;
 
 
 /**
+ * A data point service that stores the data points of bucketed schemas in buckets, and all other data points one to a
+ * document. Lookups by identifier can't tell which layout holds a data point, so they try both. If data points are
+ * archived, searches and deletes also cover the archive, but lookups by identifier alone don't, although a data point
+ * can't be saved with the identifier of an archived data point of the same user. Every write is recorded as a change
+ * once it has been made, except bulk deletions, which are recorded by the jobs that run them once they complete. Saved
+ * data points are also published as a {@link DataPointsSavedEvent}, and if the event log is enabled, every save and
+ * deletion of a data point by its identifier is appended to it.
+ *
  * @author Emerson Farrugia
  */
 @Service
@@ -39,6 +76,27 @@ public class DataPointServiceImpl implements DataPointService {
     @Autowired
     private DataPointRepository repository;
 
+    @Autowired
+    private DataPointBucketRepository bucketRepository;
+
+    @Autowired
+    private DataPointBucketProperties bucketProperties;
+
+    @Autowired(required = false)
+    private DataPointArchive archive;
+
+    @Autowired
+    private DataPointChangeService changeService;
+
+    @Autowired
+    private DataPointChangeProperties changeProperties;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired(required = false)
+    private DataPointEventLog eventLog;
+
     @Override
     @Transactional(readOnly = true)
     public boolean exists(String id) {
@@ -46,7 +104,21 @@ public class DataPointServiceImpl implements DataPointService {
         checkNotNull(id);
         checkArgument(!id.isEmpty());
 
-        return repository.exists(id);
+        return repository.exists(id) || bucketRepository.exists(id);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public boolean existsForUserId(String id, String userId) {
+
+        checkNotNull(id);
+        checkArgument(!id.isEmpty());
+        checkNotNull(userId);
+        checkArgument(!userId.isEmpty());
+
+        // an archived data point is only deleted from MongoDB, so its identifier would otherwise be free to reuse, and
+        // the data point written with it would be mistaken for the archived one when it's archived in turn
+        return exists(id) || (archive != null && archive.existsByIdAndUserId(id, userId));
     }
 
     @Override
@@ -56,7 +128,31 @@ public class DataPointServiceImpl implements DataPointService {
         checkNotNull(id);
         checkArgument(!id.isEmpty());
 
-        return repository.findOne(id);
+        Optional<DataPoint> dataPoint = repository.findOne(id);
+
+        if (!dataPoint.isPresent()) {
+            dataPoint = bucketRepository.findOne(id);
+        }
+
+        return dataPoint;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<DataPoint> findByIdAndUserId(String id, String userId) {
+
+        checkNotNull(id);
+        checkArgument(!id.isEmpty());
+        checkNotNull(userId);
+        checkArgument(!userId.isEmpty());
+
+        Optional<DataPoint> dataPoint = repository.findByIdAndHeaderUserId(id, userId);
+
+        if (!dataPoint.isPresent()) {
+            dataPoint = bucketRepository.findByIdAndUserId(id, userId);
+        }
+
+        return dataPoint;
     }
 
     @Override
@@ -68,7 +164,150 @@ public class DataPointServiceImpl implements DataPointService {
         checkArgument(offset == null || offset >= 0);
         checkArgument(limit == null || limit >= 0);
 
-        return repository.findBySearchCriteria(searchCriteria, offset, limit);
+        if (bucketProperties.isBucketed(searchCriteria.getSchemaNamespace(), searchCriteria.getSchemaName())) {
+            return bucketRepository.findBySearchCriteria(searchCriteria, offset, limit);
+        }
+
+        if (archive == null) {
+            return repository.findBySearchCriteria(searchCriteria, offset, limit);
+        }
+
+        // archived data points are older, so they come first
+        List<DataPoint> dataPoints = new ArrayList<>(archive.findBySearchCriteria(searchCriteria, offset, limit));
+
+        if (limit != null && dataPoints.size() == limit) {
+            return dataPoints;
+        }
+
+        Integer repositoryOffset = null;
+
+        if (offset != null && offset > 0) {
+            repositoryOffset = dataPoints.isEmpty()
+                    ? (int) Math.max(0, offset - archive.countBySearchCriteria(searchCriteria))
+                    : 0;
+        }
+
+        Integer repositoryLimit = (limit == null) ? null : limit - dataPoints.size();
+
+        repository.findBySearchCriteria(searchCriteria, repositoryOffset, repositoryLimit).forEach(dataPoints::add);
+
+        return dataPoints;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void exportByUserId(String userId, @Nullable SchemaId schemaId, @Nullable DataPointExportToken after,
+            BiConsumer<DataPointExportToken, DataPoint> consumer) {
+
+        checkNotNull(userId);
+        checkArgument(!userId.isEmpty());
+        checkNotNull(consumer);
+
+        boolean bucketed = schemaId != null && bucketProperties.isBucketed(schemaId);
+
+        // the stores that precede the one the export resumes in have already been read in full, and those that follow
+        // it haven't been read at all, wherever the data point it resumes after has moved to since
+        Store resumedStore = (after == null) ? DOCUMENTS : after.getStore();
+
+        if (!bucketed && resumedStore == DOCUMENTS) {
+            try (CloseableIterator<DataPoint> dataPoints =
+                    repository.streamByHeaderUserId(userId, schemaId, getAfterId(after, DOCUMENTS))) {
+
+                export(dataPoints, DOCUMENTS, consumer);
+            }
+        }
+
+        if ((bucketed || schemaId == null) && resumedStore != ARCHIVE) {
+            try (CloseableIterator<DataPoint> dataPoints =
+                    bucketRepository.streamByUserId(userId, schemaId, getAfterId(after, BUCKETS))) {
+
+                export(dataPoints, BUCKETS, consumer);
+            }
+        }
+
+        if (!bucketed && archive != null) {
+            try (CloseableIterator<DataPoint> dataPoints =
+                    archive.streamByUserId(userId, schemaId, getAfterId(after, ARCHIVE))) {
+
+                export(dataPoints, ARCHIVE, consumer);
+            }
+        }
+    }
+
+    @Nullable
+    private String getAfterId(@Nullable DataPointExportToken after, Store store) {
+
+        return (after != null && after.getStore() == store) ? after.getDataPointId() : null;
+    }
+
+    private void export(CloseableIterator<DataPoint> dataPoints, Store store,
+            BiConsumer<DataPointExportToken, DataPoint> consumer) {
+
+        dataPoints.forEachRemaining(dataPoint ->
+                consumer.accept(new DataPointExportToken(store, dataPoint.getHeader().getId()), dataPoint));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<DataPointChangePage> findChanges(String userId, @Nullable DataPointChangeToken token, int limit) {
+
+        checkNotNull(userId);
+        checkArgument(!userId.isEmpty());
+        checkArgument(limit > 0);
+
+        DataPointChangePage page = new DataPointChangePage();
+
+        if (token == null) {
+            page.setNextToken(new DataPointChangeToken(changeService.findLastSequence(userId), Instant.now())
+                    .toString());
+            return Optional.of(page);
+        }
+
+        if (changeService.isExpired(token)) {
+            return Optional.empty();
+        }
+
+        int pageSize = Math.min(limit, changeProperties.getMaximumPageSize());
+
+        List<DataPointChange> changes = changeService.findChanges(userId, token.getSequence(), pageSize);
+
+        // the saved data points are read in bulk, and those that can no longer be found are left out
+        Set<String> savedIds = changes.stream()
+                .filter(change -> change.getOperation() == SAVE)
+                .map(DataPointChange::getDataPointId)
+                .collect(toSet());
+
+        Map<String, DataPoint> savedDataPoints = findByIdIn(savedIds).stream()
+                .filter(dataPoint -> dataPoint.getHeader().getUserId().equals(userId))
+                .collect(toMap(dataPoint -> dataPoint.getHeader().getId(), identity(), (first, second) -> first));
+
+        for (DataPointChange change : changes) {
+            if (change.getOperation() != SAVE) {
+                page.getChanges().add(change);
+            }
+            else if (savedDataPoints.containsKey(change.getDataPointId())) {
+                change.setDataPoint(savedDataPoints.get(change.getDataPointId()));
+                page.getChanges().add(change);
+            }
+        }
+
+        long lastSequence = changes.isEmpty() ? token.getSequence() : changes.get(changes.size() - 1).getSequence();
+
+        page.setNextToken(new DataPointChangeToken(lastSequence, Instant.now()).toString());
+        page.setMoreAvailable(changes.size() == pageSize);
+
+        return Optional.of(page);
+    }
+
+    private List<DataPoint> findByIdIn(Set<String> ids) {
+
+        List<DataPoint> dataPoints = new ArrayList<>(repository.findByIdIn(ids));
+
+        if (dataPoints.size() < ids.size()) {
+            dataPoints.addAll(bucketRepository.findByIdIn(ids));
+        }
+
+        return dataPoints;
     }
 
     @Override
@@ -77,7 +316,16 @@ public class DataPointServiceImpl implements DataPointService {
 
         checkNotNull(dataPoint);
 
-        return repository.save(dataPoint);
+        if (isBucketed(dataPoint)) {
+            bucketRepository.insert(Collections.singletonList(dataPoint));
+        }
+        else {
+            repository.save(dataPoint);
+        }
+
+        onSaved(Collections.singletonList(dataPoint));
+
+        return dataPoint;
     }
 
     @Override
@@ -86,7 +334,57 @@ public class DataPointServiceImpl implements DataPointService {
 
         checkNotNull(dataPoints);
 
-        return repository.save(dataPoints);
+        List<DataPoint> savedDataPoints = new ArrayList<>();
+        List<DataPoint> bucketedDataPoints = new ArrayList<>();
+
+        for (DataPoint dataPoint : dataPoints) {
+            (isBucketed(dataPoint) ? bucketedDataPoints : savedDataPoints).add(dataPoint);
+        }
+
+        repository.save(savedDataPoints);
+        bucketRepository.insert(bucketedDataPoints);
+
+        savedDataPoints.addAll(bucketedDataPoints);
+
+        onSaved(savedDataPoints);
+
+        return savedDataPoints;
+    }
+
+    @Override
+    @Transactional
+    public List<DataPoint> insert(List<DataPoint> dataPoints) {
+
+        checkNotNull(dataPoints);
+
+        Map<Boolean, List<DataPoint>> dataPointsByBucketing =
+                dataPoints.stream().collect(partitioningBy(this::isBucketed));
+
+        List<DataPoint> insertedDataPoints = new ArrayList<>(repository.insert(dataPointsByBucketing.get(false)));
+        insertedDataPoints.addAll(bucketRepository.insert(dataPointsByBucketing.get(true)));
+
+        // skipped data points were recorded when they were first inserted
+        onSaved(insertedDataPoints);
+
+        return insertedDataPoints;
+    }
+
+    /**
+     * Records saved data points as changes, appends them to the event log and publishes them to subscribers.
+     */
+    private void onSaved(List<DataPoint> dataPoints) {
+
+        if (dataPoints.isEmpty()) {
+            return;
+        }
+
+        changeService.recordSaves(dataPoints);
+
+        if (eventLog != null) {
+            eventLog.appendSaves(dataPoints);
+        }
+
+        eventPublisher.publishEvent(new DataPointsSavedEvent(this, dataPoints));
     }
 
     @Override
@@ -96,7 +394,25 @@ public class DataPointServiceImpl implements DataPointService {
         checkNotNull(id);
         checkArgument(!id.isEmpty());
 
+        // the owner of the data point is needed to record its deletion
+        Optional<DataPoint> dataPoint = findOne(id);
+
         repository.delete(id);
+        bucketRepository.delete(id);
+
+        dataPoint.ifPresent(deletedDataPoint -> onDeleted(deletedDataPoint.getHeader().getUserId(), id));
+    }
+
+    /**
+     * Records a deleted data point as a change and appends it to the event log.
+     */
+    private void onDeleted(String userId, String id) {
+
+        changeService.recordDeletion(userId, id);
+
+        if (eventLog != null) {
+            eventLog.appendDeletion(userId, id);
+        }
     }
 
     @Override
@@ -108,6 +424,74 @@ public class DataPointServiceImpl implements DataPointService {
         checkNotNull(userId);
         checkArgument(!userId.isEmpty());
 
-        return repository.deleteByIdAndHeaderUserId(id, userId);
+        Long dataPointsDeleted = repository.deleteByIdAndHeaderUserId(id, userId);
+
+        if (dataPointsDeleted == 0) {
+            dataPointsDeleted = bucketRepository.deleteByIdAndUserId(id, userId);
+        }
+
+        if (dataPointsDeleted == 0 && archive != null) {
+            dataPointsDeleted = archive.deleteByIdAndUserId(id, userId);
+        }
+
+        if (dataPointsDeleted > 0) {
+            onDeleted(userId, id);
+        }
+
+        return dataPointsDeleted;
+    }
+
+    @Override
+    @Transactional
+    public long deleteBySearchCriteria(DataPointSearchCriteria searchCriteria, int batchSize) {
+
+        checkNotNull(searchCriteria);
+        checkArgument(batchSize > 0);
+
+        if (bucketProperties.isBucketed(searchCriteria.getSchemaNamespace(), searchCriteria.getSchemaName())) {
+            return bucketRepository.deleteBySearchCriteria(searchCriteria, getBucketBatchSize(batchSize));
+        }
+
+        long deletedCount = repository.deleteBySearchCriteria(searchCriteria, batchSize);
+
+        if (deletedCount == 0 && archive != null) {
+            deletedCount = archive.deleteBySearchCriteria(searchCriteria);
+        }
+
+        return deletedCount;
+    }
+
+    @Override
+    @Transactional
+    public long deleteByUserId(String userId, int batchSize) {
+
+        checkNotNull(userId);
+        checkArgument(!userId.isEmpty());
+        checkArgument(batchSize > 0);
+
+        long deletedCount = repository.deleteByHeaderUserId(userId, batchSize);
+
+        if (deletedCount == 0) {
+            deletedCount = bucketRepository.deleteByUserId(userId, getBucketBatchSize(batchSize));
+        }
+
+        if (deletedCount == 0 && archive != null) {
+            deletedCount = archive.deleteByUserId(userId);
+        }
+
+        return deletedCount;
+    }
+
+    /**
+     * @return the number of buckets that hold about as many data points as a batch
+     */
+    private int getBucketBatchSize(int batchSize) {
+
+        return Math.max(1, batchSize / bucketProperties.getMaximumBucketSize());
+    }
+
+    private boolean isBucketed(DataPoint dataPoint) {
+
+        return bucketProperties.isBucketed(dataPoint.getHeader().getSchemaId());
     }
 }
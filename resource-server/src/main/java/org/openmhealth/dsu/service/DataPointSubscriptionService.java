@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.Nullable;
+import java.util.Optional;
+
+
+/**
+ * A service that pushes newly saved data points to subscribers as server-sent events.
+ *
+ * @author Emerson Farrugia
+ */
+public interface DataPointSubscriptionService {
+
+    String DATA_POINT_EVENT_NAME = "dataPoint";
+    String DROPPED_EVENT_NAME = "dropped";
+
+    /**
+     * Subscribes to the data points of a user. Each saved data point is sent as a '{@value #DATA_POINT_EVENT_NAME}'
+     * event. If a subscriber falls too far behind, data points are dropped, and the number dropped is sent as a
+     * '{@value #DROPPED_EVENT_NAME}' event, after which the subscriber can catch up using the change feed.
+     *
+     * @param userId the identifier of the user
+     * @param schemaId the schema of the data points to send, or null to send data points of every schema
+     * @return the emitter to return from the request, or an empty optional if there are too many subscriptions
+     */
+    Optional<SseEmitter> subscribe(String userId, @Nullable SchemaId schemaId);
+}
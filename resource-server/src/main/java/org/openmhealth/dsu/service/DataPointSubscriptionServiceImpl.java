@@ -0,0 +1,285 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.openmhealth.dsu.configuration.DataPointSubscriptionProperties;
+import org.openmhealth.dsu.domain.DataPointsSavedEvent;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.ApplicationListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+
+/**
+ * A data point subscription service that fans saved data points out to the subscribers of their users. Publishing
+ * never blocks on a subscriber: each subscriber has a bounded buffer that data points are added to, and a small pool
+ * of threads sends them on, one subscriber at a time. A subscriber that doesn't keep up has data points dropped
+ * instead of holding up the others. Idle subscriptions only hold an asynchronous request, not a thread.
+ *
+ * @author Emerson Farrugia
+ */
+@Service
+public class DataPointSubscriptionServiceImpl implements DataPointSubscriptionService,
+        ApplicationListener<DataPointsSavedEvent>, PublicMetrics, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(DataPointSubscriptionServiceImpl.class);
+
+    @Autowired
+    private DataPointSubscriptionProperties properties;
+
+    private final Map<String, Set<Subscription>> subscriptionsByUser = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriptionCount = new AtomicInteger();
+    private final LongAdder sentDataPointCount = new LongAdder();
+    private final LongAdder droppedDataPointCount = new LongAdder();
+    private ExecutorService executorService;
+
+    @PostConstruct
+    public void initializeExecutorService() {
+
+        executorService = Executors.newFixedThreadPool(properties.getSenderThreadCount(),
+                new ThreadFactoryBuilder().setNameFormat("data-point-subscription-%d").setDaemon(true).build());
+    }
+
+    @Override
+    public Optional<SseEmitter> subscribe(String userId, @Nullable SchemaId schemaId) {
+
+        checkNotNull(userId);
+
+        if (subscriptionCount.incrementAndGet() > properties.getMaximumSubscriptionCount()) {
+            subscriptionCount.decrementAndGet();
+            return Optional.empty();
+        }
+
+        SseEmitter emitter = createEmitter(MINUTES.toMillis(properties.getTimeoutInMinutes()));
+        Subscription subscription = new Subscription(userId, schemaId, emitter, properties.getBufferSize());
+
+        subscriptionsByUser.compute(userId, (key, subscriptions) -> {
+
+            if (subscriptions == null) {
+                subscriptions = ConcurrentHashMap.newKeySet();
+            }
+
+            subscriptions.add(subscription);
+            return subscriptions;
+        });
+
+        // the request completes when the subscription times out, when the client goes away, or on an error
+        emitter.onCompletion(() -> unsubscribe(subscription));
+
+        return Optional.of(emitter);
+    }
+
+    /**
+     * Creates the emitter of a subscription. Tests override this, since an emitter can't be sent to without a request.
+     */
+    SseEmitter createEmitter(long timeoutInMillis) {
+        return new SseEmitter(timeoutInMillis);
+    }
+
+    private void unsubscribe(Subscription subscription) {
+
+        subscriptionsByUser.computeIfPresent(subscription.userId, (key, subscriptions) -> {
+
+            if (subscriptions.remove(subscription)) {
+                subscriptionCount.decrementAndGet();
+            }
+
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+    }
+
+    @Override
+    public void onApplicationEvent(DataPointsSavedEvent event) {
+
+        for (DataPoint dataPoint : event.getDataPoints()) {
+
+            Set<Subscription> subscriptions = subscriptionsByUser.get(dataPoint.getHeader().getUserId());
+
+            if (subscriptions == null) {
+                continue;
+            }
+
+            for (Subscription subscription : subscriptions) {
+                if (subscription.matches(dataPoint)) {
+                    subscription.offer(dataPoint);
+                    scheduleSend(subscription);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a comment to every subscriber, which keeps idle connections open through proxies and detects clients
+     * that have gone away.
+     */
+    @Scheduled(fixedDelay = 30_000)
+    public void sendHeartbeats() {
+
+        for (Set<Subscription> subscriptions : subscriptionsByUser.values()) {
+            for (Subscription subscription : subscriptions) {
+                subscription.heartbeatDue.set(true);
+                scheduleSend(subscription);
+            }
+        }
+    }
+
+    private void scheduleSend(Subscription subscription) {
+
+        // a subscription is only ever sent to by one thread at a time, since emitters aren't thread-safe
+        if (subscription.sending.compareAndSet(false, true)) {
+            try {
+                executorService.execute(() -> send(subscription));
+            }
+            catch (RejectedExecutionException e) {
+                // the server is shutting down, which mustn't fail the write that published the data points
+                subscription.sending.set(false);
+            }
+        }
+    }
+
+    private void send(Subscription subscription) {
+
+        try {
+            if (subscription.heartbeatDue.getAndSet(false)) {
+                subscription.emitter.send(SseEmitter.event().comment(""));
+            }
+
+            DataPoint dataPoint;
+
+            while ((dataPoint = subscription.buffer.poll()) != null) {
+
+                subscription.emitter.send(SseEmitter.event()
+                        .id(dataPoint.getHeader().getId())
+                        .name(DATA_POINT_EVENT_NAME)
+                        .data(dataPoint, APPLICATION_JSON));
+
+                sentDataPointCount.increment();
+            }
+
+            // data points are dropped while the buffer is full, i.e. after the ones that have just been sent
+            long droppedCount = subscription.droppedCount.getAndSet(0);
+
+            if (droppedCount > 0) {
+                subscription.emitter.send(SseEmitter.event().name(DROPPED_EVENT_NAME).data(droppedCount));
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            log.debug("A data point subscription of user '{}' has been closed.", subscription.userId, e);
+
+            unsubscribe(subscription);
+            subscription.emitter.completeWithError(e);
+            return;
+        }
+        finally {
+            subscription.sending.set(false);
+        }
+
+        // data points added after the buffer was drained but before the flag was cleared would otherwise wait for the
+        // next data point
+        if (!subscription.buffer.isEmpty() || subscription.droppedCount.get() > 0 || subscription.heartbeatDue.get()) {
+            scheduleSend(subscription);
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        metrics.add(new Metric<>("dataPointSubscriptions.count", subscriptionCount.get()));
+        metrics.add(new Metric<>("dataPointSubscriptions.sent", sentDataPointCount.sum()));
+        metrics.add(new Metric<>("dataPointSubscriptions.dropped", droppedDataPointCount.sum()));
+
+        return metrics;
+    }
+
+    @Override
+    public void destroy() {
+
+        executorService.shutdownNow();
+
+        for (Set<Subscription> subscriptions : subscriptionsByUser.values()) {
+            subscriptions.forEach(subscription -> subscription.emitter.complete());
+        }
+    }
+
+    private class Subscription {
+
+        private final String userId;
+        private final SchemaId schemaId;
+        private final SseEmitter emitter;
+        private final Queue<DataPoint> buffer;
+        private final AtomicLong droppedCount = new AtomicLong();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private final AtomicBoolean heartbeatDue = new AtomicBoolean();
+
+        Subscription(String userId, @Nullable SchemaId schemaId, SseEmitter emitter, int bufferSize) {
+
+            this.userId = userId;
+            this.schemaId = schemaId;
+            this.emitter = emitter;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        boolean matches(DataPoint dataPoint) {
+
+            return schemaId == null || schemaId.equals(dataPoint.getHeader().getSchemaId());
+        }
+
+        void offer(DataPoint dataPoint) {
+
+            if (!buffer.offer(dataPoint)) {
+                droppedCount.incrementAndGet();
+                droppedDataPointCount.increment();
+            }
+        }
+    }
+}
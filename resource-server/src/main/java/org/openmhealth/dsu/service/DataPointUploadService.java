@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.dsu.domain.DataPointUploadException;
+import org.openmhealth.dsu.domain.DataPointUploadSession;
+import org.openmhealth.schema.domain.omh.DataPoint;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Optional;
+
+
+/**
+ * A service that manages resumable uploads of data points.
+ *
+ * @author Emerson Farrugia
+ */
+public interface DataPointUploadService {
+
+    DataPointUploadSession createSession(String userId);
+
+    Optional<DataPointUploadSession> findSession(String sessionId, String userId);
+
+    /**
+     * Writes a chunk of newline-delimited JSON data points to an upload session. The chunk is read and checked in full
+     * before its data points are inserted in batches, so nothing is inserted from a chunk that is rejected, and the
+     * chunk is only acknowledged once all of its data points have been persisted. If the chunk is interrupted while
+     * it's being inserted, the data points inserted so far are skipped as duplicates when it's retried, and aren't
+     * included in the data point count of the session. Writing a chunk that has already been acknowledged has no
+     * effect.
+     *
+     * @param session the session to write to
+     * @param chunkNumber the zero-based number of the chunk
+     * @param chunk the uncompressed contents of the chunk
+     * @return the updated session
+     * @throws DataPointUploadException if the chunk can't be written
+     */
+    DataPointUploadSession writeChunk(DataPointUploadSession session, int chunkNumber, InputStream chunk)
+            throws IOException;
+
+    DataPointUploadSession commitSession(DataPointUploadSession session);
+
+    /**
+     * Reads newline-delimited JSON data points without inserting them, e.g. from a message on a stream.
+     *
+     * @param reader the reader of the data points
+     * @param userId the identifier of the user to set as the owner of the data points
+     * @return the data points
+     * @throws DataPointUploadException if a data point is malformed
+     */
+    List<DataPoint> readDataPoints(BufferedReader reader, String userId) throws IOException;
+}
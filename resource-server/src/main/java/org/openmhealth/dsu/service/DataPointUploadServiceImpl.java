@@ -0,0 +1,238 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.openmhealth.dsu.configuration.DataPointUploadProperties;
+import org.openmhealth.dsu.domain.DataPointUploadException;
+import org.openmhealth.dsu.domain.DataPointUploadSession;
+import org.openmhealth.dsu.repository.DataPointUploadSessionRepository;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static org.openmhealth.dsu.domain.DataPointHeaders.setUserId;
+import static org.openmhealth.dsu.domain.DataPointUploadException.Reason.*;
+import static org.openmhealth.dsu.domain.DataPointUploadSession.Status.COMMITTED;
+import static org.openmhealth.dsu.domain.DataPointUploadSession.Status.OPEN;
+
+
+/**
+ * @author Emerson Farrugia
+ */
+@Service
+public class DataPointUploadServiceImpl implements DataPointUploadService {
+
+    @Autowired
+    private DataPointUploadSessionRepository repository;
+
+    @Autowired
+    private DataPointService dataPointService;
+
+    @Autowired
+    private DataPointUploadProperties properties;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Validator validator;
+
+    @Override
+    @Transactional
+    public DataPointUploadSession createSession(String userId) {
+
+        checkNotNull(userId);
+        checkArgument(!userId.isEmpty());
+
+        DataPointUploadSession session = new DataPointUploadSession();
+
+        session.setId(UUID.randomUUID().toString());
+        session.setUserId(userId);
+        session.setCreationTimestamp(OffsetDateTime.now());
+
+        return touchAndSave(session);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<DataPointUploadSession> findSession(String sessionId, String userId) {
+
+        checkNotNull(sessionId);
+        checkNotNull(userId);
+
+        // sessions belonging to other users are indistinguishable from missing sessions
+        return repository.findOne(sessionId).filter(session -> session.getUserId().equals(userId));
+    }
+
+    @Override
+    @Transactional
+    public DataPointUploadSession writeChunk(DataPointUploadSession session, int chunkNumber, InputStream chunk)
+            throws IOException {
+
+        checkNotNull(session);
+        checkArgument(chunkNumber >= 0);
+        checkNotNull(chunk);
+
+        // a repeated chunk has already been persisted, so it's acknowledged again without reading it
+        if (chunkNumber < session.getAcknowledgedChunkCount()) {
+            return session;
+        }
+
+        if (session.getStatus() != OPEN) {
+            throw new DataPointUploadException(SESSION_NOT_OPEN,
+                    format("The upload session '%s' has been committed.", session.getId()));
+        }
+
+        if (chunkNumber > session.getAcknowledgedChunkCount()) {
+            throw new DataPointUploadException(CHUNK_OUT_OF_ORDER,
+                    format("Chunk %d can't be written to upload session '%s' before chunk %d.",
+                            chunkNumber, session.getId(), session.getAcknowledgedChunkCount()));
+        }
+
+        // the chunk is read in full before any of it is inserted, so that none of a chunk that is too large or
+        // malformed is inserted, and reading one byte past the limit is enough to tell that it's too large
+        byte[] chunkBytes = ByteStreams.toByteArray(ByteStreams.limit(chunk, properties.getMaximumChunkSize() + 1));
+
+        if (chunkBytes.length > properties.getMaximumChunkSize()) {
+            throw new DataPointUploadException(CHUNK_TOO_LARGE,
+                    format("Chunks can't be larger than %d bytes.", properties.getMaximumChunkSize()));
+        }
+
+        List<DataPoint> dataPoints = readDataPoints(
+                new BufferedReader(new InputStreamReader(new ByteArrayInputStream(chunkBytes), UTF_8)),
+                session.getUserId());
+
+        long insertedCount = insertDataPoints(dataPoints);
+
+        session.setAcknowledgedChunkCount(chunkNumber + 1);
+        session.setAcknowledgedByteCount(session.getAcknowledgedByteCount() + chunkBytes.length);
+        session.setDataPointCount(session.getDataPointCount() + insertedCount);
+
+        return touchAndSave(session);
+    }
+
+    /**
+     * Inserts the data points of a chunk in batches. If the chunk is interrupted, the data points inserted so far are
+     * skipped as duplicates when the chunk is retried, so they aren't counted.
+     *
+     * @return the number of data points inserted
+     */
+    private long insertDataPoints(List<DataPoint> dataPoints) {
+
+        long insertedCount = 0;
+
+        for (List<DataPoint> batch : Lists.partition(dataPoints, properties.getInsertBatchSize())) {
+            insertedCount += dataPointService.insert(batch).size();
+        }
+
+        return insertedCount;
+    }
+
+    private DataPoint readDataPoint(String line, long lineNumber, String userId) {
+
+        DataPoint dataPoint;
+
+        try {
+            dataPoint = objectMapper.readValue(line, DataPoint.class);
+        }
+        catch (JsonProcessingException e) {
+            throw new DataPointUploadException(MALFORMED_DATA_POINT,
+                    format("The data point on line %d isn't valid JSON.", lineNumber), e);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (dataPoint == null || dataPoint.getHeader() == null || !validator.validate(dataPoint).isEmpty()) {
+            throw new DataPointUploadException(MALFORMED_DATA_POINT,
+                    format("The data point on line %d isn't valid.", lineNumber));
+        }
+
+        // set the owner of the data point to be the user associated with the access token
+        setUserId(dataPoint.getHeader(), userId);
+
+        return dataPoint;
+    }
+
+    @Override
+    public List<DataPoint> readDataPoints(BufferedReader reader, String userId) throws IOException {
+
+        checkNotNull(reader);
+        checkNotNull(userId);
+
+        List<DataPoint> dataPoints = new ArrayList<>();
+        long lineNumber = 0;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+
+            if (!line.trim().isEmpty()) {
+                dataPoints.add(readDataPoint(line, lineNumber, userId));
+            }
+        }
+
+        return dataPoints;
+    }
+
+    @Override
+    @Transactional
+    public DataPointUploadSession commitSession(DataPointUploadSession session) {
+
+        checkNotNull(session);
+
+        if (session.getStatus() == COMMITTED) {
+            return session;
+        }
+
+        session.setStatus(COMMITTED);
+
+        return touchAndSave(session);
+    }
+
+    private DataPointUploadSession touchAndSave(DataPointUploadSession session) {
+
+        session.setModificationTimestamp(OffsetDateTime.now());
+        session.setExpirationTimestamp(
+                new Date(System.currentTimeMillis() + HOURS.toMillis(properties.getSessionExpiryInHours())));
+
+        return repository.save(session);
+    }
+}
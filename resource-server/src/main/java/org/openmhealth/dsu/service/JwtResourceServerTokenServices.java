@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.dsu.token.KeyRotatingJwtAccessTokenConverter;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
+
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * Resource server token services that authenticate requests using signed access tokens. A token is verified and
+ * decoded locally, so neither the token store nor the authorization server is on the path of a request. Revoked tokens
+ * are rejected once the revocation list of this server has been synchronized.
+ *
+ * @author Emerson Farrugia
+ */
+public class JwtResourceServerTokenServices implements ResourceServerTokenServices {
+
+    private final KeyRotatingJwtAccessTokenConverter accessTokenConverter;
+
+    public JwtResourceServerTokenServices(KeyRotatingJwtAccessTokenConverter accessTokenConverter) {
+
+        checkNotNull(accessTokenConverter);
+
+        this.accessTokenConverter = accessTokenConverter;
+    }
+
+    @Override
+    public OAuth2Authentication loadAuthentication(String accessTokenValue)
+            throws AuthenticationException, InvalidTokenException {
+
+        checkNotNull(accessTokenValue);
+
+        // the claims are only verified once, and are used to read both the token and its authentication
+        Map<String, Object> claims = accessTokenConverter.decode(accessTokenValue);
+        OAuth2AccessToken accessToken = accessTokenConverter.extractAccessToken(accessTokenValue, claims);
+
+        if (accessTokenConverter.isRefreshToken(accessToken)) {
+            throw new InvalidTokenException("Encoded token is a refresh token");
+        }
+
+        if (accessToken.isExpired()) {
+            throw new InvalidTokenException("Access token expired: " + accessTokenValue);
+        }
+
+        return accessTokenConverter.extractAuthentication(claims);
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(String accessTokenValue) {
+
+        checkNotNull(accessTokenValue);
+
+        try {
+            return accessTokenConverter.extractAccessToken(accessTokenValue,
+                    accessTokenConverter.decode(accessTokenValue));
+        }
+        catch (InvalidTokenException e) {
+            return null;
+        }
+    }
+}
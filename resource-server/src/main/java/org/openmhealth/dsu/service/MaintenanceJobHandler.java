@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.dsu.domain.MaintenanceJob;
+
+
+/**
+ * A handler that runs maintenance jobs of a certain type, one batch at a time. A handler is registered by declaring
+ * it as a bean.
+ *
+ * @author Emerson Farrugia
+ */
+public interface MaintenanceJobHandler {
+
+    /**
+     * @return the type of the jobs this handler runs
+     */
+    String getJobType();
+
+    /**
+     * Runs a batch of a job. If the handler can't tell what's left to do from the state of storage alone, it records
+     * where to resume in the checkpoint of the job, which is saved once the batch returns. A batch may be repeated
+     * if its server fails before the checkpoint is saved, so it must be safe to repeat.
+     *
+     * @param job the job
+     * @param batchSize the approximate number of operations to perform
+     * @return the number of operations performed, which is zero once the job is complete
+     */
+    long runBatch(MaintenanceJob job, int batchSize);
+}
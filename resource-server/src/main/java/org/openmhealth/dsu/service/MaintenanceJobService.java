@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.dsu.domain.MaintenanceJob;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+
+/**
+ * A service that manages background maintenance jobs.
+ *
+ * @author Emerson Farrugia
+ */
+public interface MaintenanceJobService {
+
+    /**
+     * Queues a job.
+     *
+     * @param jobType the type of the job, which must have a handler
+     * @param userId the identifier of the user the job is created on behalf of, if any
+     * @param parameters the parameters of the job
+     * @return the queued job
+     */
+    MaintenanceJob createJob(String jobType, @Nullable String userId, Map<String, String> parameters);
+
+    Optional<MaintenanceJob> findJob(String jobId);
+
+    /**
+     * @return the jobs that are queued or running, oldest first
+     */
+    List<MaintenanceJob> findActiveJobs();
+
+    /**
+     * @return the jobs that have most recently completed or failed
+     */
+    List<MaintenanceJob> findRecentlyFinishedJobs();
+
+    /**
+     * Leases and runs jobs until there are none left that aren't leased by other servers.
+     */
+    void runJobs();
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.dsu.configuration.MaintenanceJobProperties;
+import org.openmhealth.dsu.domain.MaintenanceJob;
+import org.openmhealth.dsu.domain.MaintenanceJob.Status;
+import org.openmhealth.dsu.repository.MaintenanceJobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.lang.management.ManagementFactory;
+import java.time.OffsetDateTime;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.openmhealth.dsu.domain.MaintenanceJob.Status.*;
+
+
+/**
+ * A maintenance job service that runs one job at a time per server. A server leases a job before running it, renews
+ * the lease with every checkpoint, and stops as soon as it finds that its lease has been taken over. Between batches,
+ * a job pauses for as long as the {@link MaintenanceThrottle} asks it to, so that it yields to foreground requests.
+ * A job whose batch fails with a data access exception is left to be retried once its lease expires, and a job whose
+ * batch fails with any other exception is marked as failed.
+ *
+ * @author Emerson Farrugia
+ */
+@Service
+public class MaintenanceJobServiceImpl implements MaintenanceJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(MaintenanceJobServiceImpl.class);
+
+    @Autowired
+    private MaintenanceJobRepository repository;
+
+    @Autowired
+    private MaintenanceJobProperties properties;
+
+    @Autowired
+    private MaintenanceThrottle throttle;
+
+    @Autowired(required = false)
+    private List<MaintenanceJobHandler> handlers;
+
+    private final Map<String, MaintenanceJobHandler> handlersByJobType = new HashMap<>();
+
+    // the process name usually identifies the host, and the suffix tells apart processes that reuse an identifier
+    private final String serverId =
+            ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+
+    @PostConstruct
+    public void registerHandlers() {
+
+        if (handlers == null) {
+            return;
+        }
+
+        for (MaintenanceJobHandler handler : handlers) {
+            checkArgument(handlersByJobType.putIfAbsent(handler.getJobType(), handler) == null,
+                    "There is more than one handler for maintenance jobs of type '%s'.", handler.getJobType());
+        }
+    }
+
+    @Override
+    public MaintenanceJob createJob(String jobType, @Nullable String userId, Map<String, String> parameters) {
+
+        checkNotNull(jobType);
+        checkArgument(handlersByJobType.containsKey(jobType));
+        checkNotNull(parameters);
+
+        MaintenanceJob job = new MaintenanceJob();
+
+        job.setId(UUID.randomUUID().toString());
+        job.setType(jobType);
+        job.setUserId(userId);
+        job.setParameters(new HashMap<>(parameters));
+        job.setCreationTimestamp(OffsetDateTime.now());
+        job.setModificationTimestamp(job.getCreationTimestamp());
+
+        return repository.save(job);
+    }
+
+    @Override
+    public Optional<MaintenanceJob> findJob(String jobId) {
+
+        checkNotNull(jobId);
+
+        return repository.findOne(jobId);
+    }
+
+    @Override
+    public List<MaintenanceJob> findActiveJobs() {
+
+        return repository.findByStatusInOrderByCreationTimestampAsc(asList(QUEUED, RUNNING));
+    }
+
+    @Override
+    public List<MaintenanceJob> findRecentlyFinishedJobs() {
+
+        return repository.findTop20ByStatusInOrderByModificationTimestampDesc(asList(COMPLETED, FAILED));
+    }
+
+    @Override
+    public void runJobs() {
+
+        while (!Thread.currentThread().isInterrupted()) {
+
+            Optional<MaintenanceJob> job = repository.acquireLease(serverId, getLeaseDurationInMillis());
+
+            if (!job.isPresent()) {
+                return;
+            }
+
+            runJob(job.get());
+        }
+    }
+
+    private void runJob(MaintenanceJob job) {
+
+        MaintenanceJobHandler handler = handlersByJobType.get(job.getType());
+
+        if (handler == null) {
+            log.error("The maintenance job '{}' can't be run, since there's no handler for jobs of type '{}'.",
+                    job.getId(), job.getType());
+
+            finish(job, FAILED, "There's no handler for jobs of type '" + job.getType() + "'.");
+            return;
+        }
+
+        log.info("The maintenance job '{}' of type '{}' has been started on server '{}'.", job.getId(),
+                job.getType(), serverId);
+
+        try {
+            while (true) {
+
+                long batchStartTime = System.nanoTime();
+                long operationCount = handler.runBatch(job, properties.getBatchSize());
+                long batchDuration = System.nanoTime() - batchStartTime;
+
+                job.setProcessedCount(job.getProcessedCount() + operationCount);
+
+                if (operationCount == 0) {
+                    finish(job, COMPLETED, null);
+
+                    log.info("The maintenance job '{}' has completed after {} operations.", job.getId(),
+                            job.getProcessedCount());
+                    return;
+                }
+
+                job.setModificationTimestamp(OffsetDateTime.now());
+
+                if (!repository.saveCheckpoint(job, getLeaseDurationInMillis())) {
+                    log.warn("The maintenance job '{}' has been taken over by another server.", job.getId());
+                    return;
+                }
+
+                // the pause is capped so that the lease can't expire while the job is paused
+                long pause = Math.min(throttle.getPause(operationCount, batchDuration),
+                        MILLISECONDS.toNanos(getLeaseDurationInMillis() / 2));
+
+                if (!pause(pause)) {
+                    // another server can resume the job without waiting for the lease to expire
+                    repository.releaseLease(job);
+                    return;
+                }
+            }
+        }
+        catch (DataAccessException e) {
+            log.warn("The maintenance job '{}' has been interrupted, and will be resumed once its lease expires.",
+                    job.getId(), e);
+        }
+        catch (RuntimeException e) {
+            log.error("The maintenance job '{}' has failed.", job.getId(), e);
+
+            finish(job, FAILED, e.getMessage());
+        }
+    }
+
+    private void finish(MaintenanceJob job, Status status, @Nullable String failureMessage) {
+
+        OffsetDateTime now = OffsetDateTime.now();
+
+        job.setStatus(status);
+        job.setFailureMessage(failureMessage);
+        job.setModificationTimestamp(now);
+        job.setCompletionTimestamp(now);
+        job.setExpirationTimestamp(new Date(System.currentTimeMillis()
+                + DAYS.toMillis(properties.getFinishedJobRetentionInDays())));
+
+        repository.saveCheckpoint(job, getLeaseDurationInMillis());
+    }
+
+    /**
+     * @return false if the thread was interrupted while pausing
+     */
+    private boolean pause(long duration) {
+
+        if (duration <= 0) {
+            return true;
+        }
+
+        try {
+            NANOSECONDS.sleep(duration);
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private long getLeaseDurationInMillis() {
+
+        return SECONDS.toMillis(properties.getLeaseDurationInSeconds());
+    }
+}
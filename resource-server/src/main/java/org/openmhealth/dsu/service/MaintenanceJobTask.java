@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * A task that periodically runs queued maintenance jobs, and takes over jobs whose leases have expired.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+public class MaintenanceJobTask {
+
+    @Autowired
+    private MaintenanceJobService jobService;
+
+    @Scheduled(fixedDelay = 10_000)
+    public void runMaintenanceJobs() {
+
+        jobService.runJobs();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * A throttle that paces maintenance work to an operation rate. The rate starts at its maximum, is halved whenever the
+ * foreground latency exceeds its budget, and otherwise recovers by a tenth of the maximum per batch, so maintenance
+ * work backs off quickly when it hurts requests and ramps up gradually once it stops. All durations are in
+ * nanoseconds.
+ *
+ * @author Emerson Farrugia
+ */
+public class MaintenanceThrottle {
+
+    private static final double BACKOFF_RATIO = 0.5;
+    private static final double RECOVERY_RATIO = 0.1;
+
+    private final double maximumRate;
+    private final double minimumRate;
+    private final long latencyBudget;
+    private final LongSupplier latencySupplier;
+
+    private double rate;
+    private long backoffCount;
+
+    /**
+     * @param maximumRate the highest number of operations per second
+     * @param minimumRate the lowest number of operations per second, which work is never slowed below
+     * @param latencyBudget the foreground latency above which the rate backs off, or zero to only pace to the maximum
+     * rate
+     * @param latencySupplier the current foreground latency
+     */
+    public MaintenanceThrottle(double maximumRate, double minimumRate, long latencyBudget,
+            LongSupplier latencySupplier) {
+
+        checkArgument(minimumRate > 0);
+        checkArgument(maximumRate >= minimumRate);
+        checkArgument(latencyBudget >= 0);
+        checkNotNull(latencySupplier);
+
+        this.maximumRate = maximumRate;
+        this.minimumRate = minimumRate;
+        this.latencyBudget = latencyBudget;
+        this.latencySupplier = latencySupplier;
+        this.rate = maximumRate;
+    }
+
+    /**
+     * Adjusts the rate to the current foreground latency, and determines how long to pause after a batch.
+     *
+     * @param operationCount the number of operations in the batch
+     * @param batchDuration how long the batch took
+     * @return how long to pause before the next batch, so that the batch and the pause together take as long as its
+     * operations are allowed to at the current rate
+     */
+    public synchronized long getPause(long operationCount, long batchDuration) {
+
+        checkArgument(operationCount >= 0);
+
+        if (latencyBudget > 0 && latencySupplier.getAsLong() > latencyBudget) {
+            rate = Math.max(minimumRate, rate * BACKOFF_RATIO);
+            backoffCount++;
+        }
+        else {
+            rate = Math.min(maximumRate, rate + maximumRate * RECOVERY_RATIO);
+        }
+
+        return Math.max(0, (long) (operationCount * 1_000_000_000L / rate) - batchDuration);
+    }
+
+    /**
+     * @return the current number of operations per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the number of times the rate has backed off
+     */
+    public synchronized long getBackoffCount() {
+        return backoffCount;
+    }
+
+    /**
+     * @return the current foreground latency
+     */
+    public long getLatency() {
+        return latencySupplier.getAsLong();
+    }
+
+    public long getLatencyBudget() {
+        return latencyBudget;
+    }
+}
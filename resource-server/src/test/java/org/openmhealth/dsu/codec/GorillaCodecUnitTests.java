@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.codec;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * A suite of unit tests for the Gorilla codec.
+ *
+ * @author Emerson Farrugia
+ */
+public class GorillaCodecUnitTests {
+
+    private final BitWriter writer = new BitWriter(16);
+
+    @Test
+    public void regularTimestampsShouldCostOneBitEach() {
+
+        long[] timestamps = new long[1000];
+
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = 1433152800000L + i * 40; // 25 Hz
+        }
+
+        GorillaCodec.encodeTimestamps(timestamps, timestamps.length, writer);
+
+        // the first timestamp and the first delta
+        assertThat(writer.getBitLength(), lessThan(64 + 16 + timestamps.length));
+        assertArrayEquals(timestamps, decodeTimestamps(timestamps.length));
+    }
+
+    @Test
+    public void irregularTimestampsShouldRoundTrip() {
+
+        Random random = new Random(0);
+        long[] timestamps = new long[1000];
+
+        for (int i = 1; i < timestamps.length; i++) {
+            int scale = new int[]{10, 100, 1000, 100000, Integer.MAX_VALUE}[random.nextInt(5)];
+            timestamps[i] = timestamps[i - 1] + random.nextInt(scale) - scale / 4;
+        }
+
+        GorillaCodec.encodeTimestamps(timestamps, timestamps.length, writer);
+
+        assertArrayEquals(timestamps, decodeTimestamps(timestamps.length));
+    }
+
+    @Test
+    public void valuesShouldRoundTripExactly() {
+
+        Random random = new Random(0);
+        double[] values = new double[1000];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 10 == 0 ? random.nextDouble() * 1e6 : Math.sin(i / 10.0) * 9.81;
+        }
+
+        values[1] = Double.NaN;
+        values[2] = -0.0;
+        values[3] = Double.POSITIVE_INFINITY;
+        values[4] = Double.MIN_VALUE;
+
+        GorillaCodec.encodeValues(values, values.length, writer);
+
+        double[] decodedValues = decodeValues(values.length);
+
+        for (int i = 0; i < values.length; i++) {
+            assertThat(Double.doubleToRawLongBits(decodedValues[i]), equalTo(Double.doubleToRawLongBits(values[i])));
+        }
+    }
+
+    @Test
+    public void repeatedValuesShouldCostOneBitEach() {
+
+        double[] values = new double[1000];
+        Arrays.fill(values, 9.81);
+
+        GorillaCodec.encodeValues(values, values.length, writer);
+
+        assertThat(writer.getBitLength(), equalTo(64 + values.length - 1));
+        assertArrayEquals(values, decodeValues(values.length), 0.0);
+    }
+
+    private long[] decodeTimestamps(int length) {
+
+        long[] timestamps = new long[length];
+        GorillaCodec.decodeTimestamps(new BitReader(writer.toByteArray()), timestamps, length);
+
+        return timestamps;
+    }
+
+    private double[] decodeValues(int length) {
+
+        double[] values = new double[length];
+        GorillaCodec.decodeValues(new BitReader(writer.toByteArray()), values, length);
+
+        return values;
+    }
+}
@@ -40,6 +40,8 @@ import org.springframework.web.context.WebApplicationContext;
 import java.util.Optional;
 
 import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.openmhealth.dsu.factory.DataPointFactory.newDataPointBuilder;
@@ -76,7 +78,7 @@ public class DataPointControllerIntegrationTests {
 
             DataPointService mockService = Mockito.mock(DataPointService.class);
 
-            when(mockService.findOne(UNRECOGNIZED_DATA_POINT_ID)).thenReturn(Optional.empty());
+            when(mockService.findByIdAndUserId(eq(UNRECOGNIZED_DATA_POINT_ID), anyString())).thenReturn(Optional.empty());
 
             return mockService;
         }
@@ -128,7 +130,7 @@ public class DataPointControllerIntegrationTests {
         DataPoint dataPoint = newDataPointBuilder().setBody(newKcalBurnedBody()).build();
         DataPointHeader header = dataPoint.getHeader();
 
-        when(mockDataPointService.findOne(dataPoint.getHeader().getId())).thenReturn(Optional.of(dataPoint));
+        when(mockDataPointService.findByIdAndUserId(eq(header.getId()), anyString())).thenReturn(Optional.of(dataPoint));
 
         mockMvc.perform(
                 get(CONTROLLER_URI + "/" + dataPoint.getHeader().getId())
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openmhealth.dsu.configuration.DataPointStreamProperties;
+import org.openmhealth.dsu.domain.DataPointUploadException;
+import org.openmhealth.dsu.service.DataPointService;
+import org.openmhealth.dsu.service.DataPointUploadService;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openmhealth.dsu.controller.DataPointStreamHandshakeInterceptor.ACCESS_TOKEN_EXPIRATION_ATTRIBUTE;
+import static org.openmhealth.dsu.controller.DataPointStreamHandshakeInterceptor.USER_ID_ATTRIBUTE;
+import static org.openmhealth.dsu.domain.DataPointUploadException.Reason.MALFORMED_DATA_POINT;
+import static org.openmhealth.dsu.factory.DataPointFactory.TEST_USER_ID;
+import static org.openmhealth.dsu.factory.DataPointFactory.newDataPointBuilder;
+
+
+/**
+ * A suite of unit tests for the data point stream handler, covering when batches are flushed and acknowledged, and
+ * when streams are closed.
+ *
+ * @author Emerson Farrugia
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DataPointStreamHandlerUnitTests {
+
+    // each line of a message other than this one is read as a data point
+    private static final String MALFORMED_LINE = "{";
+
+    @Mock
+    private DataPointService dataPointService;
+
+    @Mock
+    private DataPointUploadService uploadService;
+
+    @Spy
+    private DataPointStreamProperties properties = new DataPointStreamProperties();
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    @Mock
+    private WebSocketSession session;
+
+    @InjectMocks
+    private DataPointStreamHandler handler;
+
+    private Map<String, Object> sessionAttributes = new HashMap<>();
+    private List<String> sentMessages = new CopyOnWriteArrayList<>();
+
+
+    @Before
+    public void initialiseFixture() throws IOException {
+
+        when(session.getId()).thenReturn("test");
+        sessionAttributes.put(USER_ID_ATTRIBUTE, TEST_USER_ID);
+        when(session.getAttributes()).thenReturn(sessionAttributes);
+        when(session.isOpen()).thenReturn(true);
+
+        doAnswer(invocation -> {
+            sentMessages.add(((TextMessage) invocation.getArguments()[0]).getPayload());
+            return null;
+        }).when(session).sendMessage(any(WebSocketMessage.class));
+
+        when(uploadService.readDataPoints(any(BufferedReader.class), eq(TEST_USER_ID))).then(invocation -> {
+
+            BufferedReader reader = (BufferedReader) invocation.getArguments()[0];
+            List<DataPoint> dataPoints = new ArrayList<>();
+
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.equals(MALFORMED_LINE)) {
+                    throw new DataPointUploadException(MALFORMED_DATA_POINT, "A data point is malformed.");
+                }
+
+                dataPoints.add(newDataPointBuilder().build());
+            }
+
+            return dataPoints;
+        });
+
+        // batches are only flushed late when a test asks for it
+        properties.setMaximumBatchDelayInMillis(60000);
+    }
+
+    @After
+    public void shutDownHandler() {
+
+        handler.destroy();
+    }
+
+    @Test
+    public void afterConnectionEstablishedShouldSendWindow() throws Exception {
+
+        properties.setWindowSize(4);
+
+        openStream();
+
+        assertThat(sentMessages, contains("{\"window\":4}"));
+    }
+
+    @Test
+    public void handleTextMessageShouldFlushWhenBatchIsFull() throws Exception {
+
+        properties.setInsertBatchSize(2);
+
+        openStream();
+
+        handler.handleTextMessage(session, new TextMessage("{}"));
+        verify(dataPointService, never()).insert(anyListOf(DataPoint.class));
+
+        handler.handleTextMessage(session, new TextMessage("{}\n{}"));
+
+        ArgumentCaptor<List> batchCaptor = ArgumentCaptor.forClass(List.class);
+        verify(dataPointService, times(2)).insert(batchCaptor.capture());
+
+        // the batch is inserted in parts no larger than the insert batch size
+        assertThat(batchCaptor.getAllValues().get(0), hasSize(2));
+        assertThat(batchCaptor.getAllValues().get(1), hasSize(1));
+        assertThat(sentMessages.get(sentMessages.size() - 1), equalTo("{\"acknowledged\":2}"));
+    }
+
+    @Test
+    public void handleTextMessageShouldFlushWhenWindowIsReached() throws Exception {
+
+        properties.setWindowSize(2);
+
+        openStream();
+
+        handler.handleTextMessage(session, new TextMessage("{}"));
+        assertThat(sentMessages, hasSize(1));
+
+        handler.handleTextMessage(session, new TextMessage("{}"));
+
+        verify(dataPointService).insert(anyListOf(DataPoint.class));
+        assertThat(sentMessages, contains("{\"window\":2}", "{\"acknowledged\":2}"));
+    }
+
+    @Test
+    public void handleTextMessageShouldFlushLateWhenBatchHasWaitedLongEnough() throws Exception {
+
+        properties.setMaximumBatchDelayInMillis(10);
+
+        openStream();
+
+        handler.handleTextMessage(session, new TextMessage("{}"));
+
+        awaitSentMessage("{\"acknowledged\":1}");
+        verify(dataPointService).insert(anyListOf(DataPoint.class));
+    }
+
+    @Test
+    public void handleTextMessageShouldCloseStreamWhenWindowIsExceeded() throws Exception {
+
+        properties.setWindowSize(1);
+        when(dataPointService.insert(anyListOf(DataPoint.class)))
+                .thenThrow(new DataAccessResourceFailureException("The database is down."));
+
+        openStream();
+
+        // the batch can't be inserted, so the message isn't acknowledged
+        handler.handleTextMessage(session, new TextMessage("{}"));
+        verify(session).close(CloseStatus.SERVER_ERROR);
+
+        // a client that keeps sending regardless exceeds the window
+        handler.handleTextMessage(session, new TextMessage("{}"));
+
+        assertThat(getCloseStatus().getCode(), equalTo(CloseStatus.POLICY_VIOLATION.getCode()));
+        verify(dataPointService, times(1)).insert(anyListOf(DataPoint.class));
+    }
+
+    @Test
+    public void handleBinaryMessageShouldInsertInflatedDataPoints() throws Exception {
+
+        properties.setWindowSize(1);
+
+        openStream();
+
+        handler.handleBinaryMessage(session, new BinaryMessage(gzip("{}\n{}")));
+
+        ArgumentCaptor<List> batchCaptor = ArgumentCaptor.forClass(List.class);
+        verify(dataPointService).insert(batchCaptor.capture());
+
+        assertThat(batchCaptor.getValue(), hasSize(2));
+        assertThat(sentMessages.get(sentMessages.size() - 1), equalTo("{\"acknowledged\":1}"));
+    }
+
+    @Test
+    public void handleBinaryMessageShouldCloseStreamOnOversizeMessage() throws Exception {
+
+        properties.setMaximumMessageSize(4);
+
+        openStream();
+
+        handler.handleBinaryMessage(session, new BinaryMessage(gzip("{}\n{}")));
+
+        verify(session).close(CloseStatus.TOO_BIG_TO_PROCESS);
+        verify(uploadService, never()).readDataPoints(any(BufferedReader.class), any(String.class));
+    }
+
+    @Test
+    public void handleBinaryMessageShouldAcceptMessageOfMaximumSize() throws Exception {
+
+        properties.setMaximumMessageSize(5);
+        properties.setWindowSize(1);
+
+        openStream();
+
+        handler.handleBinaryMessage(session, new BinaryMessage(gzip("{}\n{}")));
+
+        verify(session, never()).close(any(CloseStatus.class));
+        assertThat(sentMessages.get(sentMessages.size() - 1), equalTo("{\"acknowledged\":1}"));
+    }
+
+    @Test
+    public void handleBinaryMessageShouldCloseStreamOnInvalidGzip() throws Exception {
+
+        openStream();
+
+        handler.handleBinaryMessage(session, new BinaryMessage("{}".getBytes(UTF_8)));
+
+        assertThat(getCloseStatus().getCode(), equalTo(CloseStatus.BAD_DATA.getCode()));
+        verify(uploadService, never()).readDataPoints(any(BufferedReader.class), any(String.class));
+    }
+
+    @Test
+    public void handleTextMessageShouldCloseStreamOnMalformedDataPoint() throws Exception {
+
+        openStream();
+
+        handler.handleTextMessage(session, new TextMessage("{}\n" + MALFORMED_LINE));
+
+        assertThat(getCloseStatus().getCode(), equalTo(CloseStatus.BAD_DATA.getCode()));
+        verify(dataPointService, never()).insert(anyListOf(DataPoint.class));
+    }
+
+    @Test
+    public void handleBinaryMessageShouldCloseStreamOnMalformedDataPoint() throws Exception {
+
+        openStream();
+
+        handler.handleBinaryMessage(session, new BinaryMessage(gzip(MALFORMED_LINE)));
+
+        assertThat(getCloseStatus().getCode(), equalTo(CloseStatus.BAD_DATA.getCode()));
+        verify(dataPointService, never()).insert(anyListOf(DataPoint.class));
+    }
+
+    @Test
+    public void handleTextMessageShouldCloseStreamWhenAccessTokenHasExpired() throws Exception {
+
+        sessionAttributes.put(ACCESS_TOKEN_EXPIRATION_ATTRIBUTE, new Date(System.currentTimeMillis() - 1000));
+
+        openStream();
+
+        handler.handleTextMessage(session, new TextMessage("{}"));
+
+        assertThat(getCloseStatus().getCode(), equalTo(CloseStatus.POLICY_VIOLATION.getCode()));
+        verify(uploadService, never()).readDataPoints(any(BufferedReader.class), any(String.class));
+    }
+
+    @Test
+    public void afterConnectionEstablishedShouldCloseStreamWhenAccessTokenExpires() throws Exception {
+
+        properties.setWindowSize(1);
+        sessionAttributes.put(ACCESS_TOKEN_EXPIRATION_ATTRIBUTE, new Date(System.currentTimeMillis() + 1000));
+
+        openStream();
+
+        // the stream is usable until the access token expires
+        handler.handleTextMessage(session, new TextMessage("{}"));
+        assertThat(sentMessages.get(sentMessages.size() - 1), equalTo("{\"acknowledged\":1}"));
+
+        verify(session, timeout(5000)).close(any(CloseStatus.class));
+        assertThat(getCloseStatus().getCode(), equalTo(CloseStatus.POLICY_VIOLATION.getCode()));
+    }
+
+    private void openStream() throws Exception {
+
+        handler.initializeExecutorService();
+        handler.afterConnectionEstablished(session);
+    }
+
+    /**
+     * @return the status the stream was last closed with
+     */
+    private CloseStatus getCloseStatus() throws IOException {
+
+        ArgumentCaptor<CloseStatus> closeStatusCaptor = ArgumentCaptor.forClass(CloseStatus.class);
+        verify(session, atLeastOnce()).close(closeStatusCaptor.capture());
+
+        return closeStatusCaptor.getValue();
+    }
+
+    private void awaitSentMessage(String message) throws InterruptedException {
+
+        for (int i = 0; i < 1000; i++) {
+            if (sentMessages.contains(message)) {
+                return;
+            }
+
+            MILLISECONDS.sleep(10);
+        }
+
+        throw new AssertionError("The message '" + message + "' hasn't been sent.");
+    }
+
+    private static byte[] gzip(String message) throws IOException {
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(message.getBytes(UTF_8));
+        }
+
+        return outputStream.toByteArray();
+    }
+}
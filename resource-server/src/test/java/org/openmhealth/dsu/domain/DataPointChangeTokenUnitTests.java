@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.domain;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * A suite of unit tests for data point change tokens.
+ *
+ * @author Emerson Farrugia
+ */
+public class DataPointChangeTokenUnitTests {
+
+    @Test
+    public void parseShouldReadTokenWrittenByToString() {
+
+        DataPointChangeToken token = new DataPointChangeToken(42, Instant.ofEpochSecond(1_433_152_800));
+
+        assertThat(token.toString(), equalTo("42-1433152800"));
+        assertThat(DataPointChangeToken.parse(token.toString()), equalTo(Optional.of(token)));
+    }
+
+    @Test
+    public void parseShouldReturnEmptyOptionalOnMalformedToken() {
+
+        assertThat(DataPointChangeToken.parse(""), equalTo(Optional.empty()));
+        assertThat(DataPointChangeToken.parse("42"), equalTo(Optional.empty()));
+        assertThat(DataPointChangeToken.parse("-42-1433152800"), equalTo(Optional.empty()));
+        assertThat(DataPointChangeToken.parse("42-foo"), equalTo(Optional.empty()));
+        assertThat(DataPointChangeToken.parse("42-1433152800-1"), equalTo(Optional.empty()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorShouldThrowExceptionOnNegativeSequence() {
+
+        new DataPointChangeToken(-1, Instant.now());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.domain;
+
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.openmhealth.dsu.domain.DataPointExportToken.Store.ARCHIVE;
+import static org.openmhealth.dsu.domain.DataPointExportToken.Store.BUCKETS;
+
+
+/**
+ * A suite of unit tests for data point export tokens.
+ *
+ * @author Emerson Farrugia
+ */
+public class DataPointExportTokenUnitTests {
+
+    @Test
+    public void parseShouldReadTokenWrittenByToString() {
+
+        DataPointExportToken token = new DataPointExportToken(ARCHIVE, "557f8a4b7f9e0c26a8a5c9e1");
+
+        assertThat(token.toString(), equalTo("archive:557f8a4b7f9e0c26a8a5c9e1"));
+        assertThat(DataPointExportToken.parse(token.toString()), equalTo(Optional.of(token)));
+    }
+
+    @Test
+    public void parseShouldKeepSeparatorsInIdentifier() {
+
+        DataPointExportToken token = new DataPointExportToken(BUCKETS, "urn:uuid:1");
+
+        assertThat(DataPointExportToken.parse("buckets:urn:uuid:1"), equalTo(Optional.of(token)));
+    }
+
+    @Test
+    public void parseShouldReturnEmptyOptionalOnMalformedToken() {
+
+        assertThat(DataPointExportToken.parse(""), equalTo(Optional.empty()));
+        assertThat(DataPointExportToken.parse("557f8a4b7f9e0c26a8a5c9e1"), equalTo(Optional.empty()));
+        assertThat(DataPointExportToken.parse(":557f8a4b7f9e0c26a8a5c9e1"), equalTo(Optional.empty()));
+        assertThat(DataPointExportToken.parse("archive:"), equalTo(Optional.empty()));
+        assertThat(DataPointExportToken.parse("ARCHIVE:557f8a4b7f9e0c26a8a5c9e1"), equalTo(Optional.empty()));
+        assertThat(DataPointExportToken.parse("foo:557f8a4b7f9e0c26a8a5c9e1"), equalTo(Optional.empty()));
+    }
+}
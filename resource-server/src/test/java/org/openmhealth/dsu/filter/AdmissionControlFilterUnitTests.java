@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.filter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * A suite of unit tests for the admission control filter.
+ *
+ * @author Emerson Farrugia
+ */
+public class AdmissionControlFilterUnitTests {
+
+    private AtomicInteger queueDepth;
+    private AdmissionControlFilter filter;
+
+    @Before
+    public void initialiseFilter() {
+
+        queueDepth = new AtomicInteger();
+
+        filter = new AdmissionControlFilter(
+                new AdmissionControlFilter.Lane("read", new GradientConcurrencyLimit(1, 1, 10, 1.5, 0.2), 20),
+                new AdmissionControlFilter.Lane("write", new GradientConcurrencyLimit(1, 1, 10, 1.5, 0.2), 10),
+                queueDepth::get,
+                30);
+    }
+
+    @Test
+    public void requestWithinLimitShouldBeAdmitted() throws Exception {
+
+        MockHttpServletResponse response = filter(new MockHttpServletRequest("POST", "/dataPoints"));
+
+        assertThat(response.getStatus(), equalTo(200));
+    }
+
+    @Test
+    public void writeShouldBeRejectedBeforeReadWhenQueueBacksUp() throws Exception {
+
+        queueDepth.set(15);
+
+        MockHttpServletResponse writeResponse = filter(new MockHttpServletRequest("POST", "/dataPoints"));
+        MockHttpServletResponse readResponse = filter(new MockHttpServletRequest("GET", "/dataPoints"));
+
+        assertThat(writeResponse.getStatus(), equalTo(429));
+        assertThat(Integer.valueOf(writeResponse.getHeader("Retry-After")), allOf(greaterThan(0), lessThan(31)));
+        assertThat(readResponse.getStatus(), equalTo(200));
+    }
+
+    @Test
+    public void requestBeyondLimitShouldBeRejected() throws Exception {
+
+        MockHttpServletResponse[] nestedResponse = new MockHttpServletResponse[1];
+
+        // issue a second write while the first is still in flight
+        filter.doFilter(new MockHttpServletRequest("POST", "/dataPoints"), new MockHttpServletResponse(),
+                (request, response) -> {
+                    try {
+                        nestedResponse[0] = filter(new MockHttpServletRequest("POST", "/dataPoints"));
+                    }
+                    catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+
+        assertThat(nestedResponse[0].getStatus(), equalTo(429));
+        assertThat(nestedResponse[0].getHeader("Retry-After"), notNullValue());
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request) throws Exception {
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, new MockFilterChain());
+
+        return response;
+    }
+}
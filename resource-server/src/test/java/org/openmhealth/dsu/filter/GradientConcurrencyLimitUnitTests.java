@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.filter;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * A suite of unit tests for the gradient concurrency limit.
+ *
+ * @author Emerson Farrugia
+ */
+public class GradientConcurrencyLimitUnitTests {
+
+    private static final long LATENCY = MILLISECONDS.toNanos(20);
+
+    @Test
+    public void limitShouldGrowWhileLatencyIsStable() {
+
+        GradientConcurrencyLimit limit = new GradientConcurrencyLimit(20, 4, 200, 1.5, 0.2);
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(LATENCY, limit.getLimit(), false);
+        }
+
+        assertThat(limit.getLimit(), greaterThan(20));
+    }
+
+    @Test
+    public void limitShouldNotGrowWhileUnderused() {
+
+        GradientConcurrencyLimit limit = new GradientConcurrencyLimit(20, 4, 200, 1.5, 0.2);
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(LATENCY, 2, false);
+        }
+
+        assertThat(limit.getLimit(), equalTo(20));
+    }
+
+    @Test
+    public void limitShouldShrinkWhenLatencyClimbs() {
+
+        GradientConcurrencyLimit limit = new GradientConcurrencyLimit(100, 4, 200, 1.5, 0.2);
+
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(LATENCY, limit.getLimit(), false);
+        }
+
+        int stableLimit = limit.getLimit();
+
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(LATENCY * 10, limit.getLimit(), false);
+        }
+
+        assertThat(limit.getLimit(), lessThan(stableLimit / 2));
+    }
+
+    @Test
+    public void limitShouldBackOffOnFailureWithinBounds() {
+
+        GradientConcurrencyLimit limit = new GradientConcurrencyLimit(20, 4, 200, 1.5, 0.2);
+
+        limit.onSample(LATENCY, 20, true);
+
+        assertThat(limit.getLimit(), equalTo(18));
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(LATENCY, 20, true);
+        }
+
+        assertThat(limit.getLimit(), equalTo(4));
+    }
+
+    @Test
+    public void concurrentFailuresShouldAllBeApplied() throws InterruptedException {
+
+        GradientConcurrencyLimit limit = new GradientConcurrencyLimit(1000, 1, 1000, 1.5, 0.2);
+
+        int failureCount = 40;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(failureCount);
+
+        for (int i = 0; i < failureCount; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    limit.onSample(LATENCY, 1000, true);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        start.countDown();
+        assertThat(done.await(10, SECONDS), equalTo(true));
+        executor.shutdown();
+
+        // failures skipped under contention are applied by the next sample
+        limit.onSample(LATENCY, 1000, true);
+
+        assertThat(limit.getLimit(), equalTo((int) (1000 * Math.pow(0.9, failureCount + 1))));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.filter;
+
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * A suite of unit tests for the latency histogram.
+ *
+ * @author Emerson Farrugia
+ */
+public class LatencyHistogramUnitTests {
+
+    private static final long WINDOW_DURATION = SECONDS.toNanos(30);
+
+    @Test
+    public void everyLatencyShouldFallWithinItsBucket() {
+
+        for (long latency = 0; latency < 1_000_000; latency += 1 + latency / 7) {
+
+            int index = LatencyHistogram.getBucketIndex(latency);
+
+            assertThat(LatencyHistogram.getBucketUpperBound(index), greaterThanOrEqualTo(latency));
+            assertThat(LatencyHistogram.getBucketUpperBound(index), lessThanOrEqualTo(latency + latency / 4));
+
+            if (index > 0) {
+                assertThat(LatencyHistogram.getBucketUpperBound(index - 1), lessThan(latency));
+            }
+        }
+    }
+
+    @Test
+    public void getPercentileShouldReturnZeroWithoutLatencies() {
+
+        LatencyHistogram histogram = new LatencyHistogram(WINDOW_DURATION, 0);
+
+        assertThat(histogram.getPercentile(0.99, 0), equalTo(0L));
+    }
+
+    @Test
+    public void getPercentileShouldEstimateTail() {
+
+        LatencyHistogram histogram = new LatencyHistogram(WINDOW_DURATION, 0);
+
+        for (int i = 0; i < 98; i++) {
+            histogram.record(MILLISECONDS.toNanos(10), 0);
+        }
+
+        histogram.record(MILLISECONDS.toNanos(500), 0);
+        histogram.record(MILLISECONDS.toNanos(500), 0);
+
+        assertThat(histogram.getPercentile(0.5, 0),
+                allOf(greaterThanOrEqualTo(MILLISECONDS.toNanos(10)), lessThan(MILLISECONDS.toNanos(13))));
+        assertThat(histogram.getPercentile(0.99, 0),
+                allOf(greaterThanOrEqualTo(MILLISECONDS.toNanos(500)), lessThan(MILLISECONDS.toNanos(625))));
+    }
+
+    @Test
+    public void latenciesShouldBeDiscardedOnceOutsideWindow() {
+
+        LatencyHistogram histogram = new LatencyHistogram(WINDOW_DURATION, 0);
+
+        histogram.record(MILLISECONDS.toNanos(500), 0);
+
+        assertThat(histogram.getPercentile(0.99, WINDOW_DURATION / 2), greaterThan(0L));
+        assertThat(histogram.getPercentile(0.99, WINDOW_DURATION), equalTo(0L));
+    }
+}
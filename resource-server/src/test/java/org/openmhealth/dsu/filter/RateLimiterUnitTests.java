@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.filter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * A suite of unit tests for the rate limiter.
+ *
+ * @author Emerson Farrugia
+ */
+public class RateLimiterUnitTests {
+
+    private AtomicLong clock;
+
+    @Before
+    public void initialiseClock() {
+        clock = new AtomicLong(1_000_000_000_000L);
+    }
+
+    @Test
+    public void burstShouldBeAdmittedAndThenRejected() {
+
+        RateLimiter rateLimiter = newRateLimiter(new RateLimiter.Limit(100, 100));
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(rateLimiter.acquire("client", "user").isAdmitted(), equalTo(true));
+        }
+
+        RateLimiter.Decision decision = rateLimiter.acquire("client", "user");
+
+        assertThat(decision.isAdmitted(), equalTo(false));
+        assertThat(decision.getLimit(), equalTo(10));
+        assertThat(decision.getRemaining(), equalTo(0));
+        assertThat(decision.getRetryAfterInSeconds(), equalTo(1L));
+    }
+
+    @Test
+    public void tokensShouldBeReplenishedAtRate() {
+
+        RateLimiter rateLimiter = newRateLimiter(new RateLimiter.Limit(100, 100));
+
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.acquire("client", "user");
+        }
+
+        clock.addAndGet(MILLISECONDS.toNanos(1000));
+
+        RateLimiter.Decision decision = rateLimiter.acquire("client", "user");
+
+        assertThat(decision.isAdmitted(), equalTo(true));
+        assertThat(decision.getRemaining(), equalTo(9));
+    }
+
+    @Test
+    public void usersShouldNotShareBuckets() {
+
+        RateLimiter rateLimiter = newRateLimiter(new RateLimiter.Limit(100, 100));
+
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.acquire("client", "user");
+        }
+
+        assertThat(rateLimiter.acquire("client", "user").isAdmitted(), equalTo(false));
+        assertThat(rateLimiter.acquire("client", "otherUser").isAdmitted(), equalTo(true));
+    }
+
+    @Test
+    public void clientLimitShouldApplyAcrossUsers() {
+
+        RateLimiter rateLimiter = newRateLimiter(new RateLimiter.Limit(1, 3));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(rateLimiter.acquire("client", "user" + i).isAdmitted(), equalTo(true));
+        }
+
+        RateLimiter.Decision decision = rateLimiter.acquire("client", "user3");
+
+        assertThat(decision.isAdmitted(), equalTo(false));
+        assertThat(decision.getLimit(), equalTo(3));
+        assertThat(rateLimiter.acquire("otherClient", "user3").isAdmitted(), equalTo(true));
+    }
+
+    @Test
+    public void requestsRejectedByClientShouldNotCostUserTokens() {
+
+        RateLimiter rateLimiter = newRateLimiter(new RateLimiter.Limit(1, 1));
+
+        assertThat(rateLimiter.acquire("client", "otherUser").isAdmitted(), equalTo(true));
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(rateLimiter.acquire("client", "user").isAdmitted(), equalTo(false));
+        }
+
+        clock.addAndGet(MILLISECONDS.toNanos(1000));
+
+        RateLimiter.Decision decision = rateLimiter.acquire("client", "user");
+
+        assertThat(decision.isAdmitted(), equalTo(true));
+        assertThat(decision.getRemaining(), equalTo(0));
+        assertThat(rateLimiter.metrics(), not(hasItem(
+                hasProperty("name", equalTo("rateLimiting.offenders.user:client:user.rejected")))));
+    }
+
+    @Test
+    public void clientSpecificLimitShouldOverrideDefault() {
+
+        RateLimiter rateLimiter = new RateLimiter(new RateLimiter.Limit(1, 1),
+                singletonMap("trusted", new RateLimiter.Limit(100, 100)), new RateLimiter.Limit(100, 100), 10,
+                clock::get);
+
+        assertThat(rateLimiter.acquire("trusted", null).isAdmitted(), equalTo(true));
+        assertThat(rateLimiter.acquire("trusted", null).isAdmitted(), equalTo(true));
+        assertThat(rateLimiter.acquire("other", null).isAdmitted(), equalTo(true));
+        assertThat(rateLimiter.acquire("other", null).isAdmitted(), equalTo(false));
+    }
+
+    @Test
+    public void offendersShouldBePublishedAsMetrics() {
+
+        RateLimiter rateLimiter = newRateLimiter(new RateLimiter.Limit(1, 1));
+
+        rateLimiter.acquire("client", null);
+        rateLimiter.acquire("client", null);
+
+        assertThat(rateLimiter.metrics(),
+                hasItem(hasProperty("name", equalTo("rateLimiting.offenders.client:client.rejected"))));
+    }
+
+    @Test
+    public void usersShouldNotBePublishedAsOffenders() {
+
+        RateLimiter rateLimiter = newRateLimiter(new RateLimiter.Limit(100, 100));
+
+        for (int i = 0; i < 11; i++) {
+            rateLimiter.acquire("client", "user");
+        }
+
+        assertThat(rateLimiter.metrics(), hasItem(allOf(
+                hasProperty("name", equalTo("rateLimiting.rejected")),
+                hasProperty("value", equalTo(1L)))));
+        assertThat(rateLimiter.metrics(), not(hasItem(hasProperty("name", containsString("user")))));
+    }
+
+    @Test
+    public void fullBucketsShouldBeEvicted() {
+
+        RateLimiter rateLimiter = newRateLimiter(new RateLimiter.Limit(100, 100));
+
+        rateLimiter.acquire("client", "user");
+        clock.addAndGet(MILLISECONDS.toNanos(1000));
+        rateLimiter.evictIdleBuckets();
+
+        assertThat(rateLimiter.metrics(), hasItem(allOf(
+                hasProperty("name", equalTo("rateLimiting.buckets")),
+                hasProperty("value", equalTo(0)))));
+    }
+
+    private RateLimiter newRateLimiter(RateLimiter.Limit clientLimit) {
+        return new RateLimiter(clientLimit, emptyMap(), new RateLimiter.Limit(10, 10), 10, clock::get);
+    }
+}
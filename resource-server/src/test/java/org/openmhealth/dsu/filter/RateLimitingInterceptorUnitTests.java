@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.filter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import javax.servlet.DispatcherType;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singleton;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * A suite of unit tests for the rate limiting interceptor.
+ *
+ * @author Emerson Farrugia
+ */
+public class RateLimitingInterceptorUnitTests {
+
+    private RateLimitingInterceptor interceptor;
+
+    @Before
+    public void initialiseFixture() {
+
+        // the clock is stopped, so no tokens are replenished
+        interceptor = new RateLimitingInterceptor(
+                new RateLimiter(new RateLimiter.Limit(1, 2), emptyMap(), new RateLimiter.Limit(1, 2), 0, () -> 0L));
+
+        OAuth2Request request = new OAuth2Request(null, "client", emptyList(), true, singleton("read"), null, null,
+                null, null);
+
+        SecurityContextHolder.getContext().setAuthentication(new OAuth2Authentication(request, null));
+    }
+
+    @After
+    public void clearSecurityContext() {
+
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void preHandleShouldRejectRequestOverLimit() throws Exception {
+
+        assertThat(preHandle(DispatcherType.REQUEST).getStatus(), equalTo(200));
+        assertThat(preHandle(DispatcherType.REQUEST).getStatus(), equalTo(200));
+
+        MockHttpServletResponse response = preHandle(DispatcherType.REQUEST);
+
+        assertThat(response.getStatus(), equalTo(429));
+        assertThat(response.getHeader("Retry-After"), equalTo("1"));
+    }
+
+    @Test
+    public void preHandleShouldNotChargeAsyncDispatch() throws Exception {
+
+        assertThat(preHandle(DispatcherType.REQUEST).getStatus(), equalTo(200));
+
+        // the asynchronous dispatch of the same request leaves the response alone
+        MockHttpServletResponse asyncResponse = preHandle(DispatcherType.ASYNC);
+
+        assertThat(asyncResponse.getStatus(), equalTo(200));
+        assertThat(asyncResponse.getHeader(RateLimitingInterceptor.LIMIT_HEADER), nullValue());
+
+        // the second token is still there
+        assertThat(preHandle(DispatcherType.REQUEST).getStatus(), equalTo(200));
+    }
+
+    private MockHttpServletResponse preHandle(DispatcherType dispatcherType) throws Exception {
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/dataPoints");
+        request.setDispatcherType(dispatcherType);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        boolean admitted = interceptor.preHandle(request, response, null);
+
+        assertThat(admitted, equalTo(response.getStatus() != 429));
+
+        return response;
+    }
+}
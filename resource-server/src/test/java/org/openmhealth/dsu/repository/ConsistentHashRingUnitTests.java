@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * A suite of unit tests for the consistent hash ring.
+ *
+ * @author Emerson Farrugia
+ */
+public class ConsistentHashRingUnitTests {
+
+    private static final int KEY_COUNT = 30_000;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorShouldThrowExceptionOnEmptyNodes() {
+
+        new ConsistentHashRing<>(new HashMap<String, String>(), 10);
+    }
+
+    @Test
+    public void getNodeShouldBeStableAcrossRings() {
+
+        ConsistentHashRing<String> ring = newRing("a", "b", "c");
+        ConsistentHashRing<String> sameRing = newRing("c", "b", "a");
+
+        for (int i = 0; i < KEY_COUNT; i++) {
+            assertThat(sameRing.getNode("user" + i), equalTo(ring.getNode("user" + i)));
+        }
+    }
+
+    @Test
+    public void getNodeShouldSpreadKeysEvenly() {
+
+        ConsistentHashRing<String> ring = newRing("a", "b", "c");
+
+        Map<String, Integer> keyCounts = new HashMap<>();
+
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keyCounts.merge(ring.getNode("user" + i), 1, Integer::sum);
+        }
+
+        for (int keyCount : keyCounts.values()) {
+            assertThat(keyCount, allOf(greaterThan(KEY_COUNT / 3 * 8 / 10), lessThan(KEY_COUNT / 3 * 12 / 10)));
+        }
+    }
+
+    @Test
+    public void addingNodeShouldOnlyMoveKeysToThatNode() {
+
+        ConsistentHashRing<String> ring = newRing("a", "b", "c");
+        ConsistentHashRing<String> grownRing = newRing("a", "b", "c", "d");
+
+        int movedKeyCount = 0;
+
+        for (int i = 0; i < KEY_COUNT; i++) {
+            String node = ring.getNode("user" + i);
+            String grownNode = grownRing.getNode("user" + i);
+
+            if (!node.equals(grownNode)) {
+                assertThat(grownNode, equalTo("d"));
+                movedKeyCount++;
+            }
+        }
+
+        // roughly a quarter of the keys should move
+        assertThat(movedKeyCount, allOf(greaterThan(KEY_COUNT / 4 * 8 / 10), lessThan(KEY_COUNT / 4 * 12 / 10)));
+    }
+
+    private ConsistentHashRing<String> newRing(String... names) {
+
+        Map<String, String> nodesByName = new LinkedHashMap<>();
+
+        for (String name : names) {
+            nodesByName.put(name, name);
+        }
+
+        return new ConsistentHashRing<>(nodesByName, 160);
+    }
+}
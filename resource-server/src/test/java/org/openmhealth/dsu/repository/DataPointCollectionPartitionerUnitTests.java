@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.Optional;
+
+import static java.time.ZoneOffset.UTC;
+import static java.time.ZoneOffset.ofHours;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.openmhealth.dsu.configuration.DataPointCollectionProperties.Period.MONTHLY;
+import static org.openmhealth.dsu.configuration.DataPointCollectionProperties.Period.NONE;
+import static org.openmhealth.dsu.configuration.DataPointCollectionProperties.Period.WEEKLY;
+
+
+/**
+ * A suite of unit tests for the data point collection partitioner.
+ *
+ * @author Emerson Farrugia
+ */
+public class DataPointCollectionPartitionerUnitTests {
+
+    private final DataPointCollectionPartitioner monthlyPartitioner =
+            new DataPointCollectionPartitioner("dataPoint", MONTHLY);
+
+    private final DataPointCollectionPartitioner weeklyPartitioner =
+            new DataPointCollectionPartitioner("dataPoint", WEEKLY);
+
+    @Test
+    public void getCollectionNameShouldReturnBaseCollectionNameIfNotPartitioned() {
+
+        DataPointCollectionPartitioner partitioner = new DataPointCollectionPartitioner("dataPoint", NONE);
+
+        assertThat(partitioner.getCollectionName(OffsetDateTime.now()), equalTo("dataPoint"));
+        assertThat(partitioner.getPeriodStart("dataPoint"), equalTo(Optional.empty()));
+    }
+
+    @Test
+    public void getCollectionNameShouldUseFirstDayOfMonth() {
+
+        assertThat(monthlyPartitioner.getCollectionName(OffsetDateTime.of(2016, 3, 17, 10, 0, 0, 0, UTC)),
+                equalTo("dataPoint_20160301"));
+    }
+
+    @Test
+    public void getCollectionNameShouldUseMondayOfWeek() {
+
+        // 6 March 2016 is a Sunday
+        assertThat(weeklyPartitioner.getCollectionName(OffsetDateTime.of(2016, 3, 6, 23, 0, 0, 0, UTC)),
+                equalTo("dataPoint_20160229"));
+    }
+
+    @Test
+    public void getCollectionNameShouldUseUtcDate() {
+
+        // the first of April in UTC+2 is still the end of March in UTC
+        assertThat(monthlyPartitioner.getCollectionName(OffsetDateTime.of(2016, 4, 1, 1, 0, 0, 0, ofHours(2))),
+                equalTo("dataPoint_20160301"));
+    }
+
+    @Test
+    public void getPeriodStartShouldParseCollectionNames() {
+
+        assertThat(monthlyPartitioner.getPeriodStart("dataPoint_20160301"),
+                equalTo(Optional.of(LocalDate.of(2016, 3, 1))));
+        assertThat(weeklyPartitioner.getPeriodStart("dataPoint_20160229"),
+                equalTo(Optional.of(LocalDate.of(2016, 2, 29))));
+    }
+
+    @Test
+    public void getPeriodStartShouldIgnoreOtherCollections() {
+
+        assertThat(monthlyPartitioner.getPeriodStart("dataPointBuckets"), equalTo(Optional.empty()));
+        assertThat(monthlyPartitioner.getPeriodStart("dataPoint_foo"), equalTo(Optional.empty()));
+        assertThat(monthlyPartitioner.getPeriodStart("dataPoint_20160302"), equalTo(Optional.empty()));
+    }
+
+    @Test
+    public void getPeriodEndShouldReturnStartOfNextPeriod() {
+
+        assertThat(monthlyPartitioner.getPeriodEnd(LocalDate.of(2016, 12, 1)), equalTo(LocalDate.of(2017, 1, 1)));
+        assertThat(weeklyPartitioner.getPeriodEnd(LocalDate.of(2016, 2, 29)), equalTo(LocalDate.of(2016, 3, 7)));
+    }
+}
@@ -21,13 +21,16 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openmhealth.dsu.domain.DataPointSearchCriteria;
 import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.util.CloseableIterator;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
 import static com.google.common.collect.Lists.newArrayList;
+import static java.util.Comparator.comparing;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasSize;
@@ -97,6 +100,25 @@ public abstract class DataPointRepositoryIntegrationTests {
         assertThatDataPointsAreEqual(result.get(), testDataPoint);
     }
 
+    @Test
+    public void findByIdAndHeaderUserIdShouldReturnDataPointOwnedByUser() {
+
+        Optional<DataPoint> result = repository.findByIdAndHeaderUserId(testDataPoint.getHeader().getId(),
+                testDataPoint.getHeader().getUserId());
+
+        assertThat(result.isPresent(), equalTo(true));
+        assertThatDataPointsAreEqual(result.get(), testDataPoint);
+    }
+
+    @Test
+    public void findByIdAndHeaderUserIdShouldReturnNotPresentOnOtherUser() {
+
+        Optional<DataPoint> result = repository.findByIdAndHeaderUserId(testDataPoint.getHeader().getId(),
+                UNRECOGNIZED_ID);
+
+        assertThat(result.isPresent(), equalTo(false));
+    }
+
     public void assertThatDataPointsAreEqual(DataPoint actual, DataPoint expected) {
         assertThat(actual, equalTo(expected));
     }
@@ -259,4 +281,58 @@ public abstract class DataPointRepositoryIntegrationTests {
         assertThat(repository.deleteByIdAndHeaderUserId(testDataPoint.getHeader().getId(), TEST_USER_ID), equalTo(1l));
         assertThat(repository.exists(testDataPoint.getHeader().getId()), equalTo(false));
     }
+
+    @Test
+    public void deleteBySearchCriteriaShouldOnlyDeleteMatchingDataPoints() {
+
+        DataPointSearchCriteria searchCriteria = newSearchCriteriaBuilder().setSchemaName(UNRECOGNIZED_ID).build();
+
+        assertThat(repository.deleteBySearchCriteria(searchCriteria, 10), equalTo(0L));
+        assertThat(repository.deleteBySearchCriteria(newSearchCriteriaBuilder().build(), 10), equalTo(1L));
+        assertThat(repository.deleteBySearchCriteria(newSearchCriteriaBuilder().build(), 10), equalTo(0L));
+        assertThat(repository.exists(testDataPoint.getHeader().getId()), equalTo(false));
+    }
+
+    @Test
+    public void deleteByHeaderUserIdShouldDeleteDataPointsInBatches() {
+
+        testDataPoints.add(repository.save(newDataPointBuilder().setSchemaName("other").build()));
+
+        assertThat(repository.deleteByHeaderUserId(UNRECOGNIZED_ID, 1), equalTo(0L));
+        assertThat(repository.deleteByHeaderUserId(TEST_USER_ID, 1), equalTo(1L));
+        assertThat(repository.deleteByHeaderUserId(TEST_USER_ID, 1), equalTo(1L));
+        assertThat(repository.deleteByHeaderUserId(TEST_USER_ID, 1), equalTo(0L));
+    }
+
+    @Test
+    public void streamByHeaderUserIdShouldReturnDataPointsInIdOrder() {
+
+        testDataPoints.add(repository.save(newDataPointBuilder().setId("0").build()));
+        testDataPoints.add(repository.save(newDataPointBuilder().setId("zzz").build()));
+
+        List<DataPoint> expected = newArrayList(testDataPoints);
+        expected.sort(comparing((DataPoint dataPoint) -> dataPoint.getHeader().getId()));
+
+        try (CloseableIterator<DataPoint> dataPoints = repository.streamByHeaderUserId(TEST_USER_ID, null, null)) {
+            assertThat(newArrayList(dataPoints), equalTo(expected));
+        }
+    }
+
+    @Test
+    public void streamByHeaderUserIdShouldResumeAfterId() {
+
+        testDataPoints.add(repository.save(newDataPointBuilder().setId("0").build()));
+        testDataPoints.add(repository.save(newDataPointBuilder().setId("zzz").setSchemaName("other").build()));
+
+        SchemaId schemaId = new SchemaId(TEST_SCHEMA_NAMESPACE, TEST_SCHEMA_NAME, TEST_SCHEMA_VERSION);
+
+        try (CloseableIterator<DataPoint> dataPoints = repository.streamByHeaderUserId(TEST_USER_ID, schemaId, "0")) {
+            assertThat(newArrayList(dataPoints), equalTo(newArrayList(testDataPoint)));
+        }
+
+        try (CloseableIterator<DataPoint> dataPoints =
+                     repository.streamByHeaderUserId(UNRECOGNIZED_ID, null, null)) {
+            assertThat(newArrayList(dataPoints), empty());
+        }
+    }
 }
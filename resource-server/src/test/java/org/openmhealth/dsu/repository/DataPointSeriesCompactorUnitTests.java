@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.repository;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.junit.Test;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.time.ZoneOffset.UTC;
+import static java.time.ZoneOffset.ofHours;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * A suite of unit tests for the data point series compactor.
+ *
+ * @author Emerson Farrugia
+ */
+public class DataPointSeriesCompactorUnitTests {
+
+    private static final OffsetDateTime START = OffsetDateTime.of(2015, 6, 1, 10, 0, 0, 0, UTC);
+
+    private final DataPointSeriesCompactor compactor = new DataPointSeriesCompactor();
+
+    @Test
+    public void compactedDocumentsShouldExpandToOriginals() {
+
+        List<DBObject> documents = newDocuments(100);
+        List<DBObject> residuals = new ArrayList<>();
+
+        DBObject series = compactor.compact(documents, residuals);
+
+        assertThat(compactor.expand(series, residuals), equalTo(documents));
+    }
+
+    @Test
+    public void sharedFieldsShouldBeExtracted() {
+
+        List<DBObject> residuals = new ArrayList<>();
+
+        DBObject series = compactor.compact(newDocuments(100), residuals);
+
+        List<?> columns = (List<?>) series.get(DataPointSeriesCompactor.COLUMNS_KEY);
+
+        // creation timestamp, x and count are columns, identifiers and the mixed-offset timestamp are residual
+        assertThat(columns, hasSize(3));
+        assertThat(residuals.get(1).keySet(), contains("_id", "header"));
+        assertThat(((DBObject) residuals.get(1).get("header")).keySet(), contains("id", "source_date_time"));
+    }
+
+    @Test
+    public void fieldsMissingFromSomeDocumentsShouldStayResidual() {
+
+        List<DBObject> documents = newDocuments(10);
+        ((DBObject) documents.get(3).get("body")).put("note", "bumped");
+
+        List<DBObject> residuals = new ArrayList<>();
+
+        DBObject series = compactor.compact(documents, residuals);
+
+        assertThat(compactor.expand(series, residuals), equalTo(documents));
+        assertThat(((DBObject) residuals.get(3).get("body")).get("note"), equalTo("bumped"));
+    }
+
+    private List<DBObject> newDocuments(int count) {
+
+        List<DBObject> documents = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+
+            BasicDBList tags = new BasicDBList();
+            tags.add("wrist");
+
+            DBObject header = new BasicDBObject()
+                    .append("id", "id-" + i)
+                    .append("creation_date_time", START.plusNanos(i * 40_000_000L).toString())
+                    .append("source_date_time", START.withOffsetSameInstant(ofHours(i % 2)).toString())
+                    .append("schema_id", new BasicDBObject("namespace", "omh").append("name", "acceleration"));
+
+            DBObject body = new BasicDBObject()
+                    .append("x", new BasicDBObject("value", Math.sin(i / 10.0)).append("unit", "m/s^2"))
+                    .append("count", i)
+                    .append("tags", tags)
+                    .append("empty", new BasicDBObject());
+
+            documents.add(new BasicDBObject("_id", "id-" + i).append("header", header).append("body", body));
+        }
+
+        return documents;
+    }
+}
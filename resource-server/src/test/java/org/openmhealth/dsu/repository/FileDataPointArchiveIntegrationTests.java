@@ -0,0 +1,247 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmhealth.dsu.configuration.DataPointArchiveProperties;
+import org.openmhealth.dsu.configuration.IntegrationTestConfiguration;
+import org.openmhealth.dsu.configuration.MongoPersistenceConfiguration;
+import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.dsu.domain.DataPointSearchCriteriaBuilder;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.time.ZoneOffset.UTC;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.Assert.assertThat;
+import static org.openmhealth.dsu.factory.DataPointFactory.newDataPointBuilder;
+import static org.openmhealth.dsu.factory.DataPointFactory.newSearchCriteriaBuilder;
+
+
+/**
+ * A suite of integration tests for the file data point archive.
+ *
+ * @author Emerson Farrugia
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = {
+        IntegrationTestConfiguration.class,
+        MongoPersistenceConfiguration.class,
+        DataPointArchiveProperties.class,
+        FileDataPointArchive.class
+})
+@TestPropertySource(properties = {
+        "dataPointArchive.enabled=true",
+        "dataPointArchive.directory=build/test-archive"
+})
+public class FileDataPointArchiveIntegrationTests {
+
+    private static final OffsetDateTime START = OffsetDateTime.of(2015, 6, 1, 10, 0, 0, 0, UTC);
+
+    @Autowired
+    private FileDataPointArchive archive;
+
+    // the archive can't be cleared, so each test uses its own user
+    private String userId;
+    private List<DataPoint> testDataPoints;
+
+    @Before
+    public void initialiseFixture() {
+
+        userId = UUID.randomUUID().toString();
+        testDataPoints = new ArrayList<>();
+
+        for (int minute = 0; minute < 4; minute++) {
+            testDataPoints.add(newDataPointBuilder()
+                    .setUserId(userId)
+                    .setCreationDateTime(START.plusMinutes(minute))
+                    .build());
+        }
+
+        // two segments
+        archive.archive(testDataPoints.subList(0, 2));
+        archive.archive(testDataPoints.subList(2, 4));
+    }
+
+    @Test
+    public void findBySearchCriteriaShouldReturnArchivedDataPointsInOrder() {
+
+        assertThat(archive.findBySearchCriteria(newSearchCriteria().build(), null, null), equalTo(testDataPoints));
+    }
+
+    @Test
+    public void findBySearchCriteriaShouldReturnEmptyListOnUnrecognizedUser() {
+
+        DataPointSearchCriteria searchCriteria = newSearchCriteriaBuilder().setUserId("unrecognized").build();
+
+        assertThat(archive.findBySearchCriteria(searchCriteria, null, null), empty());
+    }
+
+    @Test
+    public void findBySearchCriteriaShouldRespectTimeRange() {
+
+        DataPointSearchCriteria searchCriteria = newSearchCriteria()
+                .setCreationTimestampLowerEndpoint(START.plusMinutes(1))
+                .setCreationTimestampUpperEndpoint(START.plusMinutes(2))
+                .build();
+
+        assertThat(archive.findBySearchCriteria(searchCriteria, null, null),
+                equalTo(testDataPoints.subList(1, 3)));
+        assertThat(archive.countBySearchCriteria(searchCriteria), equalTo(2L));
+    }
+
+    @Test
+    public void findBySearchCriteriaShouldPageAcrossSegments() {
+
+        assertThat(archive.findBySearchCriteria(newSearchCriteria().build(), 1, 2),
+                equalTo(testDataPoints.subList(1, 3)));
+        assertThat(archive.findBySearchCriteria(newSearchCriteria().build(), 3, 2),
+                equalTo(testDataPoints.subList(3, 4)));
+    }
+
+    @Test
+    public void archiveShouldSkipArchivedDataPoints() {
+
+        archive.archive(testDataPoints);
+
+        assertThat(archive.countBySearchCriteria(newSearchCriteria().build()), equalTo(4L));
+    }
+
+    @Test
+    public void archiveShouldNotSkipDataPointsWrittenAgainWithDeletedIds() {
+
+        String id = testDataPoints.get(1).getHeader().getId();
+
+        archive.deleteByIdAndUserId(id, userId);
+
+        // once the archived data point is deleted, its identifier can be written again, and is archived again in turn
+        DataPoint rewrittenDataPoint = newDataPointBuilder()
+                .setId(id)
+                .setUserId(userId)
+                .setCreationDateTime(START.plusMinutes(1).plusSeconds(30))
+                .build();
+
+        archive.archive(singletonList(rewrittenDataPoint));
+
+        assertThat(archive.countBySearchCriteria(newSearchCriteria().build()), equalTo(4L));
+        assertThat(archive.findBySearchCriteria(newSearchCriteria().build(), null, null), hasItem(rewrittenDataPoint));
+        assertThat(archive.existsByIdAndUserId(id, userId), equalTo(true));
+
+        // archiving it again, as an interrupted archival would, doesn't duplicate it
+        archive.archive(singletonList(rewrittenDataPoint));
+
+        assertThat(archive.countBySearchCriteria(newSearchCriteria().build()), equalTo(4L));
+    }
+
+    @Test
+    public void deleteByIdAndUserIdShouldHideDataPoint() {
+
+        String id = testDataPoints.get(1).getHeader().getId();
+
+        assertThat(archive.deleteByIdAndUserId(id, "unrecognized"), equalTo(0L));
+        assertThat(archive.deleteByIdAndUserId(id, userId), equalTo(1L));
+        assertThat(archive.deleteByIdAndUserId(id, userId), equalTo(0L));
+
+        testDataPoints.remove(1);
+
+        assertThat(archive.findBySearchCriteria(newSearchCriteria().build(), null, null), equalTo(testDataPoints));
+        assertThat(archive.countBySearchCriteria(newSearchCriteria().build()), equalTo(3L));
+    }
+
+    @Test
+    public void loadIndexShouldRestoreSegmentsAndTombstones() throws Exception {
+
+        archive.deleteByIdAndUserId(testDataPoints.get(0).getHeader().getId(), userId);
+        testDataPoints.remove(0);
+
+        archive.loadIndex();
+
+        assertThat(archive.findBySearchCriteria(newSearchCriteria().build(), null, null), equalTo(testDataPoints));
+    }
+
+    @Test
+    public void deleteBySearchCriteriaShouldDeleteEnclosedSegmentsAndTombstoneTheRest() throws Exception {
+
+        DataPointSearchCriteria searchCriteria = newSearchCriteria()
+                .setCreationTimestampLowerEndpoint(START.plusMinutes(1))
+                .build();
+
+        assertThat(archive.deleteBySearchCriteria(searchCriteria), equalTo(3L));
+        assertThat(archive.deleteBySearchCriteria(searchCriteria), equalTo(0L));
+
+        archive.loadIndex();
+
+        assertThat(archive.findBySearchCriteria(newSearchCriteria().build(), null, null),
+                equalTo(testDataPoints.subList(0, 1)));
+    }
+
+    @Test
+    public void deleteByUserIdShouldDeleteAllArchivedDataPoints() throws Exception {
+
+        archive.deleteByIdAndUserId(testDataPoints.get(0).getHeader().getId(), userId);
+
+        assertThat(archive.deleteByUserId(userId), equalTo(3L));
+        assertThat(archive.deleteByUserId(userId), equalTo(0L));
+
+        archive.loadIndex();
+
+        assertThat(archive.countBySearchCriteria(newSearchCriteria().build()), equalTo(0L));
+    }
+
+    private DataPointSearchCriteriaBuilder newSearchCriteria() {
+
+        return newSearchCriteriaBuilder().setUserId(userId);
+    }
+
+    @Test
+    public void streamByUserIdShouldReturnSegmentsInOrder() {
+
+        try (CloseableIterator<DataPoint> dataPoints = archive.streamByUserId(userId, null, null)) {
+            assertThat(newArrayList(dataPoints), equalTo(testDataPoints));
+        }
+    }
+
+    @Test
+    public void streamByUserIdShouldResumeAfterDeletedId() {
+
+        String afterId = testDataPoints.get(2).getHeader().getId();
+
+        archive.deleteByIdAndUserId(afterId, userId);
+
+        assertThat(archive.existsByIdAndUserId(afterId, userId), equalTo(false));
+
+        try (CloseableIterator<DataPoint> dataPoints = archive.streamByUserId(userId, null, afterId)) {
+            assertThat(newArrayList(dataPoints), equalTo(testDataPoints.subList(3, 4)));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmhealth.dsu.configuration.DataPointEventLogProperties;
+import org.openmhealth.dsu.domain.DataPointEvent;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.context.ConfigurationPropertiesAutoConfiguration;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+import static org.openmhealth.dsu.domain.DataPointEvent.Operation.DELETE;
+import static org.openmhealth.dsu.domain.DataPointEvent.Operation.SAVE;
+import static org.openmhealth.dsu.factory.DataPointFactory.newDataPointBuilder;
+
+
+/**
+ * A suite of integration tests for the file data point event log.
+ *
+ * @author Emerson Farrugia
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {
+        ConfigurationPropertiesAutoConfiguration.class,
+        DataPointEventLogProperties.class,
+        FileDataPointEventLog.class
+})
+@TestPropertySource(properties = {
+        "dataPointEventLog.enabled=true",
+        "dataPointEventLog.directory=build/test-event-log",
+        "dataPointEventLog.segmentSize=4096",
+        "dataPointEventLog.maximumSegmentCount=1000"
+})
+public class FileDataPointEventLogIntegrationTests {
+
+    @Autowired
+    private FileDataPointEventLog eventLog;
+
+    // the log can't be cleared, so each test uses its own consumer and starts reading at the end of the log
+    private String consumerName;
+    private long startOffset;
+
+    @Before
+    public void initialiseFixture() {
+
+        consumerName = UUID.randomUUID().toString();
+        startOffset = eventLog.getEndOffset();
+
+        eventLog.commitConsumerOffset(consumerName, startOffset);
+    }
+
+    @Test
+    public void readShouldReturnAppendedEvents() {
+
+        DataPoint dataPoint = newDataPointBuilder().build();
+
+        eventLog.appendSaves(singletonList(dataPoint));
+        eventLog.appendDeletion("someUser", "someDataPoint");
+
+        List<DataPointEvent.Operation> operations = new ArrayList<>();
+        List<String> dataPointIds = new ArrayList<>();
+
+        long nextOffset = eventLog.read(startOffset, 10, event -> {
+            operations.add(event.getOperation());
+            dataPointIds.add(event.getDataPointId());
+
+            if (event.getOperation() == SAVE) {
+                assertThat(event.getUserId(), equalTo(dataPoint.getHeader().getUserId()));
+                assertThat(event.getSchemaId(), equalTo(dataPoint.getHeader().getSchemaId()));
+                assertThat(event.getCreationTimestamp(),
+                        equalTo(dataPoint.getHeader().getCreationDateTime().toInstant()));
+            }
+            else {
+                assertThat(event.getUserId(), equalTo("someUser"));
+                assertThat(event.getSchemaId(), nullValue());
+                assertThat(event.getCreationTimestamp(), nullValue());
+            }
+        });
+
+        assertThat(operations, equalTo(asList(SAVE, DELETE)));
+        assertThat(dataPointIds, equalTo(asList(dataPoint.getHeader().getId(), "someDataPoint")));
+        assertThat(nextOffset, equalTo(eventLog.getEndOffset()));
+    }
+
+    @Test
+    public void readShouldContinueAcrossSegments() {
+
+        int eventCount = 200;
+
+        for (int i = 0; i < eventCount; i++) {
+            eventLog.appendDeletion("someUser", "dataPoint" + i);
+        }
+
+        List<String> dataPointIds = new ArrayList<>();
+
+        eventLog.read(startOffset, eventCount, event -> dataPointIds.add(event.getDataPointId()));
+
+        assertThat(dataPointIds.size(), equalTo(eventCount));
+        assertThat(dataPointIds.get(eventCount - 1), equalTo("dataPoint" + (eventCount - 1)));
+    }
+
+    @Test
+    public void tailShouldResumeAtCommittedOffset() {
+
+        for (int i = 0; i < 5; i++) {
+            eventLog.appendDeletion("someUser", "dataPoint" + i);
+        }
+
+        List<String> dataPointIds = new ArrayList<>();
+
+        assertThat(eventLog.tail(consumerName, 3, event -> dataPointIds.add(event.getDataPointId())), equalTo(3));
+        assertThat(eventLog.getConsumerOffset(consumerName), greaterThan(startOffset));
+
+        // only the two remaining events are read
+        assertThat(eventLog.tail(consumerName, 10, event -> dataPointIds.add(event.getDataPointId())), equalTo(2));
+        assertThat(dataPointIds.get(3), equalTo("dataPoint3"));
+        assertThat(eventLog.getConsumerOffset(consumerName), equalTo(eventLog.getEndOffset()));
+    }
+
+    @Test
+    public void openShouldRecoverEndOffset() throws Exception {
+
+        eventLog.appendDeletion("someUser", "someDataPoint");
+
+        long endOffset = eventLog.getEndOffset();
+
+        eventLog.destroy();
+        eventLog.open();
+
+        assertThat(eventLog.getEndOffset(), equalTo(endOffset));
+        assertThat(eventLog.getConsumerOffset(consumerName), equalTo(startOffset));
+    }
+
+    @Test
+    public void tailShouldResumeFromEndWhenCommittedOffsetWasLost() throws Exception {
+
+        String lostConsumerName = UUID.randomUUID().toString();
+
+        // a consumer offset that was forced to disk when the events it follows weren't
+        Files.write(Paths.get("build/test-event-log/consumers", lostConsumerName + ".offset"),
+                ByteBuffer.allocate(Long.BYTES).putLong(startOffset + 1000).array());
+
+        eventLog.open();
+
+        assertThat(eventLog.getConsumerOffset(lostConsumerName), equalTo(eventLog.getEndOffset()));
+
+        eventLog.appendDeletion("someUser", "someDataPoint");
+
+        List<String> dataPointIds = new ArrayList<>();
+
+        assertThat(eventLog.tail(lostConsumerName, 10, event -> dataPointIds.add(event.getDataPointId())),
+                equalTo(1));
+        assertThat(dataPointIds, equalTo(singletonList("someDataPoint")));
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.repository;
+
+import com.google.common.collect.Range;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmhealth.dsu.configuration.DataPointBucketProperties;
+import org.openmhealth.dsu.configuration.IntegrationTestConfiguration;
+import org.openmhealth.dsu.configuration.MongoPersistenceConfiguration;
+import org.openmhealth.dsu.domain.DataPointSearchCriteria;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.time.ZoneOffset.UTC;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+import static org.openmhealth.dsu.factory.DataPointFactory.*;
+import static org.openmhealth.dsu.repository.DataPointRepositoryIntegrationTests.UNRECOGNIZED_ID;
+import static org.openmhealth.dsu.repository.MongoDataPointBucketRepository.COLLECTION_NAME;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+
+/**
+ * A suite of integration tests for the MongoDB bucketed data point repository.
+ *
+ * @author Emerson Farrugia
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = {
+        IntegrationTestConfiguration.class,
+        MongoPersistenceConfiguration.class,
+        DataPointBucketProperties.class,
+        MongoDataPointBucketRepository.class
+})
+public class MongoDataPointBucketRepositoryIntegrationTests {
+
+    private static final OffsetDateTime WINDOW_START = OffsetDateTime.of(2015, 6, 1, 10, 0, 0, 0, UTC);
+
+    @Autowired
+    private MongoDataPointBucketRepository repository;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    private List<DataPoint> testDataPoints;
+
+    @Before
+    public void initialiseFixture() {
+
+        testDataPoints = new ArrayList<>();
+
+        // three data points in one window, and one in the next
+        for (int minute : new int[]{0, 20, 40, 60}) {
+            testDataPoints.add(newDataPointBuilder().setCreationDateTime(WINDOW_START.plusMinutes(minute)).build());
+        }
+
+        repository.insert(testDataPoints);
+    }
+
+    @After
+    public void deleteFixture() {
+
+        mongoOperations.remove(query(where("user_id").is(TEST_USER_ID)), COLLECTION_NAME);
+    }
+
+    @Test
+    public void insertShouldGroupDataPointsIntoBuckets() {
+
+        assertThat(mongoOperations.count(query(where("user_id").is(TEST_USER_ID)), COLLECTION_NAME), equalTo(2L));
+    }
+
+    @Test
+    public void insertShouldSkipExistingDataPoints() {
+
+        List<DataPoint> insertedDataPoints = repository.insert(testDataPoints);
+
+        assertThat(insertedDataPoints, empty());
+        assertThat(newArrayList(repository.findBySearchCriteria(newSearchCriteriaBuilder().build(), null, null)),
+                hasSize(4));
+    }
+
+    @Test
+    public void findOneShouldReturnDataPointMatchingId() {
+
+        DataPoint testDataPoint = testDataPoints.get(1);
+
+        Optional<DataPoint> result = repository.findOne(testDataPoint.getHeader().getId());
+
+        assertThat(result.isPresent(), equalTo(true));
+        assertThat(result.get(), equalTo(testDataPoint));
+    }
+
+    @Test
+    public void findByIdAndUserIdShouldOnlyReturnDataPointOwnedByUser() {
+
+        DataPoint testDataPoint = testDataPoints.get(1);
+        String id = testDataPoint.getHeader().getId();
+
+        assertThat(repository.findByIdAndUserId(id, UNRECOGNIZED_ID).isPresent(), equalTo(false));
+        assertThat(repository.findByIdAndUserId(id, TEST_USER_ID).get(), equalTo(testDataPoint));
+    }
+
+    @Test
+    public void findBySearchCriteriaShouldReturnDataPointsInRange() {
+
+        DataPointSearchCriteria searchCriteria = newSearchCriteriaBuilder().build();
+        searchCriteria.setCreationTimestampRange(Range.closedOpen(WINDOW_START.plusMinutes(20),
+                WINDOW_START.plusMinutes(60)));
+
+        List<DataPoint> dataPoints = newArrayList(repository.findBySearchCriteria(searchCriteria, null, null));
+
+        assertThat(dataPoints, equalTo(testDataPoints.subList(1, 3)));
+    }
+
+    @Test
+    public void findBySearchCriteriaShouldApplyOffsetAndLimitAcrossBuckets() {
+
+        List<DataPoint> dataPoints =
+                newArrayList(repository.findBySearchCriteria(newSearchCriteriaBuilder().build(), 2, 2));
+
+        assertThat(dataPoints, equalTo(testDataPoints.subList(2, 4)));
+    }
+
+    @Test
+    public void deleteByIdAndUserIdShouldDeleteDataPointFromBucket() {
+
+        String id = testDataPoints.get(0).getHeader().getId();
+
+        assertThat(repository.deleteByIdAndUserId(id, UNRECOGNIZED_ID), equalTo(0L));
+        assertThat(repository.deleteByIdAndUserId(id, TEST_USER_ID), equalTo(1L));
+        assertThat(repository.exists(id), equalTo(false));
+    }
+
+    @Test
+    public void compactedBucketsShouldReadTheSame() {
+
+        assertThat(repository.compactSealedBuckets(10), equalTo(2));
+
+        assertThat(newArrayList(repository.findBySearchCriteria(newSearchCriteriaBuilder().build(), null, null)),
+                equalTo(testDataPoints));
+        assertThat(repository.findOne(testDataPoints.get(1).getHeader().getId()).get(), equalTo(testDataPoints.get(1)));
+    }
+
+    @Test
+    public void deleteShouldDeleteDataPointFromCompactedBucket() {
+
+        repository.compactSealedBuckets(10);
+
+        String id = testDataPoints.get(1).getHeader().getId();
+
+        assertThat(repository.deleteByIdAndUserId(id, TEST_USER_ID), equalTo(1L));
+        assertThat(repository.exists(id), equalTo(false));
+        assertThat(newArrayList(repository.findBySearchCriteria(newSearchCriteriaBuilder().build(), null, null)),
+                hasSize(3));
+    }
+
+    @Test
+    public void insertShouldNotAppendToCompactedBucket() {
+
+        repository.compactSealedBuckets(10);
+
+        DataPoint lateDataPoint = newDataPointBuilder().setCreationDateTime(WINDOW_START.plusMinutes(30)).build();
+
+        repository.insert(singletonList(lateDataPoint));
+
+        assertThat(mongoOperations.count(query(where("user_id").is(TEST_USER_ID)), COLLECTION_NAME), equalTo(3L));
+    }
+
+    @Test
+    public void deleteBySearchCriteriaShouldRemoveEnclosedBucketsAndRewriteStraddlingOnes() {
+
+        DataPointSearchCriteria searchCriteria = newSearchCriteriaBuilder().build();
+        searchCriteria.setCreationTimestampRange(Range.closedOpen(WINDOW_START.plusMinutes(30),
+                WINDOW_START.plusMinutes(90)));
+
+        // the second bucket is removed first, then the data point at 40 minutes is deleted from the first
+        assertThat(repository.deleteBySearchCriteria(searchCriteria, 10), equalTo(1L));
+        assertThat(repository.deleteBySearchCriteria(searchCriteria, 10), equalTo(1L));
+        assertThat(repository.deleteBySearchCriteria(searchCriteria, 10), equalTo(0L));
+
+        assertThat(newArrayList(repository.findBySearchCriteria(newSearchCriteriaBuilder().build(), null, null)),
+                equalTo(testDataPoints.subList(0, 2)));
+        assertThat(mongoOperations.count(query(where("user_id").is(TEST_USER_ID)), COLLECTION_NAME), equalTo(1L));
+    }
+
+    @Test
+    public void deleteByUserIdShouldRemoveBuckets() {
+
+        assertThat(repository.deleteByUserId(UNRECOGNIZED_ID, 10), equalTo(0L));
+        assertThat(repository.deleteByUserId(TEST_USER_ID, 10), equalTo(4L));
+        assertThat(repository.deleteByUserId(TEST_USER_ID, 10), equalTo(0L));
+
+        assertThat(mongoOperations.count(query(where("user_id").is(TEST_USER_ID)), COLLECTION_NAME), equalTo(0L));
+    }
+
+    @Test
+    public void streamByUserIdShouldReturnDataPointsBucketByBucket() {
+
+        try (CloseableIterator<DataPoint> dataPoints = repository.streamByUserId(TEST_USER_ID, null, null)) {
+            assertThat(newArrayList(dataPoints), equalTo(testDataPoints));
+        }
+    }
+
+    @Test
+    public void streamByUserIdShouldResumeAfterId() {
+
+        String afterId = testDataPoints.get(1).getHeader().getId();
+
+        try (CloseableIterator<DataPoint> dataPoints = repository.streamByUserId(TEST_USER_ID, null, afterId)) {
+            assertThat(newArrayList(dataPoints), equalTo(testDataPoints.subList(2, 4)));
+        }
+
+        try (CloseableIterator<DataPoint> dataPoints = repository.streamByUserId(UNRECOGNIZED_ID, null, afterId)) {
+            assertThat(newArrayList(dataPoints), empty());
+        }
+    }
+}
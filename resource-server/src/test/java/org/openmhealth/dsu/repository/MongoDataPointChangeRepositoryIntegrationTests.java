@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmhealth.dsu.configuration.IntegrationTestConfiguration;
+import org.openmhealth.dsu.configuration.MongoPersistenceConfiguration;
+import org.openmhealth.dsu.domain.DataPointChange;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.openmhealth.dsu.domain.DataPointChange.Operation.SAVE;
+import static org.openmhealth.dsu.factory.DataPointFactory.TEST_USER_ID;
+import static org.openmhealth.dsu.repository.DataPointRepositoryIntegrationTests.UNRECOGNIZED_ID;
+import static org.openmhealth.dsu.repository.MongoDataPointChangeRepositoryImpl.COLLECTION_NAME;
+import static org.openmhealth.dsu.repository.MongoDataPointChangeRepositoryImpl.SEQUENCE_COLLECTION_NAME;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+
+/**
+ * A suite of integration tests for the MongoDB data point change repository.
+ *
+ * @author Emerson Farrugia
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = {
+        IntegrationTestConfiguration.class,
+        MongoPersistenceConfiguration.class
+})
+public class MongoDataPointChangeRepositoryIntegrationTests {
+
+    @Autowired
+    private DataPointChangeRepository repository;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @After
+    public void deleteFixture() {
+
+        mongoOperations.remove(query(where("user_id").is(TEST_USER_ID)), COLLECTION_NAME);
+        mongoOperations.remove(query(where("_id").is(TEST_USER_ID)), SEQUENCE_COLLECTION_NAME);
+    }
+
+    @Test
+    public void allocateSequencesShouldAssignConsecutiveSequences() {
+
+        assertThat(repository.findLastSequence(TEST_USER_ID), equalTo(0L));
+        assertThat(repository.allocateSequences(TEST_USER_ID, 3), equalTo(3L));
+        assertThat(repository.allocateSequences(TEST_USER_ID, 1), equalTo(4L));
+        assertThat(repository.findLastSequence(TEST_USER_ID), equalTo(4L));
+        assertThat(repository.findLastSequence(UNRECOGNIZED_ID), equalTo(0L));
+    }
+
+    @Test
+    public void findByUserIdAndSequenceGreaterThanShouldReturnChangesInSequenceOrder() {
+
+        List<DataPointChange> changes = new ArrayList<>();
+
+        for (long sequence : new long[]{3, 1, 2}) {
+
+            DataPointChange change = new DataPointChange();
+            change.setUserId(TEST_USER_ID);
+            change.setSequence(sequence);
+            change.setOperation(SAVE);
+            change.setDataPointId("data-point-" + sequence);
+            changes.add(change);
+        }
+
+        repository.save(changes);
+
+        List<Long> sequences = repository
+                .findByUserIdAndSequenceGreaterThanOrderBySequenceAsc(TEST_USER_ID, 1, new PageRequest(0, 10))
+                .stream()
+                .map(DataPointChange::getSequence)
+                .collect(toList());
+
+        assertThat(sequences, equalTo(Arrays.asList(2L, 3L)));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.repository;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmhealth.dsu.configuration.DataPointCollectionProperties;
+import org.openmhealth.dsu.configuration.IntegrationTestConfiguration;
+import org.openmhealth.dsu.configuration.MongoPersistenceConfiguration;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.time.OffsetDateTime;
+
+import static java.time.ZoneOffset.UTC;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+import static org.openmhealth.dsu.factory.DataPointFactory.newDataPointBuilder;
+
+
+/**
+ * A suite of integration tests for the MongoDB data point repository when data points are partitioned into monthly
+ * collections.
+ *
+ * @author Emerson Farrugia
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = {
+        IntegrationTestConfiguration.class,
+        MongoPersistenceConfiguration.class,
+        DataPointCollectionProperties.class
+})
+@TestPropertySource(properties = "dataPointCollections.period=MONTHLY")
+public class TimePartitionedMongoDataPointRepositoryIntegrationTests extends DataPointRepositoryIntegrationTests {
+
+    public static final String RETRIED_ID = "retried";
+
+
+    @After
+    public void deleteRetriedDataPoint() {
+
+        repository.delete(RETRIED_ID);
+    }
+
+    @Test
+    public void insertShouldSkipDataPointsStoredInOtherCollections() {
+
+        repository.insert(singletonList(newDataPointBuilder().setId(RETRIED_ID).build()));
+
+        DataPoint retriedDataPoint = newDataPointBuilder()
+                .setId(RETRIED_ID)
+                .setCreationDateTime(OffsetDateTime.of(2013, 2, 5, 6, 25, 0, 0, UTC))
+                .build();
+
+        assertThat(repository.insert(singletonList(retriedDataPoint)), empty());
+        assertThat(repository.findByIdIn(singletonList(RETRIED_ID)), hasSize(1));
+    }
+}
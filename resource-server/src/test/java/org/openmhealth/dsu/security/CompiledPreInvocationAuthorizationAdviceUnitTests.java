@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.security;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.access.expression.method.ExpressionBasedAnnotationAttributeFactory;
+import org.springframework.security.access.expression.method.ExpressionBasedPreInvocationAdvice;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.access.prepost.PreInvocationAttribute;
+import org.springframework.security.access.prepost.PreInvocationAuthorizationAdvice;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.common.exceptions.InsufficientScopeException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.expression.OAuth2MethodSecurityExpressionHandler;
+import org.springframework.security.util.SimpleMethodInvocation;
+
+import java.util.HashSet;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+import static org.openmhealth.dsu.configuration.OAuth2Properties.*;
+import static org.springframework.security.core.authority.AuthorityUtils.createAuthorityList;
+
+
+/**
+ * A suite of unit tests for the compiled pre-invocation authorization advice, which compare its decisions with those
+ * of the evaluated expressions it replaces.
+ *
+ * @author Emerson Farrugia
+ */
+public class CompiledPreInvocationAuthorizationAdviceUnitTests {
+
+    private static final String READ_EXPRESSION =
+            "#oauth2.clientHasRole('" + CLIENT_ROLE + "') and #oauth2.hasScope('" + DATA_POINT_READ_SCOPE + "')";
+
+    static class Controller {
+
+        @PreAuthorize(READ_EXPRESSION)
+        public void read() {
+        }
+
+        @PreAuthorize("#oauth2.hasScope('" + DATA_POINT_READ_SCOPE + "') or hasRole('" + END_USER_ROLE + "')")
+        public void readOrEndUser() {
+        }
+    }
+
+    private ExpressionBasedAnnotationAttributeFactory attributeFactory;
+    private ExpressionBasedPreInvocationAdvice expressionAdvice;
+    private CompiledPreInvocationAuthorizationAdvice compiledAdvice;
+
+
+    @Before
+    public void initialiseFixture() {
+
+        OAuth2MethodSecurityExpressionHandler expressionHandler = new OAuth2MethodSecurityExpressionHandler();
+
+        attributeFactory = new ExpressionBasedAnnotationAttributeFactory(expressionHandler);
+
+        expressionAdvice = new ExpressionBasedPreInvocationAdvice();
+        expressionAdvice.setExpressionHandler(expressionHandler);
+
+        compiledAdvice = new CompiledPreInvocationAuthorizationAdvice(expressionAdvice);
+    }
+
+    @Test
+    public void beforeShouldGrantAccessWithRoleAndScope() throws Exception {
+
+        Authentication authentication = newAuthentication(CLIENT_ROLE, DATA_POINT_WRITE_SCOPE, DATA_POINT_READ_SCOPE);
+
+        assertThat(before(compiledAdvice, authentication), equalTo(true));
+        assertThat(before(expressionAdvice, authentication), equalTo(true));
+    }
+
+    @Test
+    public void beforeShouldDenyAccessWithoutRole() throws Exception {
+
+        Authentication authentication = newAuthentication(END_USER_ROLE, DATA_POINT_READ_SCOPE);
+
+        assertThat(before(compiledAdvice, authentication), equalTo(false));
+        assertThat(before(expressionAdvice, authentication), equalTo(false));
+    }
+
+    @Test
+    public void beforeShouldDenyAccessWithoutOAuth2Authentication() throws Exception {
+
+        Authentication authentication = new TestingAuthenticationToken("user", null, CLIENT_ROLE);
+
+        assertThat(before(compiledAdvice, authentication), equalTo(false));
+        assertThat(before(expressionAdvice, authentication), equalTo(false));
+    }
+
+    @Test
+    public void beforeShouldThrowInsufficientScopeWithoutScope() throws Exception {
+
+        Authentication authentication = newAuthentication(CLIENT_ROLE, DATA_POINT_WRITE_SCOPE);
+
+        assertThatInsufficientScopeIsThrown(compiledAdvice, authentication);
+        assertThatInsufficientScopeIsThrown(expressionAdvice, authentication);
+    }
+
+    @Test
+    public void beforeShouldEvaluateExpressionThatCannotBeCompiled() throws Exception {
+
+        PreInvocationAuthorizationAdvice fallbackAdvice = mock(PreInvocationAuthorizationAdvice.class);
+        compiledAdvice = new CompiledPreInvocationAuthorizationAdvice(fallbackAdvice);
+
+        Authentication authentication = newAuthentication(CLIENT_ROLE, DATA_POINT_READ_SCOPE);
+        MethodInvocation invocation = newInvocation("readOrEndUser");
+
+        compiledAdvice.before(authentication, invocation, null);
+        compiledAdvice.before(authentication, invocation, null);
+
+        verify(fallbackAdvice, times(2)).before(authentication, invocation, null);
+    }
+
+    private boolean before(PreInvocationAuthorizationAdvice advice, Authentication authentication)
+            throws Exception {
+
+        PreInvocationAttribute attribute = attributeFactory.createPreInvocationAttribute(null, null, READ_EXPRESSION);
+
+        return advice.before(authentication, newInvocation("read"), attribute);
+    }
+
+    private void assertThatInsufficientScopeIsThrown(PreInvocationAuthorizationAdvice advice,
+            Authentication authentication) throws Exception {
+
+        try {
+            before(advice, authentication);
+            fail("access should have been denied");
+        }
+        catch (AccessDeniedException e) {
+            assertThat(e.getCause(), instanceOf(InsufficientScopeException.class));
+            assertThat(((InsufficientScopeException) e.getCause()).getAdditionalInformation().get("scope"),
+                    equalTo(DATA_POINT_READ_SCOPE));
+        }
+    }
+
+    private MethodInvocation newInvocation(String methodName) throws Exception {
+
+        return new SimpleMethodInvocation(new Controller(), Controller.class.getMethod(methodName));
+    }
+
+    private Authentication newAuthentication(String role, String... scopes) {
+
+        OAuth2Request request = new OAuth2Request(null, "client", createAuthorityList(role), true,
+                new HashSet<>(asList(scopes)), null, null, null, null);
+
+        return new OAuth2Authentication(request, null);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.Collections.emptySet;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+
+
+/**
+ * A suite of unit tests for the caching resource server token services.
+ *
+ * @author Emerson Farrugia
+ */
+public class CachingResourceServerTokenServicesUnitTests {
+
+    private static final String TOKEN_VALUE = "token";
+
+    private TokenStore tokenStore;
+    private CachingResourceServerTokenServices tokenServices;
+    private DefaultOAuth2AccessToken accessToken;
+    private OAuth2Authentication authentication;
+
+    @Before
+    public void initialiseFixture() {
+
+        tokenStore = mock(TokenStore.class);
+        tokenServices = new CachingResourceServerTokenServices(tokenStore, 100, 300, 10);
+
+        accessToken = new DefaultOAuth2AccessToken(TOKEN_VALUE);
+        accessToken.setExpiration(new Date(System.currentTimeMillis() + SECONDS.toMillis(3600)));
+
+        OAuth2Request request = new OAuth2Request(null, "client", null, true, emptySet(), null, null, null, null);
+        authentication = new OAuth2Authentication(request, null);
+    }
+
+    @Test
+    public void loadAuthenticationShouldReadTokenStoreOnce() {
+
+        when(tokenStore.readAccessToken(TOKEN_VALUE)).thenReturn(accessToken);
+        when(tokenStore.readAuthentication(accessToken)).thenReturn(authentication);
+
+        OAuth2Authentication first = tokenServices.loadAuthentication(TOKEN_VALUE);
+        OAuth2Authentication second = tokenServices.loadAuthentication(TOKEN_VALUE);
+
+        assertThat(first.getOAuth2Request(), equalTo(authentication.getOAuth2Request()));
+        assertThat(second, not(sameInstance(first)));
+
+        verify(tokenStore, times(1)).readAccessToken(TOKEN_VALUE);
+        verify(tokenStore, times(1)).readAuthentication(accessToken);
+    }
+
+    @Test(expected = InvalidTokenException.class)
+    public void loadAuthenticationShouldThrowOnUnknownToken() {
+
+        tokenServices.loadAuthentication(TOKEN_VALUE);
+    }
+
+    @Test
+    public void loadAuthenticationShouldRememberUnknownToken() {
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                tokenServices.loadAuthentication(TOKEN_VALUE);
+            }
+            catch (InvalidTokenException e) {
+                // expected
+            }
+        }
+
+        verify(tokenStore, times(1)).readAccessToken(TOKEN_VALUE);
+    }
+
+    @Test
+    public void loadAuthenticationShouldRereadExpiredToken() throws Exception {
+
+        accessToken.setExpiration(new Date(System.currentTimeMillis() + 100));
+
+        when(tokenStore.readAccessToken(TOKEN_VALUE)).thenReturn(accessToken);
+        when(tokenStore.readAuthentication(accessToken)).thenReturn(authentication);
+
+        tokenServices.loadAuthentication(TOKEN_VALUE);
+
+        Thread.sleep(200);
+
+        try {
+            tokenServices.loadAuthentication(TOKEN_VALUE);
+        }
+        catch (InvalidTokenException e) {
+            // expected
+        }
+
+        verify(tokenStore, times(2)).readAccessToken(TOKEN_VALUE);
+        verify(tokenStore).removeAccessToken(accessToken);
+    }
+
+    @Test
+    public void evictShouldCauseReread() {
+
+        when(tokenStore.readAccessToken(TOKEN_VALUE)).thenReturn(accessToken);
+        when(tokenStore.readAuthentication(accessToken)).thenReturn(authentication);
+
+        tokenServices.loadAuthentication(TOKEN_VALUE);
+        tokenServices.evict(TOKEN_VALUE);
+        tokenServices.loadAuthentication(TOKEN_VALUE);
+
+        verify(tokenStore, times(2)).readAccessToken(TOKEN_VALUE);
+    }
+
+    @Test
+    public void concurrentMissesShouldShareRead() throws Exception {
+
+        CountDownLatch readStarted = new CountDownLatch(1);
+        CountDownLatch readReleased = new CountDownLatch(1);
+
+        when(tokenStore.readAccessToken(TOKEN_VALUE)).thenAnswer(invocation -> {
+            readStarted.countDown();
+            readReleased.await();
+            return accessToken;
+        });
+        when(tokenStore.readAuthentication(accessToken)).thenReturn(authentication);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<?> first = executorService.submit(() -> tokenServices.loadAuthentication(TOKEN_VALUE));
+            readStarted.await();
+
+            Future<?> second = executorService.submit(() -> tokenServices.loadAuthentication(TOKEN_VALUE));
+            Thread.sleep(100);
+            readReleased.countDown();
+
+            first.get();
+            second.get();
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+
+        verify(tokenStore, times(1)).readAccessToken(TOKEN_VALUE);
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openmhealth.dsu.configuration.DataPointProcessingProperties;
+import org.openmhealth.dsu.domain.DataPointsSavedEvent;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BiFunction;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.openmhealth.dsu.factory.DataPointFactory.*;
+
+
+/**
+ * A suite of unit tests for the data point processor dispatcher, covering ordering, back pressure, suspension of
+ * failing processors and the ownership of derived data points.
+ *
+ * @author Emerson Farrugia
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DataPointProcessorDispatcherUnitTests {
+
+    private static final String PROCESSOR_NAME = "test";
+    private static final SchemaId TEST_SCHEMA_ID =
+            new SchemaId(TEST_SCHEMA_NAMESPACE, TEST_SCHEMA_NAME, TEST_SCHEMA_VERSION);
+
+    @Mock
+    private DataPointService dataPointService;
+
+    @Spy
+    private DataPointProcessingProperties properties = new DataPointProcessingProperties();
+
+    @Spy
+    private List<DataPointProcessor<?>> processors = new ArrayList<>();
+
+    @InjectMocks
+    private DataPointProcessorDispatcher dispatcher;
+
+
+    @After
+    public void stopLanes() {
+
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void onApplicationEventShouldProcessDataPointsOfUserInSaveOrder() {
+
+        properties.setLaneCount(2);
+
+        // the state of a user is the identifiers of the data points processed so far
+        Map<String, List<String>> processedIds = new ConcurrentHashMap<>();
+
+        startLanes((dataPoint, state) -> {
+            state.add(dataPoint.getHeader().getId());
+            processedIds.put(dataPoint.getHeader().getUserId(), new ArrayList<>(state));
+            return Collections.emptyList();
+        });
+
+        List<String> expectedIds = new ArrayList<>();
+
+        for (int i = 0; i < 50; i++) {
+            expectedIds.add(String.valueOf(i));
+
+            // each event interleaves the data points of both users
+            dispatcher.onApplicationEvent(new DataPointsSavedEvent(this, asList(
+                    newDataPoint("a", String.valueOf(i)),
+                    newDataPoint("b", String.valueOf(i)))));
+        }
+
+        awaitMetric(PROCESSOR_NAME + ".processed", 100);
+
+        assertThat(processedIds.get("a"), equalTo(expectedIds));
+        assertThat(processedIds.get("b"), equalTo(expectedIds));
+    }
+
+    @Test
+    public void onApplicationEventShouldDropDataPointsWhenQueueIsFull() throws InterruptedException {
+
+        properties.setLaneCount(1);
+        properties.setLaneQueueSize(1);
+        properties.setMaximumEnqueueWaitInMillis(10);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        startLanes((dataPoint, state) -> {
+            started.countDown();
+            awaitUninterruptibly(release);
+            return Collections.emptyList();
+        });
+
+        try {
+            // occupy the only lane, then its only queue slot
+            dispatcher.onApplicationEvent(newEvent(newDataPoint(TEST_USER_ID, "1")));
+            assertThat(started.await(10, SECONDS), equalTo(true));
+            dispatcher.onApplicationEvent(newEvent(newDataPoint(TEST_USER_ID, "2")));
+
+            dispatcher.onApplicationEvent(newEvent(newDataPoint(TEST_USER_ID, "3"), newDataPoint(TEST_USER_ID, "4")));
+
+            assertThat(getMetric("dropped"), equalTo(2L));
+        }
+        finally {
+            release.countDown();
+        }
+
+        awaitMetric(PROCESSOR_NAME + ".processed", 2);
+    }
+
+    @Test
+    public void onApplicationEventShouldSuspendProcessorAfterConsecutiveFailures() {
+
+        properties.setMaximumConsecutiveFailureCount(3);
+
+        startLanes((dataPoint, state) -> {
+            throw new IllegalStateException("The processor has failed.");
+        });
+
+        dispatcher.onApplicationEvent(newEvent(
+                newDataPoint(TEST_USER_ID, "1"),
+                newDataPoint(TEST_USER_ID, "2"),
+                newDataPoint(TEST_USER_ID, "3"),
+                newDataPoint(TEST_USER_ID, "4"),
+                newDataPoint(TEST_USER_ID, "5")));
+
+        awaitMetric(PROCESSOR_NAME + ".skipped", 2);
+
+        assertThat(getMetric(PROCESSOR_NAME + ".failed"), equalTo(3L));
+        assertThat(getMetric(PROCESSOR_NAME + ".processed"), equalTo(0L));
+    }
+
+    @Test
+    public void onApplicationEventShouldSaveDerivedDataPointsOfSameUser() {
+
+        DataPoint derivedDataPoint = newDataPoint(TEST_USER_ID, "derived");
+
+        startLanes((dataPoint, state) -> Collections.singletonList(derivedDataPoint));
+
+        dispatcher.onApplicationEvent(newEvent(newDataPoint(TEST_USER_ID, "1")));
+
+        verify(dataPointService, timeout(10000)).save(Collections.singletonList(derivedDataPoint));
+        awaitMetric(PROCESSOR_NAME + ".emitted", 1);
+    }
+
+    @Test
+    public void onApplicationEventShouldRejectDerivedDataPointsOfAnotherUser() {
+
+        startLanes((dataPoint, state) -> Collections.singletonList(newDataPoint("other", "derived")));
+
+        dispatcher.onApplicationEvent(newEvent(newDataPoint(TEST_USER_ID, "1")));
+
+        awaitMetric(PROCESSOR_NAME + ".failed", 1);
+
+        verify(dataPointService, never()).save(anyListOf(DataPoint.class));
+        assertThat(getMetric(PROCESSOR_NAME + ".emitted"), equalTo(0L));
+    }
+
+    private void startLanes(BiFunction<DataPoint, List<String>, List<DataPoint>> function) {
+
+        processors.add(new StubProcessor(function));
+        dispatcher.startLanes();
+    }
+
+    private DataPoint newDataPoint(String userId, String id) {
+
+        return newDataPointBuilder().setUserId(userId).setId(id).build();
+    }
+
+    private DataPointsSavedEvent newEvent(DataPoint... dataPoints) {
+
+        return new DataPointsSavedEvent(this, asList(dataPoints));
+    }
+
+    private long getMetric(String name) {
+
+        for (Metric<?> metric : dispatcher.metrics()) {
+            if (metric.getName().equals("dataPointProcessors." + name)) {
+                return metric.getValue().longValue();
+            }
+        }
+
+        throw new AssertionError("The metric '" + name + "' doesn't exist.");
+    }
+
+    private void awaitMetric(String name, long value) {
+
+        for (int i = 0; i < 1000; i++) {
+            if (getMetric(name) == value) {
+                return;
+            }
+
+            try {
+                MILLISECONDS.sleep(10);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        throw new AssertionError("The metric '" + name + "' hasn't reached " + value + ".");
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+
+        try {
+            latch.await(10, SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * A processor whose behaviour is passed in by a test, and whose state is a list.
+     */
+    private static class StubProcessor implements DataPointProcessor<List<String>> {
+
+        private final BiFunction<DataPoint, List<String>, List<DataPoint>> function;
+
+        StubProcessor(BiFunction<DataPoint, List<String>, List<DataPoint>> function) {
+            this.function = function;
+        }
+
+        @Override
+        public String getName() {
+            return PROCESSOR_NAME;
+        }
+
+        @Override
+        public Set<SchemaId> getSchemaIds() {
+            return Collections.singleton(TEST_SCHEMA_ID);
+        }
+
+        @Override
+        public List<String> createState(String userId) {
+            return new CopyOnWriteArrayList<>();
+        }
+
+        @Override
+        public List<DataPoint> process(DataPoint dataPoint, List<String> state) {
+            return function.apply(dataPoint, state);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openmhealth.dsu.configuration.DataPointBucketProperties;
+import org.openmhealth.dsu.domain.DataPointExportToken;
+import org.openmhealth.dsu.repository.DataPointArchive;
+import org.openmhealth.dsu.repository.DataPointBucketRepository;
+import org.openmhealth.dsu.repository.DataPointRepository;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+import static org.openmhealth.dsu.domain.DataPointExportToken.Store.ARCHIVE;
+import static org.openmhealth.dsu.domain.DataPointExportToken.Store.DOCUMENTS;
+import static org.openmhealth.dsu.factory.DataPointFactory.TEST_USER_ID;
+import static org.openmhealth.dsu.factory.DataPointFactory.newDataPointBuilder;
+
+
+/**
+ * A suite of unit tests for the data point service, covering exports that are resumed after data points have moved
+ * into the archive, and writes that reuse the identifiers of archived data points.
+ *
+ * @author Emerson Farrugia
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DataPointServiceImplUnitTests {
+
+    @Mock
+    private DataPointRepository repository;
+
+    @Mock
+    private DataPointBucketRepository bucketRepository;
+
+    @Mock
+    private DataPointBucketProperties bucketProperties;
+
+    @Mock
+    private DataPointArchive archive;
+
+    @InjectMocks
+    private DataPointServiceImpl dataPointService;
+
+    // the data points stored one to a document, in identifier order, and the archived data points, in archival order
+    private TreeMap<String, DataPoint> documents;
+    private List<DataPoint> archivedDataPoints;
+
+
+    @Before
+    public void initialiseFixture() {
+
+        documents = new TreeMap<>();
+        archivedDataPoints = new ArrayList<>();
+
+        for (String id : asList("1", "2", "3", "4")) {
+            documents.put(id, newDataPointBuilder().setId(id).build());
+        }
+
+        when(repository.streamByHeaderUserId(any(), any(), any())).then(invocation -> {
+
+            String afterId = (String) invocation.getArguments()[2];
+
+            return stream(afterId == null ? documents.values() : documents.tailMap(afterId, false).values());
+        });
+
+        when(bucketRepository.streamByUserId(any(), any(), any())).then(invocation ->
+                stream(Collections.emptyList()));
+
+        // like the file archive, a data point that isn't archived resumes with the first archived data point
+        when(archive.streamByUserId(any(), any(), any())).then(invocation -> {
+
+            String afterId = (String) invocation.getArguments()[2];
+
+            int afterIndex = -1;
+
+            for (int i = 0; i < archivedDataPoints.size(); i++) {
+                if (archivedDataPoints.get(i).getHeader().getId().equals(afterId)) {
+                    afterIndex = i;
+                }
+            }
+
+            return stream(archivedDataPoints.subList(afterIndex + 1, archivedDataPoints.size()));
+        });
+    }
+
+    @Test
+    public void exportByUserIdShouldPassTokensNamingStores() {
+
+        archive("1", "2");
+
+        List<DataPointExportToken> tokens = new ArrayList<>();
+
+        dataPointService.exportByUserId(TEST_USER_ID, null, null, (token, dataPoint) -> tokens.add(token));
+
+        assertThat(tokens, equalTo(asList(
+                new DataPointExportToken(DOCUMENTS, "3"),
+                new DataPointExportToken(DOCUMENTS, "4"),
+                new DataPointExportToken(ARCHIVE, "1"),
+                new DataPointExportToken(ARCHIVE, "2"))));
+    }
+
+    @Test
+    public void exportByUserIdShouldNotDropDataPointsWhenResumePointIsArchivedBetweenCalls() {
+
+        List<DataPointExportToken> firstTokens = new ArrayList<>();
+
+        dataPointService.exportByUserId(TEST_USER_ID, null, null, (token, dataPoint) -> firstTokens.add(token));
+
+        // the first export is interrupted after the second data point, which is then archived
+        DataPointExportToken after = firstTokens.get(1);
+        archive("1", "2");
+
+        List<String> resumedIds = new ArrayList<>();
+
+        dataPointService.exportByUserId(TEST_USER_ID, null, after,
+                (token, dataPoint) -> resumedIds.add(dataPoint.getHeader().getId()));
+
+        // the data points archived since they were read are read again, but none are missed
+        assertThat(resumedIds, equalTo(asList("3", "4", "1", "2")));
+    }
+
+    @Test
+    public void exportByUserIdShouldResumeInArchiveWhenTokenNamesArchive() {
+
+        archive("1", "2", "3");
+
+        List<String> resumedIds = new ArrayList<>();
+
+        dataPointService.exportByUserId(TEST_USER_ID, null, new DataPointExportToken(ARCHIVE, "2"),
+                (token, dataPoint) -> resumedIds.add(dataPoint.getHeader().getId()));
+
+        assertThat(resumedIds, equalTo(asList("3")));
+    }
+
+    @Test
+    public void existsForUserIdShouldReturnTrueOnArchivedId() {
+
+        when(archive.existsByIdAndUserId("5", TEST_USER_ID)).thenReturn(true);
+
+        assertThat(dataPointService.existsForUserId("5", TEST_USER_ID), equalTo(true));
+        assertThat(dataPointService.existsForUserId("6", TEST_USER_ID), equalTo(false));
+    }
+
+    private void archive(String... ids) {
+
+        for (String id : ids) {
+            archivedDataPoints.add(documents.remove(id));
+        }
+    }
+
+    private CloseableIterator<DataPoint> stream(Iterable<DataPoint> dataPoints) {
+
+        List<DataPoint> snapshot = new ArrayList<>();
+        dataPoints.forEach(snapshot::add);
+
+        Iterator<DataPoint> iterator = snapshot.iterator();
+
+        return new CloseableIterator<DataPoint>() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public DataPoint next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
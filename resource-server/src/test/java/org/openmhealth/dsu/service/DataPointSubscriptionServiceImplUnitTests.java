@@ -0,0 +1,373 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openmhealth.dsu.configuration.DataPointSubscriptionProperties;
+import org.openmhealth.dsu.domain.DataPointsSavedEvent;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.openmhealth.schema.domain.omh.SchemaId;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter.SseEventBuilder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.openmhealth.dsu.factory.DataPointFactory.*;
+import static org.openmhealth.dsu.service.DataPointSubscriptionService.DATA_POINT_EVENT_NAME;
+import static org.openmhealth.dsu.service.DataPointSubscriptionService.DROPPED_EVENT_NAME;
+
+
+/**
+ * A suite of unit tests for the data point subscription service, covering fan-out, filtering, dropping data points
+ * for slow subscribers, and the lifecycle of subscriptions. Data points are sent on a single thread, so a subscriber
+ * that blocks holds up every other one.
+ *
+ * @author Emerson Farrugia
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DataPointSubscriptionServiceImplUnitTests {
+
+    private static final SchemaId TEST_SCHEMA_ID =
+            new SchemaId(TEST_SCHEMA_NAMESPACE, TEST_SCHEMA_NAME, TEST_SCHEMA_VERSION);
+    private static final SchemaId OTHER_SCHEMA_ID = new SchemaId(TEST_SCHEMA_NAMESPACE, "other", TEST_SCHEMA_VERSION);
+
+    @Spy
+    private DataPointSubscriptionProperties properties = new DataPointSubscriptionProperties();
+
+    // emitters can't be sent to without a request, so they're replaced with ones that record what they're sent
+    @InjectMocks
+    private DataPointSubscriptionServiceImpl subscriptionService = new DataPointSubscriptionServiceImpl() {
+
+        @Override
+        SseEmitter createEmitter(long timeoutInMillis) {
+            return new RecordingEmitter(timeoutInMillis);
+        }
+    };
+
+
+    @Before
+    public void initialiseFixture() {
+
+        properties.setSenderThreadCount(1);
+        subscriptionService.initializeExecutorService();
+    }
+
+    @After
+    public void shutDownService() {
+
+        subscriptionService.destroy();
+    }
+
+    @Test
+    public void onApplicationEventShouldFanOutToSubscribersOfUser() {
+
+        RecordingEmitter firstEmitter = subscribe("a", null);
+        RecordingEmitter secondEmitter = subscribe("a", null);
+        RecordingEmitter otherUserEmitter = subscribe("b", null);
+
+        publish(newDataPoint("a", "1"));
+
+        awaitEventCount(firstEmitter, 1);
+        awaitEventCount(secondEmitter, 1);
+
+        assertThat(firstEmitter.events, contains(dataPointEvent("1")));
+        assertThat(secondEmitter.events, contains(dataPointEvent("1")));
+        assertThat(otherUserEmitter.events, empty());
+    }
+
+    @Test
+    public void onApplicationEventShouldOnlySendDataPointsOfSubscribedSchema() {
+
+        RecordingEmitter testSchemaEmitter = subscribe(TEST_USER_ID, TEST_SCHEMA_ID);
+        RecordingEmitter otherSchemaEmitter = subscribe(TEST_USER_ID, OTHER_SCHEMA_ID);
+
+        publish(newDataPoint(TEST_USER_ID, "1"));
+
+        awaitEventCount(testSchemaEmitter, 1);
+        awaitMetric("sent", 1);
+
+        assertThat(testSchemaEmitter.events, contains(dataPointEvent("1")));
+        assertThat(otherSchemaEmitter.events, empty());
+    }
+
+    @Test
+    public void onApplicationEventShouldDropDataPointsOfSlowSubscriberOnly() throws InterruptedException {
+
+        properties.setBufferSize(1);
+
+        RecordingEmitter slowEmitter = subscribe("a", null);
+        RecordingEmitter otherEmitter = subscribe("b", null);
+
+        Gate gate = slowEmitter.blockOn(dataPointEvent("1"));
+
+        try {
+            publish(newDataPoint("a", "1"));
+            assertThat(gate.reached.await(10, SECONDS), equalTo(true));
+
+            // the first data point fills the buffer, and the other two are dropped
+            publish(newDataPoint("a", "2"), newDataPoint("a", "3"), newDataPoint("a", "4"));
+            publish(newDataPoint("b", "5"));
+        }
+        finally {
+            gate.release.countDown();
+        }
+
+        awaitEventCount(slowEmitter, 3);
+        awaitEventCount(otherEmitter, 1);
+        awaitMetric("sent", 3);
+
+        assertThat(slowEmitter.events, contains(dataPointEvent("1"), dataPointEvent("2"), droppedEvent(2)));
+        assertThat(otherEmitter.events, contains(dataPointEvent("5")));
+        assertThat(getMetric("dropped"), equalTo(2L));
+    }
+
+    @Test
+    public void sendShouldRescheduleWhenDataPointArrivesWhileSendingIsFinishing() throws InterruptedException {
+
+        properties.setBufferSize(1);
+
+        RecordingEmitter emitter = subscribe(TEST_USER_ID, null);
+
+        Gate dataPointGate = emitter.blockOn(dataPointEvent("1"));
+        Gate droppedGate = emitter.blockOn(droppedEvent(1));
+
+        try {
+            publish(newDataPoint(TEST_USER_ID, "1"));
+            assertThat(dataPointGate.reached.await(10, SECONDS), equalTo(true));
+
+            // one data point is buffered and one is dropped, so the dropped event is sent once the buffer is drained
+            publish(newDataPoint(TEST_USER_ID, "2"), newDataPoint(TEST_USER_ID, "3"));
+            dataPointGate.release.countDown();
+            assertThat(droppedGate.reached.await(10, SECONDS), equalTo(true));
+
+            // the buffer has been drained but the subscription is still being sent to, so this doesn't schedule a send
+            publish(newDataPoint(TEST_USER_ID, "4"));
+        }
+        finally {
+            dataPointGate.release.countDown();
+            droppedGate.release.countDown();
+        }
+
+        awaitEventCount(emitter, 4);
+
+        assertThat(emitter.events,
+                contains(dataPointEvent("1"), dataPointEvent("2"), droppedEvent(1), dataPointEvent("4")));
+    }
+
+    @Test
+    public void subscribeShouldReturnEmptyOptionalOnceMaximumSubscriptionCountIsReached() {
+
+        properties.setMaximumSubscriptionCount(2);
+
+        RecordingEmitter firstEmitter = subscribe(TEST_USER_ID, null);
+        subscribe(TEST_USER_ID, null);
+
+        assertThat(subscriptionService.subscribe(TEST_USER_ID, null), equalTo(Optional.empty()));
+        assertThat(getMetric("count"), equalTo(2L));
+
+        // a completed subscription makes room for another
+        firstEmitter.completeFromContainer();
+
+        assertThat(subscriptionService.subscribe(TEST_USER_ID, null).isPresent(), equalTo(true));
+    }
+
+    @Test
+    public void completionShouldUnsubscribe() {
+
+        RecordingEmitter completedEmitter = subscribe(TEST_USER_ID, null);
+        RecordingEmitter openEmitter = subscribe(TEST_USER_ID, null);
+
+        completedEmitter.completeFromContainer();
+
+        assertThat(getMetric("count"), equalTo(1L));
+
+        publish(newDataPoint(TEST_USER_ID, "1"));
+
+        awaitEventCount(openEmitter, 1);
+        awaitMetric("sent", 1);
+
+        assertThat(completedEmitter.events, empty());
+    }
+
+    private RecordingEmitter subscribe(String userId, SchemaId schemaId) {
+
+        return (RecordingEmitter) subscriptionService.subscribe(userId, schemaId).get();
+    }
+
+    private void publish(DataPoint... dataPoints) {
+
+        subscriptionService.onApplicationEvent(new DataPointsSavedEvent(this, Arrays.asList(dataPoints)));
+    }
+
+    private DataPoint newDataPoint(String userId, String id) {
+
+        return newDataPointBuilder().setUserId(userId).setId(id).build();
+    }
+
+    private static String dataPointEvent(String id) {
+
+        return describe(SseEmitter.event().id(id).name(DATA_POINT_EVENT_NAME).data(id));
+    }
+
+    private static String droppedEvent(long droppedCount) {
+
+        return describe(SseEmitter.event().name(DROPPED_EVENT_NAME).data(droppedCount));
+    }
+
+    /**
+     * @return the text of an event, with each data point replaced by its identifier
+     */
+    private static String describe(SseEventBuilder builder) {
+
+        StringBuilder event = new StringBuilder();
+
+        for (DataWithMediaType part : builder.build()) {
+            Object data = part.getData();
+            event.append(data instanceof DataPoint ? ((DataPoint) data).getHeader().getId() : data);
+        }
+
+        return event.toString();
+    }
+
+    private long getMetric(String name) {
+
+        for (Metric<?> metric : subscriptionService.metrics()) {
+            if (metric.getName().equals("dataPointSubscriptions." + name)) {
+                return metric.getValue().longValue();
+            }
+        }
+
+        throw new AssertionError("The metric '" + name + "' doesn't exist.");
+    }
+
+    private void awaitMetric(String name, long value) {
+
+        await(() -> getMetric(name) == value, "The metric '" + name + "' hasn't reached " + value + ".");
+    }
+
+    private void awaitEventCount(RecordingEmitter emitter, int count) {
+
+        await(() -> emitter.events.size() >= count, "The emitter hasn't been sent " + count + " event(s).");
+    }
+
+    private void await(BooleanSupplier condition, String failureMessage) {
+
+        for (int i = 0; i < 1000; i++) {
+            if (condition.getAsBoolean()) {
+                return;
+            }
+
+            try {
+                MILLISECONDS.sleep(10);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        throw new AssertionError(failureMessage);
+    }
+
+
+    /**
+     * A pair of latches that stop an emitter from returning once it has been sent an event, until it's released.
+     */
+    private static class Gate {
+
+        private final CountDownLatch reached = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+    }
+
+
+    /**
+     * An emitter that records the events it's sent, and runs its completion callback when told to, as the container
+     * would once the request completes.
+     */
+    private static class RecordingEmitter extends SseEmitter {
+
+        private final List<String> events = new CopyOnWriteArrayList<>();
+        private final Map<String, Gate> gates = new ConcurrentHashMap<>();
+        private volatile Runnable completionCallback;
+
+        RecordingEmitter(long timeoutInMillis) {
+            super(timeoutInMillis);
+        }
+
+        Gate blockOn(String event) {
+
+            Gate gate = new Gate();
+            gates.put(event, gate);
+
+            return gate;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+
+            String event = describe(builder);
+            events.add(event);
+
+            Gate gate = gates.get(event);
+
+            if (gate != null) {
+                gate.reached.countDown();
+
+                try {
+                    gate.release.await(10, SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public synchronized void onCompletion(Runnable callback) {
+
+            super.onCompletion(callback);
+            completionCallback = callback;
+        }
+
+        void completeFromContainer() {
+
+            completionCallback.run();
+        }
+    }
+}
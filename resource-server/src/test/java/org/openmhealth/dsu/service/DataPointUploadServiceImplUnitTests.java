@@ -0,0 +1,238 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openmhealth.dsu.configuration.DataPointUploadProperties;
+import org.openmhealth.dsu.domain.DataPointUploadException;
+import org.openmhealth.dsu.domain.DataPointUploadSession;
+import org.openmhealth.dsu.repository.DataPointUploadSessionRepository;
+import org.openmhealth.schema.domain.omh.DataPoint;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import javax.validation.Validator;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static org.openmhealth.dsu.domain.DataPointUploadException.Reason.*;
+import static org.openmhealth.dsu.domain.DataPointUploadSession.Status.COMMITTED;
+import static org.openmhealth.dsu.factory.DataPointFactory.TEST_USER_ID;
+import static org.openmhealth.dsu.factory.DataPointFactory.newDataPointBuilder;
+
+
+/**
+ * A suite of unit tests for the data point upload service, covering chunk replay, ordering, size limits, conflicts
+ * and session expiry.
+ *
+ * @author Emerson Farrugia
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DataPointUploadServiceImplUnitTests {
+
+    private static final String CHUNK = "{\"a\":1}\n\n{\"b\":2}\n";
+
+    @Mock
+    private DataPointUploadSessionRepository repository;
+
+    @Mock
+    private DataPointService dataPointService;
+
+    @Spy
+    private DataPointUploadProperties properties = new DataPointUploadProperties();
+
+    @Mock
+    private ObjectMapper objectMapper;
+
+    @Mock
+    private Validator validator;
+
+    @InjectMocks
+    private DataPointUploadServiceImpl uploadService;
+
+    private DataPointUploadSession session;
+
+
+    @Before
+    public void initialiseFixture() throws IOException {
+
+        when(repository.save(any(DataPointUploadSession.class))).then(invocation -> invocation.getArguments()[0]);
+        when(dataPointService.insert(anyList())).then(invocation -> invocation.getArguments()[0]);
+        when(objectMapper.readValue(anyString(), eq(DataPoint.class)))
+                .then(invocation -> newDataPointBuilder().build());
+        when(validator.validate(any())).thenReturn(Collections.emptySet());
+
+        session = uploadService.createSession(TEST_USER_ID);
+    }
+
+    @Test
+    public void createSessionShouldSetExpirationTimestamp() {
+
+        long expectedExpiration = System.currentTimeMillis() + HOURS.toMillis(properties.getSessionExpiryInHours());
+
+        assertThat(session.getUserId(), equalTo(TEST_USER_ID));
+        assertThat(session.getExpirationTimestamp().getTime(),
+                allOf(greaterThan(expectedExpiration - 60000), lessThanOrEqualTo(expectedExpiration)));
+    }
+
+    @Test
+    public void findSessionShouldNotReturnSessionOfOtherUser() {
+
+        when(repository.findOne(session.getId())).thenReturn(Optional.of(session));
+
+        assertThat(uploadService.findSession(session.getId(), TEST_USER_ID).isPresent(), equalTo(true));
+        assertThat(uploadService.findSession(session.getId(), "other").isPresent(), equalTo(false));
+    }
+
+    @Test
+    public void writeChunkShouldAcknowledgeChunkAndExtendExpiry() throws IOException {
+
+        session.getExpirationTimestamp().setTime(0);
+
+        DataPointUploadSession written = uploadService.writeChunk(session, 0, newChunk(CHUNK));
+
+        assertThat(written.getAcknowledgedChunkCount(), equalTo(1));
+        assertThat(written.getAcknowledgedByteCount(), equalTo((long) CHUNK.length()));
+        assertThat(written.getDataPointCount(), equalTo(2L));
+        assertThat(written.getExpirationTimestamp().getTime(), greaterThan(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void writeChunkShouldReplayAcknowledgedChunkWithoutReadingIt() throws IOException {
+
+        uploadService.writeChunk(session, 0, newChunk(CHUNK));
+        reset(dataPointService);
+
+        InputStream replayedChunk = mock(InputStream.class);
+
+        DataPointUploadSession written = uploadService.writeChunk(session, 0, replayedChunk);
+
+        assertThat(written.getAcknowledgedChunkCount(), equalTo(1));
+        assertThat(written.getDataPointCount(), equalTo(2L));
+        verifyZeroInteractions(replayedChunk, dataPointService);
+    }
+
+    @Test
+    public void writeChunkShouldCountOnlyInsertedDataPointsOfRetriedChunk() throws IOException {
+
+        // the first data point was inserted by an interrupted attempt, so it's skipped as a duplicate
+        when(dataPointService.insert(anyList())).then(invocation -> {
+            List<?> batch = (List<?>) invocation.getArguments()[0];
+            return batch.subList(1, batch.size());
+        });
+
+        DataPointUploadSession written = uploadService.writeChunk(session, 0, newChunk(CHUNK));
+
+        assertThat(written.getAcknowledgedChunkCount(), equalTo(1));
+        assertThat(written.getDataPointCount(), equalTo(1L));
+    }
+
+    @Test
+    public void writeChunkShouldRejectChunkOutOfOrder() throws IOException {
+
+        assertThatUploadFails(() -> uploadService.writeChunk(session, 1, newChunk(CHUNK)), CHUNK_OUT_OF_ORDER);
+    }
+
+    @Test
+    public void writeChunkShouldRejectCommittedSession() throws IOException {
+
+        uploadService.commitSession(session);
+
+        assertThat(session.getStatus(), equalTo(COMMITTED));
+        assertThatUploadFails(() -> uploadService.writeChunk(session, 0, newChunk(CHUNK)), SESSION_NOT_OPEN);
+    }
+
+    @Test
+    public void writeChunkShouldRejectChunkTooLarge() throws IOException {
+
+        properties.setMaximumChunkSize(CHUNK.length() - 1);
+        properties.setInsertBatchSize(1);
+
+        assertThatUploadFails(() -> uploadService.writeChunk(session, 0, newChunk(CHUNK)), CHUNK_TOO_LARGE);
+        assertThat(session.getAcknowledgedChunkCount(), equalTo(0));
+
+        // none of the chunk is inserted, even though its first data point fills a batch before the limit is reached
+        verify(dataPointService, never()).insert(anyList());
+    }
+
+    @Test
+    public void writeChunkShouldRejectMalformedDataPoint() throws IOException {
+
+        properties.setInsertBatchSize(1);
+
+        // only the second data point is malformed
+        when(objectMapper.readValue(anyString(), eq(DataPoint.class)))
+                .thenReturn(newDataPointBuilder().build())
+                .thenThrow(new JsonParseException("", null));
+
+        assertThatUploadFails(() -> uploadService.writeChunk(session, 0, newChunk(CHUNK)), MALFORMED_DATA_POINT);
+        assertThat(session.getAcknowledgedChunkCount(), equalTo(0));
+        verify(dataPointService, never()).insert(anyList());
+    }
+
+    @Test(expected = OptimisticLockingFailureException.class)
+    public void writeChunkShouldPropagateConcurrentWriteOfSameChunk() throws IOException {
+
+        when(repository.save(any(DataPointUploadSession.class)))
+                .thenThrow(new OptimisticLockingFailureException("conflict"));
+
+        uploadService.writeChunk(session, 0, newChunk(CHUNK));
+    }
+
+    private interface UploadOperation {
+
+        void run() throws IOException;
+    }
+
+    private void assertThatUploadFails(UploadOperation operation, DataPointUploadException.Reason reason)
+            throws IOException {
+
+        try {
+            operation.run();
+            fail("the upload should have failed");
+        }
+        catch (DataPointUploadException e) {
+            assertThat(e.getReason(), equalTo(reason));
+        }
+    }
+
+    private InputStream newChunk(String chunk) {
+
+        return new ByteArrayInputStream(chunk.getBytes(UTF_8));
+    }
+}
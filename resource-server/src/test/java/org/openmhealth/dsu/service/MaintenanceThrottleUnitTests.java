@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * A suite of unit tests for the maintenance throttle.
+ *
+ * @author Emerson Farrugia
+ */
+public class MaintenanceThrottleUnitTests {
+
+    private static final long LATENCY_BUDGET = MILLISECONDS.toNanos(250);
+
+    private final AtomicLong latency = new AtomicLong();
+    private final MaintenanceThrottle throttle = new MaintenanceThrottle(1000, 10, LATENCY_BUDGET, latency::get);
+
+    @Test
+    public void getPauseShouldPaceToMaximumRateWithinBudget() {
+
+        long pause = throttle.getPause(1000, MILLISECONDS.toNanos(200));
+
+        assertThat(pause, equalTo(MILLISECONDS.toNanos(800)));
+        assertThat(throttle.getRate(), equalTo(1000.0));
+    }
+
+    @Test
+    public void getPauseShouldNotPauseSlowBatch() {
+
+        assertThat(throttle.getPause(1000, SECONDS.toNanos(2)), equalTo(0L));
+    }
+
+    @Test
+    public void rateShouldBackOffWhenLatencyExceedsBudget() {
+
+        latency.set(LATENCY_BUDGET + 1);
+
+        long pause = throttle.getPause(1000, 0);
+
+        assertThat(throttle.getRate(), equalTo(500.0));
+        assertThat(throttle.getBackoffCount(), equalTo(1L));
+        assertThat(pause, equalTo(SECONDS.toNanos(2)));
+    }
+
+    @Test
+    public void rateShouldNotBackOffBelowMinimum() {
+
+        latency.set(LATENCY_BUDGET + 1);
+
+        for (int i = 0; i < 20; i++) {
+            throttle.getPause(10, 0);
+        }
+
+        assertThat(throttle.getRate(), equalTo(10.0));
+    }
+
+    @Test
+    public void rateShouldRecoverGraduallyOnceWithinBudget() {
+
+        latency.set(LATENCY_BUDGET + 1);
+        throttle.getPause(1000, 0);
+        throttle.getPause(1000, 0);
+
+        latency.set(LATENCY_BUDGET);
+        throttle.getPause(1000, 0);
+
+        assertThat(throttle.getRate(), closeTo(350.0, 0.001));
+    }
+}
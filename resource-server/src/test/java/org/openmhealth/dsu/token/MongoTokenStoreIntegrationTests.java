@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmhealth.dsu.configuration.IntegrationTestConfiguration;
+import org.openmhealth.dsu.configuration.MongoPersistenceConfiguration;
+import org.openmhealth.dsu.domain.EndUserUserDetails;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.*;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Date;
+
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.openmhealth.dsu.token.MongoTokenStore.ACCESS_TOKEN_COLLECTION_NAME;
+import static org.openmhealth.dsu.token.MongoTokenStore.REFRESH_TOKEN_COLLECTION_NAME;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+
+/**
+ * A suite of integration tests for the MongoDB token store.
+ *
+ * @author Emerson Farrugia
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = {
+        IntegrationTestConfiguration.class,
+        MongoPersistenceConfiguration.class
+})
+public class MongoTokenStoreIntegrationTests {
+
+    private static final String CLIENT_ID = "testClient";
+    private static final String USER_NAME = "testUser";
+    private static final String SCOPE = "read_data_points";
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    private MongoTokenStore tokenStore;
+
+    @Before
+    public void initialiseTokenStore() {
+
+        tokenStore = new MongoTokenStore(mongoOperations);
+        tokenStore.ensureIndexes();
+    }
+
+    @After
+    public void deleteFixture() {
+
+        mongoOperations.remove(query(where("client_id").is(CLIENT_ID)), ACCESS_TOKEN_COLLECTION_NAME);
+        mongoOperations.remove(query(where("client_id").is(CLIENT_ID)), REFRESH_TOKEN_COLLECTION_NAME);
+    }
+
+    @Test
+    public void readAccessTokenShouldReturnStoredToken() {
+
+        DefaultOAuth2AccessToken accessToken = newAccessToken("accessToken", "refreshToken");
+        tokenStore.storeAccessToken(accessToken, newAuthentication());
+
+        OAuth2AccessToken storedAccessToken = tokenStore.readAccessToken(accessToken.getValue());
+
+        assertThat(storedAccessToken, equalTo(accessToken));
+        assertThat(storedAccessToken.getExpiration(), equalTo(accessToken.getExpiration()));
+        assertThat(storedAccessToken.getScope(), equalTo(accessToken.getScope()));
+        assertThat(storedAccessToken.getAdditionalInformation(), equalTo(accessToken.getAdditionalInformation()));
+        assertThat(storedAccessToken.getRefreshToken(), instanceOf(ExpiringOAuth2RefreshToken.class));
+        assertThat(storedAccessToken.getRefreshToken().getValue(), equalTo("refreshToken"));
+    }
+
+    @Test
+    public void readAccessTokenShouldReturnNullOnUnknownToken() {
+
+        assertThat(tokenStore.readAccessToken("unknownToken"), nullValue());
+        assertThat(tokenStore.readAuthentication("unknownToken"), nullValue());
+    }
+
+    @Test
+    public void readAuthenticationShouldReturnStoredAuthentication() {
+
+        OAuth2Authentication authentication = newAuthentication();
+        tokenStore.storeAccessToken(newAccessToken("accessToken", null), authentication);
+
+        OAuth2Authentication storedAuthentication = tokenStore.readAuthentication("accessToken");
+
+        assertThat(storedAuthentication.getOAuth2Request(), equalTo(authentication.getOAuth2Request()));
+        assertThat(storedAuthentication.getName(), equalTo(USER_NAME));
+    }
+
+    @Test
+    public void getAccessTokenShouldReturnTokenOfAuthentication() {
+
+        OAuth2Authentication authentication = newAuthentication();
+        tokenStore.storeAccessToken(newAccessToken("accessToken", null), authentication);
+
+        assertThat(tokenStore.getAccessToken(authentication).getValue(), equalTo("accessToken"));
+    }
+
+    @Test
+    public void storeAccessTokenShouldReplaceStoredToken() {
+
+        tokenStore.storeAccessToken(newAccessToken("accessToken", null), newAuthentication());
+        tokenStore.storeAccessToken(newAccessToken("accessToken", "refreshToken"), newAuthentication());
+
+        assertThat(tokenStore.findTokensByClientIdAndUserName(CLIENT_ID, USER_NAME).size(), equalTo(1));
+        assertThat(tokenStore.readAccessToken("accessToken").getRefreshToken(), notNullValue());
+    }
+
+    @Test
+    public void removeAccessTokenUsingRefreshTokenShouldRemoveAccessToken() {
+
+        tokenStore.storeAccessToken(newAccessToken("accessToken", "refreshToken"), newAuthentication());
+
+        tokenStore.removeAccessTokenUsingRefreshToken(new DefaultOAuth2RefreshToken("refreshToken"));
+
+        assertThat(tokenStore.readAccessToken("accessToken"), nullValue());
+    }
+
+    @Test
+    public void readRefreshTokenShouldReturnStoredToken() {
+
+        DefaultExpiringOAuth2RefreshToken refreshToken =
+                new DefaultExpiringOAuth2RefreshToken("refreshToken", new Date(System.currentTimeMillis() + 60_000));
+
+        tokenStore.storeRefreshToken(refreshToken, newAuthentication());
+
+        OAuth2RefreshToken storedRefreshToken = tokenStore.readRefreshToken("refreshToken");
+
+        assertThat(storedRefreshToken, instanceOf(ExpiringOAuth2RefreshToken.class));
+        assertThat(((ExpiringOAuth2RefreshToken) storedRefreshToken).getExpiration(),
+                equalTo(refreshToken.getExpiration()));
+        assertThat(tokenStore.readAuthenticationForRefreshToken(refreshToken).getName(), equalTo(USER_NAME));
+
+        tokenStore.removeRefreshToken(refreshToken);
+
+        assertThat(tokenStore.readRefreshToken("refreshToken"), nullValue());
+    }
+
+    private DefaultOAuth2AccessToken newAccessToken(String value, String refreshTokenValue) {
+
+        DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(value);
+        accessToken.setExpiration(new Date(System.currentTimeMillis() + 60_000));
+        accessToken.setScope(singleton(SCOPE));
+        accessToken.setAdditionalInformation(singletonMap("foo", "bar"));
+
+        if (refreshTokenValue != null) {
+            accessToken.setRefreshToken(new DefaultExpiringOAuth2RefreshToken(refreshTokenValue,
+                    new Date(System.currentTimeMillis() + 120_000)));
+        }
+
+        return accessToken;
+    }
+
+    private OAuth2Authentication newAuthentication() {
+
+        OAuth2Request request = new OAuth2Request(null, CLIENT_ID, AuthorityUtils.createAuthorityList("ROLE_CLIENT"),
+                true, singleton(SCOPE), null, null, null, null);
+
+        EndUserUserDetails userDetails = new EndUserUserDetails(USER_NAME, "");
+
+        return new OAuth2Authentication(request,
+                new UsernamePasswordAuthenticationToken(userDetails, "N/A", userDetails.getAuthorities()));
+    }
+}
@@ -2,21 +2,61 @@ CREATE DATABASE omh;
 USE omh;
 
 CREATE TABLE oauth_access_token (
-  token_id          VARCHAR(256),
+  token_id          VARCHAR(256) PRIMARY KEY,
   token             BLOB,
   authentication_id VARCHAR(256),
   user_name         VARCHAR(256),
   client_id         VARCHAR(256),
   authentication    BLOB,
-  refresh_token     VARCHAR(256)
+  refresh_token     VARCHAR(256),
+  expiration        DATETIME
 );
 
+CREATE INDEX oauth_access_token_authentication_id_idx ON oauth_access_token (authentication_id);
+CREATE INDEX oauth_access_token_client_id_user_name_idx ON oauth_access_token (client_id, user_name);
+CREATE INDEX oauth_access_token_user_name_idx ON oauth_access_token (user_name);
+CREATE INDEX oauth_access_token_refresh_token_idx ON oauth_access_token (refresh_token);
+CREATE INDEX oauth_access_token_expiration_idx ON oauth_access_token (expiration);
+
 CREATE TABLE oauth_refresh_token (
-  token_id       VARCHAR(256),
+  token_id       VARCHAR(256) PRIMARY KEY,
   token          BLOB,
-  authentication BLOB
+  authentication BLOB,
+  expiration     DATETIME
+);
+
+CREATE INDEX oauth_refresh_token_expiration_idx ON oauth_refresh_token (expiration);
+
+-- the tables of the 'compact' access token format, which replace the Java-serialized tables above
+CREATE TABLE oauth_compact_access_token (
+  token                    VARCHAR(256) PRIMARY KEY,
+  token_type               VARCHAR(32)  NOT NULL,
+  expiration               DATETIME,
+  scope                    VARCHAR(1024),
+  refresh_token            VARCHAR(256),
+  refresh_token_expiration DATETIME,
+  additional_information   VARCHAR(4096),
+  authentication_id        VARCHAR(256) NOT NULL,
+  user_name                VARCHAR(256),
+  client_id                VARCHAR(256) NOT NULL,
+  authentication           BLOB         NOT NULL
 );
 
+CREATE INDEX oauth_compact_access_token_authentication_id_idx ON oauth_compact_access_token (authentication_id);
+CREATE INDEX oauth_compact_access_token_client_id_user_name_idx ON oauth_compact_access_token (client_id, user_name);
+CREATE INDEX oauth_compact_access_token_refresh_token_idx ON oauth_compact_access_token (refresh_token);
+CREATE INDEX oauth_compact_access_token_expiration_idx ON oauth_compact_access_token (expiration);
+
+CREATE TABLE oauth_compact_refresh_token (
+  token          VARCHAR(256) PRIMARY KEY,
+  expiration     DATETIME,
+  user_name      VARCHAR(256),
+  client_id      VARCHAR(256) NOT NULL,
+  authentication BLOB         NOT NULL
+);
+
+CREATE INDEX oauth_compact_refresh_token_expiration_idx ON oauth_compact_refresh_token (expiration);
+
 CREATE TABLE oauth_client_details (
   client_id               VARCHAR(256) PRIMARY KEY,
   resource_ids            VARCHAR(256),
@@ -0,0 +1,36 @@
+USE omh;
+
+-- Adds the keys, indexes and expiry columns of the current oauth2-ddl.sql to token tables created by an older version.
+-- Duplicate token identifiers have to be removed before the primary keys can be added. Tokens written before the
+-- upgrade have no expiry, so they're given the latest one they can have: the token validity of their client, or the
+-- default of 12 hours for access tokens and 30 days for refresh tokens, counted from the upgrade. The reaper then
+-- deletes them once they've certainly expired. Tokens of clients whose validity isn't positive never expire, and keep
+-- a null expiry.
+
+ALTER TABLE oauth_access_token
+  ADD COLUMN expiration DATETIME,
+  ADD PRIMARY KEY (token_id),
+  ADD INDEX oauth_access_token_authentication_id_idx (authentication_id),
+  ADD INDEX oauth_access_token_client_id_user_name_idx (client_id, user_name),
+  ADD INDEX oauth_access_token_user_name_idx (user_name),
+  ADD INDEX oauth_access_token_refresh_token_idx (refresh_token),
+  ADD INDEX oauth_access_token_expiration_idx (expiration);
+
+ALTER TABLE oauth_refresh_token
+  ADD COLUMN expiration DATETIME,
+  ADD PRIMARY KEY (token_id),
+  ADD INDEX oauth_refresh_token_expiration_idx (expiration);
+
+UPDATE oauth_access_token t
+  LEFT JOIN oauth_client_details c ON c.client_id = t.client_id
+SET t.expiration = NOW() + INTERVAL COALESCE(c.access_token_validity, 43200) SECOND
+WHERE t.expiration IS NULL
+  AND COALESCE(c.access_token_validity, 43200) > 0;
+
+-- refresh tokens only know their client through the access tokens issued with them
+UPDATE oauth_refresh_token r
+  LEFT JOIN oauth_access_token t ON t.refresh_token = r.token_id
+  LEFT JOIN oauth_client_details c ON c.client_id = t.client_id
+SET r.expiration = NOW() + INTERVAL COALESCE(c.refresh_token_validity, 2592000) SECOND
+WHERE r.expiration IS NULL
+  AND COALESCE(c.refresh_token_validity, 2592000) > 0;
@@ -0,0 +1,45 @@
+\c omh
+
+-- Adds the keys, indexes and expiry columns of the current oauth2-ddl.sql to token tables created by an older version.
+-- Duplicate token identifiers have to be removed before the primary keys can be added. Tokens written before the
+-- upgrade have no expiry, so they're given the latest one they can have: the token validity of their client, or the
+-- default of 12 hours for access tokens and 30 days for refresh tokens, counted from the upgrade. The reaper then
+-- deletes them once they've certainly expired. Tokens of clients whose validity isn't positive never expire, and keep
+-- a null expiry. The indexes are built concurrently, so that token lookups aren't blocked while they're built.
+
+ALTER TABLE oauth_access_token ADD COLUMN expiration TIMESTAMP;
+ALTER TABLE oauth_refresh_token ADD COLUMN expiration TIMESTAMP;
+
+CREATE UNIQUE INDEX CONCURRENTLY oauth_access_token_pkey ON oauth_access_token (token_id);
+ALTER TABLE oauth_access_token ADD PRIMARY KEY USING INDEX oauth_access_token_pkey;
+
+CREATE UNIQUE INDEX CONCURRENTLY oauth_refresh_token_pkey ON oauth_refresh_token (token_id);
+ALTER TABLE oauth_refresh_token ADD PRIMARY KEY USING INDEX oauth_refresh_token_pkey;
+
+CREATE INDEX CONCURRENTLY oauth_access_token_authentication_id_idx ON oauth_access_token (authentication_id);
+CREATE INDEX CONCURRENTLY oauth_access_token_client_id_user_name_idx ON oauth_access_token (client_id, user_name);
+CREATE INDEX CONCURRENTLY oauth_access_token_user_name_idx ON oauth_access_token (user_name);
+CREATE INDEX CONCURRENTLY oauth_access_token_refresh_token_idx ON oauth_access_token (refresh_token);
+CREATE INDEX CONCURRENTLY oauth_access_token_expiration_idx ON oauth_access_token (expiration);
+CREATE INDEX CONCURRENTLY oauth_refresh_token_expiration_idx ON oauth_refresh_token (expiration);
+
+UPDATE oauth_access_token t
+SET expiration = now() + v.validity * INTERVAL '1 second'
+FROM (SELECT a.token_id, COALESCE(c.access_token_validity, 43200) AS validity
+      FROM oauth_access_token a
+        LEFT JOIN oauth_client_details c ON c.client_id = a.client_id
+      WHERE a.expiration IS NULL) v
+WHERE t.token_id = v.token_id
+  AND v.validity > 0;
+
+-- refresh tokens only know their client through the access tokens issued with them
+UPDATE oauth_refresh_token r
+SET expiration = now() + v.validity * INTERVAL '1 second'
+FROM (SELECT rt.token_id, COALESCE(max(c.refresh_token_validity), 2592000) AS validity
+      FROM oauth_refresh_token rt
+        LEFT JOIN oauth_access_token a ON a.refresh_token = rt.token_id
+        LEFT JOIN oauth_client_details c ON c.client_id = a.client_id
+      WHERE rt.expiration IS NULL
+      GROUP BY rt.token_id) v
+WHERE r.token_id = v.token_id
+  AND v.validity > 0;
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control how OAuth2 access tokens are issued and verified.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "accessTokens")
+public class AccessTokenProperties {
+
+    public enum Format {
+
+        /**
+         * Random tokens that are looked up in the relational token store, which keeps them Java-serialized.
+         */
+        JDBC,
+
+        /**
+         * Random tokens that are looked up in the relational token store, which keeps them in typed columns and a
+         * compact encoding.
+         */
+        COMPACT,
+
+        /**
+         * Random tokens that are looked up in MongoDB, which removes them once they expire.
+         */
+        MONGO,
+
+        /**
+         * JSON Web Tokens signed by the authorization server, which resource servers verify without a lookup.
+         */
+        JWT
+    }
+
+    private Format format = Format.JDBC;
+    private String jwkSetFile = "jwks.json";
+    private String signingKeyId;
+    private long keySetReloadIntervalInMillis = 60_000;
+    private long revocationListSyncIntervalInMillis = 30_000;
+    private boolean migrateSerializedTokens = false;
+    private long expiredTokenReaperIntervalInMillis = 600_000;
+    private int expiredTokenReaperBatchSize = 1000;
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * @return the file holding the JSON Web Key set used to sign and verify tokens, which includes private keys on the
+     * authorization server and only public keys on resource servers
+     */
+    public String getJwkSetFile() {
+        return jwkSetFile;
+    }
+
+    public void setJwkSetFile(String jwkSetFile) {
+        this.jwkSetFile = jwkSetFile;
+    }
+
+    /**
+     * @return the identifier of the key to sign tokens with, or null to sign with the first private key in the set
+     */
+    public String getSigningKeyId() {
+        return signingKeyId;
+    }
+
+    public void setSigningKeyId(String signingKeyId) {
+        this.signingKeyId = signingKeyId;
+    }
+
+    /**
+     * @return the interval at which the key set file is checked for changes, in milliseconds
+     */
+    public long getKeySetReloadIntervalInMillis() {
+        return keySetReloadIntervalInMillis;
+    }
+
+    public void setKeySetReloadIntervalInMillis(long keySetReloadIntervalInMillis) {
+        this.keySetReloadIntervalInMillis = keySetReloadIntervalInMillis;
+    }
+
+    /**
+     * @return the interval at which revoked tokens are read from MongoDB, in milliseconds, which bounds how long a
+     * revoked token remains usable on another server
+     */
+    public long getRevocationListSyncIntervalInMillis() {
+        return revocationListSyncIntervalInMillis;
+    }
+
+    public void setRevocationListSyncIntervalInMillis(long revocationListSyncIntervalInMillis) {
+        this.revocationListSyncIntervalInMillis = revocationListSyncIntervalInMillis;
+    }
+
+    /**
+     * @return true if Java-serialized tokens should be copied to the compact token store on startup
+     */
+    public boolean isMigrateSerializedTokens() {
+        return migrateSerializedTokens;
+    }
+
+    public void setMigrateSerializedTokens(boolean migrateSerializedTokens) {
+        this.migrateSerializedTokens = migrateSerializedTokens;
+    }
+
+    /**
+     * @return the interval at which expired tokens are deleted from the relational token store, in milliseconds
+     */
+    public long getExpiredTokenReaperIntervalInMillis() {
+        return expiredTokenReaperIntervalInMillis;
+    }
+
+    public void setExpiredTokenReaperIntervalInMillis(long expiredTokenReaperIntervalInMillis) {
+        this.expiredTokenReaperIntervalInMillis = expiredTokenReaperIntervalInMillis;
+    }
+
+    /**
+     * @return the maximum number of expired tokens to delete at a time
+     */
+    public int getExpiredTokenReaperBatchSize() {
+        return expiredTokenReaperBatchSize;
+    }
+
+    public void setExpiredTokenReaperBatchSize(int expiredTokenReaperBatchSize) {
+        this.expiredTokenReaperBatchSize = expiredTokenReaperBatchSize;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * The properties that control the cache of OAuth2 client details.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "clientDetailsCache")
+public class ClientDetailsCacheProperties {
+
+    private boolean enabled = true;
+    private int timeToLiveInSeconds = 300;
+    private long versionPollIntervalInMillis = 5000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the number of seconds after which cached client details are read again, which bounds how long changes
+     * made without going through a client registration service remain unnoticed
+     */
+    public int getTimeToLiveInSeconds() {
+        return timeToLiveInSeconds;
+    }
+
+    public void setTimeToLiveInSeconds(int timeToLiveInSeconds) {
+        this.timeToLiveInSeconds = timeToLiveInSeconds;
+    }
+
+    /**
+     * @return the interval at which the shared version stamp is checked for changes made on other servers, in
+     * milliseconds
+     */
+    public long getVersionPollIntervalInMillis() {
+        return versionPollIntervalInMillis;
+    }
+
+    public void setVersionPollIntervalInMillis(long versionPollIntervalInMillis) {
+        this.versionPollIntervalInMillis = versionPollIntervalInMillis;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.configuration;
+
+import org.openmhealth.dsu.filter.CompressionMetrics;
+import org.openmhealth.dsu.filter.RequestDecompressionFilter;
+import org.openmhealth.dsu.filter.ResponseCompressionFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.context.embedded.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.http.MediaType;
+
+import java.util.stream.Collectors;
+
+
+/**
+ * A configuration that registers the request decompression and response compression filters. Both are ordered ahead
+ * of the Spring Security filter chain, so that every response is compressed and every request body is inflated
+ * before anything reads it.
+ *
+ * @author Emerson Farrugia
+ */
+@Configuration
+@ConditionalOnWebApplication
+public class CompressionConfiguration {
+
+    @Autowired
+    private CompressionProperties properties;
+
+    @Autowired
+    private CompressionMetrics metrics;
+
+    @Bean
+    public FilterRegistrationBean responseCompressionFilterRegistration() {
+
+        CompressionProperties.Response responseProperties = properties.getResponse();
+
+        ResponseCompressionFilter filter = new ResponseCompressionFilter(
+                responseProperties.getMinimumSize(),
+                responseProperties.getLevel(),
+                responseProperties.getMediaTypes().stream().map(MediaType::parseMediaType).collect(Collectors.toList()),
+                metrics);
+
+        FilterRegistrationBean registration = new FilterRegistrationBean(filter);
+        registration.setEnabled(responseProperties.isEnabled());
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+
+        return registration;
+    }
+
+    @Bean
+    public FilterRegistrationBean requestDecompressionFilterRegistration() {
+
+        RequestDecompressionFilter filter =
+                new RequestDecompressionFilter(properties.getRequest().getMaximumInflatedSize(), metrics);
+
+        FilterRegistrationBean registration = new FilterRegistrationBean(filter);
+        registration.setEnabled(properties.getRequest().isEnabled());
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+
+        return registration;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+
+
+/**
+ * The properties that control request decompression and response compression.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConfigurationProperties(prefix = "compression")
+public class CompressionProperties {
+
+    private Request request = new Request();
+    private Response response = new Response();
+
+    public Request getRequest() {
+        return request;
+    }
+
+    public Response getResponse() {
+        return response;
+    }
+
+    public static class Request {
+
+        private boolean enabled = true;
+        private long maximumInflatedSize = 64 * 1024 * 1024;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * @return the maximum size of an inflated request body, in bytes
+         */
+        public long getMaximumInflatedSize() {
+            return maximumInflatedSize;
+        }
+
+        public void setMaximumInflatedSize(long maximumInflatedSize) {
+            this.maximumInflatedSize = maximumInflatedSize;
+        }
+    }
+
+    public static class Response {
+
+        private boolean enabled = true;
+        private int minimumSize = 2048;
+        private int level = 6;
+        private List<String> mediaTypes = new ArrayList<>(
+                asList("application/json", "application/*+json", "application/x-ndjson", "text/plain", "text/html"));
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * @return the minimum size of a response to compress, in bytes
+         */
+        public int getMinimumSize() {
+            return minimumSize;
+        }
+
+        public void setMinimumSize(int minimumSize) {
+            this.minimumSize = minimumSize;
+        }
+
+        /**
+         * @return the deflate compression level, from 1 to 9
+         */
+        public int getLevel() {
+            return level;
+        }
+
+        public void setLevel(int level) {
+            this.level = level;
+        }
+
+        public List<String> getMediaTypes() {
+            return mediaTypes;
+        }
+
+        public void setMediaTypes(List<String> mediaTypes) {
+            this.mediaTypes = mediaTypes;
+        }
+    }
+}
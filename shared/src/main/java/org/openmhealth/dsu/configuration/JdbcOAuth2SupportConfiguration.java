@@ -16,13 +16,16 @@
 
 package org.openmhealth.dsu.configuration;
 
+import org.openmhealth.dsu.token.CompactJdbcTokenStore;
+import org.openmhealth.dsu.token.ExpiredTokenReaper;
+import org.openmhealth.dsu.token.ExpiringJdbcTokenStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.oauth2.provider.ClientDetailsService;
 import org.springframework.security.oauth2.provider.client.JdbcClientDetailsService;
 import org.springframework.security.oauth2.provider.token.TokenStore;
-import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
 
 import javax.sql.DataSource;
 
@@ -39,13 +42,49 @@ public class JdbcOAuth2SupportConfiguration {
     @Autowired
     private DataSource dataSource;
 
+    @Autowired
+    private AccessTokenProperties accessTokenProperties;
+
     /**
-     * @return the store used to persist OAuth2 access and refresh tokens
+     * @return the store used to persist OAuth2 access and refresh tokens, unless tokens are signed instead
      */
     @Bean
+    @ConditionalOnProperty(prefix = "accessTokens", name = "format", havingValue = "jdbc", matchIfMissing = true)
     public TokenStore tokenStore() {
 
-        return new JdbcTokenStore(dataSource);
+        return new ExpiringJdbcTokenStore(dataSource);
+    }
+
+    /**
+     * @return the job that deletes expired tokens written by {@link #tokenStore()}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "accessTokens", name = "format", havingValue = "jdbc", matchIfMissing = true)
+    public ExpiredTokenReaper expiredTokenReaper() {
+
+        return new ExpiredTokenReaper(dataSource, "token_id", accessTokenProperties.getExpiredTokenReaperBatchSize(),
+                "oauth_access_token", "oauth_refresh_token");
+    }
+
+    /**
+     * @return the store used to persist OAuth2 access and refresh tokens without Java serialization
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "accessTokens", name = "format", havingValue = "compact")
+    public CompactJdbcTokenStore compactTokenStore() {
+
+        return new CompactJdbcTokenStore(dataSource);
+    }
+
+    /**
+     * @return the job that deletes expired tokens written by {@link #compactTokenStore()}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "accessTokens", name = "format", havingValue = "compact")
+    public ExpiredTokenReaper compactExpiredTokenReaper() {
+
+        return new ExpiredTokenReaper(dataSource, "token", accessTokenProperties.getExpiredTokenReaperBatchSize(),
+                "oauth_compact_access_token", "oauth_compact_refresh_token");
     }
 
     /**
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.configuration;
+
+import org.openmhealth.dsu.token.AccessTokenRevocationList;
+import org.openmhealth.dsu.token.JsonWebKeySet;
+import org.openmhealth.dsu.token.KeyRotatingJwtAccessTokenConverter;
+import org.openmhealth.dsu.token.RevocableJwtTokenStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+import java.nio.file.Paths;
+
+
+/**
+ * A configuration of OAuth2 support objects for signed JSON Web Tokens. It replaces the relational token store when
+ * the access token format is JWT, so that resource servers can verify tokens without a lookup.
+ *
+ * @author Emerson Farrugia
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "accessTokens", name = "format", havingValue = "jwt")
+public class JwtOAuth2SupportConfiguration {
+
+    @Autowired
+    private AccessTokenProperties properties;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    /**
+     * @return the keys used to sign and verify tokens
+     */
+    @Bean
+    public JsonWebKeySet jsonWebKeySet() {
+
+        return new JsonWebKeySet(Paths.get(properties.getJwkSetFile()), properties.getSigningKeyId());
+    }
+
+    /**
+     * @return the list of tokens revoked before they expire
+     */
+    @Bean
+    public AccessTokenRevocationList accessTokenRevocationList() {
+
+        return new AccessTokenRevocationList(mongoOperations);
+    }
+
+    /**
+     * @return the converter used to encode and decode tokens
+     */
+    @Bean
+    public KeyRotatingJwtAccessTokenConverter accessTokenConverter() {
+
+        return new KeyRotatingJwtAccessTokenConverter(jsonWebKeySet(), accessTokenRevocationList());
+    }
+
+    /**
+     * @return the store used to read and revoke tokens
+     */
+    @Bean
+    public TokenStore tokenStore() {
+
+        return new RevocableJwtTokenStore(accessTokenConverter(), accessTokenRevocationList());
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.configuration;
+
+import org.openmhealth.dsu.token.MongoTokenStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+
+/**
+ * A configuration of OAuth2 support objects backed by MongoDB. It replaces the relational token store when the access
+ * token format is "mongo", so that authenticating a request doesn't need a relational database.
+ *
+ * @author Emerson Farrugia
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "accessTokens", name = "format", havingValue = "mongo")
+public class MongoOAuth2SupportConfiguration {
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    /**
+     * @return the store used to persist OAuth2 access and refresh tokens
+     */
+    @Bean
+    public MongoTokenStore tokenStore() {
+
+        return new MongoTokenStore(mongoOperations);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.filter;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+
+/**
+ * The metrics of request decompression and response compression, exposed through the Spring Boot metrics endpoint.
+ * Time is measured on the request thread while it inflates or deflates, so it approximates the CPU time spent.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+public class CompressionMetrics implements PublicMetrics {
+
+    private final LongAdder decompressedRequestCount = new LongAdder();
+    private final LongAdder requestCompressedBytes = new LongAdder();
+    private final LongAdder requestInflatedBytes = new LongAdder();
+    private final LongAdder requestInflateNanos = new LongAdder();
+
+    private final LongAdder compressedResponseCount = new LongAdder();
+    private final LongAdder uncompressedResponseCount = new LongAdder();
+    private final LongAdder responseUncompressedBytes = new LongAdder();
+    private final LongAdder responseCompressedBytes = new LongAdder();
+    private final LongAdder responseDeflateNanos = new LongAdder();
+
+    void recordDecompressedRequest(long compressedBytes, long inflatedBytes, long inflateNanos) {
+
+        decompressedRequestCount.increment();
+        requestCompressedBytes.add(compressedBytes);
+        requestInflatedBytes.add(inflatedBytes);
+        requestInflateNanos.add(inflateNanos);
+    }
+
+    void recordCompressedResponse(long uncompressedBytes, long compressedBytes, long deflateNanos) {
+
+        compressedResponseCount.increment();
+        responseUncompressedBytes.add(uncompressedBytes);
+        responseCompressedBytes.add(compressedBytes);
+        responseDeflateNanos.add(deflateNanos);
+    }
+
+    void recordUncompressedResponse() {
+
+        uncompressedResponseCount.increment();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        metrics.add(new Metric<>("compression.request.count", decompressedRequestCount.sum()));
+        metrics.add(new Metric<>("compression.request.bytes.compressed", requestCompressedBytes.sum()));
+        metrics.add(new Metric<>("compression.request.bytes.inflated", requestInflatedBytes.sum()));
+        metrics.add(new Metric<>("compression.request.inflate.time",
+                NANOSECONDS.toMillis(requestInflateNanos.sum())));
+
+        long uncompressedBytes = responseUncompressedBytes.sum();
+        long compressedBytes = responseCompressedBytes.sum();
+
+        metrics.add(new Metric<>("compression.response.count.compressed", compressedResponseCount.sum()));
+        metrics.add(new Metric<>("compression.response.count.uncompressed", uncompressedResponseCount.sum()));
+        metrics.add(new Metric<>("compression.response.bytes.uncompressed", uncompressedBytes));
+        metrics.add(new Metric<>("compression.response.bytes.compressed", compressedBytes));
+        metrics.add(new Metric<>("compression.response.bytes.saved", uncompressedBytes - compressedBytes));
+        metrics.add(new Metric<>("compression.response.deflate.time",
+                NANOSECONDS.toMillis(responseDeflateNanos.sum())));
+
+        return metrics;
+    }
+}
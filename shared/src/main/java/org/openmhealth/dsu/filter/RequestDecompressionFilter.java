@@ -0,0 +1,362 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.filter;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.lang.String.format;
+import static javax.servlet.http.HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.springframework.http.HttpHeaders.CONTENT_ENCODING;
+import static org.springframework.http.HttpHeaders.CONTENT_LENGTH;
+
+
+/**
+ * A filter that inflates gzip and deflate encoded request bodies as they are read, so that message converters and
+ * controllers further down the chain see the plain body. The body is never buffered, and reading stops with an
+ * exception once the inflated body exceeds a maximum size, which protects the server against compression bombs. Such
+ * a request gets a 413 response, whatever error the code that was reading the body would have reported. A body with
+ * the identity encoding is passed through unchanged.
+ *
+ * @author Emerson Farrugia
+ */
+public class RequestDecompressionFilter extends OncePerRequestFilter {
+
+    private final long maximumInflatedSize;
+    private final CompressionMetrics metrics;
+
+    /**
+     * @param maximumInflatedSize the maximum size of an inflated request body, in bytes
+     * @param metrics the metrics to update
+     */
+    public RequestDecompressionFilter(long maximumInflatedSize, CompressionMetrics metrics) {
+
+        this.maximumInflatedSize = maximumInflatedSize;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+
+        String contentEncoding = request.getHeader(CONTENT_ENCODING);
+
+        if (contentEncoding == null || contentEncoding.trim().equalsIgnoreCase("identity")) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        contentEncoding = contentEncoding.trim().toLowerCase();
+
+        if (!contentEncoding.equals("gzip") && !contentEncoding.equals("x-gzip")
+                && !contentEncoding.equals("deflate")) {
+
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+            return;
+        }
+
+        InflatingServletInputStream inputStream = new InflatingServletInputStream(request.getInputStream(),
+                !contentEncoding.equals("deflate"));
+
+        try {
+            chain.doFilter(new DecompressedRequestWrapper(request, inputStream),
+                    new InflatedSizeResponseWrapper(response, inputStream));
+        }
+        catch (IOException | ServletException | RuntimeException e) {
+
+            // the exception is usually a consequence of the body being cut off at the maximum size
+            if (!inputStream.isMaximumSizeExceeded() || response.isCommitted()) {
+                throw e;
+            }
+
+            response.sendError(SC_REQUEST_ENTITY_TOO_LARGE);
+        }
+        finally {
+            // closing the stream releases the native memory of its inflater, even if the body wasn't read in full
+            try {
+                inputStream.close();
+            }
+            catch (IOException e) {
+                // the response has been written, so there's nothing left to do with the body
+            }
+
+            inputStream.recordMetrics();
+        }
+    }
+
+    /**
+     * A response that reports an error caused by an oversize inflated body as a 413, instead of the 400 or 500 that
+     * message converters and controllers report when reading a body fails.
+     */
+    private static class InflatedSizeResponseWrapper extends HttpServletResponseWrapper {
+
+        private final InflatingServletInputStream inputStream;
+
+        InflatedSizeResponseWrapper(HttpServletResponse response, InflatingServletInputStream inputStream) {
+
+            super(response);
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        public void setStatus(int status) {
+            super.setStatus(translateStatus(status));
+        }
+
+        @Override
+        public void sendError(int status) throws IOException {
+            super.sendError(translateStatus(status));
+        }
+
+        @Override
+        public void sendError(int status, String message) throws IOException {
+            super.sendError(translateStatus(status), message);
+        }
+
+        private int translateStatus(int status) {
+
+            return status >= 400 && inputStream.isMaximumSizeExceeded() ? SC_REQUEST_ENTITY_TOO_LARGE : status;
+        }
+    }
+
+    /**
+     * A request that hides the content encoding and length of the compressed body.
+     */
+    private static class DecompressedRequestWrapper extends HttpServletRequestWrapper {
+
+        private final ServletInputStream inputStream;
+        private BufferedReader reader;
+
+        DecompressedRequestWrapper(HttpServletRequest request, ServletInputStream inputStream) {
+
+            super(request);
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            return inputStream;
+        }
+
+        @Override
+        public BufferedReader getReader() {
+
+            if (reader == null) {
+                String encoding = getCharacterEncoding();
+                reader = new BufferedReader(new InputStreamReader(inputStream,
+                        encoding != null ? Charset.forName(encoding) : ISO_8859_1));
+            }
+
+            return reader;
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(String name) {
+
+            if (isHiddenHeader(name)) {
+                return null;
+            }
+
+            return super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+
+            if (isHiddenHeader(name)) {
+                return Collections.emptyEnumeration();
+            }
+
+            return super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+
+            return Collections.enumeration(Collections.list(super.getHeaderNames()).stream()
+                    .filter(name -> !isHiddenHeader(name))
+                    .collect(Collectors.toList()));
+        }
+
+        private boolean isHiddenHeader(String name) {
+
+            return CONTENT_ENCODING.equalsIgnoreCase(name) || CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+    }
+
+    /**
+     * An input stream that inflates the compressed body lazily, counting bytes on both sides.
+     */
+    private class InflatingServletInputStream extends ServletInputStream {
+
+        private final ServletInputStream compressedStream;
+        private final boolean gzip;
+        private InputStream inflatingStream;
+        private long compressedByteCount;
+        private long inflatedByteCount;
+        private long inflateNanos;
+        private boolean finished;
+        private boolean maximumSizeExceeded;
+        private boolean metricsRecorded;
+
+        InflatingServletInputStream(ServletInputStream compressedStream, boolean gzip) {
+
+            this.compressedStream = compressedStream;
+            this.gzip = gzip;
+        }
+
+        // the stream is opened on first read, since a GZIPInputStream reads the header in its constructor
+        private InputStream getInflatingStream() throws IOException {
+
+            if (inflatingStream == null) {
+                InputStream countingStream = new InputStream() {
+
+                    @Override
+                    public int read() throws IOException {
+
+                        int value = compressedStream.read();
+
+                        if (value != -1) {
+                            compressedByteCount++;
+                        }
+
+                        return value;
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+
+                        int count = compressedStream.read(buffer, offset, length);
+
+                        if (count > 0) {
+                            compressedByteCount += count;
+                        }
+
+                        return count;
+                    }
+                };
+
+                inflatingStream = gzip ? new GZIPInputStream(countingStream) : new InflaterInputStream(countingStream);
+            }
+
+            return inflatingStream;
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            byte[] buffer = new byte[1];
+            int count = read(buffer, 0, 1);
+
+            return count == -1 ? -1 : buffer[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+
+            if (finished) {
+                return -1;
+            }
+
+            long startNanos = System.nanoTime();
+            int count = getInflatingStream().read(buffer, offset, length);
+            inflateNanos += System.nanoTime() - startNanos;
+
+            if (count == -1) {
+                finished = true;
+                return -1;
+            }
+
+            inflatedByteCount += count;
+
+            if (inflatedByteCount > maximumInflatedSize) {
+                maximumSizeExceeded = true;
+                throw new IOException(format("The inflated request body is larger than %d bytes.",
+                        maximumInflatedSize));
+            }
+
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (inflatingStream != null) {
+                inflatingStream.close();
+            }
+            else {
+                compressedStream.close();
+            }
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return !finished;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            throw new IllegalStateException("Non-blocking reads of compressed request bodies aren't supported.");
+        }
+
+        boolean isMaximumSizeExceeded() {
+            return maximumSizeExceeded;
+        }
+
+        void recordMetrics() {
+
+            if (!metricsRecorded) {
+                metricsRecorded = true;
+                metrics.recordDecompressedRequest(compressedByteCount, inflatedByteCount, inflateNanos);
+            }
+        }
+    }
+}
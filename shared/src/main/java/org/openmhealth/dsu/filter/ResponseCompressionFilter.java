@@ -0,0 +1,573 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.filter;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.WebUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.springframework.http.HttpHeaders.*;
+
+
+/**
+ * A filter that compresses responses when the client accepts gzip or deflate encoding. The start of a response is
+ * buffered until it reaches a minimum size, so small responses are sent as is. Larger responses are compressed as
+ * they are written, without a content length, which keeps chunked and asynchronous streaming responses streaming.
+ * Flushes in asynchronous responses are propagated through the compressor, so every flushed byte reaches the client.
+ *
+ * @author Emerson Farrugia
+ */
+public class ResponseCompressionFilter extends OncePerRequestFilter {
+
+    private final int minimumSize;
+    private final int compressionLevel;
+    private final List<MediaType> compressibleMediaTypes;
+    private final CompressionMetrics metrics;
+
+    /**
+     * @param minimumSize the minimum size of a response to compress, in bytes
+     * @param compressionLevel the deflate compression level, from 1 to 9
+     * @param compressibleMediaTypes the media types of the responses to compress
+     * @param metrics the metrics to update
+     */
+    public ResponseCompressionFilter(int minimumSize, int compressionLevel, List<MediaType> compressibleMediaTypes,
+            CompressionMetrics metrics) {
+
+        this.minimumSize = minimumSize;
+        this.compressionLevel = compressionLevel;
+        this.compressibleMediaTypes = compressibleMediaTypes;
+        this.metrics = metrics;
+    }
+
+    // asynchronous responses are finished in the dispatch that completes them
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    // a WebSocket handshake hands the connection over to the container, which a wrapped response would get in the way of
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return "websocket".equalsIgnoreCase(request.getHeader(UPGRADE));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+
+        CompressingResponseWrapper wrapper = WebUtils.getNativeResponse(response, CompressingResponseWrapper.class);
+
+        if (wrapper == null) {
+            String encoding = negotiateEncoding(request.getHeader(ACCEPT_ENCODING));
+
+            if (encoding == null || request.getMethod().equals("HEAD")) {
+                chain.doFilter(request, response);
+                return;
+            }
+
+            wrapper = new CompressingResponseWrapper(request, response, encoding);
+            response = wrapper;
+        }
+
+        try {
+            chain.doFilter(request, response);
+        }
+        finally {
+            if (!request.isAsyncStarted()) {
+                wrapper.finish();
+            }
+        }
+    }
+
+    /**
+     * @return the preferred encoding accepted by the client, or null if neither gzip nor deflate is acceptable
+     */
+    static String negotiateEncoding(String acceptEncodingHeader) {
+
+        if (acceptEncodingHeader == null) {
+            return null;
+        }
+
+        boolean deflateAccepted = false;
+
+        for (String coding : acceptEncodingHeader.split(",")) {
+            String[] parameters = coding.trim().toLowerCase().split(";");
+            String name = parameters[0].trim();
+
+            if (isRejected(parameters)) {
+                continue;
+            }
+
+            if (name.equals("gzip") || name.equals("x-gzip") || name.equals("*")) {
+                return "gzip";
+            }
+
+            if (name.equals("deflate")) {
+                deflateAccepted = true;
+            }
+        }
+
+        return deflateAccepted ? "deflate" : null;
+    }
+
+    private static boolean isRejected(String[] parameters) {
+
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) <= 0;
+                }
+                catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isCompressible(String contentType) {
+
+        if (contentType == null) {
+            return false;
+        }
+
+        MediaType mediaType;
+
+        try {
+            mediaType = MediaType.parseMediaType(contentType);
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        for (MediaType compressibleMediaType : compressibleMediaTypes) {
+            if (compressibleMediaType.includes(mediaType)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    private enum State {
+        BUFFERING,
+        COMPRESSING,
+        PASSING_THROUGH
+    }
+
+    /**
+     * A response that decides whether to compress once it knows enough about the body.
+     */
+    private class CompressingResponseWrapper extends HttpServletResponseWrapper {
+
+        private final HttpServletRequest request;
+        private final String encoding;
+        private final byte[] buffer = new byte[minimumSize];
+        private int bufferedByteCount;
+        private State state = State.BUFFERING;
+        private Long contentLength;
+
+        private OutputStream compressingStream;
+        // a deflater passed to a DeflaterOutputStream isn't ended by it, so its native memory is released here
+        private Deflater deflater;
+        private long uncompressedByteCount;
+        private long compressedByteCount;
+        private long deflateNanos;
+
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        CompressingResponseWrapper(HttpServletRequest request, HttpServletResponse response, String encoding) {
+
+            super(response);
+            this.request = request;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+
+            if (writer != null) {
+                throw new IllegalStateException("The writer of this response has already been obtained.");
+            }
+
+            if (outputStream == null) {
+                outputStream = new CompressingServletOutputStream();
+            }
+
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+
+            if (writer == null) {
+                if (outputStream != null) {
+                    throw new IllegalStateException("The output stream of this response has already been obtained.");
+                }
+
+                outputStream = new CompressingServletOutputStream();
+                writer = new PrintWriter(new OutputStreamWriter(outputStream, getCharacterEncoding()));
+            }
+
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int length) {
+            setContentLengthLong(length);
+        }
+
+        @Override
+        public void setContentLengthLong(long length) {
+
+            if (state == State.PASSING_THROUGH) {
+                super.setContentLengthLong(length);
+            }
+            else {
+                contentLength = length;
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(Long.parseLong(value));
+            }
+            else {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(Long.parseLong(value));
+            }
+            else {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(value);
+            }
+            else {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(value);
+            }
+            else {
+                super.addIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void sendError(int statusCode) throws IOException {
+
+            discardBuffer();
+            super.sendError(statusCode);
+        }
+
+        @Override
+        public void sendError(int statusCode, String message) throws IOException {
+
+            discardBuffer();
+            super.sendError(statusCode, message);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+
+            discardBuffer();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+
+            if (writer != null) {
+                writer.flush();
+            }
+
+            flush();
+
+            if (state != State.BUFFERING) {
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+
+            if (state == State.BUFFERING) {
+                bufferedByteCount = 0;
+            }
+            else {
+                super.resetBuffer();
+            }
+        }
+
+        @Override
+        public void reset() {
+
+            if (state == State.BUFFERING) {
+                bufferedByteCount = 0;
+                contentLength = null;
+            }
+
+            super.reset();
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return state != State.BUFFERING && super.isCommitted();
+        }
+
+        private void discardBuffer() {
+
+            bufferedByteCount = 0;
+            state = State.PASSING_THROUGH;
+        }
+
+        private void write(byte[] bytes, int offset, int length) throws IOException {
+
+            if (state == State.BUFFERING) {
+                if (bufferedByteCount + length <= buffer.length) {
+                    System.arraycopy(bytes, offset, buffer, bufferedByteCount, length);
+                    bufferedByteCount += length;
+                    return;
+                }
+
+                startCompressingOrPassThrough();
+            }
+
+            if (state == State.COMPRESSING) {
+                long startNanos = System.nanoTime();
+                compressingStream.write(bytes, offset, length);
+                deflateNanos += System.nanoTime() - startNanos;
+                uncompressedByteCount += length;
+            }
+            else {
+                getResponse().getOutputStream().write(bytes, offset, length);
+            }
+        }
+
+        private void flush() throws IOException {
+
+            if (state == State.BUFFERING) {
+                // a synchronous response is usually flushed once at the end, but an asynchronous one streams
+                if (!request.isAsyncStarted()) {
+                    return;
+                }
+
+                startCompressingOrPassThrough();
+            }
+
+            if (state == State.COMPRESSING) {
+                long startNanos = System.nanoTime();
+                compressingStream.flush();
+                deflateNanos += System.nanoTime() - startNanos;
+            }
+            else {
+                getResponse().getOutputStream().flush();
+            }
+        }
+
+        private void startCompressingOrPassThrough() throws IOException {
+
+            boolean compress = getHeader(CONTENT_ENCODING) == null
+                    && isCompressible(getContentType())
+                    && (contentLength == null || contentLength >= minimumSize);
+
+            if (compress) {
+                state = State.COMPRESSING;
+
+                super.setHeader(CONTENT_ENCODING, encoding);
+                super.addHeader(VARY, ACCEPT_ENCODING);
+
+                OutputStream countingStream = new CountingOutputStream(getResponse().getOutputStream());
+
+                // sync flushing makes flush() emit every byte written so far, which streaming responses rely on
+                if (encoding.equals("gzip")) {
+                    compressingStream = new GZIPOutputStream(countingStream, 8192, true) {
+                        {
+                            def.setLevel(compressionLevel);
+                        }
+                    };
+                }
+                else {
+                    deflater = new Deflater(compressionLevel);
+                    compressingStream = new DeflaterOutputStream(countingStream, deflater, 8192, true);
+                }
+            }
+            else {
+                state = State.PASSING_THROUGH;
+
+                if (contentLength != null) {
+                    super.setContentLengthLong(contentLength);
+                }
+            }
+
+            if (bufferedByteCount > 0) {
+                int count = bufferedByteCount;
+                bufferedByteCount = 0;
+                write(buffer, 0, count);
+            }
+        }
+
+        void finish() throws IOException {
+
+            if (writer != null) {
+                writer.flush();
+            }
+
+            switch (state) {
+                case BUFFERING:
+                    state = State.PASSING_THROUGH;
+
+                    if (bufferedByteCount > 0) {
+                        super.setContentLengthLong(bufferedByteCount);
+                        getResponse().getOutputStream().write(buffer, 0, bufferedByteCount);
+                        bufferedByteCount = 0;
+                    }
+                    else if (contentLength != null) {
+                        super.setContentLengthLong(contentLength);
+                    }
+
+                    metrics.recordUncompressedResponse();
+                    break;
+
+                case COMPRESSING:
+                    long startNanos = System.nanoTime();
+
+                    try {
+                        compressingStream.close();
+                    }
+                    finally {
+                        if (deflater != null) {
+                            deflater.end();
+                        }
+                    }
+
+                    deflateNanos += System.nanoTime() - startNanos;
+
+                    metrics.recordCompressedResponse(uncompressedByteCount, compressedByteCount, deflateNanos);
+
+                    // the compressing stream is closed, so anything else passes through
+                    state = State.PASSING_THROUGH;
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        private class CompressingServletOutputStream extends ServletOutputStream {
+
+            @Override
+            public void write(int value) throws IOException {
+                CompressingResponseWrapper.this.write(new byte[]{(byte) value}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                CompressingResponseWrapper.this.write(bytes, offset, length);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                CompressingResponseWrapper.this.flush();
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new IllegalStateException("Non-blocking writes of compressed responses aren't supported.");
+            }
+        }
+
+        // the servlet output stream isn't closed here, since the container owns it
+        private class CountingOutputStream extends OutputStream {
+
+            private final OutputStream delegate;
+
+            CountingOutputStream(OutputStream delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void write(int value) throws IOException {
+
+                delegate.write(value);
+                compressedByteCount++;
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+
+                delegate.write(bytes, offset, length);
+                compressedByteCount += length;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                delegate.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                delegate.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.security.oauth2.provider.*;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+
+/**
+ * A client details service that caches the client details read from another, since client registrations rarely
+ * change but are read on every token grant and client authentication. Changes made through this service invalidate
+ * the cache and increment a shared {@link ClientDetailsVersionStamp}, which the caches of other servers poll. Changes
+ * made directly to the underlying store are picked up once the time to live has passed. Unknown clients aren't cached.
+ *
+ * @author Emerson Farrugia
+ */
+public class CachingClientDetailsService implements ClientDetailsService, ClientRegistrationService {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingClientDetailsService.class);
+
+    private final ClientDetailsService delegate;
+    private final long timeToLiveInMillis;
+    private final ClientDetailsVersionStamp versionStamp;
+    private final long versionPollIntervalInMillis;
+    private final ClientDetailsCacheMetrics metrics;
+
+    private final ConcurrentMap<String, CachedClientDetails> cache = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong nextVersionPollTime = new AtomicLong();
+    private volatile long version;
+
+    /**
+     * @param delegate the client details service to read client details from
+     * @param timeToLiveInSeconds the number of seconds after which cached client details are read again
+     * @param versionStamp the version stamp shared with other servers, or null if the cache is local to this server
+     * @param versionPollIntervalInMillis the interval at which the version stamp is polled, in milliseconds
+     * @param metrics the metrics to record hits and misses in
+     */
+    public CachingClientDetailsService(ClientDetailsService delegate, int timeToLiveInSeconds,
+            @Nullable ClientDetailsVersionStamp versionStamp, long versionPollIntervalInMillis,
+            ClientDetailsCacheMetrics metrics) {
+
+        requireNonNull(delegate);
+        requireNonNull(metrics);
+
+        if (timeToLiveInSeconds <= 0) {
+            throw new IllegalArgumentException("The time to live must be positive.");
+        }
+
+        this.delegate = delegate;
+        this.timeToLiveInMillis = SECONDS.toMillis(timeToLiveInSeconds);
+        this.versionStamp = versionStamp;
+        this.versionPollIntervalInMillis = versionPollIntervalInMillis;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the client details service whose client details are cached
+     */
+    public ClientDetailsService getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public ClientDetails loadClientByClientId(String clientId) throws ClientRegistrationException {
+
+        requireNonNull(clientId);
+
+        pollVersionStamp();
+
+        long now = System.currentTimeMillis();
+        CachedClientDetails cachedClientDetails = cache.get(clientId);
+
+        if (cachedClientDetails != null && cachedClientDetails.expirationTime > now) {
+            metrics.recordHit();
+            return cachedClientDetails.clientDetails;
+        }
+
+        metrics.recordMiss();
+
+        // client details read before an invalidation aren't cached, since they may be stale
+        long loadGeneration = generation.get();
+        ClientDetails clientDetails = delegate.loadClientByClientId(clientId);
+
+        if (clientDetails != null && generation.get() == loadGeneration) {
+            cache.put(clientId, new CachedClientDetails(clientDetails, now + timeToLiveInMillis));
+        }
+
+        return clientDetails;
+    }
+
+    @Override
+    public void addClientDetails(ClientDetails clientDetails) throws ClientAlreadyExistsException {
+
+        getRegistrationService().addClientDetails(clientDetails);
+        onChanged(clientDetails.getClientId());
+    }
+
+    @Override
+    public void updateClientDetails(ClientDetails clientDetails) throws NoSuchClientException {
+
+        getRegistrationService().updateClientDetails(clientDetails);
+        onChanged(clientDetails.getClientId());
+    }
+
+    @Override
+    public void updateClientSecret(String clientId, String secret) throws NoSuchClientException {
+
+        getRegistrationService().updateClientSecret(clientId, secret);
+        onChanged(clientId);
+    }
+
+    @Override
+    public void removeClientDetails(String clientId) throws NoSuchClientException {
+
+        getRegistrationService().removeClientDetails(clientId);
+        onChanged(clientId);
+    }
+
+    @Override
+    public List<ClientDetails> listClientDetails() {
+
+        return getRegistrationService().listClientDetails();
+    }
+
+    /**
+     * Removes all client details from the cache of this server.
+     */
+    public void invalidateAll() {
+
+        generation.incrementAndGet();
+        cache.clear();
+        metrics.recordInvalidation();
+    }
+
+    private ClientRegistrationService getRegistrationService() {
+
+        if (!(delegate instanceof ClientRegistrationService)) {
+            throw new UnsupportedOperationException("The underlying client details service doesn't support changes.");
+        }
+
+        return (ClientRegistrationService) delegate;
+    }
+
+    private void onChanged(String clientId) {
+
+        generation.incrementAndGet();
+        cache.remove(clientId);
+        metrics.recordInvalidation();
+
+        if (versionStamp != null) {
+            // the local version isn't updated, so that changes made concurrently on other servers aren't missed
+            versionStamp.increment();
+        }
+    }
+
+    private void pollVersionStamp() {
+
+        if (versionStamp == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long pollTime = nextVersionPollTime.get();
+
+        // only one request polls at a time
+        if (now < pollTime || !nextVersionPollTime.compareAndSet(pollTime, now + versionPollIntervalInMillis)) {
+            return;
+        }
+
+        try {
+            long currentVersion = versionStamp.read();
+
+            if (currentVersion != version) {
+                version = currentVersion;
+                invalidateAll();
+            }
+        }
+        catch (DataAccessException e) {
+            log.warn("The client details version stamp can't be read, so changes made on other servers may be "
+                    + "missed until the cached client details expire.", e);
+        }
+    }
+
+    private static class CachedClientDetails {
+
+        private final ClientDetails clientDetails;
+        private final long expirationTime;
+
+        CachedClientDetails(ClientDetails clientDetails, long expirationTime) {
+
+            this.clientDetails = clientDetails;
+            this.expirationTime = expirationTime;
+        }
+    }
+}
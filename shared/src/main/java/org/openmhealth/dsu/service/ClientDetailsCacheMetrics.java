@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * The metrics of the client details cache, exposed through the Spring Boot metrics endpoint. The counts are summed
+ * over all cached client details services.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+public class ClientDetailsCacheMetrics implements PublicMetrics {
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
+
+    void recordHit() {
+        hitCount.increment();
+    }
+
+    void recordMiss() {
+        missCount.increment();
+    }
+
+    void recordInvalidation() {
+        invalidationCount.increment();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        long hits = hitCount.sum();
+        long misses = missCount.sum();
+
+        metrics.add(new Metric<>("clientDetailsCache.hits", hits));
+        metrics.add(new Metric<>("clientDetailsCache.misses", misses));
+        metrics.add(new Metric<>("clientDetailsCache.hitRate",
+                hits + misses == 0 ? 1.0 : hits / (double) (hits + misses)));
+        metrics.add(new Metric<>("clientDetailsCache.invalidations", invalidationCount.sum()));
+
+        return metrics;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.openmhealth.dsu.configuration.ClientDetailsCacheProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.scope.ScopedObject;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * A post-processor that wraps every {@link ClientDetailsService} bean, whether it's backed by a relational database or
+ * by MongoDB, in a {@link CachingClientDetailsService}. If MongoDB is available, the caches of all servers share a
+ * version stamp. Scoped proxies, such as the one created by the authorization server configuration, already delegate
+ * to a wrapped bean and are left alone.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+public class ClientDetailsServiceCachingPostProcessor implements BeanPostProcessor, BeanFactoryAware {
+
+    private static final Logger log = LoggerFactory.getLogger(ClientDetailsServiceCachingPostProcessor.class);
+
+    // a post-processor is created before other beans, so its dependencies are looked up when they're needed
+    private ListableBeanFactory beanFactory;
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+
+        this.beanFactory = (ListableBeanFactory) beanFactory;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+
+        if (!(bean instanceof ClientDetailsService)
+                || bean instanceof CachingClientDetailsService
+                || bean instanceof ScopedObject) {
+            return bean;
+        }
+
+        ClientDetailsCacheProperties properties = beanFactory.getBean(ClientDetailsCacheProperties.class);
+
+        if (!properties.isEnabled()) {
+            return bean;
+        }
+
+        ClientDetailsVersionStamp versionStamp = null;
+
+        if (beanFactory.getBeanNamesForType(MongoOperations.class).length > 0) {
+            versionStamp = new ClientDetailsVersionStamp(beanFactory.getBean(MongoOperations.class));
+        }
+
+        log.info("The client details of bean '{}' are cached {}.", beanName,
+                versionStamp == null ? "locally" : "with a version stamp shared by all servers");
+
+        return new CachingClientDetailsService((ClientDetailsService) bean, properties.getTimeToLiveInSeconds(),
+                versionStamp, properties.getVersionPollIntervalInMillis(),
+                beanFactory.getBean(ClientDetailsCacheMetrics.class));
+    }
+}
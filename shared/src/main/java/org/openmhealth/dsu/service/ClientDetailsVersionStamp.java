@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import com.mongodb.DBObject;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Update;
+
+import static java.util.Objects.requireNonNull;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+
+/**
+ * A counter in MongoDB that is incremented whenever client details are changed through a cached client details
+ * service, so that the caches of other servers notice the change by polling it.
+ *
+ * @author Emerson Farrugia
+ */
+public class ClientDetailsVersionStamp {
+
+    public static final String COLLECTION_NAME = "clientDetailsVersions";
+
+    private static final String ID = "clientDetails";
+    private static final String VERSION_KEY = "version";
+
+    private final MongoOperations mongoOperations;
+
+    public ClientDetailsVersionStamp(MongoOperations mongoOperations) {
+
+        requireNonNull(mongoOperations);
+
+        this.mongoOperations = mongoOperations;
+    }
+
+    /**
+     * @return the current version, which is zero if client details have never been changed
+     */
+    public long read() {
+
+        DBObject stamp = mongoOperations.findOne(query(where("_id").is(ID)), DBObject.class, COLLECTION_NAME);
+
+        return stamp == null ? 0 : ((Number) stamp.get(VERSION_KEY)).longValue();
+    }
+
+    public void increment() {
+
+        mongoOperations.upsert(query(where("_id").is(ID)), new Update().inc(VERSION_KEY, 1L), COLLECTION_NAME);
+    }
+}
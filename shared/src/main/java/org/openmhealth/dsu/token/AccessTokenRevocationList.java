@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import org.openmhealth.dsu.domain.RevokedAccessToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.PostConstruct;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+import static java.util.Objects.requireNonNull;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+
+/**
+ * A list of signed tokens that have been revoked before they expire. Revocations are stored in MongoDB, and every
+ * server keeps a copy of the unexpired ones in memory as a sorted array of 64-bit hashes of their identifiers, which
+ * is compact and can be searched without locking. The copy is replaced periodically, so a token revoked on one server
+ * is rejected by the others once they have synchronized.
+ * <p>
+ * Two identifiers may share a hash, in which case a token that hasn't been revoked is rejected. With 64-bit hashes of
+ * random identifiers, that doesn't happen in practice.
+ *
+ * @author Emerson Farrugia
+ */
+public class AccessTokenRevocationList {
+
+    private static final Logger log = LoggerFactory.getLogger(AccessTokenRevocationList.class);
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final MongoOperations mongoOperations;
+
+    private volatile long[] revokedTokenIdHashes = new long[0];
+
+    // the revocations made on this server that a synchronization in progress may not have read yet, by hash
+    private final Map<Long, Long> recentRevocationTimestamps = new HashMap<>();
+
+    public AccessTokenRevocationList(MongoOperations mongoOperations) {
+
+        requireNonNull(mongoOperations);
+
+        this.mongoOperations = mongoOperations;
+    }
+
+    /**
+     * @param tokenId the identifier of the token, i.e. its JWT ID
+     * @return true if the token has been revoked, false otherwise
+     */
+    public boolean isRevoked(String tokenId) {
+
+        return Arrays.binarySearch(revokedTokenIdHashes, hash(tokenId)) >= 0;
+    }
+
+    /**
+     * Revokes a token.
+     *
+     * @param tokenId the identifier of the token, i.e. its JWT ID
+     * @param expirationTimestamp the time at which the token expires, after which the revocation is discarded
+     */
+    public void revoke(String tokenId, Instant expirationTimestamp) {
+
+        requireNonNull(tokenId);
+        requireNonNull(expirationTimestamp);
+
+        RevokedAccessToken revokedAccessToken = new RevokedAccessToken();
+        revokedAccessToken.setId(tokenId);
+        revokedAccessToken.setExpirationTimestamp(Date.from(expirationTimestamp));
+
+        mongoOperations.save(revokedAccessToken);
+
+        // the revocation takes effect on this server straight away
+        synchronized (this) {
+            long hash = hash(tokenId);
+
+            recentRevocationTimestamps.put(hash, System.currentTimeMillis());
+            revokedTokenIdHashes = merge(revokedTokenIdHashes, Collections.singleton(hash));
+        }
+    }
+
+    private long[] merge(long[] sortedHashes, Collection<Long> hashes) {
+
+        return LongStream.concat(Arrays.stream(sortedHashes), hashes.stream().mapToLong(Long::longValue))
+                .sorted()
+                .distinct()
+                .toArray();
+    }
+
+    /**
+     * Replaces the revocations in memory with the unexpired revocations in MongoDB. If MongoDB can't be read, the
+     * revocations read last remain in effect.
+     */
+    @PostConstruct
+    @Scheduled(fixedDelayString = "${accessTokens.revocationListSyncIntervalInMillis:30000}")
+    public void synchronize() {
+
+        long startTimestamp = System.currentTimeMillis();
+        List<RevokedAccessToken> revokedAccessTokens;
+
+        try {
+            revokedAccessTokens = mongoOperations.find(
+                    query(where("expiration_timestamp").gt(new Date())), RevokedAccessToken.class);
+        }
+        catch (RuntimeException e) {
+            log.warn("The revoked access tokens couldn't be synchronized.", e);
+            return;
+        }
+
+        long[] hashes = revokedAccessTokens.stream().mapToLong(token -> hash(token.getId())).sorted().toArray();
+
+        synchronized (this) {
+
+            // revocations saved before the query started have been read
+            recentRevocationTimestamps.values().removeIf(timestamp -> timestamp < startTimestamp);
+
+            revokedTokenIdHashes = merge(hashes, recentRevocationTimestamps.keySet());
+        }
+    }
+
+    /**
+     * @return the 64-bit FNV-1a hash of an identifier
+     */
+    static long hash(String tokenId) {
+
+        long hash = FNV_OFFSET_BASIS;
+
+        for (int i = 0; i < tokenId.length(); i++) {
+            hash ^= tokenId.charAt(i);
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+}
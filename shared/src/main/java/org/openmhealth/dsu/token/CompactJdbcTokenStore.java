@@ -0,0 +1,349 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.security.oauth2.common.*;
+import org.springframework.security.oauth2.common.util.OAuth2Utils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.AuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * A token store that keeps OAuth2 tokens in a relational database, like
+ * {@link org.springframework.security.oauth2.provider.token.store.JdbcTokenStore}, but without Java serialization. The
+ * user name, client identifier, scopes and expiry of a token are kept in typed columns, and the rest of its
+ * authentication is kept in the compact encoding of {@link OAuth2AuthenticationCodec}. The DDL files to create the
+ * tables are available in the resources directory at the root of the project.
+ *
+ * @author Emerson Farrugia
+ */
+public class CompactJdbcTokenStore implements TokenStore {
+
+    private static final Logger log = LoggerFactory.getLogger(CompactJdbcTokenStore.class);
+
+    private static final String ACCESS_TOKEN_COLUMNS = "token, token_type, expiration, scope, refresh_token, "
+            + "refresh_token_expiration, additional_information";
+
+    private static final String INSERT_ACCESS_TOKEN_SQL = "insert into oauth_compact_access_token ("
+            + ACCESS_TOKEN_COLUMNS + ", authentication_id, user_name, client_id, authentication) "
+            + "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SELECT_ACCESS_TOKEN_SQL =
+            "select " + ACCESS_TOKEN_COLUMNS + " from oauth_compact_access_token where token = ?";
+
+    private static final String SELECT_ACCESS_TOKEN_AUTHENTICATION_SQL =
+            "select client_id, user_name, authentication from oauth_compact_access_token where token = ?";
+
+    private static final String SELECT_ACCESS_TOKEN_FROM_AUTHENTICATION_SQL =
+            "select " + ACCESS_TOKEN_COLUMNS + " from oauth_compact_access_token where authentication_id = ?";
+
+    private static final String SELECT_ACCESS_TOKENS_FROM_USER_NAME_AND_CLIENT_SQL = "select " + ACCESS_TOKEN_COLUMNS
+            + " from oauth_compact_access_token where user_name = ? and client_id = ?";
+
+    private static final String SELECT_ACCESS_TOKENS_FROM_CLIENT_SQL =
+            "select " + ACCESS_TOKEN_COLUMNS + " from oauth_compact_access_token where client_id = ?";
+
+    private static final String DELETE_ACCESS_TOKEN_SQL = "delete from oauth_compact_access_token where token = ?";
+
+    private static final String DELETE_ACCESS_TOKEN_FROM_REFRESH_TOKEN_SQL =
+            "delete from oauth_compact_access_token where refresh_token = ?";
+
+    private static final String INSERT_REFRESH_TOKEN_SQL = "insert into oauth_compact_refresh_token "
+            + "(token, expiration, user_name, client_id, authentication) values (?, ?, ?, ?, ?)";
+
+    private static final String SELECT_REFRESH_TOKEN_SQL =
+            "select token, expiration from oauth_compact_refresh_token where token = ?";
+
+    private static final String SELECT_REFRESH_TOKEN_AUTHENTICATION_SQL =
+            "select client_id, user_name, authentication from oauth_compact_refresh_token where token = ?";
+
+    private static final String DELETE_REFRESH_TOKEN_SQL = "delete from oauth_compact_refresh_token where token = ?";
+
+    private static final TypeReference<Map<String, Object>> ADDITIONAL_INFORMATION_TYPE =
+            new TypeReference<Map<String, Object>>() {
+            };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final RowMapper<OAuth2AccessToken> accessTokenRowMapper = this::mapAccessToken;
+    private final RowMapper<OAuth2Authentication> authenticationRowMapper = this::mapAuthentication;
+    private final RowMapper<OAuth2RefreshToken> refreshTokenRowMapper = this::mapRefreshToken;
+    private AuthenticationKeyGenerator authenticationKeyGenerator = new DefaultAuthenticationKeyGenerator();
+
+    public CompactJdbcTokenStore(DataSource dataSource) {
+
+        requireNonNull(dataSource);
+
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public void setAuthenticationKeyGenerator(AuthenticationKeyGenerator authenticationKeyGenerator) {
+
+        requireNonNull(authenticationKeyGenerator);
+
+        this.authenticationKeyGenerator = authenticationKeyGenerator;
+    }
+
+    @Override
+    public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+
+        String authenticationId = authenticationKeyGenerator.extractKey(authentication);
+        OAuth2AccessToken accessToken =
+                queryForFirst(SELECT_ACCESS_TOKEN_FROM_AUTHENTICATION_SQL, accessTokenRowMapper, authenticationId);
+
+        // keep the stored authentication in line with the given one, as the relational token store does
+        if (accessToken != null) {
+            OAuth2Authentication storedAuthentication = readAuthentication(accessToken.getValue());
+
+            if (storedAuthentication == null
+                    || !authenticationId.equals(authenticationKeyGenerator.extractKey(storedAuthentication))) {
+                removeAccessToken(accessToken.getValue());
+                storeAccessToken(accessToken, authentication);
+            }
+        }
+
+        return accessToken;
+    }
+
+    @Override
+    public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+
+        OAuth2RefreshToken refreshToken = token.getRefreshToken();
+
+        if (readAccessToken(token.getValue()) != null) {
+            removeAccessToken(token.getValue());
+        }
+
+        jdbcTemplate.update(INSERT_ACCESS_TOKEN_SQL,
+                token.getValue(),
+                token.getTokenType(),
+                toTimestamp(token.getExpiration()),
+                OAuth2Utils.formatParameterList(token.getScope()),
+                refreshToken == null ? null : refreshToken.getValue(),
+                refreshToken instanceof ExpiringOAuth2RefreshToken
+                        ? toTimestamp(((ExpiringOAuth2RefreshToken) refreshToken).getExpiration())
+                        : null,
+                writeAdditionalInformation(token.getAdditionalInformation()),
+                authenticationKeyGenerator.extractKey(authentication),
+                authentication.isClientOnly() ? null : authentication.getName(),
+                authentication.getOAuth2Request().getClientId(),
+                OAuth2AuthenticationCodec.encode(authentication));
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(String tokenValue) {
+
+        return queryForFirst(SELECT_ACCESS_TOKEN_SQL, accessTokenRowMapper, tokenValue);
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+
+        return readAuthentication(token.getValue());
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(String tokenValue) {
+
+        try {
+            return queryForFirst(SELECT_ACCESS_TOKEN_AUTHENTICATION_SQL, authenticationRowMapper, tokenValue);
+        }
+        catch (IllegalArgumentException e) {
+            log.warn("The authentication of an access token can't be decoded, so the token has been removed.", e);
+            removeAccessToken(tokenValue);
+            return null;
+        }
+    }
+
+    @Override
+    public void removeAccessToken(OAuth2AccessToken token) {
+
+        removeAccessToken(token.getValue());
+    }
+
+    public void removeAccessToken(String tokenValue) {
+
+        jdbcTemplate.update(DELETE_ACCESS_TOKEN_SQL, tokenValue);
+    }
+
+    @Override
+    public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+
+        jdbcTemplate.update(INSERT_REFRESH_TOKEN_SQL,
+                refreshToken.getValue(),
+                refreshToken instanceof ExpiringOAuth2RefreshToken
+                        ? toTimestamp(((ExpiringOAuth2RefreshToken) refreshToken).getExpiration())
+                        : null,
+                authentication.isClientOnly() ? null : authentication.getName(),
+                authentication.getOAuth2Request().getClientId(),
+                OAuth2AuthenticationCodec.encode(authentication));
+    }
+
+    @Override
+    public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+
+        return queryForFirst(SELECT_REFRESH_TOKEN_SQL, refreshTokenRowMapper, tokenValue);
+    }
+
+    @Override
+    public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+
+        try {
+            return queryForFirst(SELECT_REFRESH_TOKEN_AUTHENTICATION_SQL, authenticationRowMapper, token.getValue());
+        }
+        catch (IllegalArgumentException e) {
+            log.warn("The authentication of a refresh token can't be decoded, so the token has been removed.", e);
+            removeRefreshToken(token);
+            return null;
+        }
+    }
+
+    @Override
+    public void removeRefreshToken(OAuth2RefreshToken token) {
+
+        jdbcTemplate.update(DELETE_REFRESH_TOKEN_SQL, token.getValue());
+    }
+
+    @Override
+    public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+
+        jdbcTemplate.update(DELETE_ACCESS_TOKEN_FROM_REFRESH_TOKEN_SQL, refreshToken.getValue());
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+
+        return jdbcTemplate.query(SELECT_ACCESS_TOKENS_FROM_USER_NAME_AND_CLIENT_SQL, accessTokenRowMapper, userName,
+                clientId);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+
+        return jdbcTemplate.query(SELECT_ACCESS_TOKENS_FROM_CLIENT_SQL, accessTokenRowMapper, clientId);
+    }
+
+    @Nullable
+    private <T> T queryForFirst(String sql, RowMapper<T> rowMapper, Object... args) {
+
+        List<T> results = jdbcTemplate.query(sql, rowMapper, args);
+
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    private OAuth2AccessToken mapAccessToken(ResultSet resultSet, int rowNumber) throws SQLException {
+
+        DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(resultSet.getString("token"));
+
+        accessToken.setTokenType(resultSet.getString("token_type"));
+        accessToken.setExpiration(toDate(resultSet.getTimestamp("expiration")));
+        accessToken.setScope(OAuth2Utils.parseParameterList(resultSet.getString("scope")));
+        accessToken.setAdditionalInformation(readAdditionalInformation(resultSet.getString("additional_information")));
+
+        String refreshTokenValue = resultSet.getString("refresh_token");
+
+        if (refreshTokenValue != null) {
+            accessToken.setRefreshToken(
+                    newRefreshToken(refreshTokenValue, resultSet.getTimestamp("refresh_token_expiration")));
+        }
+
+        return accessToken;
+    }
+
+    private OAuth2RefreshToken mapRefreshToken(ResultSet resultSet, int rowNumber) throws SQLException {
+
+        return newRefreshToken(resultSet.getString("token"), resultSet.getTimestamp("expiration"));
+    }
+
+    private OAuth2Authentication mapAuthentication(ResultSet resultSet, int rowNumber) throws SQLException {
+
+        return OAuth2AuthenticationCodec.decode(resultSet.getBytes("authentication"), resultSet.getString("client_id"),
+                resultSet.getString("user_name"));
+    }
+
+    private OAuth2RefreshToken newRefreshToken(String value, @Nullable Timestamp expiration) {
+
+        return expiration == null
+                ? new DefaultOAuth2RefreshToken(value)
+                : new DefaultExpiringOAuth2RefreshToken(value, toDate(expiration));
+    }
+
+    @Nullable
+    private String writeAdditionalInformation(Map<String, Object> additionalInformation) {
+
+        if (additionalInformation == null || additionalInformation.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return objectMapper.writeValueAsString(additionalInformation);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("The additional information of the access token can't be written.", e);
+        }
+    }
+
+    private Map<String, Object> readAdditionalInformation(@Nullable String additionalInformation) throws SQLException {
+
+        if (additionalInformation == null) {
+            return emptyMap();
+        }
+
+        try {
+            return objectMapper.readValue(additionalInformation, ADDITIONAL_INFORMATION_TYPE);
+        }
+        catch (IOException e) {
+            throw new SQLException("The additional information of an access token can't be read.", e);
+        }
+    }
+
+    @Nullable
+    private static Timestamp toTimestamp(@Nullable Date date) {
+
+        return date == null ? null : new Timestamp(date.getTime());
+    }
+
+    @Nullable
+    private static Date toDate(@Nullable Timestamp timestamp) {
+
+        return timestamp == null ? null : new Date(timestamp.getTime());
+    }
+}
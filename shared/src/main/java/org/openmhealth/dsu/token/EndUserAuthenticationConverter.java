@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import org.openmhealth.dsu.domain.EndUserUserDetails;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.provider.token.DefaultUserAuthenticationConverter;
+
+import java.util.Map;
+
+
+/**
+ * A converter that restores the end user of a signed token as {@link EndUserUserDetails}, which is what the
+ * authentications read from the relational token store hold, without looking the user up.
+ *
+ * @author Emerson Farrugia
+ */
+public class EndUserAuthenticationConverter extends DefaultUserAuthenticationConverter {
+
+    @Override
+    public Authentication extractAuthentication(Map<String, ?> map) {
+
+        if (!map.containsKey(USERNAME)) {
+            return null;
+        }
+
+        // the password isn't carried by the token
+        EndUserUserDetails userDetails = new EndUserUserDetails((String) map.get(USERNAME), "");
+
+        return new UsernamePasswordAuthenticationToken(userDetails, "N/A", userDetails.getAuthorities());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+
+
+/**
+ * A job that deletes expired tokens from relational token tables in batches, so that the tables only grow with the
+ * number of live tokens. Each batch reads the keys of expired tokens using the index on the "expiration" column and
+ * deletes them by primary key, which keeps transactions and locks short and works on both PostgreSQL and MySQL.
+ *
+ * @author Emerson Farrugia
+ */
+public class ExpiredTokenReaper {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpiredTokenReaper.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String keyColumn;
+    private final int batchSize;
+    private final String[] tables;
+
+    /**
+     * @param dataSource the data source holding the token tables
+     * @param keyColumn the primary key column of the token tables
+     * @param batchSize the maximum number of tokens to delete in a single statement batch
+     * @param tables the token tables, each of which has an "expiration" column
+     */
+    public ExpiredTokenReaper(DataSource dataSource, String keyColumn, int batchSize, String... tables) {
+
+        requireNonNull(dataSource);
+        requireNonNull(keyColumn);
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be positive.");
+        }
+
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.keyColumn = keyColumn;
+        this.batchSize = batchSize;
+        this.tables = tables.clone();
+    }
+
+    @Scheduled(fixedDelayString = "${accessTokens.expiredTokenReaperIntervalInMillis:600000}")
+    public void deleteExpiredTokens() {
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        for (String table : tables) {
+            long deletedCount = deleteExpiredTokens(table, now);
+
+            if (deletedCount > 0) {
+                log.info("{} expired token(s) have been deleted from table '{}'.", deletedCount, table);
+            }
+        }
+    }
+
+    /**
+     * @return the number of deleted tokens
+     */
+    private long deleteExpiredTokens(String table, Timestamp now) {
+
+        String selectSql = "select " + keyColumn + " from " + table + " where expiration < ? limit " + batchSize;
+        String deleteSql = "delete from " + table + " where " + keyColumn + " = ?";
+
+        long deletedCount = 0;
+        List<String> keys;
+
+        do {
+            keys = jdbcTemplate.queryForList(selectSql, String.class, now);
+
+            if (!keys.isEmpty()) {
+                jdbcTemplate.batchUpdate(deleteSql, keys.stream().map(key -> new Object[] {key}).collect(toList()));
+                deletedCount += keys.size();
+            }
+        }
+        while (keys.size() == batchSize);
+
+        return deletedCount;
+    }
+}
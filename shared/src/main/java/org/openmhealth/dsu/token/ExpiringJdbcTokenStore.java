@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+
+
+/**
+ * A relational token store that also records the expiry of each token in an "expiration" column, which the stock
+ * {@link JdbcTokenStore} leaves inside the serialized token, so that an {@link ExpiredTokenReaper} can find expired
+ * tokens with an index scan. Tokens that never expire keep a null expiry.
+ *
+ * @author Emerson Farrugia
+ */
+public class ExpiringJdbcTokenStore extends JdbcTokenStore {
+
+    private static final String UPDATE_ACCESS_TOKEN_EXPIRATION_SQL =
+            "update oauth_access_token set expiration = ? where token_id = ?";
+
+    private static final String UPDATE_REFRESH_TOKEN_EXPIRATION_SQL =
+            "update oauth_refresh_token set expiration = ? where token_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ExpiringJdbcTokenStore(DataSource dataSource) {
+
+        super(dataSource);
+
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    // the insert statements of the superclass have a fixed set of parameters, so the expiry is written separately
+    @Override
+    public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+
+        super.storeAccessToken(token, authentication);
+
+        if (token.getExpiration() != null) {
+            jdbcTemplate.update(UPDATE_ACCESS_TOKEN_EXPIRATION_SQL, new Timestamp(token.getExpiration().getTime()),
+                    extractTokenKey(token.getValue()));
+        }
+    }
+
+    @Override
+    public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+
+        super.storeRefreshToken(refreshToken, authentication);
+
+        if (refreshToken instanceof ExpiringOAuth2RefreshToken) {
+            ExpiringOAuth2RefreshToken expiringRefreshToken = (ExpiringOAuth2RefreshToken) refreshToken;
+
+            if (expiringRefreshToken.getExpiration() != null) {
+                jdbcTemplate.update(UPDATE_REFRESH_TOKEN_EXPIRATION_SQL,
+                        new Timestamp(expiringRefreshToken.getExpiration().getTime()),
+                        extractTokenKey(refreshToken.getValue()));
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.jwt.crypto.sign.RsaSigner;
+import org.springframework.security.jwt.crypto.sign.RsaVerifier;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+import org.springframework.security.jwt.crypto.sign.Signer;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.KeySpec;
+import java.security.spec.RSAPrivateCrtKeySpec;
+import java.security.spec.RSAPrivateKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * A set of RSA keys read from a JSON Web Key set file, as described in RFC 7517. Each key is identified by its "kid",
+ * which signed tokens carry in their header, so tokens signed with a key remain verifiable for as long as the key
+ * remains in the set. The file is reloaded when it changes.
+ * <p>
+ * To rotate keys, the public part of a new key is first added to the sets of the resource servers, and the new key is
+ * then added to the set of the authorization server, ahead of the old key. Once the tokens signed with the old key have
+ * expired, it can be removed.
+ *
+ * @author Emerson Farrugia
+ */
+public class JsonWebKeySet {
+
+    private static final Logger log = LoggerFactory.getLogger(JsonWebKeySet.class);
+
+    private final Path file;
+    private final String signingKeyId;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private volatile Keys keys;
+    private FileTime lastModifiedTime;
+
+    /**
+     * @param file the JSON Web Key set file
+     * @param signingKeyId the identifier of the key to sign with, or null to sign with the first private key
+     */
+    public JsonWebKeySet(Path file, @Nullable String signingKeyId) {
+
+        requireNonNull(file);
+
+        this.file = file;
+        this.signingKeyId = signingKeyId;
+    }
+
+    @PostConstruct
+    public synchronized void load() throws IOException {
+
+        lastModifiedTime = Files.getLastModifiedTime(file);
+        keys = readKeys();
+
+        log.info("{} key(s) have been loaded from the JSON Web Key set '{}', and tokens are {}.",
+                keys.verifiers.size(), file,
+                keys.signingKey == null ? "not signed" : "signed with key '" + keys.signingKey.id + "'");
+    }
+
+    /**
+     * Reloads the keys if the file has changed. If the file can't be read, the keys that were loaded last remain in
+     * use.
+     */
+    @Scheduled(fixedDelayString = "${accessTokens.keySetReloadIntervalInMillis:60000}")
+    public synchronized void reloadIfModified() {
+
+        try {
+            if (!Files.getLastModifiedTime(file).equals(lastModifiedTime)) {
+                load();
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            log.warn("The JSON Web Key set '{}' couldn't be reloaded.", file, e);
+        }
+    }
+
+    private Keys readKeys() throws IOException {
+
+        Keys keys = new Keys();
+        JsonNode root = objectMapper.readTree(file.toFile());
+
+        try {
+            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+
+            for (JsonNode key : root.path("keys")) {
+
+                // keys meant for encryption and keys of other types are ignored
+                if (!key.path("kty").asText().equals("RSA") || !key.path("use").asText("sig").equals("sig")) {
+                    continue;
+                }
+
+                String keyId = key.path("kid").asText(null);
+
+                if (keyId == null) {
+                    throw new IllegalArgumentException("A key in the JSON Web Key set has no identifier.");
+                }
+
+                BigInteger modulus = getInteger(key, "n");
+
+                RSAPublicKey publicKey = (RSAPublicKey) keyFactory.generatePublic(
+                        new RSAPublicKeySpec(modulus, getInteger(key, "e")));
+
+                keys.verifiers.put(keyId, new RsaVerifier(publicKey));
+
+                boolean signingKey = (signingKeyId == null) ? keys.signingKey == null : keyId.equals(signingKeyId);
+
+                if (signingKey && key.has("d")) {
+
+                    KeySpec privateKeySpec = key.has("p")
+                            ? new RSAPrivateCrtKeySpec(modulus, publicKey.getPublicExponent(), getInteger(key, "d"),
+                            getInteger(key, "p"), getInteger(key, "q"), getInteger(key, "dp"),
+                            getInteger(key, "dq"), getInteger(key, "qi"))
+                            : new RSAPrivateKeySpec(modulus, getInteger(key, "d"));
+
+                    keys.signingKey = new SigningKey(keyId,
+                            new RsaSigner((RSAPrivateKey) keyFactory.generatePrivate(privateKeySpec)));
+                }
+            }
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("The JSON Web Key set contains an invalid key.", e);
+        }
+
+        if (signingKeyId != null && keys.signingKey == null) {
+            throw new IllegalArgumentException("The JSON Web Key set doesn't contain the private signing key.");
+        }
+
+        return keys;
+    }
+
+    private BigInteger getInteger(JsonNode key, String name) {
+
+        if (!key.hasNonNull(name)) {
+            throw new IllegalArgumentException("A key in the JSON Web Key set has no '" + name + "' parameter.");
+        }
+
+        return new BigInteger(1, Base64.getUrlDecoder().decode(key.get(name).asText()));
+    }
+
+    /**
+     * @return the key to sign tokens with, or null if the set has no private keys
+     */
+    @Nullable
+    public SigningKey getSigningKey() {
+        return keys.signingKey;
+    }
+
+    /**
+     * @param keyId the identifier of a key
+     * @return the verifier of the key, or null if the set has no such key
+     */
+    @Nullable
+    public SignatureVerifier getVerifier(String keyId) {
+        return keys.verifiers.get(keyId);
+    }
+
+    /**
+     * A private key along with its identifier.
+     */
+    public static class SigningKey {
+
+        private final String id;
+        private final Signer signer;
+
+        SigningKey(String id, Signer signer) {
+
+            this.id = id;
+            this.signer = signer;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Signer getSigner() {
+            return signer;
+        }
+    }
+
+    /**
+     * The keys in the set, which are replaced as a whole when the file changes.
+     */
+    private static class Keys {
+
+        private final Map<String, SignatureVerifier> verifiers = new HashMap<>();
+        private SigningKey signingKey;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.security.jwt.crypto.sign.InvalidSignatureException;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.DefaultAccessTokenConverter;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * A converter between OAuth2 access tokens and JSON Web Tokens signed with RS256. Each token names the key it was
+ * signed with in its "kid" header, so keys can be rotated by changing the {@link JsonWebKeySet}. A token is rejected if
+ * its identifier is on the {@link AccessTokenRevocationList}.
+ * <p>
+ * The claims of a token are those written by {@link DefaultAccessTokenConverter}, i.e. the user name, the client
+ * identifier, the scopes, the authorities, the resource identifiers and the expiry.
+ *
+ * @author Emerson Farrugia
+ */
+public class KeyRotatingJwtAccessTokenConverter extends JwtAccessTokenConverter {
+
+    private static final String ALGORITHM = "RS256";
+    private static final Base64.Encoder BASE64_ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder BASE64_DECODER = Base64.getUrlDecoder();
+    private static final TypeReference<Map<String, Object>> CLAIMS_TYPE = new TypeReference<Map<String, Object>>() {
+    };
+
+    private final JsonWebKeySet keySet;
+    private final AccessTokenRevocationList revocationList;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public KeyRotatingJwtAccessTokenConverter(JsonWebKeySet keySet, AccessTokenRevocationList revocationList) {
+
+        requireNonNull(keySet);
+        requireNonNull(revocationList);
+
+        this.keySet = keySet;
+        this.revocationList = revocationList;
+
+        DefaultAccessTokenConverter accessTokenConverter = new DefaultAccessTokenConverter();
+        accessTokenConverter.setUserTokenConverter(new EndUserAuthenticationConverter());
+
+        setAccessTokenConverter(accessTokenConverter);
+    }
+
+    // the keys come from the key set, not from the signing and verifier keys of the superclass
+    @Override
+    public void afterPropertiesSet() {
+    }
+
+    @Override
+    protected String encode(OAuth2AccessToken accessToken, OAuth2Authentication authentication) {
+
+        JsonWebKeySet.SigningKey signingKey = keySet.getSigningKey();
+
+        if (signingKey == null) {
+            throw new IllegalStateException("The JSON Web Key set has no private key to sign tokens with.");
+        }
+
+        Map<String, String> header = new LinkedHashMap<>();
+        header.put("alg", ALGORITHM);
+        header.put("typ", "JWT");
+        header.put("kid", signingKey.getId());
+
+        try {
+            String signingInput = BASE64_ENCODER.encodeToString(objectMapper.writeValueAsBytes(header)) + "."
+                    + BASE64_ENCODER.encodeToString(objectMapper.writeValueAsBytes(
+                    getAccessTokenConverter().convertAccessToken(accessToken, authentication)));
+
+            byte[] signature = signingKey.getSigner().sign(signingInput.getBytes(US_ASCII));
+
+            return signingInput + "." + BASE64_ENCODER.encodeToString(signature);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot convert access token to JSON", e);
+        }
+    }
+
+    /**
+     * Verifies a token and reads its claims.
+     *
+     * @param token the encoded token
+     * @return the claims of the token
+     * @throws InvalidTokenException if the token isn't signed with a known key, or if it has been revoked
+     */
+    @Override
+    public Map<String, Object> decode(String token) {
+
+        Map<String, Object> claims = readClaims(token);
+        Object tokenId = claims.get(TOKEN_ID);
+
+        if (tokenId instanceof String && revocationList.isRevoked((String) tokenId)) {
+            throw new InvalidTokenException("The token has been revoked.");
+        }
+
+        return claims;
+    }
+
+    /**
+     * Verifies a token and reads its claims, without checking whether it has been revoked.
+     *
+     * @param token the encoded token
+     * @return the claims of the token
+     * @throws InvalidTokenException if the token isn't signed with a known key
+     */
+    public Map<String, Object> readClaims(String token) {
+
+        int headerEnd = token.indexOf('.');
+        int claimsEnd = token.lastIndexOf('.');
+
+        if (headerEnd < 0 || headerEnd == claimsEnd) {
+            throw new InvalidTokenException("Cannot convert access token to JSON");
+        }
+
+        try {
+            JsonNode header = objectMapper.readTree(BASE64_DECODER.decode(token.substring(0, headerEnd)));
+
+            if (!header.path("alg").asText().equals(ALGORITHM)) {
+                throw new InvalidTokenException("The token isn't signed with " + ALGORITHM + ".");
+            }
+
+            SignatureVerifier verifier = keySet.getVerifier(header.path("kid").asText());
+
+            if (verifier == null) {
+                throw new InvalidTokenException("The token is signed with an unknown key.");
+            }
+
+            verifier.verify(token.substring(0, claimsEnd).getBytes(US_ASCII),
+                    BASE64_DECODER.decode(token.substring(claimsEnd + 1)));
+
+            byte[] encodedClaims = BASE64_DECODER.decode(token.substring(headerEnd + 1, claimsEnd));
+            Map<String, Object> claims = objectMapper.readValue(encodedClaims, CLAIMS_TYPE);
+
+            // the access token converter reads the expiry as a long
+            if (claims.get(EXP) instanceof Integer) {
+                claims.put(EXP, ((Integer) claims.get(EXP)).longValue());
+            }
+
+            return claims;
+        }
+        catch (IOException | IllegalArgumentException | InvalidSignatureException e) {
+            throw new InvalidTokenException("Cannot convert access token to JSON", e);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.IndexOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.security.oauth2.common.*;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.AuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.util.*;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+import static org.springframework.data.domain.Sort.Direction.ASC;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+
+/**
+ * A token store that keeps OAuth2 tokens in MongoDB, so that a resource server that stores data points in MongoDB
+ * doesn't need a relational database to authenticate requests. Each token is a small document whose user name, client
+ * identifier, scopes and expiry are plain fields, and whose authentication is kept in the compact encoding of
+ * {@link OAuth2AuthenticationCodec}. MongoDB removes tokens once they expire using TTL indexes, so a token may outlive
+ * its expiry by up to a minute, during which the token services reject it as expired.
+ *
+ * @author Emerson Farrugia
+ */
+public class MongoTokenStore implements TokenStore {
+
+    public static final String ACCESS_TOKEN_COLLECTION_NAME = "accessTokens";
+    public static final String REFRESH_TOKEN_COLLECTION_NAME = "refreshTokens";
+
+    private static final Logger log = LoggerFactory.getLogger(MongoTokenStore.class);
+
+    private static final String ID_KEY = "_id";
+    private static final String TOKEN_TYPE_KEY = "token_type";
+    private static final String EXPIRATION_TIMESTAMP_KEY = "expiration_timestamp";
+    private static final String SCOPE_KEY = "scope";
+    private static final String REFRESH_TOKEN_KEY = "refresh_token";
+    private static final String REFRESH_TOKEN_EXPIRATION_TIMESTAMP_KEY = "refresh_token_expiration_timestamp";
+    private static final String ADDITIONAL_INFORMATION_KEY = "additional_information";
+    private static final String AUTHENTICATION_ID_KEY = "authentication_id";
+    private static final String USER_NAME_KEY = "user_name";
+    private static final String CLIENT_ID_KEY = "client_id";
+    private static final String AUTHENTICATION_KEY = "authentication";
+
+    private final MongoOperations mongoOperations;
+    private AuthenticationKeyGenerator authenticationKeyGenerator = new DefaultAuthenticationKeyGenerator();
+
+    public MongoTokenStore(MongoOperations mongoOperations) {
+
+        requireNonNull(mongoOperations);
+
+        this.mongoOperations = mongoOperations;
+    }
+
+    public void setAuthenticationKeyGenerator(AuthenticationKeyGenerator authenticationKeyGenerator) {
+
+        requireNonNull(authenticationKeyGenerator);
+
+        this.authenticationKeyGenerator = authenticationKeyGenerator;
+    }
+
+    @PostConstruct
+    public void ensureIndexes() {
+
+        IndexOperations accessTokenIndexOperations = mongoOperations.indexOps(ACCESS_TOKEN_COLLECTION_NAME);
+
+        accessTokenIndexOperations.ensureIndex(new Index().on(AUTHENTICATION_ID_KEY, ASC));
+        accessTokenIndexOperations.ensureIndex(new Index().on(CLIENT_ID_KEY, ASC).on(USER_NAME_KEY, ASC));
+        accessTokenIndexOperations.ensureIndex(new Index().on(REFRESH_TOKEN_KEY, ASC).sparse());
+
+        // tokens without an expiry don't have the field, and are never removed
+        accessTokenIndexOperations.ensureIndex(new Index().on(EXPIRATION_TIMESTAMP_KEY, ASC).expire(0));
+
+        mongoOperations.indexOps(REFRESH_TOKEN_COLLECTION_NAME)
+                .ensureIndex(new Index().on(EXPIRATION_TIMESTAMP_KEY, ASC).expire(0));
+    }
+
+    @Override
+    public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+
+        String authenticationId = authenticationKeyGenerator.extractKey(authentication);
+        DBObject document = mongoOperations.findOne(query(where(AUTHENTICATION_ID_KEY).is(authenticationId)),
+                DBObject.class, ACCESS_TOKEN_COLLECTION_NAME);
+
+        if (document == null) {
+            return null;
+        }
+
+        OAuth2AccessToken accessToken = toAccessToken(document);
+
+        // keep the stored authentication in line with the given one, as the relational token store does
+        OAuth2Authentication storedAuthentication = readAuthentication(accessToken.getValue());
+
+        if (storedAuthentication == null
+                || !authenticationId.equals(authenticationKeyGenerator.extractKey(storedAuthentication))) {
+            storeAccessToken(accessToken, authentication);
+        }
+
+        return accessToken;
+    }
+
+    @Override
+    public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+
+        DBObject document = new BasicDBObject(ID_KEY, token.getValue());
+
+        document.put(TOKEN_TYPE_KEY, token.getTokenType());
+        putIfNotNull(document, EXPIRATION_TIMESTAMP_KEY, token.getExpiration());
+
+        if (token.getScope() != null && !token.getScope().isEmpty()) {
+            document.put(SCOPE_KEY, new ArrayList<>(token.getScope()));
+        }
+
+        OAuth2RefreshToken refreshToken = token.getRefreshToken();
+
+        if (refreshToken != null) {
+            document.put(REFRESH_TOKEN_KEY, refreshToken.getValue());
+            putIfNotNull(document, REFRESH_TOKEN_EXPIRATION_TIMESTAMP_KEY, getExpiration(refreshToken));
+        }
+
+        if (token.getAdditionalInformation() != null && !token.getAdditionalInformation().isEmpty()) {
+            document.put(ADDITIONAL_INFORMATION_KEY, new BasicDBObject(token.getAdditionalInformation()));
+        }
+
+        document.put(AUTHENTICATION_ID_KEY, authenticationKeyGenerator.extractKey(authentication));
+        putAuthentication(document, authentication);
+
+        // the document is saved as is, without type information, and replaces the token if it's already stored
+        mongoOperations.getCollection(ACCESS_TOKEN_COLLECTION_NAME).save(document);
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(String tokenValue) {
+
+        DBObject document = findById(tokenValue, ACCESS_TOKEN_COLLECTION_NAME);
+
+        return document == null ? null : toAccessToken(document);
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+
+        return readAuthentication(token.getValue());
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(String tokenValue) {
+
+        DBObject document = findById(tokenValue, ACCESS_TOKEN_COLLECTION_NAME);
+
+        if (document == null) {
+            return null;
+        }
+
+        try {
+            return toAuthentication(document);
+        }
+        catch (IllegalArgumentException e) {
+            log.warn("The authentication of an access token can't be decoded, so the token has been removed.", e);
+            removeById(tokenValue, ACCESS_TOKEN_COLLECTION_NAME);
+            return null;
+        }
+    }
+
+    @Override
+    public void removeAccessToken(OAuth2AccessToken token) {
+
+        removeById(token.getValue(), ACCESS_TOKEN_COLLECTION_NAME);
+    }
+
+    @Override
+    public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+
+        DBObject document = new BasicDBObject(ID_KEY, refreshToken.getValue());
+
+        putIfNotNull(document, EXPIRATION_TIMESTAMP_KEY, getExpiration(refreshToken));
+        putAuthentication(document, authentication);
+
+        mongoOperations.getCollection(REFRESH_TOKEN_COLLECTION_NAME).save(document);
+    }
+
+    @Override
+    public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+
+        DBObject document = findById(tokenValue, REFRESH_TOKEN_COLLECTION_NAME);
+
+        if (document == null) {
+            return null;
+        }
+
+        return newRefreshToken(tokenValue, (Date) document.get(EXPIRATION_TIMESTAMP_KEY));
+    }
+
+    @Override
+    public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+
+        DBObject document = findById(token.getValue(), REFRESH_TOKEN_COLLECTION_NAME);
+
+        if (document == null) {
+            return null;
+        }
+
+        try {
+            return toAuthentication(document);
+        }
+        catch (IllegalArgumentException e) {
+            log.warn("The authentication of a refresh token can't be decoded, so the token has been removed.", e);
+            removeRefreshToken(token);
+            return null;
+        }
+    }
+
+    @Override
+    public void removeRefreshToken(OAuth2RefreshToken token) {
+
+        removeById(token.getValue(), REFRESH_TOKEN_COLLECTION_NAME);
+    }
+
+    @Override
+    public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+
+        mongoOperations.remove(query(where(REFRESH_TOKEN_KEY).is(refreshToken.getValue())),
+                ACCESS_TOKEN_COLLECTION_NAME);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+
+        return findAccessTokens(query(where(CLIENT_ID_KEY).is(clientId).and(USER_NAME_KEY).is(userName)));
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+
+        return findAccessTokens(query(where(CLIENT_ID_KEY).is(clientId)));
+    }
+
+    private Collection<OAuth2AccessToken> findAccessTokens(Query query) {
+
+        return mongoOperations.find(query, DBObject.class, ACCESS_TOKEN_COLLECTION_NAME).stream()
+                .map(this::toAccessToken)
+                .collect(toList());
+    }
+
+    @Nullable
+    private DBObject findById(String id, String collectionName) {
+
+        return mongoOperations.findOne(query(where(ID_KEY).is(id)), DBObject.class, collectionName);
+    }
+
+    private void removeById(String id, String collectionName) {
+
+        mongoOperations.remove(query(where(ID_KEY).is(id)), collectionName);
+    }
+
+    private void putAuthentication(DBObject document, OAuth2Authentication authentication) {
+
+        if (!authentication.isClientOnly()) {
+            document.put(USER_NAME_KEY, authentication.getName());
+        }
+
+        document.put(CLIENT_ID_KEY, authentication.getOAuth2Request().getClientId());
+        document.put(AUTHENTICATION_KEY, OAuth2AuthenticationCodec.encode(authentication));
+    }
+
+    private OAuth2Authentication toAuthentication(DBObject document) {
+
+        return OAuth2AuthenticationCodec.decode((byte[]) document.get(AUTHENTICATION_KEY),
+                (String) document.get(CLIENT_ID_KEY), (String) document.get(USER_NAME_KEY));
+    }
+
+    @SuppressWarnings("unchecked")
+    private OAuth2AccessToken toAccessToken(DBObject document) {
+
+        DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken((String) document.get(ID_KEY));
+
+        accessToken.setTokenType((String) document.get(TOKEN_TYPE_KEY));
+        accessToken.setExpiration((Date) document.get(EXPIRATION_TIMESTAMP_KEY));
+
+        List<String> scope = (List<String>) document.get(SCOPE_KEY);
+        accessToken.setScope(scope == null ? Collections.<String>emptySet() : new LinkedHashSet<>(scope));
+
+        DBObject additionalInformation = (DBObject) document.get(ADDITIONAL_INFORMATION_KEY);
+
+        if (additionalInformation != null) {
+            accessToken.setAdditionalInformation(additionalInformation.toMap());
+        }
+
+        String refreshTokenValue = (String) document.get(REFRESH_TOKEN_KEY);
+
+        if (refreshTokenValue != null) {
+            accessToken.setRefreshToken(newRefreshToken(refreshTokenValue,
+                    (Date) document.get(REFRESH_TOKEN_EXPIRATION_TIMESTAMP_KEY)));
+        }
+
+        return accessToken;
+    }
+
+    private OAuth2RefreshToken newRefreshToken(String value, @Nullable Date expiration) {
+
+        return expiration == null
+                ? new DefaultOAuth2RefreshToken(value)
+                : new DefaultExpiringOAuth2RefreshToken(value, expiration);
+    }
+
+    @Nullable
+    private Date getExpiration(OAuth2RefreshToken refreshToken) {
+
+        return refreshToken instanceof ExpiringOAuth2RefreshToken
+                ? ((ExpiringOAuth2RefreshToken) refreshToken).getExpiration()
+                : null;
+    }
+
+    private void putIfNotNull(DBObject document, String key, @Nullable Object value) {
+
+        if (value != null) {
+            document.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import org.openmhealth.dsu.domain.EndUserUserDetails;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.*;
+
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * A compact binary encoding of OAuth2 authentications, which replaces the Java serialization used by the token stores
+ * that ship with Spring Security OAuth. The client identifier and the user name aren't part of the encoding, since
+ * token stores keep them in their own columns or fields to query them.
+ * <p>
+ * The encoding starts with a version byte, followed by the scopes, request parameters, client authorities, approval,
+ * resource identifiers, redirect URI and response types of the request and, if a user is present, the authorities of
+ * the user. Request extensions and authentication details aren't encoded, since nothing reads them from a stored
+ * authentication. A restored user is an {@link EndUserUserDetails} without a password.
+ *
+ * @author Emerson Farrugia
+ */
+public final class OAuth2AuthenticationCodec {
+
+    private static final byte VERSION = 1;
+
+    private OAuth2AuthenticationCodec() {
+    }
+
+    /**
+     * @param authentication the authentication to encode
+     * @return the encoded authentication
+     */
+    public static byte[] encode(OAuth2Authentication authentication) {
+
+        requireNonNull(authentication);
+
+        OAuth2Request request = authentication.getOAuth2Request();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+
+            output.writeByte(VERSION);
+            writeStrings(output, request.getScope());
+            writeStringMap(output, request.getRequestParameters());
+            writeAuthorities(output, request.getAuthorities());
+            output.writeBoolean(request.isApproved());
+            writeStrings(output, request.getResourceIds());
+            writeNullableString(output, request.getRedirectUri());
+            writeStrings(output, request.getResponseTypes());
+
+            Authentication userAuthentication = authentication.getUserAuthentication();
+
+            output.writeBoolean(userAuthentication != null);
+
+            if (userAuthentication != null) {
+                writeAuthorities(output, userAuthentication.getAuthorities());
+            }
+        }
+        catch (IOException e) {
+            // a byte array stream doesn't throw
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param encodedAuthentication the encoded authentication
+     * @param clientId the identifier of the client the authentication was granted to
+     * @param userName the name of the user who authorised the client, or null if the client acts on its own behalf
+     * @return the decoded authentication
+     * @throws IllegalArgumentException if the encoded authentication is malformed
+     */
+    public static OAuth2Authentication decode(byte[] encodedAuthentication, String clientId,
+            @Nullable String userName) {
+
+        requireNonNull(encodedAuthentication);
+        requireNonNull(clientId);
+
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(encodedAuthentication))) {
+
+            byte version = input.readByte();
+
+            if (version != VERSION) {
+                throw new IllegalArgumentException(
+                        "The authentication encoding version " + version + " isn't supported.");
+            }
+
+            Set<String> scope = readStrings(input);
+            Map<String, String> requestParameters = readStringMap(input);
+            Collection<GrantedAuthority> authorities = readAuthorities(input);
+            boolean approved = input.readBoolean();
+            Set<String> resourceIds = readStrings(input);
+            String redirectUri = readNullableString(input);
+            Set<String> responseTypes = readStrings(input);
+
+            OAuth2Request request = new OAuth2Request(requestParameters, clientId, authorities, approved, scope,
+                    resourceIds, redirectUri, responseTypes, null);
+
+            Authentication userAuthentication = null;
+
+            if (input.readBoolean()) {
+                Collection<GrantedAuthority> userAuthorities = readAuthorities(input);
+
+                if (userName == null) {
+                    throw new IllegalArgumentException("The authentication has a user, but no user name is given.");
+                }
+
+                // the password isn't stored
+                userAuthentication = new UsernamePasswordAuthenticationToken(new EndUserUserDetails(userName, ""),
+                        "N/A", userAuthorities);
+            }
+
+            return new OAuth2Authentication(request, userAuthentication);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("The encoded authentication is malformed.", e);
+        }
+    }
+
+    private static void writeNullableString(DataOutput output, @Nullable String string) throws IOException {
+
+        output.writeBoolean(string != null);
+
+        if (string != null) {
+            output.writeUTF(string);
+        }
+    }
+
+    private static String readNullableString(DataInput input) throws IOException {
+
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static void writeStrings(DataOutput output, @Nullable Collection<String> strings) throws IOException {
+
+        // a request distinguishes between missing and empty sets, e.g. of resource identifiers
+        if (strings == null) {
+            output.writeShort(-1);
+            return;
+        }
+
+        output.writeShort(strings.size());
+
+        for (String string : strings) {
+            output.writeUTF(string);
+        }
+    }
+
+    @Nullable
+    private static Set<String> readStrings(DataInput input) throws IOException {
+
+        int size = input.readShort();
+
+        if (size < 0) {
+            return null;
+        }
+
+        Set<String> strings = new LinkedHashSet<>(size * 2);
+
+        for (int i = 0; i < size; i++) {
+            strings.add(input.readUTF());
+        }
+
+        return strings;
+    }
+
+    private static void writeStringMap(DataOutput output, @Nullable Map<String, String> map) throws IOException {
+
+        if (map == null) {
+            output.writeShort(0);
+            return;
+        }
+
+        output.writeShort(map.size());
+
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            output.writeUTF(entry.getKey());
+            writeNullableString(output, entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readStringMap(DataInput input) throws IOException {
+
+        int size = input.readUnsignedShort();
+        Map<String, String> map = new LinkedHashMap<>(size * 2);
+
+        for (int i = 0; i < size; i++) {
+            map.put(input.readUTF(), readNullableString(input));
+        }
+
+        return map;
+    }
+
+    private static void writeAuthorities(DataOutput output,
+            @Nullable Collection<? extends GrantedAuthority> authorities) throws IOException {
+
+        if (authorities == null) {
+            output.writeShort(0);
+            return;
+        }
+
+        output.writeShort(authorities.size());
+
+        for (GrantedAuthority authority : authorities) {
+            output.writeUTF(authority.getAuthority());
+        }
+    }
+
+    private static Collection<GrantedAuthority> readAuthorities(DataInput input) throws IOException {
+
+        int size = input.readUnsignedShort();
+        List<GrantedAuthority> authorities = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            authorities.add(new SimpleGrantedAuthority(input.readUTF()));
+        }
+
+        return authorities;
+    }
+}
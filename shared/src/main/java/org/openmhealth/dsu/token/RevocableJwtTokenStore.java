@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.token.store.JwtTokenStore;
+
+import java.time.Instant;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+import static org.springframework.security.oauth2.provider.token.AccessTokenConverter.EXP;
+import static org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter.TOKEN_ID;
+
+
+/**
+ * A store of signed tokens. Like {@link JwtTokenStore}, it doesn't persist tokens, since they carry their own
+ * authentication, but removing a token revokes it, so that revoking a token through the token services of the
+ * authorization server works as it does with a persistent store.
+ *
+ * @author Emerson Farrugia
+ */
+public class RevocableJwtTokenStore extends JwtTokenStore {
+
+    // a token that never expires is never discarded from the revocation list
+    private static final Instant NEVER = Instant.parse("9999-12-31T23:59:59Z");
+
+    private final KeyRotatingJwtAccessTokenConverter accessTokenConverter;
+    private final AccessTokenRevocationList revocationList;
+
+    public RevocableJwtTokenStore(KeyRotatingJwtAccessTokenConverter accessTokenConverter,
+            AccessTokenRevocationList revocationList) {
+
+        super(accessTokenConverter);
+
+        requireNonNull(revocationList);
+
+        this.accessTokenConverter = accessTokenConverter;
+        this.revocationList = revocationList;
+    }
+
+    @Override
+    public void removeAccessToken(OAuth2AccessToken token) {
+
+        super.removeAccessToken(token);
+        revoke(token.getValue());
+    }
+
+    @Override
+    public void removeRefreshToken(OAuth2RefreshToken token) {
+
+        super.removeRefreshToken(token);
+        revoke(token.getValue());
+    }
+
+    private void revoke(String tokenValue) {
+
+        Map<String, Object> claims;
+
+        try {
+            claims = accessTokenConverter.readClaims(tokenValue);
+        }
+        catch (InvalidTokenException e) {
+            // a token that can't be verified is rejected anyway
+            return;
+        }
+
+        if (!(claims.get(TOKEN_ID) instanceof String)) {
+            return;
+        }
+
+        Instant expirationTimestamp = (claims.get(EXP) instanceof Number)
+                ? Instant.ofEpochSecond(((Number) claims.get(EXP)).longValue())
+                : NEVER;
+
+        // expired tokens are removed by the token services as they're read, and are rejected anyway
+        if (expirationTimestamp.isAfter(Instant.now())) {
+            revocationList.revoke((String) claims.get(TOKEN_ID), expirationTimestamp);
+        }
+    }
+}
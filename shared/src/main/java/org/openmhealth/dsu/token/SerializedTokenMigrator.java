@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.Date;
+
+import static org.springframework.security.oauth2.common.util.SerializationUtils.deserialize;
+
+
+/**
+ * A one-off migration of the Java-serialized tokens written by
+ * {@link org.springframework.security.oauth2.provider.token.store.JdbcTokenStore} to a {@link CompactJdbcTokenStore}.
+ * It runs on startup if the "accessTokens.migrateSerializedTokens" property is set, and should be enabled on a single
+ * instance while switching the access token format to "compact". Expired tokens and tokens that can't be deserialized
+ * are skipped, tokens that have already been migrated are overwritten, and the old tables are left in place.
+ *
+ * @author Emerson Farrugia
+ */
+@Component
+@ConditionalOnProperty(prefix = "accessTokens", name = "migrateSerializedTokens")
+public class SerializedTokenMigrator implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(SerializedTokenMigrator.class);
+
+    // avoids reading the whole table into memory, if the driver supports it
+    private static final int FETCH_SIZE = 1000;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private CompactJdbcTokenStore tokenStore;
+
+    @Override
+    public void run(String... args) {
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(FETCH_SIZE);
+
+        MigrationCounts refreshTokenCounts = new MigrationCounts();
+
+        jdbcTemplate.query("select token, authentication from oauth_refresh_token", resultSet -> {
+            try {
+                OAuth2RefreshToken refreshToken = deserialize(resultSet.getBytes("token"));
+                OAuth2Authentication authentication = deserialize(resultSet.getBytes("authentication"));
+
+                if (isExpired(refreshToken)) {
+                    refreshTokenCounts.skipped++;
+                    return;
+                }
+
+                tokenStore.removeRefreshToken(refreshToken);
+                tokenStore.storeRefreshToken(refreshToken, authentication);
+                refreshTokenCounts.migrated++;
+            }
+            catch (IllegalArgumentException e) {
+                log.debug("A refresh token can't be deserialized.", e);
+                refreshTokenCounts.failed++;
+            }
+        });
+
+        log.info("{} refresh token(s) have been migrated, {} expired token(s) have been skipped, and {} token(s) "
+                        + "couldn't be deserialized.", refreshTokenCounts.migrated, refreshTokenCounts.skipped,
+                refreshTokenCounts.failed);
+
+        MigrationCounts accessTokenCounts = new MigrationCounts();
+
+        jdbcTemplate.query("select token, authentication from oauth_access_token", resultSet -> {
+            try {
+                OAuth2AccessToken accessToken = deserialize(resultSet.getBytes("token"));
+                OAuth2Authentication authentication = deserialize(resultSet.getBytes("authentication"));
+
+                if (accessToken.isExpired()) {
+                    accessTokenCounts.skipped++;
+                    return;
+                }
+
+                tokenStore.storeAccessToken(accessToken, authentication);
+                accessTokenCounts.migrated++;
+            }
+            catch (IllegalArgumentException e) {
+                log.debug("An access token can't be deserialized.", e);
+                accessTokenCounts.failed++;
+            }
+        });
+
+        log.info("{} access token(s) have been migrated, {} expired token(s) have been skipped, and {} token(s) "
+                        + "couldn't be deserialized.", accessTokenCounts.migrated, accessTokenCounts.skipped,
+                accessTokenCounts.failed);
+    }
+
+    private boolean isExpired(OAuth2RefreshToken refreshToken) {
+
+        if (!(refreshToken instanceof ExpiringOAuth2RefreshToken)) {
+            return false;
+        }
+
+        Date expiration = ((ExpiringOAuth2RefreshToken) refreshToken).getExpiration();
+
+        return expiration != null && expiration.before(new Date());
+    }
+
+    private static class MigrationCounts {
+
+        private long migrated;
+        private long skipped;
+        private long failed;
+    }
+}
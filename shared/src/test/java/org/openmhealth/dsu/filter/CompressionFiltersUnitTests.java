@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.filter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+
+/**
+ * A suite of unit tests for the request decompression and response compression filters.
+ *
+ * @author Emerson Farrugia
+ */
+public class CompressionFiltersUnitTests {
+
+    private static final int MINIMUM_SIZE = 64;
+
+    private CompressionMetrics metrics;
+    private ResponseCompressionFilter responseCompressionFilter;
+    private RequestDecompressionFilter requestDecompressionFilter;
+
+    @Before
+    public void initialiseFilters() {
+
+        metrics = new CompressionMetrics();
+        responseCompressionFilter =
+                new ResponseCompressionFilter(MINIMUM_SIZE, 6, singletonList(APPLICATION_JSON), metrics);
+        requestDecompressionFilter = new RequestDecompressionFilter(1024, metrics);
+    }
+
+    @Test
+    public void negotiateEncodingShouldPreferGzip() {
+
+        assertThat(ResponseCompressionFilter.negotiateEncoding("deflate, gzip;q=0.5"), equalTo("gzip"));
+        assertThat(ResponseCompressionFilter.negotiateEncoding("deflate, gzip;q=0"), equalTo("deflate"));
+        assertThat(ResponseCompressionFilter.negotiateEncoding("identity"), nullValue());
+        assertThat(ResponseCompressionFilter.negotiateEncoding(null), nullValue());
+    }
+
+    @Test
+    public void responseShouldNotBeCompressedBelowMinimumSize() throws Exception {
+
+        MockHttpServletResponse response = filterResponse("{}");
+
+        assertThat(response.getHeader("Content-Encoding"), nullValue());
+        assertThat(response.getContentAsString(), equalTo("{}"));
+    }
+
+    @Test
+    public void responseShouldBeCompressedAboveMinimumSize() throws Exception {
+
+        String body = new String(new char[MINIMUM_SIZE * 10]).replace('\0', 'a');
+
+        MockHttpServletResponse response = filterResponse(body);
+
+        assertThat(response.getHeader("Content-Encoding"), equalTo("gzip"));
+        assertThat(gunzip(response.getContentAsByteArray()), equalTo(body));
+    }
+
+    @Test
+    public void requestShouldBeInflated() throws Exception {
+
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/dataPoints");
+        request.addHeader("Content-Encoding", "gzip");
+        request.setContent(gzip("{\"foo\":\"bar\"}"));
+
+        String[] body = new String[1];
+
+        requestDecompressionFilter.doFilter(request, new MockHttpServletResponse(),
+                new MockFilterChain(new HttpServlet() {
+                    @Override
+                    protected void service(HttpServletRequest request, HttpServletResponse response)
+                            throws IOException {
+
+                        assertThat(request.getHeader("Content-Encoding"), nullValue());
+                        body[0] = StreamUtils.copyToString(request.getInputStream(), UTF_8);
+                    }
+                }));
+
+        assertThat(body[0], equalTo("{\"foo\":\"bar\"}"));
+    }
+
+    @Test
+    public void requestInflatedBeyondMaximumSizeShouldGetPayloadTooLarge() throws Exception {
+
+        MockHttpServletResponse response = filterOversizeRequest(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+                StreamUtils.copyToByteArray(request.getInputStream());
+            }
+        });
+
+        assertThat(response.getStatus(), equalTo(413));
+    }
+
+    @Test
+    public void requestInflatedBeyondMaximumSizeShouldGetPayloadTooLargeInsteadOfBadRequest() throws Exception {
+
+        MockHttpServletResponse response = filterOversizeRequest(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+                // like a message converter, report the failed read as a bad request
+                try {
+                    StreamUtils.copyToByteArray(request.getInputStream());
+                }
+                catch (IOException e) {
+                    response.sendError(400);
+                }
+            }
+        });
+
+        assertThat(response.getStatus(), equalTo(413));
+    }
+
+    @Test
+    public void requestWithIdentityEncodingShouldPassThrough() throws Exception {
+
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/dataPoints");
+        request.addHeader("Content-Encoding", "identity");
+        request.setContent("{}".getBytes(UTF_8));
+
+        String[] body = new String[1];
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        requestDecompressionFilter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+                body[0] = StreamUtils.copyToString(request.getInputStream(), UTF_8);
+            }
+        }));
+
+        assertThat(response.getStatus(), equalTo(200));
+        assertThat(body[0], equalTo("{}"));
+    }
+
+    private MockHttpServletResponse filterOversizeRequest(HttpServlet servlet) throws Exception {
+
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/dataPoints");
+        request.addHeader("Content-Encoding", "gzip");
+        request.setContent(gzip(new String(new char[2048])));
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        requestDecompressionFilter.doFilter(request, response, new MockFilterChain(servlet));
+
+        return response;
+    }
+
+    private MockHttpServletResponse filterResponse(String body) throws Exception {
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/dataPoints");
+        request.addHeader("Accept-Encoding", "gzip");
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        responseCompressionFilter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+                response.setContentType(APPLICATION_JSON.toString());
+                response.getOutputStream().write(body.getBytes(UTF_8));
+                response.getOutputStream().flush();
+            }
+        }));
+
+        return response;
+    }
+
+    private byte[] gzip(String value) throws IOException {
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(value.getBytes(UTF_8));
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    private String gunzip(byte[] value) throws IOException {
+
+        return StreamUtils.copyToString(new GZIPInputStream(new ByteArrayInputStream(value)), UTF_8);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.security.oauth2.provider.NoSuchClientException;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+import org.springframework.security.oauth2.provider.client.JdbcClientDetailsService;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+
+/**
+ * A suite of unit tests for {@link CachingClientDetailsService}.
+ *
+ * @author Emerson Farrugia
+ */
+public class CachingClientDetailsServiceUnitTests {
+
+    private static final String CLIENT_ID = "testClient";
+
+    private JdbcClientDetailsService delegate;
+    private ClientDetailsVersionStamp versionStamp;
+    private ClientDetailsCacheMetrics metrics;
+    private CachingClientDetailsService service;
+    private ClientDetails clientDetails;
+
+    @Before
+    public void initialiseService() {
+
+        delegate = mock(JdbcClientDetailsService.class);
+        versionStamp = mock(ClientDetailsVersionStamp.class);
+        metrics = new ClientDetailsCacheMetrics();
+
+        // the version stamp is polled on every read
+        service = new CachingClientDetailsService(delegate, 300, versionStamp, 0, metrics);
+
+        clientDetails = new BaseClientDetails(CLIENT_ID, null, "read_data_points", "authorization_code", null);
+        when(delegate.loadClientByClientId(CLIENT_ID)).thenReturn(clientDetails);
+    }
+
+    @Test
+    public void loadClientByClientIdShouldReadClientDetailsOnce() {
+
+        assertThat(service.loadClientByClientId(CLIENT_ID), sameInstance(clientDetails));
+        assertThat(service.loadClientByClientId(CLIENT_ID), sameInstance(clientDetails));
+
+        verify(delegate, times(1)).loadClientByClientId(CLIENT_ID);
+        assertThat(getMetric("clientDetailsCache.hits"), equalTo(1L));
+        assertThat(getMetric("clientDetailsCache.misses"), equalTo(1L));
+    }
+
+    @Test
+    public void loadClientByClientIdShouldNotCacheUnknownClients() {
+
+        when(delegate.loadClientByClientId("unknownClient")).thenThrow(new NoSuchClientException("unknown"));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                service.loadClientByClientId("unknownClient");
+                fail();
+            }
+            catch (NoSuchClientException e) {
+                // expected
+            }
+        }
+
+        verify(delegate, times(2)).loadClientByClientId("unknownClient");
+    }
+
+    @Test
+    public void updateClientDetailsShouldInvalidateCachedClientDetails() {
+
+        service.loadClientByClientId(CLIENT_ID);
+        service.updateClientDetails(clientDetails);
+        service.loadClientByClientId(CLIENT_ID);
+
+        verify(delegate).updateClientDetails(clientDetails);
+        verify(versionStamp).increment();
+        verify(delegate, times(2)).loadClientByClientId(CLIENT_ID);
+    }
+
+    @Test
+    public void removeClientDetailsShouldInvalidateCachedClientDetails() {
+
+        service.loadClientByClientId(CLIENT_ID);
+        service.removeClientDetails(CLIENT_ID);
+        service.loadClientByClientId(CLIENT_ID);
+
+        verify(delegate).removeClientDetails(CLIENT_ID);
+        verify(delegate, times(2)).loadClientByClientId(CLIENT_ID);
+    }
+
+    @Test
+    public void loadClientByClientIdShouldInvalidateCacheOnVersionChange() {
+
+        service.loadClientByClientId(CLIENT_ID);
+
+        // a change made on another server
+        when(versionStamp.read()).thenReturn(1L);
+        service.loadClientByClientId(CLIENT_ID);
+        service.loadClientByClientId(CLIENT_ID);
+
+        verify(delegate, times(2)).loadClientByClientId(CLIENT_ID);
+        assertThat(getMetric("clientDetailsCache.invalidations"), equalTo(1L));
+    }
+
+    private Object getMetric(String name) {
+
+        return metrics.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .findFirst()
+                .get()
+                .getValue();
+    }
+}
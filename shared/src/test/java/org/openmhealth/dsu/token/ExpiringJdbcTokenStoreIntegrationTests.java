@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openmhealth.dsu.token;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singleton;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType.H2;
+
+
+/**
+ * A suite of integration tests for {@link ExpiringJdbcTokenStore} and {@link ExpiredTokenReaper}, run against an
+ * embedded database with the token tables of oauth2-ddl.sql.
+ *
+ * @author Emerson Farrugia
+ */
+public class ExpiringJdbcTokenStoreIntegrationTests {
+
+    private static final String CLIENT_ID = "testClient";
+    private static final String USER_NAME = "testUser";
+    private static final int BATCH_SIZE = 2;
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private ExpiringJdbcTokenStore tokenStore;
+    private ExpiredTokenReaper reaper;
+    private OAuth2Authentication authentication;
+
+
+    @Before
+    public void initialiseFixture() {
+
+        database = new EmbeddedDatabaseBuilder().setType(H2).generateUniqueName(true).build();
+        jdbcTemplate = new JdbcTemplate(database);
+
+        jdbcTemplate.execute("CREATE TABLE oauth_access_token (token_id VARCHAR(256) PRIMARY KEY, token BLOB, "
+                + "authentication_id VARCHAR(256), user_name VARCHAR(256), client_id VARCHAR(256), "
+                + "authentication BLOB, refresh_token VARCHAR(256), expiration TIMESTAMP)");
+        jdbcTemplate.execute("CREATE INDEX oauth_access_token_expiration_idx ON oauth_access_token (expiration)");
+        jdbcTemplate.execute("CREATE TABLE oauth_refresh_token (token_id VARCHAR(256) PRIMARY KEY, token BLOB, "
+                + "authentication BLOB, expiration TIMESTAMP)");
+        jdbcTemplate.execute("CREATE INDEX oauth_refresh_token_expiration_idx ON oauth_refresh_token (expiration)");
+
+        tokenStore = new ExpiringJdbcTokenStore(database);
+        reaper = new ExpiredTokenReaper(database, "token_id", BATCH_SIZE, "oauth_access_token", "oauth_refresh_token");
+
+        OAuth2Request request = new OAuth2Request(emptyMap(), CLIENT_ID,
+                AuthorityUtils.createAuthorityList("ROLE_CLIENT"), true, singleton("read_data_points"), null, null,
+                null, null);
+
+        authentication = new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(USER_NAME, "N/A",
+                AuthorityUtils.createAuthorityList("ROLE_END_USER")));
+    }
+
+    @After
+    public void shutDownDatabase() {
+
+        database.shutdown();
+    }
+
+    @Test
+    public void storeAccessTokenShouldWriteExpiration() {
+
+        Date expiration = inMinutes(60);
+
+        storeAccessToken("access", expiration);
+
+        assertThat(jdbcTemplate.queryForObject("select expiration from oauth_access_token", Timestamp.class).getTime(),
+                equalTo(expiration.getTime()));
+    }
+
+    @Test
+    public void storeAccessTokenShouldLeaveExpirationOfNonExpiringTokenNull() {
+
+        storeAccessToken("access", null);
+
+        assertThat(jdbcTemplate.queryForObject("select expiration from oauth_access_token", Timestamp.class),
+                nullValue());
+    }
+
+    @Test
+    public void storeRefreshTokenShouldWriteExpiration() {
+
+        Date expiration = inMinutes(60);
+
+        tokenStore.storeRefreshToken(new DefaultExpiringOAuth2RefreshToken("refresh", expiration), authentication);
+
+        assertThat(jdbcTemplate.queryForObject("select expiration from oauth_refresh_token", Timestamp.class).getTime(),
+                equalTo(expiration.getTime()));
+    }
+
+    @Test
+    public void deleteExpiredTokensShouldDeleteExpiredTokensInBatches() {
+
+        // a whole number of batches of expired access tokens, and a partial last batch of expired refresh tokens
+        for (int i = 0; i < BATCH_SIZE * 2; i++) {
+            storeAccessToken("expiredAccess" + i, inMinutes(-1));
+        }
+
+        for (int i = 0; i < BATCH_SIZE + 1; i++) {
+            tokenStore.storeRefreshToken(new DefaultExpiringOAuth2RefreshToken("expiredRefresh" + i, inMinutes(-1)),
+                    authentication);
+        }
+
+        storeAccessToken("liveAccess", inMinutes(60));
+        storeAccessToken("nonExpiringAccess", null);
+        tokenStore.storeRefreshToken(new DefaultExpiringOAuth2RefreshToken("liveRefresh", inMinutes(60)),
+                authentication);
+        tokenStore.storeRefreshToken(new DefaultOAuth2RefreshToken("nonExpiringRefresh"), authentication);
+
+        reaper.deleteExpiredTokens();
+
+        assertThat(count("oauth_access_token"), equalTo(2));
+        assertThat(count("oauth_refresh_token"), equalTo(2));
+
+        assertThat(tokenStore.readAccessToken("expiredAccess0"), nullValue());
+        assertThat(tokenStore.readAccessToken("liveAccess"), notNullValue());
+        assertThat(tokenStore.readAccessToken("nonExpiringAccess"), notNullValue());
+        assertThat(tokenStore.readRefreshToken("expiredRefresh0"), nullValue());
+        assertThat(tokenStore.readRefreshToken("liveRefresh"), notNullValue());
+        assertThat(tokenStore.readRefreshToken("nonExpiringRefresh"), notNullValue());
+    }
+
+    @Test
+    public void deleteExpiredTokensShouldDoNothingWithoutExpiredTokens() {
+
+        storeAccessToken("liveAccess", inMinutes(60));
+
+        reaper.deleteExpiredTokens();
+
+        assertThat(count("oauth_access_token"), equalTo(1));
+    }
+
+    private void storeAccessToken(String value, Date expiration) {
+
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(value);
+        token.setExpiration(expiration);
+
+        tokenStore.storeAccessToken(token, authentication);
+    }
+
+    private int count(String table) {
+
+        return jdbcTemplate.queryForObject("select count(*) from " + table, Integer.class);
+    }
+
+    private static Date inMinutes(int minutes) {
+
+        return new Date(System.currentTimeMillis() + minutes * 60_000L);
+    }
+}
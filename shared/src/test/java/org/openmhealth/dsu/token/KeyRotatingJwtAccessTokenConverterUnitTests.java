@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmhealth.dsu.domain.EndUserUserDetails;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+import java.util.Date;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.copyOfRange;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+
+/**
+ * A suite of unit tests for {@link KeyRotatingJwtAccessTokenConverter}.
+ *
+ * @author Emerson Farrugia
+ */
+public class KeyRotatingJwtAccessTokenConverterUnitTests {
+
+    private static final String USER_ID = "testUser";
+    private static final String CLIENT_ID = "testClient";
+    private static final String SCOPE = "read_data_points";
+
+    private Path keySetFile;
+    private AccessTokenRevocationList revocationList;
+    private KeyRotatingJwtAccessTokenConverter converter;
+
+    @Before
+    public void initialiseConverter() throws Exception {
+
+        keySetFile = Files.createTempFile("jwks", ".json");
+        writeKeySet("key1", generateKeyPair());
+
+        JsonWebKeySet keySet = new JsonWebKeySet(keySetFile, null);
+        keySet.load();
+
+        revocationList = new AccessTokenRevocationList(mock(MongoOperations.class));
+        converter = new KeyRotatingJwtAccessTokenConverter(keySet, revocationList);
+    }
+
+    @After
+    public void deleteKeySetFile() throws IOException {
+
+        Files.deleteIfExists(keySetFile);
+    }
+
+    @Test
+    public void decodeShouldRestoreEncodedAuthentication() {
+
+        OAuth2AccessToken accessToken = converter.enhance(newAccessToken(), newAuthentication());
+
+        OAuth2Authentication authentication = converter.extractAuthentication(converter.decode(accessToken.getValue()));
+
+        assertThat(authentication.getOAuth2Request().getClientId(), equalTo(CLIENT_ID));
+        assertThat(authentication.getOAuth2Request().getScope(), equalTo(singleton(SCOPE)));
+        assertThat(authentication.getPrincipal(), instanceOf(EndUserUserDetails.class));
+        assertThat(((EndUserUserDetails) authentication.getPrincipal()).getUsername(), equalTo(USER_ID));
+    }
+
+    @Test
+    public void decodeShouldRestoreExpiration() {
+
+        OAuth2AccessToken accessToken = converter.enhance(newAccessToken(), newAuthentication());
+
+        OAuth2AccessToken decodedAccessToken =
+                converter.extractAccessToken(accessToken.getValue(), converter.decode(accessToken.getValue()));
+
+        assertThat(decodedAccessToken.getExpiration().getTime() / 1000,
+                equalTo(accessToken.getExpiration().getTime() / 1000));
+    }
+
+    @Test(expected = InvalidTokenException.class)
+    public void decodeShouldThrowExceptionOnTamperedToken() {
+
+        String token = converter.enhance(newAccessToken(), newAuthentication()).getValue();
+        String[] segments = token.split("\\.");
+        String tamperedClaims = new String(Base64.getUrlDecoder().decode(segments[1]), UTF_8)
+                .replace(USER_ID, "otherUser");
+
+        converter.decode(segments[0] + "."
+                + Base64.getUrlEncoder().withoutPadding().encodeToString(tamperedClaims.getBytes(UTF_8)) + "."
+                + segments[2]);
+    }
+
+    @Test(expected = InvalidTokenException.class)
+    public void decodeShouldThrowExceptionOnRemovedKey() throws Exception {
+
+        String token = converter.enhance(newAccessToken(), newAuthentication()).getValue();
+
+        writeKeySet("key2", generateKeyPair());
+
+        JsonWebKeySet keySet = new JsonWebKeySet(keySetFile, null);
+        keySet.load();
+
+        new KeyRotatingJwtAccessTokenConverter(keySet, revocationList).decode(token);
+    }
+
+    @Test(expected = InvalidTokenException.class)
+    public void decodeShouldThrowExceptionOnRevokedToken() {
+
+        OAuth2AccessToken accessToken = converter.enhance(newAccessToken(), newAuthentication());
+
+        revocationList.revoke((String) converter.readClaims(accessToken.getValue()).get("jti"),
+                accessToken.getExpiration().toInstant());
+
+        converter.decode(accessToken.getValue());
+    }
+
+    @Test
+    public void decodeShouldNotRejectOtherTokensOnRevocation() {
+
+        OAuth2AccessToken revokedAccessToken = converter.enhance(newAccessToken(), newAuthentication());
+        OAuth2AccessToken accessToken = converter.enhance(newAccessToken(), newAuthentication());
+
+        revocationList.revoke((String) converter.readClaims(revokedAccessToken.getValue()).get("jti"),
+                revokedAccessToken.getExpiration().toInstant());
+
+        assertThat(converter.decode(accessToken.getValue()).get("user_name"), equalTo(USER_ID));
+    }
+
+    private DefaultOAuth2AccessToken newAccessToken() {
+
+        DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(UUID.randomUUID().toString());
+        accessToken.setExpiration(new Date(System.currentTimeMillis() + 3_600_000));
+        accessToken.setScope(singleton(SCOPE));
+
+        return accessToken;
+    }
+
+    private OAuth2Authentication newAuthentication() {
+
+        EndUserUserDetails userDetails = new EndUserUserDetails(USER_ID, "");
+        OAuth2Request request = new OAuth2Request(null, CLIENT_ID, emptyList(), true, singleton(SCOPE), null, null,
+                null, null);
+
+        return new OAuth2Authentication(request,
+                new UsernamePasswordAuthenticationToken(userDetails, "N/A", userDetails.getAuthorities()));
+    }
+
+    private KeyPair generateKeyPair() throws GeneralSecurityException {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+
+        return generator.generateKeyPair();
+    }
+
+    private void writeKeySet(String keyId, KeyPair keyPair) throws IOException {
+
+        RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        RSAPrivateKey privateKey = (RSAPrivateKey) keyPair.getPrivate();
+
+        String keySet = "{\"keys\":[{\"kty\":\"RSA\",\"use\":\"sig\",\"kid\":\"" + keyId + "\""
+                + ",\"n\":\"" + encode(publicKey.getModulus()) + "\""
+                + ",\"e\":\"" + encode(publicKey.getPublicExponent()) + "\""
+                + ",\"d\":\"" + encode(privateKey.getPrivateExponent()) + "\"}]}";
+
+        Files.write(keySetFile, keySet.getBytes(UTF_8));
+    }
+
+    private String encode(BigInteger value) {
+
+        byte[] bytes = value.toByteArray();
+
+        // JSON Web Keys hold unsigned big-endian integers
+        if (bytes[0] == 0 && bytes.length > 1) {
+            bytes = copyOfRange(bytes, 1, bytes.length);
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
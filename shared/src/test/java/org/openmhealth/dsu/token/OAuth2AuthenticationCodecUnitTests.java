@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.openmhealth.dsu.token;
+
+import org.junit.Test;
+import org.openmhealth.dsu.domain.EndUserUserDetails;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Collections.singleton;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * A suite of unit tests for {@link OAuth2AuthenticationCodec}.
+ *
+ * @author Emerson Farrugia
+ */
+public class OAuth2AuthenticationCodecUnitTests {
+
+    private static final String CLIENT_ID = "testClient";
+    private static final String USER_NAME = "testUser";
+
+    @Test
+    public void decodeShouldRestoreEncodedUserAuthentication() {
+
+        OAuth2Authentication authentication = newAuthentication(true);
+
+        byte[] encodedAuthentication = OAuth2AuthenticationCodec.encode(authentication);
+
+        OAuth2Authentication decodedAuthentication =
+                OAuth2AuthenticationCodec.decode(encodedAuthentication, CLIENT_ID, USER_NAME);
+
+        assertThat(decodedAuthentication.getOAuth2Request(), equalTo(authentication.getOAuth2Request()));
+        assertThat(decodedAuthentication.getName(), equalTo(USER_NAME));
+        assertThat(decodedAuthentication.getPrincipal(), instanceOf(EndUserUserDetails.class));
+        assertThat(decodedAuthentication.getAuthorities(), equalTo(authentication.getAuthorities()));
+    }
+
+    @Test
+    public void decodeShouldRestoreEncodedClientAuthentication() {
+
+        OAuth2Authentication authentication = newAuthentication(false);
+
+        OAuth2Authentication decodedAuthentication =
+                OAuth2AuthenticationCodec.decode(OAuth2AuthenticationCodec.encode(authentication), CLIENT_ID, null);
+
+        assertThat(decodedAuthentication.getOAuth2Request(), equalTo(authentication.getOAuth2Request()));
+        assertThat(decodedAuthentication.getUserAuthentication(), nullValue());
+        assertThat(decodedAuthentication.isClientOnly(), equalTo(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeShouldThrowExceptionOnUnknownVersion() {
+
+        byte[] encodedAuthentication = OAuth2AuthenticationCodec.encode(newAuthentication(true));
+        encodedAuthentication[0] = 42;
+
+        OAuth2AuthenticationCodec.decode(encodedAuthentication, CLIENT_ID, USER_NAME);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeShouldThrowExceptionOnTruncatedEncoding() {
+
+        byte[] encodedAuthentication = OAuth2AuthenticationCodec.encode(newAuthentication(true));
+        byte[] truncatedAuthentication = new byte[encodedAuthentication.length / 2];
+        System.arraycopy(encodedAuthentication, 0, truncatedAuthentication, 0, truncatedAuthentication.length);
+
+        OAuth2AuthenticationCodec.decode(truncatedAuthentication, CLIENT_ID, USER_NAME);
+    }
+
+    private OAuth2Authentication newAuthentication(boolean withUser) {
+
+        Map<String, String> requestParameters = new HashMap<>();
+        requestParameters.put("grant_type", withUser ? "password" : "client_credentials");
+        requestParameters.put("scope", "read_data_points write_data_points");
+
+        // the resource identifiers and response types of a client credentials grant are missing
+        OAuth2Request request = new OAuth2Request(requestParameters, CLIENT_ID,
+                AuthorityUtils.createAuthorityList("ROLE_CLIENT"), true, singleton("read_data_points"),
+                withUser ? singleton("dataPoints") : null, null, withUser ? singleton("token") : null, null);
+
+        if (!withUser) {
+            return new OAuth2Authentication(request, null);
+        }
+
+        EndUserUserDetails userDetails = new EndUserUserDetails(USER_NAME, "");
+
+        return new OAuth2Authentication(request,
+                new UsernamePasswordAuthenticationToken(userDetails, "N/A", userDetails.getAuthorities()));
+    }
+}